@@ -0,0 +1,400 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+/**
+ * Asynchronous event dispatcher for the ImageDirScanner. Events are queued by the scanning threads and delivered to the
+ * listeners by a separate dispatcher thread, so the scanner never waits for the listeners.
+ * <ul>
+ * <li>UPDATE_STATS and directory events are coalesced: only the last one of each is kept and they are delivered at most
+ * once per update interval. These events might be delivered out of order with other events, but are always delivered
+ * before IS_DONE.
+ * <li>MESSAGE events are dropped if the queue is full. The number of dropped messages is reported in a message.
+ * <li>Other events are never dropped and are delivered in order. If the capacity is reached, post() waits until the
+ * listeners have caught up.
+ * </ul>
+ * The dispatcher thread is started when needed and stops when it has been idle for a while.
+ */
+public class ImageDirEventDispatcher
+{
+    private static ClassLogger logger = ClassLogger.getLogger(ImageDirEventDispatcher.class);
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * Default minimum interval between coalesced events in milli seconds.
+     */
+    public static final long DEFAULT_UPDATE_INTERVAL = 100;
+
+    /**
+     * Idle time in milli seconds after which the dispatcher thread stops.
+     */
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private static int threadNr = 0;
+
+    private static synchronized int nextThreadNr()
+    {
+        return threadNr++;
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private ImageDirScanner source;
+
+    /**
+     * Listeners of the source, access is synchronized on the list.
+     */
+    private List<ImageDirScannerListener> listeners;
+
+    private ArrayDeque<ImageDirEvent> queue = new ArrayDeque<ImageDirEvent>();
+
+    private int capacity = DEFAULT_CAPACITY;
+
+    private long updateInterval = DEFAULT_UPDATE_INTERVAL;
+
+    private ImageDirEvent pendingStats;
+
+    private ImageDirEvent pendingDirectory;
+
+    private long lastUpdateTime = 0;
+
+    private int numDropped = 0;
+
+    /**
+     * Number of queued events which may not be dropped.
+     */
+    private int numOrdered = 0;
+
+    private Thread dispatcherThread;
+
+    /**
+     * Whether the dispatcher thread is delivering an event.
+     */
+    private boolean dispatching = false;
+
+    /**
+     * Number of threads waiting in flush(). While flushing, coalesced events are not delayed.
+     */
+    private int numFlushing = 0;
+
+    public ImageDirEventDispatcher(ImageDirScanner source, List<ImageDirScannerListener> listeners)
+    {
+        this.source = source;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Set maximum number of queued MESSAGE events, and the maximum number of other queued events.
+     */
+    public synchronized void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Set minimum interval in milli seconds between coalesced (UPDATE_STATS and directory) events. Use 0 to deliver
+     * these events as fast as possible.
+     */
+    public synchronized void setUpdateInterval(long interval)
+    {
+        this.updateInterval = interval;
+    }
+
+    /**
+     * Queue event. Only blocks if the queue contains the maximum number of events which may not be dropped. Events
+     * posted by a listener are always queued.
+     */
+    public synchronized void post(ImageDirEvent event)
+    {
+        switch (event.eventType)
+        {
+            case UPDATE_STATS:
+                pendingStats = event;
+                break;
+            case ENTER_DIRECTORY:
+            case EXIT_DIRECTORY:
+                pendingDirectory = event;
+                break;
+            case MESSAGE:
+                if (queue.size() >= capacity)
+                {
+                    numDropped++;
+                    return;
+                }
+                queue.add(event);
+                break;
+            case IS_DONE:
+                // deliver the last (coalesced) state before IS_DONE:
+                addPendingEvents();
+                addOrdered(event);
+                break;
+            default:
+                addOrdered(event);
+                break;
+        }
+
+        startDispatcher();
+    }
+
+    private void addOrdered(ImageDirEvent event)
+    {
+        if (Thread.currentThread() != dispatcherThread)
+        {
+            try
+            {
+                while ((numOrdered >= capacity) && (dispatcherThread != null))
+                {
+                    wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // queue anyway and keep flag.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        queue.add(event);
+        numOrdered++;
+        // dispatcher thread might have stopped while waiting.
+        startDispatcher();
+    }
+
+    private void addPendingEvents()
+    {
+        if (numDropped > 0)
+        {
+            queue.add(createDroppedMessage());
+        }
+
+        if (pendingDirectory != null)
+        {
+            queue.add(pendingDirectory);
+            numOrdered++;
+            pendingDirectory = null;
+        }
+
+        if (pendingStats != null)
+        {
+            queue.add(pendingStats);
+            numOrdered++;
+            pendingStats = null;
+        }
+    }
+
+    private ImageDirEvent createDroppedMessage()
+    {
+        ImageDirEvent event = new ImageDirEvent(source, ImageDirEventType.MESSAGE, "(Skipped " + numDropped + " messages)");
+        numDropped = 0;
+        return event;
+    }
+
+    private void startDispatcher()
+    {
+        if (dispatcherThread == null)
+        {
+            dispatcherThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dispatchEvents();
+                }
+            }, "ImageDirEventDispatcher-" + nextThreadNr());
+            dispatcherThread.setDaemon(true);
+            dispatcherThread.start();
+        }
+        else
+        {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until all queued events have been delivered. Returns immediately when called from a listener.
+     */
+    public synchronized void flush()
+    {
+        if (Thread.currentThread() == dispatcherThread)
+        {
+            return;
+        }
+
+        numFlushing++;
+        notifyAll();
+
+        try
+        {
+            while ((dispatcherThread != null) && (hasEvents() || dispatching))
+            {
+                wait();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // keep flag, it is cleared after InterruptedException is thrown.
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            numFlushing--;
+        }
+    }
+
+    private boolean hasEvents()
+    {
+        return (queue.isEmpty() == false) || (numDropped > 0) || (pendingStats != null) || (pendingDirectory != null);
+    }
+
+    private void dispatchEvents()
+    {
+        while (true)
+        {
+            ImageDirEvent event = nextEvent();
+
+            if (event == null)
+            {
+                return;
+            }
+
+            deliver(event);
+        }
+    }
+
+    /**
+     * @return next event or null if the dispatcher thread must stop.
+     */
+    private synchronized ImageDirEvent nextEvent()
+    {
+        dispatching = false;
+        // wake up flush():
+        notifyAll();
+
+        long idleStart = System.currentTimeMillis();
+
+        try
+        {
+            while (true)
+            {
+                long now = System.currentTimeMillis();
+
+                if (queue.isEmpty() == false)
+                {
+                    ImageDirEvent event = queue.poll();
+
+                    if (event.eventType != ImageDirEventType.MESSAGE)
+                    {
+                        numOrdered--;
+                    }
+
+                    dispatching = true;
+                    return event;
+                }
+
+                if (numDropped > 0)
+                {
+                    dispatching = true;
+                    return createDroppedMessage();
+                }
+
+                if ((pendingStats != null) || (pendingDirectory != null))
+                {
+                    long waitTime = lastUpdateTime + updateInterval - now;
+
+                    if ((numFlushing > 0) || (waitTime <= 0))
+                    {
+                        ImageDirEvent event;
+
+                        if (pendingDirectory != null)
+                        {
+                            event = pendingDirectory;
+                            pendingDirectory = null;
+                        }
+                        else
+                        {
+                            event = pendingStats;
+                            pendingStats = null;
+                        }
+
+                        lastUpdateTime = now;
+                        dispatching = true;
+                        return event;
+                    }
+
+                    wait(waitTime);
+                    idleStart = System.currentTimeMillis();
+                    continue;
+                }
+
+                if (now - idleStart >= IDLE_TIMEOUT)
+                {
+                    dispatcherThread = null;
+                    return null;
+                }
+
+                wait(IDLE_TIMEOUT);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            logger.warnPrintf("Dispatcher thread interrupted, discarding #%d events\n", queue.size());
+            queue.clear();
+            numOrdered = 0;
+            pendingStats = null;
+            pendingDirectory = null;
+            numDropped = 0;
+            dispatcherThread = null;
+            notifyAll();
+            return null;
+        }
+    }
+
+    private void deliver(ImageDirEvent event)
+    {
+        ImageDirScannerListener listenerArray[];
+
+        synchronized (listeners)
+        {
+            listenerArray = listeners.toArray(new ImageDirScannerListener[listeners.size()]);
+        }
+
+        for (ImageDirScannerListener listener : listenerArray)
+        {
+            try
+            {
+                listener.notifyImageDirScannerEvent(event);
+            }
+            catch (RuntimeException e)
+            {
+                logger.logException(ClassLogger.ERROR, e, "Listener failed to handle event:%s\n", event);
+            }
+        }
+    }
+
+}
@@ -66,15 +66,26 @@ public abstract class ImageDirScanner
 
     /**
      * Monitor object which can be watched during the scanning and processing. Implementation will update this Monitor
-     * Object.
+     * Object. Fields are volatile as they are read by other (UI) threads, scanners which use multiple threads publish
+     * the fields from one thread at a time.
      */
     public static class ScanMonitor
     {
-        public int totalFiles = 0;
+        public volatile int totalFiles = 0;
 
-        public int totalFilteredFiles = 0;
+        public volatile int totalFilteredFiles = 0;
 
-        public int currentFile = 0;
+        public volatile int currentFile = 0;
+
+        /**
+         * Number of files opened during the current scan.
+         */
+        public volatile long numFileOpens = 0;
+
+        /**
+         * Number of file stats (size, modification time, type) during the current scan.
+         */
+        public volatile long numFileStats = 0;
     }
 
     /**
@@ -104,6 +115,10 @@ public abstract class ImageDirScanner
 
         public List<DicomTagFilter> dicomTagFilters = new ArrayList<DicomTagFilter>();
 
+        /**
+         * Whether to check the file contents during scanning: the DICOM magic, or the NIfTI header and the length of
+         * the NIfTI file.
+         */
         public boolean checkFileMagic = true;
 
         /**
@@ -122,11 +137,37 @@ public abstract class ImageDirScanner
          */
         public boolean recursiveScan = true;
 
+        /**
+         * Whether to only read the DICOM header during scanning. Parsing stops at the last tag needed by the scanner
+         * and the tag filters, so the PixelData is never read.
+         */
+        public boolean headerOnlyScan = true;
+
+        /**
+         * Number of threads used for scanning directories and inspecting files. Use 1 for a sequential scan.
+         */
+        public int numScanThreads = Runtime.getRuntime().availableProcessors();
+
         public void setCheckFileMagic(boolean val)
         {
             checkFileMagic = val;
         }
 
+        public void setHeaderOnlyScan(boolean val)
+        {
+            headerOnlyScan = val;
+        }
+
+        public void setNumScanThreads(int numThreads)
+        {
+            numScanThreads = numThreads;
+        }
+
+        public int getNumScanThreads()
+        {
+            return numScanThreads;
+        }
+
         /**
          * Set list of extension with prefixed dot, for example <code>String[]{"dcm","DCM" }</code>
          * 
@@ -195,6 +236,11 @@ public abstract class ImageDirScanner
      */
     protected List<ImageDirScannerListener> listeners = new ArrayList<ImageDirScannerListener>();
 
+    /**
+     * Delivers the events to the listeners, so scanning threads don't wait for the listeners.
+     */
+    protected ImageDirEventDispatcher eventDispatcher;
+
     protected FileFilterOptions filterOptions;
 
     protected ImageTypes.DataSetType dataSetType;
@@ -230,16 +276,23 @@ public abstract class ImageDirScanner
         this._scanSets = new HashMapList<String, ScanSetInfo>();
         this._scanSetUids = new HashSetList<String>();
         this.dataSetType = dataSetType;
+        this.eventDispatcher = new ImageDirEventDispatcher(this, listeners);
     }
 
     public void addDicomDirListener(ImageDirScannerListener listener)
     {
-        this.listeners.add(listener);
+        synchronized (listeners)
+        {
+            this.listeners.add(listener);
+        }
     }
 
     public void removeDicomDirListener(ImageDirScannerListener listener)
     {
-        this.listeners.remove(listener);
+        synchronized (listeners)
+        {
+            this.listeners.remove(listener);
+        }
     }
 
     protected void fireNewEvent(ImageDirEventType eventType, String idOrMessage, Object... args)
@@ -250,26 +303,30 @@ public abstract class ImageDirScanner
 
     protected void fireEvent(ImageDirEvent event)
     {
-        // synchronous update!
-        for (ImageDirScannerListener l : listeners)
+        // Events might be fired from multiple scan threads.
+        synchronized (listeners)
         {
-            l.notifyImageDirScannerEvent(event);
+            if (listeners.size() <= 0)
+            {
+                return;
+            }
         }
 
-        // concurrency bug, introduce nanosleep between event to avoid race
-        // conditions and (rare) thread lockups
-        try
-        {
-            Thread.sleep(0, 1);
-        }
-        catch (InterruptedException e)
+        // asynchronous update, never blocks.
+        eventDispatcher.post(event);
+
+        // Deliver all events before the scan returns.
+        if (event.eventType == ImageDirEventType.IS_DONE)
         {
-            // logger.logException(ClassLogger.WARN,e,"Nanosleep got interrrupted:%s",e);
-            // keep flag, it is cleared after InterruptedException is thrown.
-            Thread.currentThread().interrupt();
+            eventDispatcher.flush();
         }
     }
 
+    public ImageDirEventDispatcher getEventDispatcher()
+    {
+        return eventDispatcher;
+    }
+
     protected void fireMessage(String message, Object... args)
     {
         ImageDirEvent event = new ImageDirEvent(this, ImageDirEventType.MESSAGE, message, args);
@@ -571,7 +628,7 @@ public abstract class ImageDirScanner
 
     public void dispose()
     {
-
+        eventDispatcher.flush();
     }
 
     // ===
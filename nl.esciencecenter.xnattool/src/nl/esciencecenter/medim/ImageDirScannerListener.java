@@ -27,9 +27,10 @@ package nl.esciencecenter.medim;
 public interface ImageDirScannerListener
 {
     /**
-     * Light weight event notification method. Implementations must return as
-     * fast as possible as this blocking this method will block the
-     * DicomDirScanner thread.
+     * Light weight event notification method. Events are delivered by the
+     * dispatcher thread of the ImageDirScanner, not by the scanning thread.
+     * Implementations must return as fast as possible as blocking this method
+     * delays the other events. See ImageDirEventDispatcher.
      */
     public void notifyImageDirScannerEvent(ImageDirEvent e);
 }
\ No newline at end of file
@@ -20,8 +20,12 @@
 
 package nl.esciencecenter.medim;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import nl.esciencecenter.medim.dicom.DicomUtil;
 import nl.esciencecenter.medim.dicom.DicomWrapper;
@@ -75,6 +79,34 @@ public class ScanSetInfo extends DataInfo
         public String modality;
     }
 
+    /**
+     * Image volume parameters, read from the image header (NIfTI).
+     */
+    public static class VolumeParameters
+    {
+        /**
+         * Size of each dimension in voxels.
+         */
+        public long dimensions[];
+
+        /**
+         * Size of a voxel for each dimension.
+         */
+        public double voxelSizes[];
+
+        /**
+         * Voxel datatype name, for example "INT16" or "FLOAT32".
+         */
+        public String datatype;
+
+        public int bitsPerVoxel;
+
+        /**
+         * Offset of the voxel data in the image file.
+         */
+        public long voxOffset;
+    }
+
     /**
      * Container class combining actual File with logical file label.
      */
@@ -101,10 +133,30 @@ public class ScanSetInfo extends DataInfo
 
     protected SeriesInfo seriesInfo = new SeriesInfo();
 
-    protected ArrayList<FileDescriptor> fsNodes;
+    /**
+     * File slots, the index is the slice nr or position. Empty slots are null. Only the first numSlots slots are used.
+     */
+    protected FileDescriptor fileSlots[];
+
+    protected int numSlots;
+
+    /**
+     * Number of non empty slots.
+     */
+    protected int numFiles;
+
+    /**
+     * Files in the slots, to skip duplicates.
+     */
+    protected Set<FSPath> fileSet;
 
     protected ScanTypeParameters scanTypeParameters = new ScanTypeParameters();
 
+    /**
+     * Optional volume parameters, null if not known.
+     */
+    protected VolumeParameters volumeParameters;
+
     // protected StringList tagNames;
 
     protected Date uploadFinished;
@@ -124,7 +176,7 @@ public class ScanSetInfo extends DataInfo
         this.datasetType = setType;
         this.getSeriesInfo().setSeriesInstanceUID(scanUid);
         this.scanLabel = scanLabelOrId;
-        this.fsNodes = new ArrayList<FileDescriptor>();
+        clearFiles();
     }
 
     public ImageTypes.DataSetType getDataSetType()
@@ -194,12 +246,12 @@ public class ScanSetInfo extends DataInfo
     public void addAtlasAnnotationFile(String fileLabel, FSPath node)
     {
         // First file is reserved for the actual scan set.
-        if (this.fsNodes.size() <= 0)
+        if (numSlots <= 0)
         {
-            fsNodes.add(new FileDescriptor(null, null));
+            numSlots = 1;
         }
 
-        this.fsNodes.add(new FileDescriptor(fileLabel, node));
+        setSlot(numSlots, new FileDescriptor(fileLabel, node));
     }
 
     public FSPath getAtlasScanSetFile()
@@ -220,23 +272,11 @@ public class ScanSetInfo extends DataInfo
      */
     public void setFile(int nr, String label, FSPath node)
     {
-        // linear search, optionally use instance nr to sort file:
-        if (this.fsNodes.contains(node))
+        if (this.fileSet.contains(node))
         {
             return;
         }
 
-        fsNodes.ensureCapacity(nr + 1); // auto expand to desired length.
-
-        if (fsNodes.size() <= nr)
-        {
-            // fill with empty entries.
-            for (int i = fsNodes.size(); i <= nr; i++)
-            {
-                fsNodes.add(new FileDescriptor(null, null));
-            }
-        }
-
         //
         // SPI (Philips) Patch:
         // If (slice) instance number is known, set at specified location, if
@@ -245,22 +285,60 @@ public class ScanSetInfo extends DataInfo
 
         if (nr >= 0)
         {
-            fsNodes.set(nr, new FileDescriptor(label, node));
+            setSlot(nr, new FileDescriptor(label, node));
         }
         else
         {
-            fsNodes.add(new FileDescriptor(label, node));
+            setSlot(numSlots, new FileDescriptor(label, node));
+        }
+    }
+
+    /**
+     * Set slot, auto increases the slot array. Replaces the file in the slot if it isn't empty.
+     */
+    protected void setSlot(int nr, FileDescriptor fileDes)
+    {
+        if (nr >= fileSlots.length)
+        {
+            // grow at least by half to amortize sequential adds.
+            fileSlots = Arrays.copyOf(fileSlots, Math.max(nr + 1, fileSlots.length + (fileSlots.length >> 1)));
+        }
+
+        FileDescriptor prev = fileSlots[nr];
+
+        if ((prev != null) && (prev.fsNode != null))
+        {
+            fileSet.remove(prev.fsNode);
+            numFiles--;
         }
+
+        fileSlots[nr] = fileDes;
+
+        if (fileDes.fsNode != null)
+        {
+            fileSet.add(fileDes.fsNode);
+            numFiles++;
+        }
+
+        numSlots = Math.max(numSlots, nr + 1);
+    }
+
+    protected void clearFiles()
+    {
+        this.fileSlots = new FileDescriptor[16];
+        this.numSlots = 0;
+        this.numFiles = 0;
+        this.fileSet = new HashSet<FSPath>();
     }
 
     public FSPath getFile(int nr)
     {
-        if ((this.fsNodes == null) || (fsNodes.size() <= nr))
+        if ((nr < 0) || (nr >= numSlots))
         {
             return null;
         }
 
-        FileDescriptor fileDes = fsNodes.get(nr);
+        FileDescriptor fileDes = fileSlots[nr];
         if (fileDes == null)
         {
             return null;
@@ -274,57 +352,68 @@ public class ScanSetInfo extends DataInfo
      */
     public int getNumFSNodes()
     {
-        // Count NON null files.
-        // The array might contain null entries as some slices might start from
-        // an offset. The index represent the slice nr or position.
-        //
-
-        int index = 0;
+        return numFiles;
+    }
 
-        for (int i = 0; i < this.fsNodes.size(); i++)
+    /**
+     * @return Return first non null file from file list.
+     */
+    public FSPath getFirstFile()
+    {
+        for (int i = 0; i < numSlots; i++)
         {
-            if ((this.fsNodes.get(i) != null) && (fsNodes.get(i).fsNode != null))
+            if ((fileSlots[i] != null) && (fileSlots[i].fsNode != null))
             {
-                index++;
+                return fileSlots[i].fsNode;
             }
         }
 
-        return index;
+        return null;
     }
 
     /**
-     * @return Return first non null file from file list.
+     * Returns read-only list of the file slots, the index is the slice nr or position. Empty slots are null since some
+     * slices might start from an offset or might be missing.
      */
-    public FSPath getFirstFile()
+    public List<FileDescriptor> getFileDescriptors()
     {
-        if ((fsNodes == null) || (fsNodes.size() <= 0))
-        {
-            return null;
-        }
-
-        for (int i = 0; i < this.fsNodes.size(); i++)
+        return new AbstractList<FileDescriptor>()
         {
-            if (this.fsNodes.get(i) != null)
+            @Override
+            public FileDescriptor get(int index)
             {
-                if (fsNodes.get(i).fsNode != null)
+                if ((index < 0) || (index >= numSlots))
                 {
-                    return fsNodes.get(i).fsNode;
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numSlots);
                 }
+
+                return fileSlots[index];
             }
-        }
 
-        return null;
+            @Override
+            public int size()
+            {
+                return numSlots;
+            }
+        };
     }
 
-    public ArrayList<FileDescriptor> getFileDescriptors()
+    /**
+     * Initialize new or check existing subject information.
+     */
+    public void initCheck(DicomWrapper wrap, boolean isNew) throws ScanSetException
     {
-        return this.fsNodes;
+        initCheck(wrap, isNew, true);
     }
 
     /**
      * Initialize new or check existing subject information.
+     * 
+     * @param updateAttributes
+     *            - overwrite the attributes which may differ per file, like dates, descriptions and scan parameters. The
+     *            identifiers are always checked.
      */
-    public void initCheck(DicomWrapper wrap, boolean isNew) throws ScanSetException
+    public void initCheck(DicomWrapper wrap, boolean isNew, boolean updateAttributes) throws ScanSetException
     {
         // Set Identifiers per ScanSet MUST be the same.
         assertNullOrEqual(getSeriesInfo().getSeriesInstanceUID(), wrap.getSeriesInstanceUID(), Tag.SeriesInstanceUID);
@@ -339,6 +428,11 @@ public class ScanSetInfo extends DataInfo
         assertNullOrEqual(getSubjectInfo().getPatientID(), wrap.getPatientID(), Tag.PatientID);
         getSubjectInfo().setPatientID(wrap.getPatientID());
 
+        if (updateAttributes == false)
+        {
+            return;
+        }
+
         // TBI:
         // this.acquisitionNr = wrap.getAcquisitionNumber();
 
@@ -411,8 +505,8 @@ public class ScanSetInfo extends DataInfo
 
     public void setSingleScanSetFile(FSPath file)
     {
-        this.fsNodes = new ArrayList<FileDescriptor>();
-        this.fsNodes.add(new FileDescriptor(null, file));
+        clearFiles();
+        setSlot(0, new FileDescriptor(null, file));
     }
 
     public ScanTypeParameters getScanTypeParameters()
@@ -420,6 +514,19 @@ public class ScanSetInfo extends DataInfo
         return this.scanTypeParameters;
     }
 
+    /**
+     * @return volume parameters or null if not known.
+     */
+    public VolumeParameters getVolumeParameters()
+    {
+        return this.volumeParameters;
+    }
+
+    public void setVolumeParameters(VolumeParameters parameters)
+    {
+        this.volumeParameters = parameters;
+    }
+
     // public void mergeTagNames(List<String> names)
     // {
     // if (this.tagNames == null)
@@ -20,14 +20,29 @@
 
 package nl.esciencecenter.medim.dicom;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import nl.esciencecenter.medim.ImageDirEventType;
 import nl.esciencecenter.medim.ImageDirScanner;
@@ -46,6 +61,7 @@ import nl.esciencecenter.ptk.net.URIFactory;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
 
 import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
 
 /**
  * DICOM Directory scanner, performs an (optional) recursive scan on a DICOM
@@ -63,6 +79,36 @@ public class DicomDirScanner extends ImageDirScanner
         // logger.setLevelToDebug();
     }
 
+    /**
+     * Tags read during scanning and by ScanSetInfo.initCheck(). When adding fields to the scan, add the tag here as
+     * well, else a header only scan might stop before the tag is read.
+     */
+    protected static int scanTags[] = {
+            Tag.TimezoneOffsetFromUTC, //
+            Tag.StudyDate, //
+            Tag.SeriesDate, //
+            Tag.Modality, //
+            Tag.StudyDescription, //
+            Tag.SeriesDescription, //
+            Tag.PatientName, //
+            Tag.PatientID, //
+            Tag.PatientBirthDate, //
+            Tag.PatientSex, //
+            Tag.PatientAge, //
+            Tag.ScanningSequence, //
+            Tag.RepetitionTime, //
+            Tag.EchoTime, //
+            Tag.InversionTime, //
+            Tag.FlipAngle, //
+            Tag.StudyInstanceUID, //
+            Tag.SeriesInstanceUID, //
+            Tag.StudyID, //
+            Tag.SeriesNumber, //
+            Tag.AcquisitionNumber, //
+            Tag.InstanceNumber, //
+            Tag.ImagePositionPatient
+    };
+
     // ========================================================================
     //
     // ========================================================================
@@ -93,6 +139,45 @@ public class DicomDirScanner extends ImageDirScanner
 
     private ScanMonitor scanMonitor;
 
+    /**
+     * Number of filtered files during current scan. Files can be filtered concurrently.
+     */
+    private AtomicInteger numFilteredFiles = new AtomicInteger(0);
+
+    /**
+     * File size and modification time from the directory scan, reused when filtering the files.
+     */
+    private Map<FSPath, FileStat> fileStats = new ConcurrentHashMap<FSPath, FileStat>();
+
+    /**
+     * Number of file opens and stats during current scan. Copied to the ScanMonitor.
+     */
+    private AtomicLong numFileOpens = new AtomicLong(0);
+
+    private AtomicLong numFileStats = new AtomicLong(0);
+
+    /**
+     * Mutex for merging filtered files into the ScanSets and the subject/study/scanset mappings.
+     */
+    private Object scanSetMergeMutex = new Object();
+
+    /**
+     * Highest index of the files merged into each ScanSet (series UID). Attributes which may differ per file, like
+     * dates and descriptions, are taken from the file with the highest index, as when filtering sequentially,
+     * independent of the order in which the filter threads merge their files.
+     */
+    private Map<String, Integer> scanSetMergeIndex = new HashMap<String, Integer>();
+
+    /**
+     * Optional persistent index of scanned files. See setScanIndexFile().
+     */
+    protected File scanIndexFile;
+
+    /**
+     * Index opened during the current scan.
+     */
+    private volatile DicomScanIndex scanIndex;
+
     public DicomDirScanner()
     {
         super(ImageTypes.DataSetType.DICOM_SCANSET);
@@ -104,6 +189,164 @@ public class DicomDirScanner extends ImageDirScanner
     // Scanning
     // ========================================================================
 
+    /**
+     * Return last tag which must be read during a header only scan. This is the highest tag used by the scanner,
+     * ScanSetInfo.initCheck() and the active tag filters. Returns -1 if the complete file must be read, which is the
+     * case if a filter is defined for a tag at or after the PixelData.
+     */
+    protected int getHeaderStopTag()
+    {
+        long maxTag = 0;
+
+        for (int tag : scanTags)
+        {
+            maxTag = Math.max(maxTag, tag & 0xffffffffL);
+        }
+
+        List<DicomTagFilter> filters = this.getTagFilters();
+        if (filters != null)
+        {
+            for (DicomTagFilter filt : filters)
+            {
+                maxTag = Math.max(maxTag, filt.getTagNr() & 0xffffffffL);
+            }
+        }
+
+        if (maxTag >= (Tag.PixelData & 0xffffffffL))
+        {
+            return -1;
+        }
+
+        return (int) maxTag;
+    }
+
+    /**
+     * Return tags which must be stored in the scan index. These are the tags used by the scanner and the active tag
+     * filters.
+     */
+    protected int[] getIndexTags()
+    {
+        Set<Integer> tagSet = new TreeSet<Integer>();
+
+        // needed to decode the (string) values.
+        tagSet.add(Tag.SpecificCharacterSet);
+
+        for (int tag : scanTags)
+        {
+            tagSet.add(tag);
+        }
+
+        List<DicomTagFilter> filters = this.getTagFilters();
+        if (filters != null)
+        {
+            for (DicomTagFilter filt : filters)
+            {
+                tagSet.add(filt.getTagNr());
+            }
+        }
+
+        int tags[] = new int[tagSet.size()];
+        int index = 0;
+
+        for (Integer tag : tagSet)
+        {
+            tags[index++] = tag;
+        }
+
+        return tags;
+    }
+
+    /**
+     * Set file of the persistent scan index. When set, the headers of scanned files are stored in the index and a
+     * re-scan only reads new or changed files. Set to null to always read all files.
+     */
+    public void setScanIndexFile(File indexFile)
+    {
+        this.scanIndexFile = indexFile;
+    }
+
+    public File getScanIndexFile()
+    {
+        return scanIndexFile;
+    }
+
+    protected void openScanIndex()
+    {
+        if (scanIndexFile == null)
+        {
+            return;
+        }
+
+        try
+        {
+            scanIndex = new DicomScanIndex(scanIndexFile, getIndexTags());
+        }
+        catch (IOException e)
+        {
+            // scan without index.
+            logger.logException(ClassLogger.ERROR, e, "Failed to open scan index:%s\n", scanIndexFile);
+            scanIndex = null;
+        }
+    }
+
+    /**
+     * Remove deleted files from the index and close it.
+     */
+    protected void closeScanIndex(List<FSPath> files)
+    {
+        if (scanIndex == null)
+        {
+            return;
+        }
+
+        if (files != null)
+        {
+            List<String> paths = new ArrayList<String>(files.size());
+
+            for (FSPath file : files)
+            {
+                paths.add(file.getURI().getPath());
+            }
+
+            scanIndex.retain(paths);
+        }
+
+        scanIndex.close();
+        scanIndex = null;
+    }
+
+    protected void indexFile(String path, long size, long modified, String type, DicomObject header)
+    {
+        if (scanIndex == null)
+        {
+            return;
+        }
+
+        try
+        {
+            if (header != null)
+            {
+                scanIndex.putHeader(path, size, modified, header);
+            }
+            else
+            {
+                scanIndex.putInvalid(path, size, modified, type);
+            }
+        }
+        catch (IOException e)
+        {
+            // index is optional: stop indexing but continue scanning.
+            logger.logException(ClassLogger.ERROR, e, "Failed to update scan index. Disabling index:%s\n", scanIndexFile);
+            DicomScanIndex index = scanIndex;
+            scanIndex = null;
+
+            if (index != null)
+            {
+                index.close();
+            }
+        }
+    }
+
     protected boolean matchFilters(DicomWrapper wrap)
     {
         List<DicomTagFilter> filters = this.getTagFilters();
@@ -116,7 +359,7 @@ public class DicomDirScanner extends ImageDirScanner
     /**
      * Quick scans directory. Only checking file by extension and size. Sorting/analyzing
      * is done later.
-     * 
+     *
      * @throws InterruptedException
      * @throws ScanSetException
      */
@@ -134,6 +377,11 @@ public class DicomDirScanner extends ImageDirScanner
 
         this.fireNewEvent(ImageDirEventType.STARTING, "Scanning directory:" + imageDirUri.getPath());
         this.imageFiles = null;
+        this.fileStats.clear();
+        this.numFileOpens.set(0);
+        this.numFileStats.set(0);
+        this.scanMonitor.numFileOpens = 0;
+        this.scanMonitor.numFileStats = 0;
 
         // First add all files
         logger.infoPrintf("Scanning directory:%s\n", imageDirUri);
@@ -145,102 +393,130 @@ public class DicomDirScanner extends ImageDirScanner
         FSUtil fs = FSUtil.getDefault();
         FSPath dir;
         dir = fs.newLocalDir(fs.resolvePathURI(localPath));
-        
+
         if (dir.exists() == false)
         {
             throw new IOException("Location is not a valid directory:" + imageDirUri.getPath());
         }
 
-        List<FSPath> heap = new ArrayList<FSPath>();
-        List<FSPath> dirsToScan = new ArrayList<FSPath>();
-        // root:
-        dirsToScan.add(dir);
+        int numThreads = this.filterOptions.getNumScanThreads();
+        List<FSPath> heap;
 
-        // heap scan:
-        while (dirsToScan.size() > 0)
+        if (numThreads <= 1)
         {
-            // pop dir;
-            FSPath current = dirsToScan.get(0);
-            dirsToScan.remove(0);
-            enterDirectory(current, true);
-            int numFiles = 0;
+            heap = new ArrayList<FSPath>();
+            LinkedList<FSPath> dirsToScan = new LinkedList<FSPath>();
+            // root:
+            dirsToScan.add(dir);
 
-            if (Thread.currentThread().isInterrupted() == true)
+            // heap scan:
+            while (dirsToScan.size() > 0)
             {
-                this.setIsScanning(false);
-                throw new InterruptedException("Thread is interrupted. Stopped scanning!");
+                checkInterrupted(Thread.currentThread());
+                // pop dir;
+                FSPath current = dirsToScan.removeFirst();
+                scanSingleDirectory(current, heap, dirsToScan);
             }
+        }
+        else
+        {
+            ScanTaskRunner runner = new ScanTaskRunner(numThreads);
+            heap = runner.invoke(new DirectoryScanTask(runner, dir));
+        }
+
+        this.imageFiles = heap;
+        this.scanMonitor.totalFiles = heap.size();
+
+        this.fireNewEvent(ImageDirEventType.MESSAGE, ">>> Processing " + imageFiles.size() + " dicom files.");
+
+        // Now filter files
+        try
+        {
+            doFilterFiles();
+        }
+        finally
+        {
+            this.fileStats.clear();
+        }
+
+        updateFileStatistics();
+        logger.infoPrintf("Scanned #%d files: #%d file opens, #%d file stats.\n", scanMonitor.totalFiles,
+                scanMonitor.numFileOpens, scanMonitor.numFileStats);
+
+        this.fireNewEvent(ImageDirEventType.IS_DONE, "Done scanning directory:" + imageDirUri.getPath());
 
-            // scan:
+        return true;
+    }
+
+    /**
+     * Scan single directory, add valid files to the file list and add sub-directories to the directory list.
+     */
+    protected void scanSingleDirectory(FSPath current, List<FSPath> fileList, List<FSPath> dirList) throws IOException
+    {
+        enterDirectory(current, true);
+        int numFiles = 0;
 
-            FSPath[] files = current.listNodes();
-            if (files == null)
+        FSPath[] files = current.listNodes();
+        if (files == null)
+        {
+            logger.infoPrintf(" - No files in directory:%s\n", current);
+            exitDirectory(current, true);
+            return; // no files/directories
+        }
+
+        for (int i = 0; i < files.length; i++)
+        {
+            FSPath file = files[i];
+            // single stat per entry, size and modification time are reused by filterFile().
+            BasicFileAttributes attrs = statFile(new File(file.getURI().getPath()));
+
+            if (attrs == null)
             {
-                logger.infoPrintf(" - No files in directory:%s\n", imageDirUri);
-                exitDirectory(current, true);
-                continue; // no files/directories
+                logger.infoPrintf(" - Skipping: Couldn't stat file:%s\n", file);
             }
-
-            for (int i = 0; i < files.length; i++)
+            else if (attrs.isRegularFile())
             {
-                FSPath file = files[i];
-
-                if (files[i].isFile())
+                // check extensions:
+                if ((filterOptions.checkExtensions() == false) || (hasValidExtension(file.getExtension())))
                 {
-                    // check extensions:
-                    if ((filterOptions.checkExtensions() == false) || (hasValidExtension(file.getExtension())))
+                    // check file size here:
+                    if (this.filterOptions.checkFileSize && (attrs.size() > this.getMaxSliceFileLength()))
                     {
-                        // check file size here:
-                        if (this.filterOptions.checkFileSize && (file.getFileSize() > this.getMaxSliceFileLength()))
-                        {
-                            logger.infoPrintf(" - Skipping: File to big (size %d > max). Skipping: %s\n", file.getFileSize(), file);
-                        }
-                        else
-                        {
-                            heap.add(file);
-                            logger.infoPrintf(" - Adding file:%s\n", file);
-                            numFiles++;
-                        }
-
+                        logger.infoPrintf(" - Skipping: File to big (size %d > max). Skipping: %s\n", attrs.size(), file);
                     }
                     else
                     {
-                        logger.infoPrintf(" - file doesn't match file filter:%s\n", files[i]);
+                        fileList.add(file);
+                        fileStats.put(file, new FileStat(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                        logger.infoPrintf(" - Adding file:%s\n", file);
+                        numFiles++;
                     }
+
                 }
-                else if (files[i].isDirectory())
+                else
                 {
-                    // add to heap :
-                    dirsToScan.add(files[i]);
-                    logger.infoPrintf(" - adding directory:%s\n", files[i]);
+                    logger.infoPrintf(" - file doesn't match file filter:%s\n", files[i]);
                 }
             }
-            fireNewEvent(ImageDirEventType.MESSAGE, " - Number of (DICOM) files found:" + numFiles);
-            exitDirectory(current, true);
+            else if (attrs.isDirectory())
+            {
+                // add to heap :
+                dirList.add(files[i]);
+                logger.infoPrintf(" - adding directory:%s\n", files[i]);
+            }
         }
-
-        this.imageFiles = heap;
-        this.scanMonitor.totalFiles = heap.size();
-
-        this.fireNewEvent(ImageDirEventType.MESSAGE, ">>> Processing " + imageFiles.size() + " dicom files.");
-
-        // Now filter files
-        doFilterFiles();
-
-        this.fireNewEvent(ImageDirEventType.IS_DONE, "Done scanning directory:" + imageDirUri.getPath());
-
-        return true;
+        fireNewEvent(ImageDirEventType.MESSAGE, " - Number of (DICOM) files found:" + numFiles);
+        exitDirectory(current, true);
     }
 
     /**
-     * Filter files after quick scanning. 
-     * This method inspects the actual Dicom File. 
+     * Filter files after quick scanning.
+     * This method inspects the actual Dicom File.
      */
     protected boolean doFilterFiles() throws IOException, InterruptedException, ScanSetException
     {
         // all files.
-        List<FSPath> files = this.getFiles();
-        List<FSPath> keepFiles = new ArrayList<FSPath>(); // file
+        final List<FSPath> files = this.getFiles();
 
         if (files == null)
             return false;
@@ -250,135 +526,269 @@ public class DicomDirScanner extends ImageDirScanner
         this.subjectToStudies = new HashMapList<String, HashSetList<String>>();
         this.studyToScanSets = new HashMapList<String, HashSetList<String>>();
 
-        this.fileErrors = new ArrayList<FileError>();
+        this.fileErrors = Collections.synchronizedList(new ArrayList<FileError>());
+        this.scanSetMergeIndex = new HashMap<String, Integer>();
+        this.numFilteredFiles.set(0);
+        this.scanMonitor.currentFile = 0;
 
-        for (int i = 0; i < numFiles; i++)
+        // header only: stop parsing after last needed tag.
+        int stopTag = -1;
+        if (this.filterOptions.headerOnlyScan)
         {
-            DicomWrapper wrap = null;
+            stopTag = getHeaderStopTag();
+            logger.debugPrintf("Header only scan, stopping after tag:0x%08x\n", stopTag);
+        }
+
+        // keep order of files, independent of which thread filters which file.
+        boolean keep[] = new boolean[numFiles];
 
-            scanMonitor.currentFile = i;
+        int numThreads = this.filterOptions.getNumScanThreads();
 
-            if (Thread.currentThread().isInterrupted() == true)
+        openScanIndex();
+        boolean completed = false;
+
+        try
+        {
+            if (numThreads <= 1)
             {
-                this.setIsScanning(false);
-                throw new InterruptedException("Thread is interrupted. Stopping scanning!");
+                for (int i = 0; i < numFiles; i++)
+                {
+                    checkInterrupted(Thread.currentThread());
+                    keep[i] = filterFile(i, files.get(i), stopTag);
+                }
+            }
+            else
+            {
+                ScanTaskRunner runner = new ScanTaskRunner(numThreads);
+                runner.invoke(new FilterFilesTask(runner, files, keep, 0, numFiles, stopTag));
             }
 
-            FSPath node = files.get(i);
+            completed = true;
+        }
+        finally
+        {
+            // Only remove deleted files after a complete scan.
+            closeScanIndex(completed ? files : null);
+        }
 
-            logger.infoPrintf("> Analying file:%s\n", node);
+        List<FSPath> keepFiles = new ArrayList<FSPath>(); // file
 
-            if (this.filterOptions.checkFileSize && (node.getFileSize() > this.getMaxSliceFileLength()))
+        for (int i = 0; i < numFiles; i++)
+        {
+            if (keep[i])
             {
-                logger.infoPrintf(" - Skipping: File to big (size %d > max). Skipping: %s\n", node.getFileSize(), node);
-                continue;
+                keepFiles.add(files.get(i));
             }
-            else if (this.filterOptions.checkFileMagic && (node instanceof FSPath)
-                    && (DicomUtil.hasDicomMagic((FSPath) node) == false))
+        }
+
+        this.imageFiles = keepFiles;
+        this.scanMonitor.totalFilteredFiles = keepFiles.size();
+        updateFileStatistics();
+
+        return true;
+    }
+
+    /**
+     * Inspect and filter single DICOM file. Reading the file is done concurrently, updating the ScanSets is
+     * synchronized.
+     *
+     * @param fileIndex
+     *            - index of the file in the scanned file list.
+     * @return true if the file is valid DICOM and must be kept in the file list.
+     */
+    protected boolean filterFile(int fileIndex, FSPath node, int stopTag) throws ScanSetException
+    {
+        DicomWrapper wrap = null;
+        boolean keep = false;
+
+        int fileNr = numFilteredFiles.getAndIncrement();
+
+        logger.infoPrintf("> Analying file:%s\n", node);
+
+        File file = new File(node.getURI().getPath());
+        FileStat stat = fileStats.get(node);
+
+        if (stat == null)
+        {
+            // not scanned by scanDirectory():
+            BasicFileAttributes attrs = statFile(file);
+
+            if (attrs == null)
             {
-                logger.infoPrintf(" - Skipping: Wrong Magic. File is not Dicom: %s\n", node);
-                continue;
+                logger.infoPrintf(" - Skipping: Couldn't stat file:%s\n", node);
+                return false;
             }
 
-            // identifiers:
-            String studyUid = null; // A study *may* contain multiply series
-            Integer seriesNr = null; // Relative number of the series within a
-                                     // study
-            String seriesUid = null; // Used as Actual ScanSet ID.
-            Integer instanceNr = null;// Scan slice number within a ScanSet.
+            stat = new FileStat(attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
 
-            // Optional aqcuisition number:
-            Integer acquNr = null;
+        String path = file.getPath();
+        long size = stat.size;
+        long modified = stat.modified;
 
-            Exception fileEx = null;
+        if (this.filterOptions.checkFileSize && (size > this.getMaxSliceFileLength()))
+        {
+            logger.infoPrintf(" - Skipping: File to big (size %d > max). Skipping: %s\n", size, node);
+            return false;
+        }
 
-            try
+        DicomScanIndex index = this.scanIndex;
+        DicomScanIndex.Entry indexEntry = null;
+
+        if (index != null)
+        {
+            indexEntry = index.get(path, size, modified);
+        }
+
+        if (indexEntry != null)
+        {
+            if (DicomScanIndex.RECORD_READ_ERROR.equals(indexEntry.getType())
+                    || (this.filterOptions.checkFileMagic && DicomScanIndex.RECORD_NO_MAGIC.equals(indexEntry.getType())))
             {
-                // ===============================================================
-                // Fetch info, any exceptions throw here will disqualify the
-                // file!
-                // =================================================================
+                logger.infoPrintf(" - Skipping: Indexed file is not Dicom: %s\n", node);
+                return false;
+            }
+            else if (indexEntry.isDicom() == false)
+            {
+                // magic check disabled since file was indexed: re-read file.
+                indexEntry = null;
+            }
+        }
 
-                DicomObject dicomObj = DicomUtil.readDicom(node.getURI().getPath());
-                wrap = new DicomWrapper(dicomObj, node.getURI());
+        // identifiers:
+        String studyUid = null; // A study *may* contain multiply series
+        Integer seriesNr = null; // Relative number of the series within a
+                                 // study
+        String seriesUid = null; // Used as Actual ScanSet ID.
+        Integer instanceNr = null;// Scan slice number within a ScanSet.
 
-                int ids[] = new int[4];
+        // Optional aqcuisition number:
+        Integer acquNr = null;
 
-                wrap.getSetIdentificationNrs(ids);
-                String studyId = wrap.getStudyID();
+        try
+        {
+            // ===============================================================
+            // Fetch info, any exceptions throw here will disqualify the
+            // file!
+            // =================================================================
 
-                studyUid = wrap.getStudyInstanceUID();
-                seriesUid = wrap.getSeriesInstanceUID(); // Series UID =>
-                                                         // ScanSet UID !
-                instanceNr = wrap.getInstanceNumber();
-                seriesNr = wrap.getSeriesNumber();
-                acquNr = wrap.getAcquisitionNumber();
+            DicomObject dicomObj;
 
-                double[] positions = wrap.getImagePositionPatient();
+            if (indexEntry != null)
+            {
+                dicomObj = index.createDicomObject(indexEntry);
+            }
+            else
+            {
+                // single open: magic check and header parsing from the same stream.
+                numFileOpens.incrementAndGet();
+                dicomObj = DicomUtil.probeDicom(file, this.filterOptions.checkFileMagic, stopTag);
 
-                logger.debugPrintf(" - Patient ID/Name      = %s / %s\n", wrap.getPatientID(), wrap.getPatientName());
-                logger.debugPrintf(" - Study/Series UIDs    = %s / %s\n", studyUid, seriesUid);
-                logger.debugPrintf("   Acquisition/Instance = %d/%d\n", acquNr, instanceNr);
-                logger.debugPrintf(" - Set Id nrs           = ('%s')%d.%d.%d.%d\n", studyId, ids[0], ids[1], ids[2], ids[3]);
-                if ((positions != null) && (positions.length >= 3))
-                {
-                    logger.debugPrintf(" - Image Position   = [%f,%f,%f]\n", positions[0], positions[1], positions[2]);
-                }
-                else
+                if (dicomObj == null)
                 {
-                    logger.debugPrintf(" - Image Position   = <?>\n");
+                    logger.infoPrintf(" - Skipping: Wrong Magic. File is not Dicom: %s\n", node);
+                    indexFile(path, size, modified, DicomScanIndex.RECORD_NO_MAGIC, null);
+                    return false;
                 }
-                // Valid DICOM add here before filter (which might be changed
-                // after scan)
-                keepFiles.add(node);
+
+                indexFile(path, size, modified, DicomScanIndex.RECORD_DICOM, dicomObj);
             }
-            catch (Exception e)
+
+            wrap = new DicomWrapper(dicomObj, node.getURI());
+
+            int ids[] = new int[4];
+
+            wrap.getSetIdentificationNrs(ids);
+            String studyId = wrap.getStudyID();
+
+            studyUid = wrap.getStudyInstanceUID();
+            seriesUid = wrap.getSeriesInstanceUID(); // Series UID =>
+                                                     // ScanSet UID !
+            instanceNr = wrap.getInstanceNumber();
+            seriesNr = wrap.getSeriesNumber();
+            acquNr = wrap.getAcquisitionNumber();
+
+            double[] positions = wrap.getImagePositionPatient();
+
+            logger.debugPrintf(" - Patient ID/Name      = %s / %s\n", wrap.getPatientID(), wrap.getPatientName());
+            logger.debugPrintf(" - Study/Series UIDs    = %s / %s\n", studyUid, seriesUid);
+            logger.debugPrintf("   Acquisition/Instance = %d/%d\n", acquNr, instanceNr);
+            logger.debugPrintf(" - Set Id nrs           = ('%s')%d.%d.%d.%d\n", studyId, ids[0], ids[1], ids[2], ids[3]);
+            if ((positions != null) && (positions.length >= 3))
             {
-                // Read Error: Not valid dicom.
-                fileEx = e;
-                // IO Exception.
-                logger.logException(ClassLogger.WARN, e, "- failed to read file:%s.", node);
-                // skip file.
-                seriesUid = null;
-                // wrap=null;
+                logger.debugPrintf(" - Image Position   = [%f,%f,%f]\n", positions[0], positions[1], positions[2]);
             }
-
-            // happens with SPI files:
-            if (instanceNr == null)
+            else
             {
-                instanceNr = -1;
+                logger.debugPrintf(" - Image Position   = <?>\n");
             }
+            // Valid DICOM add here before filter (which might be changed
+            // after scan)
+            keep = true;
+        }
+        catch (Exception e)
+        {
+            // Read Error: Not valid dicom.
+            // IO Exception.
+            logger.logException(ClassLogger.WARN, e, "- failed to read file:%s.", node);
+            // skip file.
+            seriesUid = null;
 
-            // file must contain valid seriesUid and instanceNr
-            if ((seriesUid != null) && (wrap != null) && (instanceNr != null))
+            if (indexEntry == null)
             {
-                double TR = wrap.getRepetitionTimeDouble();
-                double TE = wrap.getEchoTimeDouble();
-                double TI = wrap.getInversionTimeDouble();
-                double FA = wrap.getFlipAngleDouble();
+                indexFile(path, size, modified, DicomScanIndex.RECORD_READ_ERROR, null);
+            }
+            // wrap=null;
+        }
 
-                logger.infoPrintf(" - TR/TE/TI/FA       = %f/%f/%f/%f\n", TR, TE, TI, FA);
-                logger.infoPrintf(" - Modility/Sequence = %s/%s\n", wrap.getModalityType(),
-                        new StringList(wrap.getScanningSequenceTypes()).toString(","));
+        // happens with SPI files:
+        if (instanceNr == null)
+        {
+            instanceNr = -1;
+        }
 
-                if (matchFilters(wrap))
-                {
-                    logger.infoPrintf(" - >>> Matches Filters!\n");
-                    logger.infoPrintf(" - Adding valid DICOM file (%3d,%3d):%s\n", seriesNr, instanceNr, node);
+        // file must contain valid seriesUid and instanceNr
+        if ((seriesUid != null) && (wrap != null) && (instanceNr != null))
+        {
+            double TR = wrap.getRepetitionTimeDouble();
+            double TE = wrap.getEchoTimeDouble();
+            double TI = wrap.getInversionTimeDouble();
+            double FA = wrap.getFlipAngleDouble();
+
+            logger.infoPrintf(" - TR/TE/TI/FA       = %f/%f/%f/%f\n", TR, TE, TI, FA);
+            logger.infoPrintf(" - Modility/Sequence = %s/%s\n", wrap.getModalityType(),
+                    new StringList(wrap.getScanningSequenceTypes()).toString(","));
+
+            if (matchFilters(wrap))
+            {
+                logger.infoPrintf(" - >>> Matches Filters!\n");
+                logger.infoPrintf(" - Adding valid DICOM file (%3d,%3d):%s\n", seriesNr, instanceNr, node);
 
+                // Merge into ScanSets and (subject,study,scanset) mappings.
+                synchronized (scanSetMergeMutex)
+                {
                     // create list if doesn't exist:
                     ScanSetInfo scanSet = this.getScanSet(seriesUid);
                     boolean isNew = false;
                     if (scanSet == null)
                     {
                         scanSet = new ScanSetInfo(ImageTypes.DataSetType.DICOM_SCANSET, seriesUid, seriesUid); // scanset
-                                                                                                    // ID.
+                                                                                                // ID.
                         isNew = true;
                     }
 
+                    Integer mergedIndex = scanSetMergeIndex.get(seriesUid);
+                    boolean updateAttributes = (mergedIndex == null) || (fileIndex > mergedIndex);
+
                     try
                     {
-                        scanSet.initCheck(wrap, isNew);
+                        scanSet.initCheck(wrap, isNew, updateAttributes);
+
+                        if (updateAttributes)
+                        {
+                            scanSetMergeIndex.put(seriesUid, fileIndex);
+                        }
+
                         // slice
                         scanSet.setFile(instanceNr, "DICOM#" + instanceNr, node);
                         // put update
@@ -402,34 +812,322 @@ public class DicomDirScanner extends ImageDirScanner
 
                     }
                 }
-                else
+            }
+            else
+            {
+                logger.infoPrintf(" - File does NOT match Filters! Skipping file:%s\n", node);
+                this.fireMessage("File does not match filters. Skipping:\n - " + node);
+            }
+        }
+        else
+        {
+            logger.infoPrintf(" - Wrong file or read error for:%s\n", node);
+        }
+
+        // cleanup ?
+        if (wrap != null)
+        {
+            wrap.dispose();
+        }
+
+        if (fileNr % 10 == 0)
+        {
+            updateFileStatistics();
+            this.fireNewEvent(ImageDirEventType.UPDATE_STATS, node.toString());
+        }
+
+        return keep;
+    }
+
+    /**
+     * Stat file once for type, size and modification time.
+     *
+     * @return attributes or null if the file can't be stat-ed.
+     */
+    protected BasicFileAttributes statFile(File file)
+    {
+        numFileStats.incrementAndGet();
+
+        try
+        {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        }
+        catch (IOException e)
+        {
+            logger.debugPrintf("Couldn't stat file:%s:%s\n", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Publish the counters of the (concurrent) filter tasks to the ScanMonitor. Might be called by multiple filter
+     * threads, so the values are only increased.
+     */
+    private void updateFileStatistics()
+    {
+        synchronized (scanMonitor)
+        {
+            scanMonitor.currentFile = Math.max(scanMonitor.currentFile, numFilteredFiles.get() - 1);
+            scanMonitor.numFileOpens = Math.max(scanMonitor.numFileOpens, numFileOpens.get());
+            scanMonitor.numFileStats = Math.max(scanMonitor.numFileStats, numFileStats.get());
+        }
+    }
+
+    private void checkInterrupted(Thread scanThread) throws InterruptedException
+    {
+        if (scanThread.isInterrupted() == true)
+        {
+            this.setIsScanning(false);
+            throw new InterruptedException("Thread is interrupted. Stopping scanning!");
+        }
+    }
+
+    // ========================================================================
+    // Parallel Scanning
+    // ========================================================================
+
+    /**
+     * Runs a (recursive) scan task in a ForkJoinPool. The first exception thrown by a task is kept and rethrown by
+     * invoke(), after which the other tasks stop. Interrupting the scanning thread cancels all tasks.
+     */
+    protected class ScanTaskRunner
+    {
+        private int numThreads;
+
+        private Thread scanThread;
+
+        private Throwable firstException = null;
+
+        private volatile boolean cancelled = false;
+
+        protected ScanTaskRunner(int numThreads)
+        {
+            this.numThreads = numThreads;
+            this.scanThread = Thread.currentThread();
+        }
+
+        protected <T> T invoke(ForkJoinTask<T> task) throws IOException, InterruptedException, ScanSetException
+        {
+            ForkJoinPool pool = new ForkJoinPool(numThreads);
+
+            try
+            {
+                pool.execute(task);
+                T result = task.get();
+                checkException();
+                return result;
+            }
+            catch (InterruptedException e)
+            {
+                cancelled = true;
+                setIsScanning(false);
+                throw new InterruptedException("Thread is interrupted. Stopping scanning!");
+            }
+            catch (ExecutionException e)
+            {
+                // Tasks do not throw, but be robust:
+                setException(e.getCause());
+                checkException();
+                return null;
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+        }
+
+        /**
+         * @return true if the tasks should stop: an error occurred or the scanning thread was interrupted.
+         */
+        protected boolean mustStop()
+        {
+            if (scanThread.isInterrupted())
+            {
+                cancelled = true;
+            }
+
+            return cancelled;
+        }
+
+        protected synchronized void setException(Throwable t)
+        {
+            if (firstException == null)
+            {
+                firstException = t;
+            }
+
+            cancelled = true;
+        }
+
+        private synchronized void checkException() throws IOException, InterruptedException, ScanSetException
+        {
+            if (firstException == null)
+            {
+                if (scanThread.isInterrupted())
                 {
-                    logger.infoPrintf(" - File does NOT match Filters! Skipping file:%s\n", node);
-                    this.fireMessage("File does not match filters. Skipping:\n - " + node);
+                    setIsScanning(false);
+                    throw new InterruptedException("Thread is interrupted. Stopping scanning!");
                 }
+                return;
             }
-            else
+
+            setIsScanning(false);
+
+            if (firstException instanceof IOException)
+                throw (IOException) firstException;
+            if (firstException instanceof ScanSetException)
+                throw (ScanSetException) firstException;
+            if (firstException instanceof InterruptedException)
+                throw (InterruptedException) firstException;
+            if (firstException instanceof RuntimeException)
+                throw (RuntimeException) firstException;
+            if (firstException instanceof Error)
+                throw (Error) firstException;
+
+            if (firstException instanceof Exception)
+                throw new ScanSetException("Scan failed:" + firstException.getMessage(), (Exception) firstException);
+
+            throw new ScanSetException("Scan failed:" + firstException.getMessage());
+        }
+    }
+
+    /**
+     * File size and modification time from a single stat.
+     */
+    protected static class FileStat
+    {
+        public final long size;
+
+        public final long modified;
+
+        public FileStat(long size, long modified)
+        {
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * Scans a directory and forks a new task for each sub-directory. Returns the files of this directory followed by
+     * the files of the sub-directories, in directory listing order.
+     */
+    protected class DirectoryScanTask extends RecursiveTask<List<FSPath>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private ScanTaskRunner runner;
+
+        private FSPath dir;
+
+        protected DirectoryScanTask(ScanTaskRunner runner, FSPath dir)
+        {
+            this.runner = runner;
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<FSPath> compute()
+        {
+            List<FSPath> files = new ArrayList<FSPath>();
+
+            if (runner.mustStop())
             {
-                logger.infoPrintf(" - Wrong file or read error for:%s\n", node);
+                return files;
             }
 
-            // cleanup ?
-            if (wrap != null)
+            List<FSPath> subDirs = new ArrayList<FSPath>();
+
+            try
             {
-                wrap.dispose();
+                scanSingleDirectory(dir, files, subDirs);
             }
+            catch (Throwable t)
+            {
+                runner.setException(t);
+                return files;
+            }
+
+            List<DirectoryScanTask> tasks = new ArrayList<DirectoryScanTask>(subDirs.size());
 
-            if (i % 10 == 0)
+            for (FSPath subDir : subDirs)
             {
-                this.fireNewEvent(ImageDirEventType.UPDATE_STATS, node.toString());
+                DirectoryScanTask task = new DirectoryScanTask(runner, subDir);
+                task.fork();
+                tasks.add(task);
             }
 
-        }// for (files)
+            for (DirectoryScanTask task : tasks)
+            {
+                files.addAll(task.join());
+            }
 
-        this.imageFiles = keepFiles;
-        this.scanMonitor.totalFilteredFiles = keepFiles.size();
+            return files;
+        }
+    }
 
-        return true;
+    /**
+     * Filters a range of files. Large ranges are split in two halves which are filtered in parallel.
+     */
+    protected class FilterFilesTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of files below which a range isn't split anymore.
+         */
+        private static final int THRESHOLD = 16;
+
+        private ScanTaskRunner runner;
+
+        private List<FSPath> files;
+
+        private boolean keep[];
+
+        private int start;
+
+        private int end;
+
+        private int stopTag;
+
+        protected FilterFilesTask(ScanTaskRunner runner, List<FSPath> files, boolean keep[], int start, int end, int stopTag)
+        {
+            this.runner = runner;
+            this.files = files;
+            this.keep = keep;
+            this.start = start;
+            this.end = end;
+            this.stopTag = stopTag;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start > THRESHOLD)
+            {
+                int mid = (start + end) >>> 1;
+                invokeAll(new FilterFilesTask(runner, files, keep, start, mid, stopTag), //
+                        new FilterFilesTask(runner, files, keep, mid, end, stopTag));
+                return;
+            }
+
+            for (int i = start; i < end; i++)
+            {
+                if (runner.mustStop())
+                {
+                    return;
+                }
+
+                try
+                {
+                    keep[i] = filterFile(i, files.get(i), stopTag);
+                }
+                catch (Throwable t)
+                {
+                    runner.setException(t);
+                    return;
+                }
+            }
+        }
     }
 
     protected void registerScanSet(String scanSetuid, ScanSetInfo scanSet, boolean isNewScanSet) throws ScanSetException
@@ -565,6 +1263,7 @@ public class DicomDirScanner extends ImageDirScanner
     public void dispose()
     {
         clear();
+        super.dispose();
     }
 
     /**
@@ -28,6 +28,7 @@ import java.util.GregorianCalendar;
 
 import nl.esciencecenter.medim.dicom.types.DicomTags;
 import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
+import nl.esciencecenter.medim.dicom.types.TagDirectiveTable;
 import nl.esciencecenter.medim.dicom.types.DicomTypes.VRType;
 import nl.esciencecenter.ptk.crypt.StringCrypter;
 import nl.esciencecenter.ptk.crypt.StringCrypter.EncryptionException;
@@ -41,11 +42,12 @@ import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.VR;
 
 /**
- * DicomProcessor class, processes Dicom Tags using a set of Tag Directives.
+ * DicomProcessor class, processes Dicom Tags using a set of Tag Directives.<br>
+ * A configured DicomProcessor is thread safe and can process multiple Dicom objects concurrently.
  * 
  * @author Piter T. de Boer
  */
-public class DicomProcessor implements DicomObject.Visitor
+public class DicomProcessor
 {
     private static ClassLogger logger = null;
 
@@ -92,35 +94,97 @@ public class DicomProcessor implements DicomObject.Visitor
         return result;
     }
 
+    // =======================================
+    // Processing Context
+    // =======================================
+
+    /**
+     * Per call processing context. Contains the state of a single process() call, so that one configured
+     * DicomProcessor can process multiple Dicom objects concurrently. The crypter and hasher are confined to the
+     * processing thread.
+     */
+    protected class ProcessingContext implements DicomObject.Visitor
+    {
+        protected DicomWrapper dicom;
+
+        protected DicomTags tagOptions;
+
+        protected TagDirectiveTable tagTable;
+
+        protected DicomProcessingProfile procOptions;
+
+        protected int cryptGeneration;
+
+        protected StringCrypter crypter;
+
+        protected StringHasher hasher;
+
+        @Override
+        public boolean visit(DicomElement dicomEl)
+        {
+            return DicomProcessor.this.visit(this, dicomEl);
+        }
+    }
+
+    /**
+     * Thread confined Crypter and Hasher, created from the same processing options.
+     */
+    private static class CryptAndHash
+    {
+        private DicomProcessingProfile procOptions;
+
+        private int generation;
+
+        private StringCrypter crypter;
+
+        private StringHasher hasher;
+    }
+
     // =======================================
     // Instance
     // =======================================
 
     private DicomTags tagOptions;
 
-    private DicomWrapper dicom;
+    private StringCrypter crypter;
+
+    private DicomProcessingProfile procOptions; // new ProcessingOptions();
+
+    /**
+     * Crypter and hasher per processing thread. StringCrypter and StringHasher are not thread safe.
+     */
+    private ThreadLocal<CryptAndHash> threadCryptAndHash = new ThreadLocal<CryptAndHash>();
 
-    private boolean started;
+    /**
+     * Incremented by each (re)initialization. The processing options might have been updated in place (for example a
+     * new encryption key), so the crypters of all threads must be recreated, not only the one of the initializing
+     * thread.
+     */
+    private int cryptGeneration = 0;
 
-    private boolean finished;
+    /**
+     * Last processed Dicom object per processing thread.
+     */
+    private ThreadLocal<DicomWrapper> lastProcessed = new ThreadLocal<DicomWrapper>();
 
-    private StringCrypter crypter;
+    /**
+     * Cache of hashed and encrypted values. Only valid for the current processing options.
+     */
+    private ProcessedValueCache valueCache = new ProcessedValueCache();
 
-    private StringHasher hasher;
+    private int numActive = 0;
 
-    private DicomProcessingProfile procOptions; // new ProcessingOptions();
+    private boolean finished = false;
 
     private Object processMutex = new Object();
 
     protected DicomProcessor()
     {
-        this.dicom = null;
         // this.init();
     }
 
     public DicomProcessor(DicomTags tagOptions) throws Exception
     {
-        this.dicom = null;
         this.procOptions = DicomProcessingProfile.createDefault();
         this.tagOptions = tagOptions;
         init();
@@ -128,14 +192,21 @@ public class DicomProcessor implements DicomObject.Visitor
 
     public DicomProcessor(DicomTags tagOptions, DicomProcessingProfile procOpts) throws Exception
     {
-        this.dicom = null;
         this.procOptions = procOpts;
         this.tagOptions = tagOptions;
         init();
     }
 
+    /**
+     * Returns the last Dicom Object processed by the current thread.
+     */
     public DicomObject getDicomObject()
     {
+        DicomWrapper dicom = lastProcessed.get();
+
+        if (dicom == null)
+            return null;
+
         return dicom.getDicomObject();
     }
 
@@ -144,11 +215,14 @@ public class DicomProcessor implements DicomObject.Visitor
      */
     public void updateProcessingOptions(DicomProcessingProfile options) throws Exception
     {
-        if (this.hasStarted() == true)
-            throw new Exception("Mutex Exception: Can't (re)initialize ProcessingOptions while processing!");
+        synchronized (processMutex)
+        {
+            if (this.numActive > 0)
+                throw new Exception("Mutex Exception: Can't (re)initialize ProcessingOptions while processing!");
 
-        this.procOptions = options;
-        init();
+            this.procOptions = options;
+            init();
+        }
     }
 
     protected void init() throws Exception
@@ -156,12 +230,11 @@ public class DicomProcessor implements DicomObject.Visitor
         // Init can be called post Construction !
         synchronized (processMutex)
         {
-            this.started = false;
             this.finished = false;
+            // wipe values of previous options:
+            valueCache.clear();
+            initHashAndCrypt();
         }
-
-        this.dicom = null;
-        initHashAndCrypt();
     }
 
     private void initHashAndCrypt() throws EncryptionException, NoSuchAlgorithmException, UnsupportedEncodingException
@@ -171,6 +244,26 @@ public class DicomProcessor implements DicomObject.Visitor
             throw new NullPointerException("No processing options. Please supply them.");
         }
 
+        // Check options and keep crypter of this thread, other threads recreate theirs:
+        cryptGeneration++;
+        CryptAndHash cryptAndHash = createCryptAndHash(procOptions, cryptGeneration);
+        this.crypter = cryptAndHash.crypter;
+
+        if (crypter == null)
+        {
+            logger.warnPrintf("No encryption keys initialized!\n");
+        }
+
+        threadCryptAndHash.set(cryptAndHash);
+    }
+
+    private static CryptAndHash createCryptAndHash(DicomProcessingProfile procOptions, int generation) throws EncryptionException,
+            NoSuchAlgorithmException, UnsupportedEncodingException
+    {
+        CryptAndHash cryptAndHash = new CryptAndHash();
+        cryptAndHash.procOptions = procOptions;
+        cryptAndHash.generation = generation;
+
         byte cryptKey[] = procOptions.getEncryptionKey();
 
         // if (cryptKey==null)
@@ -181,14 +274,30 @@ public class DicomProcessor implements DicomObject.Visitor
         // openssl enc -des-ede3 -nosalt -pass pass:<pass> -base64 -p -md sha256
         if (cryptKey != null)
         {
-            crypter = new StringCrypter(cryptKey, procOptions.cryptScheme, "SHA-256", StringCrypter.CHARSET_UTF8);
+            cryptAndHash.crypter = new StringCrypter(cryptKey, procOptions.cryptScheme, "SHA-256", StringCrypter.CHARSET_UTF8);
         }
-        else
+
+        cryptAndHash.hasher = new StringHasher("SHA-256");
+
+        return cryptAndHash;
+    }
+
+    /**
+     * Returns crypter and hasher of the current thread. They are (re)created if the processing options have been
+     * (re)initialized since.
+     */
+    private CryptAndHash getCryptAndHash(DicomProcessingProfile procOptions, int generation) throws EncryptionException,
+            NoSuchAlgorithmException, UnsupportedEncodingException
+    {
+        CryptAndHash cryptAndHash = threadCryptAndHash.get();
+
+        if ((cryptAndHash == null) || (cryptAndHash.procOptions != procOptions) || (cryptAndHash.generation != generation))
         {
-            logger.warnPrintf("No encryption keys initialized!\n");
+            cryptAndHash = createCryptAndHash(procOptions, generation);
+            threadCryptAndHash.set(cryptAndHash);
         }
 
-        hasher = new StringHasher("SHA-256");
+        return cryptAndHash;
     }
 
     public byte[] getHashSalt()
@@ -206,11 +315,30 @@ public class DicomProcessor implements DicomObject.Visitor
         return this.crypter;
     }
 
+    /**
+     * Returns cache of hashed and encrypted values, including the hit statistics.
+     */
+    public ProcessedValueCache getValueCache()
+    {
+        return this.valueCache;
+    }
+
+    /**
+     * Set maximum number of cached hashed and encrypted values. Use 0 to disable caching.
+     */
+    public void setValueCacheSize(int maxEntries)
+    {
+        this.valueCache.setMaxEntries(maxEntries);
+    }
+
+    /**
+     * @return true if one or more Dicom objects are being processed.
+     */
     public boolean hasStarted()
     {
         synchronized (processMutex)
         {
-            return this.started;
+            return (this.numActive > 0);
         }
     }
 
@@ -218,7 +346,21 @@ public class DicomProcessor implements DicomObject.Visitor
     {
         synchronized (processMutex)
         {
-            return this.finished;
+            return (this.numActive == 0) && this.finished;
+        }
+    }
+
+    /**
+     * Returns the processing option which is applied to the specified tag.
+     */
+    public TagProcessingOption getTagOption(int tagNr)
+    {
+        synchronized (processMutex)
+        {
+            if (tagOptions == null)
+                return null;
+
+            return tagOptions.getOption(tagNr, TagProcessingOption.DELETE);
         }
     }
 
@@ -230,8 +372,15 @@ public class DicomProcessor implements DicomObject.Visitor
         }
     }
 
+    /**
+     * Process Dicom object. This method is thread safe: multiple Dicom objects can be processed concurrently by the
+     * same DicomProcessor.
+     */
     public DicomWrapper process(DicomWrapper dicomWrap) throws Exception
     {
+        ProcessingContext ctx = new ProcessingContext();
+        ctx.dicom = dicomWrap;
+
         // PRE: critical section before processing:
         synchronized (processMutex)
         {
@@ -244,48 +393,62 @@ public class DicomProcessor implements DicomObject.Visitor
             // if (dicom==null)
             // throw new Exception("NullPointer exception: No Dicom Object!");
 
-            if (this.started == true)
-                throw new IllegalStateException("Process currently running, can't reuse this Object");
+            ctx.tagOptions = this.tagOptions;
+            ctx.tagTable = this.tagOptions.getTagTable();
+            ctx.procOptions = this.procOptions;
+            ctx.cryptGeneration = this.cryptGeneration;
 
-            this.dicom = dicomWrap;
+            // wipe cached values if the key, salt or other hash/crypt settings have been changed:
+            if (valueCache.checkProfile(procOptions))
+            {
+                logger.debugPrintf("Processing settings changed, cleared value cache.\n");
+            }
 
-            this.started = true;
+            this.numActive++;
             this.finished = false;
         }
 
-        boolean result = false;
         Throwable ex = null;
 
         try
         {
-            result = dicom.acceptVisitor(this);
+            CryptAndHash cryptAndHash = getCryptAndHash(ctx.procOptions, ctx.cryptGeneration);
+            ctx.crypter = cryptAndHash.crypter;
+            ctx.hasher = cryptAndHash.hasher;
+
+            ctx.dicom.acceptVisitor(ctx);
         }
         catch (Throwable t)
         {
-            logger.logException(ClassLogger.ERROR, t, "Failed processing:%s\n", dicom);
+            logger.logException(ClassLogger.ERROR, t, "Failed processing:%s\n", ctx.dicom);
             ex = t;
         }
 
         // POST: critical section after processing:
         synchronized (processMutex)
         {
-            this.finished = true;
-            this.started = false;
-
-            if (ex != null)
-                throw new Exception("Failed to process Dicom", ex);
+            this.numActive--;
+            this.finished = (numActive == 0);
         }
 
+        lastProcessed.set(dicomWrap);
+
+        if (ex != null)
+            throw new Exception("Failed to process Dicom", ex);
+
         return dicomWrap;
     }
 
-    @Override
-    public boolean visit(DicomElement dicomEl)
+    protected boolean visit(ProcessingContext ctx, DicomElement dicomEl)
     {
         int tagNr = dicomEl.tag();
 
-        TagProcessingOption opt = tagOptions.getOption(tagNr, TagProcessingOption.DELETE);
-        logger.debugPrintf("> Option: %s on %s (%s/'%s')\n", opt, dicomEl, DicomUtil.getTagName(tagNr), tagOptions.getTagDescription(tagNr));
+        TagProcessingOption opt = ctx.tagTable.getOption(tagNr, TagProcessingOption.DELETE);
+
+        if (logger.isLoggable(ClassLogger.DEBUG))
+        {
+            logger.debugPrintf("> Option: %s on %s (%s/'%s')\n", opt, dicomEl, DicomUtil.getTagName(tagNr), ctx.tagOptions.getTagDescription(tagNr));
+        }
 
         try
         {
@@ -296,53 +459,53 @@ public class DicomProcessor implements DicomObject.Visitor
                     break;
                 case DELETE:
                 {
-                    doDeleteTag(dicomEl);
+                    doDeleteTag(ctx, dicomEl);
                     break;
                 }
                 case CLEAR:
                 {
-                    doClearTag(dicomEl);
+                    doClearTag(ctx, dicomEl);
                     break;
                 }
                 case HASH:
                 {
-                    hashTag(dicomEl);
+                    hashTag(ctx, dicomEl);
                     break;
                 }
                 case HASH_UID:
                 {
-                    hashUIDTag(dicomEl);
+                    hashUIDTag(ctx, dicomEl);
                     break;
                 }
                 case ENCRYPT:
                 {
-                    doEncryptTag(dicomEl);
+                    doEncryptTag(ctx, dicomEl);
                     break;
                 }
                 case ENCRYPT_HASH:
                 {
-                    doHashEncryptTag(dicomEl);
+                    doHashEncryptTag(ctx, dicomEl);
                     break;
                 }
                 case ENCRYPT_HASH_UID:
                 {
-                    doEncryptAndHashUIDTag(dicomEl);
+                    doEncryptAndHashUIDTag(ctx, dicomEl);
                     break;
                 }
 
                 case SET_DATE_TO_01JAN:
                 {
-                    setDateTo01Jan(dicomEl, true);
+                    setDateTo01Jan(ctx, dicomEl, true);
                     break;
                 }
                 case SET_DATE_TO_01JAN1900:
                 {
-                    setDateTo01jan1900(dicomEl, true);
+                    setDateTo01jan1900(ctx, dicomEl, true);
                     break;
                 }
                 case SET_TIME_TO_0000HOURS:
                 {
-                    setTimeToZero(dicomEl, true);
+                    setTimeToZero(ctx, dicomEl, true);
                     break;
                 }
                 default:
@@ -360,13 +523,13 @@ public class DicomProcessor implements DicomObject.Visitor
         return true;
     }
 
-    protected void doDeleteTag(DicomElement el) throws Exception
+    protected void doDeleteTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         // ToBeChecked:does a delete effect the visit order or not?
-        dicom.deleteTag(el.tag());
+        ctx.dicom.deleteTag(el.tag());
     }
 
-    protected void doClearTag(DicomElement el) throws Exception
+    protected void doClearTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         logger.debugPrintf("Clearing element:%s\n", el);
 
@@ -376,34 +539,34 @@ public class DicomProcessor implements DicomObject.Visitor
         {
             case INTEGER:
             {
-                dicom.setTag(el.tag(), 0);
+                ctx.dicom.setTag(el.tag(), 0);
                 break;
             }
             case DOUBLE:
             {
-                dicom.setTag(el.tag(), (double) 0);
+                ctx.dicom.setTag(el.tag(), (double) 0);
                 break;
             }
             case STRING:
             {
-                dicom.setTag(el.tag(), "");
+                ctx.dicom.setTag(el.tag(), "");
                 break;
             }
             case BYTES:
             {
-                dicom.setTag(el.tag(), new byte[]
+                ctx.dicom.setTag(el.tag(), new byte[]
                         {});
                 break;
             }
             case TIME:
             {
-                dicom.setTag(el.tag(), new byte[]
+                ctx.dicom.setTag(el.tag(), new byte[]
                         {});
                 break;
             }
             case DATETIME:
             {
-                dicom.setTag(el.tag(), new byte[]
+                ctx.dicom.setTag(el.tag(), new byte[]
                         {});
                 break;
             }
@@ -411,19 +574,19 @@ public class DicomProcessor implements DicomObject.Visitor
             {
                 // This might break the standards.
                 logger.warnPrintf("Clearing UID value of element:%s\n", el);
-                dicom.setTag(el.tag(), "");
+                ctx.dicom.setTag(el.tag(), "");
                 break;
             }
             case UNKNOWN:
             {
-                dicom.setTag(el.tag(), new byte[]
+                ctx.dicom.setTag(el.tag(), new byte[]
                         {});
                 break;
             }
         }
     }
 
-    protected void setDateTo01jan1900(DicomElement el, boolean skipIfNotSet) throws Exception
+    protected void setDateTo01jan1900(ProcessingContext ctx, DicomElement el, boolean skipIfNotSet) throws Exception
     {
         int tagNr = el.tag();
         Date date = DicomWrapper.element2Date(el);
@@ -446,10 +609,10 @@ public class DicomProcessor implements DicomObject.Visitor
         int day = 1; // cal.get(Calendar.DAY_OF_MONTH);
         cal.set(year, month, day);
         date = cal.getTime();
-        dicom.setDateValue(tagNr, date);
+        ctx.dicom.setDateValue(tagNr, date);
     }
 
-    protected void setDateTo01jan1950(DicomElement el, boolean skipIfNotSet) throws Exception
+    protected void setDateTo01jan1950(ProcessingContext ctx, DicomElement el, boolean skipIfNotSet) throws Exception
     {
         int tagNr = el.tag();
         Date date = DicomWrapper.element2Date(el);
@@ -472,10 +635,10 @@ public class DicomProcessor implements DicomObject.Visitor
         int day = 1; // cal.get(Calendar.DAY_OF_MONTH);
         cal.set(year, month, day);
         date = cal.getTime();
-        dicom.setDateValue(tagNr, date);
+        ctx.dicom.setDateValue(tagNr, date);
     }
 
-    protected void setTimeToZero(DicomElement el, boolean skipIfNotSet) throws Exception
+    protected void setTimeToZero(ProcessingContext ctx, DicomElement el, boolean skipIfNotSet) throws Exception
     {
         int tagNr = el.tag();
         Date date = DicomWrapper.element2Date(el);
@@ -504,10 +667,10 @@ public class DicomProcessor implements DicomObject.Visitor
         int day = 1; // cal.get(Calendar.DAY_OF_MONTH);
         cal.set(year, month, day, hours, min, secs);
         date = cal.getTime();
-        dicom.setDateValue(tagNr, date);
+        ctx.dicom.setDateValue(tagNr, date);
     }
 
-    protected void setDateTo01Jan(DicomElement el, boolean skipIfNotSet) throws Exception
+    protected void setDateTo01Jan(ProcessingContext ctx, DicomElement el, boolean skipIfNotSet) throws Exception
     {
         int tagNr = el.tag();
         Date date = DicomWrapper.element2Date(el);
@@ -531,10 +694,10 @@ public class DicomProcessor implements DicomObject.Visitor
         int day = 1; // cal.get(Calendar.DAY_OF_MONTH);
         cal.set(year, month, day);
         date = cal.getTime();
-        dicom.setDateValue(tagNr, date);
+        ctx.dicom.setDateValue(tagNr, date);
     }
 
-    protected void doEncryptTag(DicomElement el) throws Exception
+    protected void doEncryptTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         int tagNr = el.tag();
         VRType vrType = VRType.valueOf(el.vr());
@@ -543,9 +706,16 @@ public class DicomProcessor implements DicomObject.Visitor
         {
             String newValue = null;
             String strValue = DicomWrapper.element2String(el, null);
-            newValue = crypter.encryptToBase64(strValue);
-            dicom.setTag(tagNr, newValue);
-            logger.debugPrintf("> CRYPT RESULT:%s\n", dicom.getElement(tagNr));
+            newValue = valueCache.get(tagNr, TagProcessingOption.ENCRYPT, strValue);
+
+            if (newValue == null)
+            {
+                newValue = ctx.crypter.encryptToBase64(strValue);
+                valueCache.put(tagNr, TagProcessingOption.ENCRYPT, strValue, newValue);
+            }
+
+            ctx.dicom.setTag(tagNr, newValue);
+            logger.debugPrintf("> CRYPT RESULT:%s\n", ctx.dicom.getElement(tagNr));
         }
         // else if (vrType.isBinary()) {} // could encrypt bytes here.
         else
@@ -559,7 +729,7 @@ public class DicomProcessor implements DicomObject.Visitor
     /**
      * Hashes String value to base64 encoded hash
      */
-    protected void hashTag(DicomElement el) throws Exception
+    protected void hashTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         int tagNr = el.tag();
         VRType vrType = VRType.valueOf(el.vr());
@@ -581,11 +751,17 @@ public class DicomProcessor implements DicomObject.Visitor
                 // Note: Using base64 encoding increases String size by 33% (6
                 // i.s.o 8 bits/byte)
                 // 256 bits hash is 32 bytes -> +/48 bytes.
-                hashStr = hashToBase64(strVal);
+                hashStr = valueCache.get(tagNr, TagProcessingOption.HASH, strVal);
+
+                if (hashStr == null)
+                {
+                    hashStr = hashToBase64(ctx, strVal);
+                    valueCache.put(tagNr, TagProcessingOption.HASH, strVal, hashStr);
+                }
             }
 
-            dicom.setTag(tagNr, hashStr);
-            logger.debugPrintf("> HASH RESULT:%s\n", dicom.getElement(tagNr));
+            ctx.dicom.setTag(tagNr, hashStr);
+            logger.debugPrintf("> HASH RESULT:%s\n", ctx.dicom.getElement(tagNr));
         }
         else
             throw new Exception("Cannot hash non String tags (yet) !:" + el);
@@ -595,7 +771,7 @@ public class DicomProcessor implements DicomObject.Visitor
     /**
      * Hash the UID and convert the hash bytes back to an UID like (dotted decimal) String.
      */
-    protected void hashUIDTag(DicomElement el) throws Exception
+    protected void hashUIDTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         int tagNr = el.tag();
         VRType vrType = VRType.valueOf(el.vr());
@@ -603,18 +779,24 @@ public class DicomProcessor implements DicomObject.Visitor
         if (vrType.isString())
         {
             String uid = DicomWrapper.element2String(el, null);
-            // 32 bytes hash (SHA-256 = 256 bits)
-            byte hashBytes[] = hash(uid);
-            String hashedUid = hashToUidString(hashBytes);
+            String hashedUid = valueCache.get(tagNr, TagProcessingOption.HASH_UID, uid);
+
+            if (hashedUid == null)
+            {
+                // 32 bytes hash (SHA-256 = 256 bits)
+                byte hashBytes[] = hash(ctx, uid);
+                hashedUid = hashToUidString(ctx, hashBytes);
+                valueCache.put(tagNr, TagProcessingOption.HASH_UID, uid, hashedUid);
+            }
 
-            dicom.setTag(tagNr, hashedUid);
-            logger.debugPrintf("> HASH UID RESULT:%s\n", dicom.getElement(tagNr));
+            ctx.dicom.setTag(tagNr, hashedUid);
+            logger.debugPrintf("> HASH UID RESULT:%s\n", ctx.dicom.getElement(tagNr));
         }
         else
             throw new Exception("Cannot hash non String tags (yet) !:" + el);
     }
 
-    protected void doHashEncryptTag(DicomElement el) throws Exception
+    protected void doHashEncryptTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         int tagNr = el.tag();
         VRType vrType = VRType.valueOf(el.vr());
@@ -629,17 +811,31 @@ public class DicomProcessor implements DicomObject.Visitor
             }
             else
             {
-                // first encrypt: increases byte size!
-                cryptBytes = crypter.encrypt(strValue);
-                logger.debugPrintf("> CRYPT&HASH Stage (I) :%s\n", StringUtil.toHexString(cryptBytes));
-                // hash encrypted result and store as base64 string.
+                String cryptHashStr = valueCache.get(tagNr, TagProcessingOption.ENCRYPT_HASH, strValue);
 
-                byte cryptHashBytes[] = hasher.hash(cryptBytes, true, this.getHashSalt(), procOptions.prefixHashSalt);
-                String cryptHashStr = StringUtil.base64Encode(cryptHashBytes);
+                if (cryptHashStr == null)
+                {
+                    // first encrypt: increases byte size!
+                    cryptBytes = ctx.crypter.encrypt(strValue);
+
+                    if (logger.isLoggable(ClassLogger.DEBUG))
+                    {
+                        logger.debugPrintf("> CRYPT&HASH Stage (I) :%s\n", StringUtil.toHexString(cryptBytes));
+                    }
+
+                    // hash encrypted result and store as base64 string.
+                    byte cryptHashBytes[] = ctx.hasher.hash(cryptBytes, true, ctx.procOptions.hashSalt, ctx.procOptions.prefixHashSalt);
+                    cryptHashStr = StringUtil.base64Encode(cryptHashBytes);
+                    valueCache.put(tagNr, TagProcessingOption.ENCRYPT_HASH, strValue, cryptHashStr);
+
+                    if (logger.isLoggable(ClassLogger.DEBUG))
+                    {
+                        logger.debugPrintf("> CRYPT&HASH Stage (IIa):%s\n", StringUtil.toHexString(cryptHashBytes));
+                    }
+                }
 
-                dicom.setTag(tagNr, cryptHashStr);
-                logger.debugPrintf("> CRYPT&HASH Stage (IIa):%s\n", StringUtil.toHexString(cryptBytes));
-                logger.debugPrintf("> CRYPT&HASH Stage (IIb):%s\n", dicom.getElement(tagNr));
+                ctx.dicom.setTag(tagNr, cryptHashStr);
+                logger.debugPrintf("> CRYPT&HASH Stage (IIb):%s\n", ctx.dicom.getElement(tagNr));
             }
         }
         // else if (vrType.isBinary()) {} // could encrypt bytes here.
@@ -651,7 +847,7 @@ public class DicomProcessor implements DicomObject.Visitor
         }
     }
 
-    protected void doEncryptAndHashUIDTag(DicomElement el) throws Exception
+    protected void doEncryptAndHashUIDTag(ProcessingContext ctx, DicomElement el) throws Exception
     {
         int tagNr = el.tag();
         VRType vrType = VRType.valueOf(el.vr());
@@ -660,14 +856,19 @@ public class DicomProcessor implements DicomObject.Visitor
         {
             byte cryptBytes[] = null;
             String strValue = DicomWrapper.element2String(el, null);
+            String hashedUid = valueCache.get(tagNr, TagProcessingOption.ENCRYPT_HASH_UID, strValue);
 
-            // first encrypt, then hash, then UID encode.
-            cryptBytes = crypter.encrypt(strValue);
-            byte hashBytes[] = hash(cryptBytes);
-            String hashedUid = hashToUidString(hashBytes);
+            if (hashedUid == null)
+            {
+                // first encrypt, then hash, then UID encode.
+                cryptBytes = ctx.crypter.encrypt(strValue);
+                byte hashBytes[] = hash(ctx, cryptBytes);
+                hashedUid = hashToUidString(ctx, hashBytes);
+                valueCache.put(tagNr, TagProcessingOption.ENCRYPT_HASH_UID, strValue, hashedUid);
+            }
 
-            dicom.setTag(tagNr, hashedUid);
-            logger.debugPrintf("> CRYPT&HASH UID RESULT:%s\n", dicom.getElement(tagNr));
+            ctx.dicom.setTag(tagNr, hashedUid);
+            logger.debugPrintf("> CRYPT&HASH UID RESULT:%s\n", ctx.dicom.getElement(tagNr));
         }
         // else if (vrType.isBinary()) {} // could encrypt bytes here.
         else
@@ -682,26 +883,26 @@ public class DicomProcessor implements DicomObject.Visitor
     // Hashing/Crypters helper methods.
     // =======================================
 
-    private byte[] hash(byte bytes[])
+    private byte[] hash(ProcessingContext ctx, byte bytes[])
     {
-        return hasher.hash(bytes, true, this.getHashSalt(), procOptions.prefixHashSalt);
+        return ctx.hasher.hash(bytes, true, ctx.procOptions.hashSalt, ctx.procOptions.prefixHashSalt);
     }
 
-    private byte[] hash(String text)
+    private byte[] hash(ProcessingContext ctx, String text)
     {
-        return hasher.hash(text.getBytes(hasher.getEncoding()), true, this.getHashSalt(), procOptions.prefixHashSalt);
+        return ctx.hasher.hash(text.getBytes(ctx.hasher.getEncoding()), true, ctx.procOptions.hashSalt, ctx.procOptions.prefixHashSalt);
     }
 
-    private String hashToBase64(String text)
+    private String hashToBase64(ProcessingContext ctx, String text)
     {
-        byte bytes[] = hasher.hash(text.getBytes(hasher.getEncoding()), true, this.getHashSalt(), procOptions.prefixHashSalt);
+        byte bytes[] = hash(ctx, text);
 
         return StringUtil.base64Encode(bytes);
     }
 
-    private String hashToUidString(byte hashBytes[]) throws Exception
+    private String hashToUidString(ProcessingContext ctx, byte hashBytes[]) throws Exception
     {
-        String hashedUid = createHashedUid(procOptions.getUIDPrefix(), hashBytes, procOptions.getMaxHashedUIDByteLength());
+        String hashedUid = createHashedUid(ctx.procOptions.getUIDPrefix(), hashBytes, ctx.procOptions.getMaxHashedUIDByteLength());
 
         // be strict!
         if (hashedUid.length() > 64)
@@ -719,7 +920,9 @@ public class DicomProcessor implements DicomObject.Visitor
      */
     public void dispose()
     {
-
+        valueCache.clear();
+        threadCryptAndHash = new ThreadLocal<CryptAndHash>();
+        lastProcessed = new ThreadLocal<DicomWrapper>();
     }
 
 }
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import nl.esciencecenter.medim.util.CSVJournal;
+import nl.esciencecenter.ptk.csv.CSVReader;
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomElement;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.VR;
+
+/**
+ * Persistent index of scanned DICOM files. Stores the header fields needed by the DicomDirScanner per file, keyed by
+ * path, file size and modification time. A re-scan only has to parse new or changed files, the headers of the other
+ * files are recreated from the index.
+ * <p>
+ * The index is an append-only journal of CSV rows: <code>type;path;size;modified;&lt;tag&gt;...</code>. The headers
+ * contain the indexed tags, if the scanner needs other tags the index is discarded. Later records of the same path
+ * replace earlier ones. Values are stored as <code>VR:L:hex</code> (or <code>VR:B:hex</code> for big endian) so the
+ * recreated DicomObject contains the original bytes. Records of removed and changed files are removed when the
+ * journal is compacted on close().
+ */
+public class DicomScanIndex
+{
+    private static ClassLogger logger = ClassLogger.getLogger(DicomScanIndex.class);
+
+    /**
+     * Valid DICOM file, the record contains the header fields.
+     */
+    public static final String RECORD_DICOM = "D";
+
+    /**
+     * File doesn't have the DICOM magic.
+     */
+    public static final String RECORD_NO_MAGIC = "M";
+
+    /**
+     * File could not be read as DICOM file.
+     */
+    public static final String RECORD_READ_ERROR = "X";
+
+    private static final int NUM_KEY_FIELDS = 4;
+
+    /**
+     * Minimum number of obsolete records before the journal is compacted.
+     */
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    /**
+     * Indexed file. The values are shared between entries of the same ScanSet.
+     */
+    public static class Entry
+    {
+        protected String type;
+
+        protected long size;
+
+        protected long modified;
+
+        protected String values[];
+
+        protected Entry(String type, long size, long modified, String values[])
+        {
+            this.type = type;
+            this.size = size;
+            this.modified = modified;
+            this.values = values;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public boolean isDicom()
+        {
+            return RECORD_DICOM.equals(type);
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    protected File file;
+
+    protected int tags[];
+
+    protected String headers[];
+
+    protected Map<String, Entry> index = new HashMap<String, Entry>();
+
+    /**
+     * Pool of values, most header values are the same for all files of a ScanSet.
+     */
+    protected Map<String, String> valuePool = new HashMap<String, String>();
+
+    protected CSVJournal journal;
+
+    protected int numRecords = 0;
+
+    /**
+     * Open or create index.
+     *
+     * @param file
+     *            - journal file.
+     * @param tags
+     *            - DICOM tags to index.
+     */
+    public DicomScanIndex(File file, int tags[]) throws IOException
+    {
+        this.file = file;
+        this.journal = new CSVJournal(file);
+        this.tags = tags.clone();
+        Arrays.sort(this.tags);
+        this.headers = createHeaders(this.tags);
+        open();
+    }
+
+    protected static String[] createHeaders(int tags[])
+    {
+        String names[] = new String[NUM_KEY_FIELDS + tags.length];
+        names[0] = "type";
+        names[1] = "path";
+        names[2] = "size";
+        names[3] = "modified";
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            names[NUM_KEY_FIELDS + i] = String.format("%08X", tags[i]);
+        }
+
+        return names;
+    }
+
+    protected void open() throws IOException
+    {
+        boolean valid = false;
+
+        if (journal.exists())
+        {
+            journal.truncateIncompleteRecord();
+            valid = load();
+        }
+
+        if (valid)
+        {
+            journal.openWriter(true);
+        }
+        else
+        {
+            index.clear();
+            valuePool.clear();
+            journal.openWriter(false);
+            journal.writeHeaders(headers);
+            numRecords = 0;
+        }
+
+        logger.infoPrintf("Opened DicomScanIndex:%s: #%d files\n", file, index.size());
+    }
+
+    /**
+     * Load journal into index.
+     *
+     * @return false if the journal contains other tags.
+     */
+    protected boolean load() throws IOException
+    {
+        Reader reader = journal.openReader();
+
+        try
+        {
+            CSVReader csvReader = journal.createCSVReader(reader);
+
+            String fileHeaders[] = csvReader.readHeaders();
+
+            // CSVWriter ends rows with a field separator: ignore trailing (empty) field.
+            if ((fileHeaders == null) || (fileHeaders.length < headers.length)
+                    || (Arrays.equals(headers, Arrays.copyOf(fileHeaders, headers.length)) == false))
+            {
+                logger.infoPrintf("Indexed tags changed, discarding DicomScanIndex:%s\n", file);
+                return false;
+            }
+
+            String row[];
+
+            while ((row = csvReader.readRow()) != null)
+            {
+                numRecords++;
+
+                if (parseRecord(row) == false)
+                {
+                    logger.warnPrintf("Skipping invalid record #%d in:%s\n", numRecords, file);
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    protected boolean parseRecord(String row[])
+    {
+        if (row.length < headers.length)
+        {
+            return false;
+        }
+
+        long size;
+        long modified;
+
+        try
+        {
+            size = Long.parseLong(row[2]);
+            modified = Long.parseLong(row[3]);
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+
+        String type = row[0];
+        String values[] = null;
+
+        if (RECORD_DICOM.equals(type))
+        {
+            values = new String[tags.length];
+
+            for (int i = 0; i < tags.length; i++)
+            {
+                values[i] = poolValue(row[NUM_KEY_FIELDS + i]);
+            }
+        }
+        else if ((RECORD_NO_MAGIC.equals(type) == false) && (RECORD_READ_ERROR.equals(type) == false))
+        {
+            return false;
+        }
+
+        index.put(row[1], new Entry(type, size, modified, values));
+        return true;
+    }
+
+    protected String poolValue(String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        String pooled = valuePool.get(value);
+
+        if (pooled == null)
+        {
+            valuePool.put(value, value);
+            pooled = value;
+        }
+
+        return pooled;
+    }
+
+    // ========================================================================
+    // Index
+    // ========================================================================
+
+    /**
+     * @return indexed entry or null if the file is not indexed or has been changed.
+     */
+    public synchronized Entry get(String path, long size, long modified)
+    {
+        Entry entry = index.get(path);
+
+        if ((entry == null) || (entry.size != size) || (entry.modified != modified))
+        {
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Index header of valid DICOM file.
+     */
+    public void putHeader(String path, long size, long modified, DicomObject header) throws IOException
+    {
+        String values[] = new String[tags.length];
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            values[i] = encodeElement(header.get(tags[i]));
+        }
+
+        synchronized (this)
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = poolValue(values[i]);
+            }
+
+            put(path, new Entry(RECORD_DICOM, size, modified, values));
+        }
+    }
+
+    /**
+     * Index invalid file.
+     *
+     * @param type
+     *            - RECORD_NO_MAGIC or RECORD_READ_ERROR.
+     */
+    public synchronized void putInvalid(String path, long size, long modified, String type) throws IOException
+    {
+        put(path, new Entry(type, size, modified, null));
+    }
+
+    protected void put(String path, Entry entry) throws IOException
+    {
+        if (journal.isOpen() == false)
+        {
+            throw new IOException("DicomScanIndex is closed:" + file);
+        }
+
+        writeRecord(journal, path, entry);
+        index.put(path, entry);
+        numRecords++;
+    }
+
+    protected void writeRecord(CSVJournal output, String path, Entry entry) throws IOException
+    {
+        String row[] = new String[headers.length];
+        row[0] = entry.type;
+        row[1] = path;
+        row[2] = Long.toString(entry.size);
+        row[3] = Long.toString(entry.modified);
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            row[NUM_KEY_FIELDS + i] = ((entry.values != null) && (entry.values[i] != null)) ? entry.values[i] : "";
+        }
+
+        output.writeRecord(row, false);
+    }
+
+    /**
+     * Remove the files which are not in the collection, for example files which have been deleted since the last scan.
+     */
+    public synchronized void retain(Collection<String> paths)
+    {
+        Set<String> keep = new HashSet<String>(paths);
+        Iterator<String> it = index.keySet().iterator();
+
+        while (it.hasNext())
+        {
+            if (keep.contains(it.next()) == false)
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Recreate DICOM header from indexed entry. Elements which were not present in the original header are not
+     * present in the recreated header.
+     */
+    public DicomObject createDicomObject(Entry entry) throws IOException
+    {
+        if (entry.isDicom() == false)
+        {
+            throw new IOException("Not a DICOM entry:" + entry.type);
+        }
+
+        DicomObject dicom = new BasicDicomObject();
+
+        for (int i = 0; i < tags.length; i++)
+        {
+            decodeElement(dicom, tags[i], entry.values[i]);
+        }
+
+        return dicom;
+    }
+
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public int[] getTags()
+    {
+        return tags.clone();
+    }
+
+    /**
+     * Close index. The journal is compacted if it contains many obsolete records.
+     */
+    public synchronized void close()
+    {
+        if (journal.isOpen() == false)
+        {
+            return;
+        }
+
+        try
+        {
+            journal.close();
+        }
+        catch (IOException e)
+        {
+            logger.logException(ClassLogger.ERROR, e, "Failed to close DicomScanIndex:%s\n", file);
+        }
+
+        if (numRecords - index.size() > Math.max(MIN_COMPACT_RECORDS, index.size()))
+        {
+            try
+            {
+                compact();
+            }
+            catch (IOException e)
+            {
+                logger.logException(ClassLogger.ERROR, e, "Failed to compact DicomScanIndex:%s\n", file);
+            }
+        }
+    }
+
+    /**
+     * Rewrite journal with current entries only.
+     */
+    protected void compact() throws IOException
+    {
+        CSVJournal tmpJournal = new CSVJournal(new File(file.getPath() + ".tmp"));
+
+        tmpJournal.openWriter(false);
+
+        try
+        {
+            tmpJournal.writeHeaders(headers);
+
+            for (Map.Entry<String, Entry> entry : index.entrySet())
+            {
+                writeRecord(tmpJournal, entry.getKey(), entry.getValue());
+            }
+        }
+        finally
+        {
+            tmpJournal.close();
+        }
+
+        journal.replaceWith(tmpJournal);
+
+        logger.infoPrintf("Compacted DicomScanIndex:%s: #%d records -> #%d records\n", file, numRecords, index.size());
+        numRecords = index.size();
+    }
+
+    // ========================================================================
+    // Encoding
+    // ========================================================================
+
+    protected static String encodeElement(DicomElement el)
+    {
+        // Sequences are not indexed.
+        if ((el == null) || el.hasItems())
+        {
+            return null;
+        }
+
+        return el.vr().toString() + ":" + (el.bigEndian() ? "B" : "L") + ":" + StringUtil.toHexString(el.getBytes(), true);
+    }
+
+    protected static void decodeElement(DicomObject dicom, int tag, String value) throws IOException
+    {
+        if ((value == null) || (value.length() == 0))
+        {
+            return;
+        }
+
+        if ((value.length() < 5) || (value.charAt(2) != ':') || (value.charAt(4) != ':'))
+        {
+            throw new IOException("Invalid index value for tag:" + String.format("%08X", tag) + ":" + value);
+        }
+
+        VR vr = VR.valueOf((value.charAt(0) << 8) | value.charAt(1));
+        boolean bigEndian = (value.charAt(3) == 'B');
+        byte bytes[] = CSVJournal.parseHex(value.substring(5));
+
+        if (bytes == null)
+        {
+            throw new IOException("Invalid index value for tag:" + String.format("%08X", tag) + ":" + value);
+        }
+
+        dicom.putBytes(tag, vr, bytes, bigEndian);
+    }
+
+}
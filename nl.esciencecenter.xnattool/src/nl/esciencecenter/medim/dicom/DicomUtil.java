@@ -31,6 +31,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.Hashtable;
@@ -49,7 +50,9 @@ import nl.esciencecenter.ptk.util.StringUtil;
 import org.dcm4che2.data.BasicDicomObject;
 import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.TransferSyntax;
 import org.dcm4che2.data.VR;
+import org.dcm4che2.io.DicomInputHandler;
 import org.dcm4che2.io.DicomInputStream;
 import org.dcm4che2.io.DicomOutputStream;
 import org.dcm4che2.io.StopTagInputHandler;
@@ -248,6 +251,95 @@ public class DicomUtil
         return readDicom(file, -1);
     }
 
+    /**
+     * Size of the pooled probe buffer. Must be at least the preamble plus magic (132 bytes). A header only read of most
+     * files doesn't need more than the first few kilobytes.
+     */
+    public static final int PROBE_BUFFER_SIZE = 8 * 1024;
+
+    private static ThreadLocal<byte[]> probeBuffers = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[PROBE_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * Probe and read Dicom file, opening the file only once. The first bytes of the file are read into a pooled
+     * (per thread) buffer, optionally the magic bytes are checked, and the header is parsed from the buffer followed by
+     * the rest of the same file stream.<br>
+     * Compressed (.gz, .zip) files are read using readDicom(File,int) after a separate magic check.
+     *
+     * @param checkMagic
+     *            whether to check the 'DICM' magic at offset 128 before parsing.
+     * @return DicomObject or null if checkMagic is true and the file doesn't have the Dicom magic.
+     */
+    public static DicomObject probeDicom(File file, boolean checkMagic, int maxTag) throws IOException
+    {
+        String name = file.getName();
+
+        if (name.endsWith(".gz") || name.endsWith(".zip"))
+        {
+            if (checkMagic && (hasDicomMagic(file) == false))
+            {
+                return null;
+            }
+
+            return readDicom(file, maxTag);
+        }
+
+        InputStream fin = new FileInputStream(file);
+
+        try
+        {
+            byte buf[] = probeBuffers.get();
+            int len = 0;
+
+            while (len < buf.length)
+            {
+                int numRead = fin.read(buf, len, buf.length - len);
+
+                if (numRead < 0)
+                {
+                    break;
+                }
+
+                len += numRead;
+            }
+
+            if (checkMagic && ((len < 128 + 4) || (hasDicomMagic(buf) == false)))
+            {
+                return null;
+            }
+
+            InputStream in = new ByteArrayInputStream(buf, 0, len);
+
+            if (len == buf.length)
+            {
+                in = new SequenceInputStream(in, fin);
+            }
+
+            return readDicom(in, maxTag);
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Could not read file:" + file + "\n" + e.getMessage(), e);
+        }
+        finally
+        {
+            try
+            {
+                fin.close();
+            }
+            catch (IOException ignore)
+            {
+                ;
+            }
+        }
+    }
+
     public static boolean hasDicomMagic(FSPath node)
     {
         return hasDicomMagic(node.toJavaFile());
@@ -402,6 +494,273 @@ public class DicomUtil
         return;
     }
 
+    // ========================================================================
+    // Streaming Dicom Rewriter
+    // ========================================================================
+
+    /**
+     * Handler for processing the Dicom elements during rewriteDicom().
+     */
+    public static interface DicomRewriteHandler
+    {
+        /**
+         * Process elements of the Dicom file. The elements before the PixelData, including the File Meta Information,
+         * are passed with isHeader=true. Optional trailing elements after the PixelData are passed with
+         * isHeader=false.
+         */
+        void processElements(DicomObject dicom, boolean isHeader) throws Exception;
+    }
+
+    /**
+     * Input handler which stops reading at the top level PixelData element.
+     */
+    private static class PixelDataStopHandler implements DicomInputHandler
+    {
+        private boolean stoppedAtPixelData = false;
+
+        @Override
+        public boolean readValue(DicomInputStream in) throws IOException
+        {
+            if ((in.tag() == Tag.PixelData) && (in.level() == 0))
+            {
+                stoppedAtPixelData = true;
+                return false;
+            }
+
+            return in.readValue(in);
+        }
+    }
+
+    /**
+     * Streaming rewrite of a Dicom file. Only the elements before and after the PixelData are read into memory and
+     * passed to the handler. The PixelData itself is copied from source to destination without buffering it, or
+     * skipped if keepPixelData is false. The result is the same as reading the complete Dicom object, processing it and
+     * writing it with writeDicom().
+     * 
+     * @param source
+     *            - source file. Files ending with ".gz" or ".zip" are decompressed.
+     * @param dest
+     *            - destination file.
+     * @param keepPixelData
+     *            - whether to copy the PixelData or to remove it.
+     * @param handler
+     *            - processes the (header) elements.
+     */
+    public static File rewriteDicom(File source, File dest, boolean keepPixelData, DicomRewriteHandler handler)
+            throws Exception
+    {
+        OutputStream fout = new FileOutputStream(dest);
+
+        try
+        {
+            rewriteDicom(source, fout, keepPixelData, handler);
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Failed to rewrite file:" + source + " to:" + dest + "\n" + e.getMessage(), e);
+        }
+        finally
+        {
+            try
+            {
+                fout.close();
+            }
+            catch (IOException ignore)
+            {
+                ;
+            }
+        }
+
+        return dest;
+    }
+
+    /**
+     * Streaming rewrite of a Dicom file to an OutputStream, for example the body of an upload request. The
+     * OutputStream is flushed but not closed.
+     * 
+     * @see #rewriteDicom(File, File, boolean, DicomRewriteHandler)
+     */
+    public static void rewriteDicom(File source, OutputStream out, boolean keepPixelData, DicomRewriteHandler handler)
+            throws Exception
+    {
+        InputStream fin = new FileInputStream(source);
+
+        try
+        {
+            if (source.getName().endsWith(".gz"))
+                fin = new GZIPInputStream(fin);
+            else if (source.getName().endsWith(".zip"))
+                fin = new ZipInputStream(fin);
+
+            rewriteDicom(fin, out, keepPixelData, handler);
+        }
+        finally
+        {
+            try
+            {
+                fin.close();
+            }
+            catch (IOException ignore)
+            {
+                ;
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the rewritten Dicom file without storing it.
+     * 
+     * @see #rewriteDicom(File, File, boolean, DicomRewriteHandler)
+     */
+    public static long getRewrittenSize(File source, boolean keepPixelData, DicomRewriteHandler handler) throws Exception
+    {
+        final long size[] = new long[1];
+
+        rewriteDicom(source, new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                size[0]++;
+            }
+
+            @Override
+            public void write(byte bytes[], int offset, int len)
+            {
+                size[0] += len;
+            }
+        }, keepPixelData, handler);
+
+        return size[0];
+    }
+
+    /**
+     * Streaming rewrite of Dicom stream. Does not close the streams.
+     * 
+     * @see #rewriteDicom(File, File, boolean, DicomRewriteHandler)
+     */
+    public static void rewriteDicom(InputStream in, OutputStream out, boolean keepPixelData, DicomRewriteHandler handler)
+            throws Exception
+    {
+        DicomInputStream din = new DicomInputStream(new BufferedInputStream(in));
+        PixelDataStopHandler stopHandler = new PixelDataStopHandler();
+        din.setHandler(stopHandler);
+
+        DicomObject header = din.readDicomObject();
+        handler.processElements(header, true);
+
+        TransferSyntax inputTs = din.getTransferSyntax();
+        String outputTsUid = header.getString(Tag.TransferSyntaxUID);
+        TransferSyntax outputTs = (outputTsUid != null) ? TransferSyntax.valueOf(outputTsUid) : inputTs;
+
+        // Check before writing anything. PixelData is copied as is: byte order must be the same.
+        if (inputTs.deflated() || outputTs.deflated())
+        {
+            throw new IOException("Cannot stream deflated Transfer Syntax:" + inputTs.uid() + " -> " + outputTs.uid());
+        }
+
+        if (stopHandler.stoppedAtPixelData && keepPixelData && (inputTs.bigEndian() != outputTs.bigEndian()))
+        {
+            throw new IOException("Cannot stream PixelData: byte order of Transfer Syntax changed from " + inputTs.uid() + " to "
+                    + outputTs.uid());
+        }
+
+        BufferedOutputStream bos = new BufferedOutputStream(out);
+        DicomOutputStream dos = new DicomOutputStream(bos);
+
+        dos.writeDicomFile(header);
+
+        if (stopHandler.stoppedAtPixelData)
+        {
+            copyPixelData(din, keepPixelData ? dos : null);
+
+            // continue with optional trailing elements.
+            DicomObject trailing = new BasicDicomObject();
+            din.setHandler(din);
+            din.readDicomObject(trailing, -1);
+
+            if (trailing.isEmpty() == false)
+            {
+                handler.processElements(trailing, false);
+                dos.writeDataset(trailing, outputTs);
+            }
+        }
+
+        dos.finish();
+        bos.flush();
+    }
+
+    /**
+     * Copy (or skip) value of the PixelData element at the current position of the DicomInputStream. Encapsulated
+     * PixelData is copied fragment by fragment.
+     * 
+     * @param dos
+     *            - destination stream or null to skip the PixelData.
+     */
+    private static void copyPixelData(DicomInputStream din, DicomOutputStream dos) throws IOException
+    {
+        byte buffer[] = new byte[64 * 1024];
+        int len = din.valueLength();
+
+        if (dos != null)
+        {
+            dos.writeHeader(Tag.PixelData, din.vr(), len);
+        }
+
+        if (len != -1)
+        {
+            copyBytes(din, dos, len, buffer);
+            return;
+        }
+
+        // Encapsulated PixelData: (offset table and) fragments until sequence delimiter.
+        while (true)
+        {
+            din.readHeader();
+            int tag = din.tag();
+            int itemLen = din.valueLength();
+
+            if (tag == Tag.SequenceDelimitationItem)
+            {
+                if (dos != null)
+                {
+                    dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
+                }
+                return;
+            }
+
+            if (tag != Tag.Item)
+            {
+                throw new IOException("Unexpected tag in encapsulated PixelData:" + Integer.toHexString(tag));
+            }
+
+            if (dos != null)
+            {
+                dos.writeHeader(Tag.Item, null, itemLen);
+            }
+
+            copyBytes(din, dos, itemLen, buffer);
+        }
+    }
+
+    private static void copyBytes(DicomInputStream din, OutputStream out, long len, byte buffer[]) throws IOException
+    {
+        long todo = len;
+
+        while (todo > 0)
+        {
+            int num = (int) Math.min(buffer.length, todo);
+            din.readFully(buffer, 0, num);
+
+            if (out != null)
+            {
+                out.write(buffer, 0, num);
+            }
+
+            todo -= num;
+        }
+    }
+
     public static byte[] getBytes(DicomObject dicom) throws IOException
     {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim.dicom;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
+
+/**
+ * Bounded (LRU) cache of processed tag values. Maps (tag, processing option, input value) to the hashed and/or
+ * encrypted result. Slices of the same series share most UIDs and identifiers, so the expensive encryption and hashing
+ * only has to be done once per series.
+ * <p>
+ * The cache is shared by the threads of a DicomProcessor. It is split into segments with their own lock and LRU order,
+ * so concurrent lookups of different values don't wait for each other.
+ * <p>
+ * The cache is only valid for the processing settings it was created for, see checkProfile().
+ */
+public class ProcessedValueCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Number of segments, must be a power of two.
+     */
+    private static final int NUM_SEGMENTS = 16;
+
+    /**
+     * Cache key: (tag, processing option, input value).
+     */
+    private static class ValueKey
+    {
+        private final int tagNr;
+
+        private final TagProcessingOption option;
+
+        private final String value;
+
+        private final int hash;
+
+        ValueKey(int tagNr, TagProcessingOption option, String value)
+        {
+            this.tagNr = tagNr;
+            this.option = option;
+            this.value = value;
+            this.hash = 31 * (31 * tagNr + option.hashCode()) + value.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+
+            if ((obj instanceof ValueKey) == false)
+                return false;
+
+            ValueKey other = (ValueKey) obj;
+            return (tagNr == other.tagNr) && (option == other.option) && value.equals(other.value);
+        }
+    }
+
+    /**
+     * LRU segment, access is synchronized on the segment.
+     */
+    private static class Segment extends LinkedHashMap<ValueKey, String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private int maxEntries;
+
+        private long numHits = 0;
+
+        private long numMisses = 0;
+
+        Segment(int maxEntries)
+        {
+            super(64, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ValueKey, String> eldest)
+        {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * @return the processing settings which affect the hashed and encrypted values.
+     */
+    protected static Object[] getProfileSettings(DicomProcessingProfile profile)
+    {
+        byte cryptKey[] = profile.getEncryptionKey();
+        byte hashSalt[] = profile.hashSalt;
+
+        return new Object[] {
+                (cryptKey != null) ? cryptKey.clone() : null,
+                profile.getCryptScheme(),
+                (hashSalt != null) ? hashSalt.clone() : null,
+                profile.prefixHashSalt,
+                profile.getUIDPrefix(),
+                profile.getMaxHashedUIDByteLength()
+        };
+    }
+
+    // ========================================================================
+    //
+    // ========================================================================
+
+    private final Segment segments[];
+
+    private volatile int maxEntries;
+
+    /**
+     * Settings of the cached values, access is synchronized on the cache.
+     */
+    private Object[] profileSettings;
+
+    public ProcessedValueCache()
+    {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ProcessedValueCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+        this.segments = new Segment[NUM_SEGMENTS];
+
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+        {
+            segments[i] = new Segment(getSegmentMaxEntries(maxEntries));
+        }
+    }
+
+    private static int getSegmentMaxEntries(int maxEntries)
+    {
+        return (maxEntries + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+    }
+
+    private Segment getSegment(ValueKey key)
+    {
+        int h = key.hash;
+        return segments[(h ^ (h >>> 16)) & (NUM_SEGMENTS - 1)];
+    }
+
+    /**
+     * @return cached value or null if not in the cache.
+     */
+    public String get(int tagNr, TagProcessingOption option, String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        ValueKey key = new ValueKey(tagNr, option, value);
+        Segment segment = getSegment(key);
+
+        synchronized (segment)
+        {
+            String result = segment.get(key);
+
+            if (result != null)
+            {
+                segment.numHits++;
+            }
+            else
+            {
+                segment.numMisses++;
+            }
+
+            return result;
+        }
+    }
+
+    public void put(int tagNr, TagProcessingOption option, String value, String result)
+    {
+        if ((value == null) || (result == null) || (maxEntries <= 0))
+        {
+            return;
+        }
+
+        ValueKey key = new ValueKey(tagNr, option, value);
+        Segment segment = getSegment(key);
+
+        synchronized (segment)
+        {
+            segment.put(key, result);
+        }
+    }
+
+    /**
+     * Checks whether cached values were created with the same settings as the specified profile: encryption key and
+     * scheme, hash salt and salt position, UID prefix and maximum UID hash length. If not, the cache is cleared.
+     *
+     * @return true if the cache was cleared.
+     */
+    public synchronized boolean checkProfile(DicomProcessingProfile profile)
+    {
+        Object newSettings[] = getProfileSettings(profile);
+
+        if (Arrays.deepEquals(profileSettings, newSettings))
+        {
+            return false;
+        }
+
+        clear();
+        this.profileSettings = newSettings;
+
+        return true;
+    }
+
+    /**
+     * Wipe all cached values and reset the statistics.
+     */
+    public synchronized void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+                segment.numHits = 0;
+                segment.numMisses = 0;
+            }
+        }
+
+        profileSettings = null;
+    }
+
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.maxEntries = getSegmentMaxEntries(maxEntries);
+
+                if (maxEntries <= 0)
+                {
+                    segment.clear();
+                }
+            }
+        }
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public int size()
+    {
+        int size = 0;
+
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    public long getNumHits()
+    {
+        long numHits = 0;
+
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                numHits += segment.numHits;
+            }
+        }
+
+        return numHits;
+    }
+
+    public long getNumMisses()
+    {
+        long numMisses = 0;
+
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                numMisses += segment.numMisses;
+            }
+        }
+
+        return numMisses;
+    }
+
+    /**
+     * @return hit ratio between 0 and 1.
+     */
+    public double getHitRatio()
+    {
+        long numHits = getNumHits();
+        long total = numHits + getNumMisses();
+
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        return (double) numHits / (double) total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ProcessedValueCache:[size=%d/%d,hits=%d,misses=%d,hitRatio=%.3f]", size(), maxEntries,
+                getNumHits(), getNumMisses(), getHitRatio());
+    }
+
+}
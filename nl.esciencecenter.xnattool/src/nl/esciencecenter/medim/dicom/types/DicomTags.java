@@ -177,6 +177,11 @@ public class DicomTags
 
     protected Map<Integer, TagDirective> dicomTags = new Hashtable<Integer, TagDirective>();
 
+    /**
+     * Compiled lookup table of dicomTags, recompiled after reading tags.
+     */
+    protected TagDirectiveTable tagTable = new TagDirectiveTable(new ArrayList<TagDirective>());
+
     protected DicomTags()
     {
         init();
@@ -284,11 +289,21 @@ public class DicomTags
             // logger.debugPritnf("TagOption: 0x%8x '%s' : %s\n",tag.tagNr,tag.name,tag.option);
             this.dicomTags.put(tag.tagNr, tag); // register
         }
+
+        this.tagTable = new TagDirectiveTable(dicomTags.values());
+    }
+
+    /**
+     * Returns immutable lookup table of the tag directives.
+     */
+    public TagDirectiveTable getTagTable()
+    {
+        return tagTable;
     }
 
     public TagProcessingOption getOption(int tagNr)
     {
-        TagDirective el = this.dicomTags.get(tagNr);
+        TagDirective el = this.tagTable.get(tagNr);
         if (el == null)
             return null;
         return el.option;
@@ -296,11 +311,7 @@ public class DicomTags
 
     public TagProcessingOption getOption(int tagNr, TagProcessingOption defaultOption)
     {
-        TagDirective el = this.dicomTags.get(tagNr);
-
-        if (el == null)
-            return defaultOption;
-        return el.option;
+        return this.tagTable.getOption(tagNr, defaultOption);
     }
 
     /**
@@ -308,7 +319,7 @@ public class DicomTags
      */
     public boolean keepTag(int tagNr)
     {
-        TagDirective tag = this.dicomTags.get(tagNr);
+        TagDirective tag = this.tagTable.get(tagNr);
 
         if (tag == null)
             return false;
@@ -334,7 +345,7 @@ public class DicomTags
 
     public String getTagDescription(int tagNr)
     {
-        TagDirective el = this.dicomTags.get(tagNr);
+        TagDirective el = this.tagTable.get(tagNr);
         if (el == null)
             return null;
         return el.name;
@@ -342,7 +353,7 @@ public class DicomTags
 
     public VR getVRofTag(int tagnr)
     {
-        TagDirective tag = this.dicomTags.get(tagnr);
+        TagDirective tag = this.tagTable.get(tagnr);
         if (tag == null)
             return null;
 
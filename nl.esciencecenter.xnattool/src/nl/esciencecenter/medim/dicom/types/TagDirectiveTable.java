@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim.dicom.types;
+
+import java.util.Collection;
+
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagDirective;
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
+
+/**
+ * Immutable lookup table of TagDirectives, compiled from DicomTags. The table is an open addressing hash table with
+ * linear probing on the (int) tag number, so a lookup doesn't box the tag number and doesn't need synchronization. This
+ * lookup is done for every element of every processed Dicom file.
+ */
+public final class TagDirectiveTable
+{
+    private final int tagNrs[];
+
+    private final TagDirective directives[];
+
+    private final int mask;
+
+    private final int size;
+
+    /**
+     * Compile table. Later directives of the same tag replace earlier ones.
+     */
+    public TagDirectiveTable(Collection<TagDirective> tags)
+    {
+        // power of two, load factor at most 0.5
+        int capacity = 4;
+
+        while (capacity < tags.size() * 2)
+        {
+            capacity <<= 1;
+        }
+
+        this.tagNrs = new int[capacity];
+        this.directives = new TagDirective[capacity];
+        this.mask = capacity - 1;
+
+        int num = 0;
+
+        for (TagDirective tag : tags)
+        {
+            int index = indexOf(tag.tagNr);
+
+            if (directives[index] == null)
+            {
+                num++;
+            }
+
+            tagNrs[index] = tag.tagNr;
+            directives[index] = tag;
+        }
+
+        this.size = num;
+    }
+
+    private static int hash(int tagNr)
+    {
+        // spread group and element bits.
+        int h = tagNr * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return index of the tag or of the empty slot where the tag should be.
+     */
+    private int indexOf(int tagNr)
+    {
+        int index = hash(tagNr) & mask;
+
+        while ((directives[index] != null) && (tagNrs[index] != tagNr))
+        {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    /**
+     * @return directive or null if the tag is not defined.
+     */
+    public TagDirective get(int tagNr)
+    {
+        return directives[indexOf(tagNr)];
+    }
+
+    public TagProcessingOption getOption(int tagNr, TagProcessingOption defaultOption)
+    {
+        TagDirective tag = directives[indexOf(tagNr)];
+
+        if (tag == null)
+        {
+            return defaultOption;
+        }
+
+        return tag.option;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+}
@@ -20,6 +20,7 @@
 
 package nl.esciencecenter.medim.nifti;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -29,6 +30,7 @@ import nl.esciencecenter.medim.ImageDirEventType;
 import nl.esciencecenter.medim.ImageDirScanner;
 import nl.esciencecenter.medim.ImageTypes;
 import nl.esciencecenter.medim.ScanSetInfo;
+import nl.esciencecenter.medim.ScanSetInfo.VolumeParameters;
 import nl.esciencecenter.medim.StudyInfo;
 import nl.esciencecenter.medim.SubjectInfo;
 import nl.esciencecenter.medim.exceptions.ScanSetException;
@@ -52,6 +54,11 @@ public class NiftiDirScanner extends ImageDirScanner
 
     private List<FSPath> imageFiles;
 
+    /**
+     * Files skipped because of an invalid NIfTI header.
+     */
+    protected List<FileError> fileErrors = new ArrayList<FileError>();
+
     /**
      * Filename field separator string. Can be anything String.split() accepts.
      */
@@ -79,6 +86,7 @@ public class NiftiDirScanner extends ImageDirScanner
         this.fireNewEvent(ImageDirEventType.STARTING, "Scanning (NIFTI) directory:" + imageDirUri.getPath());
 
         this.imageFiles = null;
+        this.fileErrors.clear();
 
         // First add all files
         logger.infoPrintf("Scanning NIFTI directory:%s\n", imageDirUri);
@@ -214,6 +222,26 @@ public class NiftiDirScanner extends ImageDirScanner
 
             String baseName = basenameH.value;
 
+            // Check header and file length before uploading (possibly large) volumes:
+            NiftiHeader header = null;
+
+            if (this.filterOptions.checkFileMagic && isNiftiExtension(extensionH.value))
+            {
+                try
+                {
+                    header = NiftiHeader.readAndValidate(new File(file.getURI().getPath()));
+                    logger.infoPrintf(" - Header: %s\n", header);
+                }
+                catch (IOException e)
+                {
+                    logger.logException(ClassLogger.ERROR, e, "Skipping invalid NIfTI file:%s\n", file);
+                    fileErrors.add(new FileError(file, e.getMessage()));
+                    this.fireNewEvent(ImageDirEventType.MESSAGE, "*** Skipping invalid NIfTI file:" + file + "\n"
+                            + e.getMessage());
+                    continue;
+                }
+            }
+
             String strs[] = baseName.split(getFieldSeperator());
 
             String subjId;
@@ -317,6 +345,12 @@ public class NiftiDirScanner extends ImageDirScanner
                 scanSet.setSeriesDescription("Nifti ScanSet File.");
             }
 
+            // volume of (atlas) scan set, not of annotations:
+            if ((header != null) && (isBinaryAnnotation == false))
+            {
+                scanSet.setVolumeParameters(createVolumeParameters(header));
+            }
+
             // register:
             this.addScanSet(scanUid, scanSet);
         }
@@ -325,6 +359,31 @@ public class NiftiDirScanner extends ImageDirScanner
         // this.imageFiles=imageFiles;
     }
 
+    protected boolean isNiftiExtension(String extension)
+    {
+        return (extension != null)
+                && (extension.equalsIgnoreCase("nii") || extension.equalsIgnoreCase("nii.gz"));
+    }
+
+    protected VolumeParameters createVolumeParameters(NiftiHeader header)
+    {
+        VolumeParameters params = new VolumeParameters();
+        params.dimensions = header.getDimensions();
+        params.voxelSizes = header.getVoxelSizes();
+        params.datatype = header.getDatatypeName();
+        params.bitsPerVoxel = header.getBitsPerVoxel();
+        params.voxOffset = header.getVoxOffset();
+        return params;
+    }
+
+    /**
+     * @return files skipped during the last scan because of an invalid NIfTI header.
+     */
+    public List<FileError> getFileErrors()
+    {
+        return fileErrors;
+    }
+
     /**
      * Return field seperator in filename. Default to '-' (dash).
      * 
@@ -0,0 +1,572 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim.nifti;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+/**
+ * NIfTI-1 and NIfTI-2 header reader. Only the fixed size header is read: a ".nii" file is memory mapped and of a
+ * ".nii.gz" file only the header bytes are inflated, so the voxel data is not read.<br>
+ * The header can be checked against the file length to detect truncated files before uploading them, see
+ * readAndValidate().
+ */
+public class NiftiHeader
+{
+    private static final ClassLogger logger = ClassLogger.getLogger(NiftiHeader.class);
+
+    public static final int NIFTI1_HEADER_SIZE = 348;
+
+    public static final int NIFTI2_HEADER_SIZE = 540;
+
+    /**
+     * Maximum number of dimensions.
+     */
+    public static final int MAX_DIMS = 7;
+
+    /**
+     * Read and check header of a ".nii" or ".nii.gz" file.
+     *
+     * @throws IOException
+     *             if the file couldn't be read or isn't a valid NIfTI file.
+     */
+    public static NiftiHeader readHeader(File file) throws IOException
+    {
+        ByteBuffer buf;
+
+        if (isGzipped(file))
+        {
+            buf = inflateHeader(file);
+        }
+        else
+        {
+            buf = mapHeader(file);
+        }
+
+        try
+        {
+            return parseHeader(buf);
+        }
+        catch (IOException e)
+        {
+            throw new IOException("Invalid NIfTI file:" + file + "\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Maximum uncompressed size which can be checked with the gzip trailer (ISIZE is the size modulo 2^32).
+     */
+    private static final long MAX_GZIP_ISIZE = 0xffffffffL;
+
+    /**
+     * Read header and check whether the file length matches the declared volume size.<br>
+     * For a gzipped file the uncompressed size is read from the gzip trailer. The trailer only contains the size of the
+     * last gzip member, so if it is too small the file is inflated to count the size of all members (for example
+     * bgzip files). The size of files of 4 GiB or larger isn't checked, as the trailer is ambiguous for these.
+     *
+     * @throws IOException
+     *             if the file isn't a valid NIfTI file or if the file is truncated.
+     */
+    public static NiftiHeader readAndValidate(File file) throws IOException
+    {
+        NiftiHeader header = readHeader(file);
+        long expected = header.getExpectedFileLength();
+
+        // data is in a separate .img file.
+        if (expected < 0)
+        {
+            return header;
+        }
+
+        long length;
+
+        if (isGzipped(file))
+        {
+            if (expected > MAX_GZIP_ISIZE)
+            {
+                logger.infoPrintf("Not checking size of large gzipped NIfTI file (expected %d bytes):%s\n", expected,
+                        file);
+                return header;
+            }
+
+            length = readGzipSize(file);
+
+            if (length < expected)
+            {
+                // multiple gzip members or truncated.
+                length = countGzipSize(file);
+            }
+        }
+        else
+        {
+            length = file.length();
+        }
+
+        if (length < expected)
+        {
+            throw new IOException("Truncated NIfTI file (length " + length + " < expected " + expected + "):" + file);
+        }
+        else if (length > expected)
+        {
+            logger.warnPrintf("NIfTI file is longer than declared volume (length %d > expected %d):%s\n", length,
+                    expected, file);
+        }
+
+        return header;
+    }
+
+    public static boolean isGzipped(File file)
+    {
+        return file.getName().toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Memory map the header of an uncompressed file.
+     */
+    protected static ByteBuffer mapHeader(File file) throws IOException
+    {
+        RandomAccessFile raFile = new RandomAccessFile(file, "r");
+
+        try
+        {
+            FileChannel channel = raFile.getChannel();
+            long size = Math.min(channel.size(), NIFTI2_HEADER_SIZE);
+
+            // Mapping stays valid after the channel has been closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally
+        {
+            raFile.close();
+        }
+    }
+
+    /**
+     * Inflate only the header bytes of a gzipped file.
+     */
+    protected static ByteBuffer inflateHeader(File file) throws IOException
+    {
+        InputStream inps = new GZIPInputStream(new FileInputStream(file));
+
+        try
+        {
+            byte bytes[] = new byte[NIFTI2_HEADER_SIZE];
+            int len = 0;
+
+            while (len < bytes.length)
+            {
+                int numRead = inps.read(bytes, len, bytes.length - len);
+
+                if (numRead < 0)
+                {
+                    break;
+                }
+
+                len += numRead;
+            }
+
+            return ByteBuffer.wrap(bytes, 0, len);
+        }
+        finally
+        {
+            inps.close();
+        }
+    }
+
+    /**
+     * @return uncompressed size modulo 2^32 from the gzip trailer (ISIZE).
+     */
+    protected static long readGzipSize(File file) throws IOException
+    {
+        RandomAccessFile raFile = new RandomAccessFile(file, "r");
+
+        try
+        {
+            if (raFile.length() < 4)
+            {
+                throw new IOException("Invalid gzip file, file too short:" + file);
+            }
+
+            byte bytes[] = new byte[4];
+            raFile.seek(raFile.length() - 4);
+            raFile.readFully(bytes);
+
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xffffffffL;
+        }
+        finally
+        {
+            raFile.close();
+        }
+    }
+
+    /**
+     * @return uncompressed size of all gzip members.
+     * @throws IOException
+     *             if the file is truncated.
+     */
+    protected static long countGzipSize(File file) throws IOException
+    {
+        InputStream inps = new GZIPInputStream(new FileInputStream(file), 64 * 1024);
+
+        try
+        {
+            byte buffer[] = new byte[64 * 1024];
+            long size = 0;
+            int numRead;
+
+            while ((numRead = inps.read(buffer)) >= 0)
+            {
+                size += numRead;
+            }
+
+            return size;
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Truncated NIfTI file (incomplete gzip stream):" + file, e);
+        }
+        finally
+        {
+            inps.close();
+        }
+    }
+
+    /**
+     * Parse NIfTI-1 or NIfTI-2 header. Byte order is detected from the header size field.
+     */
+    public static NiftiHeader parseHeader(ByteBuffer buf) throws IOException
+    {
+        if (buf.limit() < 4)
+        {
+            throw new IOException("File too short for NIfTI header (" + buf.limit() + " bytes)");
+        }
+
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        int headerSize = buf.getInt(0);
+
+        if ((headerSize != NIFTI1_HEADER_SIZE) && (headerSize != NIFTI2_HEADER_SIZE))
+        {
+            buf.order(ByteOrder.BIG_ENDIAN);
+            headerSize = buf.getInt(0);
+        }
+
+        NiftiHeader header = new NiftiHeader();
+        header.byteOrder = buf.order();
+        header.headerSize = headerSize;
+
+        if (headerSize == NIFTI1_HEADER_SIZE)
+        {
+            checkLength(buf, NIFTI1_HEADER_SIZE);
+            header.version = 1;
+            header.singleFile = checkMagic(buf, 344, '1');
+
+            for (int i = 0; i <= MAX_DIMS; i++)
+            {
+                header.dims[i] = buf.getShort(40 + 2 * i);
+                header.pixDims[i] = buf.getFloat(76 + 4 * i);
+            }
+
+            header.datatype = buf.getShort(70);
+            header.bitpix = buf.getShort(72);
+            header.voxOffset = (long) buf.getFloat(108);
+        }
+        else if (headerSize == NIFTI2_HEADER_SIZE)
+        {
+            checkLength(buf, NIFTI2_HEADER_SIZE);
+            header.version = 2;
+            header.singleFile = checkMagic(buf, 4, '2');
+
+            header.datatype = buf.getShort(12);
+            header.bitpix = buf.getShort(14);
+
+            for (int i = 0; i <= MAX_DIMS; i++)
+            {
+                header.dims[i] = buf.getLong(16 + 8 * i);
+                header.pixDims[i] = buf.getDouble(104 + 8 * i);
+            }
+
+            header.voxOffset = buf.getLong(168);
+        }
+        else
+        {
+            throw new IOException("Not a NIfTI file, invalid header size:" + headerSize);
+        }
+
+        header.check();
+
+        return header;
+    }
+
+    private static void checkLength(ByteBuffer buf, int headerSize) throws IOException
+    {
+        if (buf.limit() < headerSize)
+        {
+            throw new IOException("Truncated NIfTI header (" + buf.limit() + " < " + headerSize + " bytes)");
+        }
+    }
+
+    /**
+     * Checks magic "n+N\0" (single file) or "niN\0" (header/image pair).
+     *
+     * @return true for a single file.
+     */
+    private static boolean checkMagic(ByteBuffer buf, int offset, char versionChar) throws IOException
+    {
+        byte b1 = buf.get(offset + 1);
+
+        if ((buf.get(offset) != 'n') || ((b1 != '+') && (b1 != 'i')) || (buf.get(offset + 2) != versionChar)
+                || (buf.get(offset + 3) != 0))
+        {
+            throw new IOException("Invalid NIfTI-" + versionChar + " magic");
+        }
+
+        return (b1 == '+');
+    }
+
+    /**
+     * @return datatype name of NIfTI datatype code or "UNKNOWN(code)".
+     */
+    public static String getDatatypeName(int datatype)
+    {
+        switch (datatype)
+        {
+            case 1:
+                return "BINARY";
+            case 2:
+                return "UINT8";
+            case 4:
+                return "INT16";
+            case 8:
+                return "INT32";
+            case 16:
+                return "FLOAT32";
+            case 32:
+                return "COMPLEX64";
+            case 64:
+                return "FLOAT64";
+            case 128:
+                return "RGB24";
+            case 256:
+                return "INT8";
+            case 512:
+                return "UINT16";
+            case 768:
+                return "UINT32";
+            case 1024:
+                return "INT64";
+            case 1280:
+                return "UINT64";
+            case 1536:
+                return "FLOAT128";
+            case 1792:
+                return "COMPLEX128";
+            case 2048:
+                return "COMPLEX256";
+            case 2304:
+                return "RGBA32";
+            default:
+                return "UNKNOWN(" + datatype + ")";
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    protected int version;
+
+    protected int headerSize;
+
+    protected ByteOrder byteOrder;
+
+    /**
+     * Whether header and data are in one file (magic "n+1" or "n+2").
+     */
+    protected boolean singleFile;
+
+    /**
+     * NIfTI dim[] field: dims[0] is the number of dimensions.
+     */
+    protected long dims[] = new long[MAX_DIMS + 1];
+
+    /**
+     * NIfTI pixdim[] field: pixDims[1..] are the voxel sizes.
+     */
+    protected double pixDims[] = new double[MAX_DIMS + 1];
+
+    protected int datatype;
+
+    protected int bitpix;
+
+    protected long voxOffset;
+
+    protected NiftiHeader()
+    {
+    }
+
+    protected void check() throws IOException
+    {
+        if ((dims[0] < 1) || (dims[0] > MAX_DIMS))
+        {
+            throw new IOException("Invalid number of dimensions:" + dims[0]);
+        }
+
+        for (int i = 1; i <= dims[0]; i++)
+        {
+            if (dims[i] < 1)
+            {
+                throw new IOException("Invalid size of dimension " + i + ":" + dims[i]);
+            }
+        }
+
+        if (bitpix <= 0)
+        {
+            throw new IOException("Invalid number of bits per voxel:" + bitpix);
+        }
+
+        if (singleFile && (voxOffset < headerSize))
+        {
+            throw new IOException("Invalid voxel offset:" + voxOffset);
+        }
+    }
+
+    /**
+     * @return 1 for NIfTI-1 or 2 for NIfTI-2.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public ByteOrder getByteOrder()
+    {
+        return byteOrder;
+    }
+
+    public boolean isSingleFile()
+    {
+        return singleFile;
+    }
+
+    public int getNumDimensions()
+    {
+        return (int) dims[0];
+    }
+
+    /**
+     * @return sizes of the dimensions, without the number of dimensions.
+     */
+    public long[] getDimensions()
+    {
+        long sizes[] = new long[getNumDimensions()];
+        System.arraycopy(dims, 1, sizes, 0, sizes.length);
+        return sizes;
+    }
+
+    /**
+     * @return voxel sizes of the dimensions, in the units of the header.
+     */
+    public double[] getVoxelSizes()
+    {
+        double sizes[] = new double[getNumDimensions()];
+        System.arraycopy(pixDims, 1, sizes, 0, sizes.length);
+        return sizes;
+    }
+
+    public int getDatatype()
+    {
+        return datatype;
+    }
+
+    public String getDatatypeName()
+    {
+        return getDatatypeName(datatype);
+    }
+
+    public int getBitsPerVoxel()
+    {
+        return bitpix;
+    }
+
+    public long getVoxOffset()
+    {
+        return voxOffset;
+    }
+
+    /**
+     * @return size in bytes of the voxel data.
+     */
+    public long getDataSize()
+    {
+        long numVoxels = 1;
+
+        for (int i = 1; i <= dims[0]; i++)
+        {
+            numVoxels *= dims[i];
+        }
+
+        return (numVoxels * bitpix + 7) / 8;
+    }
+
+    /**
+     * @return expected (uncompressed) file length or -1 if the data is in a separate image file.
+     */
+    public long getExpectedFileLength()
+    {
+        if (singleFile == false)
+        {
+            return -1;
+        }
+
+        return voxOffset + getDataSize();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("NiftiHeader[version=").append(version);
+        sb.append(",dims=");
+
+        for (int i = 1; i <= dims[0]; i++)
+        {
+            sb.append((i > 1) ? "x" : "").append(dims[i]);
+        }
+
+        sb.append(",datatype=").append(getDatatypeName());
+        sb.append(",bitpix=").append(bitpix);
+        sb.append(",voxOffset=").append(voxOffset);
+        sb.append("]");
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.medim.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+
+import nl.esciencecenter.ptk.csv.CSVReader;
+import nl.esciencecenter.ptk.csv.CSVWriter;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+/**
+ * Append-only journal file of CSV rows (UTF-8, ';' separated, '\n' terminated). Records are only appended, so after a
+ * crash at most the last record is incomplete, which is removed by truncateIncompleteRecord() before the journal is
+ * read. Interpretation of the records is up to the owner of the journal.
+ */
+public class CSVJournal
+{
+    private static ClassLogger logger = ClassLogger.getLogger(CSVJournal.class);
+
+    public static final String FIELD_SEPARATOR = ";";
+
+    public static final String LINE_SEPARATOR = "\n";
+
+    /**
+     * @return bytes of hexadecimal string or null if the string isn't a valid hexadecimal string.
+     */
+    public static byte[] parseHex(String hexStr)
+    {
+        if ((hexStr == null) || (hexStr.length() % 2 != 0))
+        {
+            return null;
+        }
+
+        byte bytes[] = new byte[hexStr.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            int high = Character.digit(hexStr.charAt(i * 2), 16);
+            int low = Character.digit(hexStr.charAt(i * 2 + 1), 16);
+
+            if ((high < 0) || (low < 0))
+            {
+                return null;
+            }
+
+            bytes[i] = (byte) ((high << 4) + low);
+        }
+
+        return bytes;
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    protected File file;
+
+    protected FileOutputStream outputStream;
+
+    protected Writer writer;
+
+    protected CSVWriter csvWriter;
+
+    protected boolean syncWrites = false;
+
+    public CSVJournal(File file)
+    {
+        this.file = file;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return true if the journal file exists and isn't empty.
+     */
+    public boolean exists()
+    {
+        return file.exists() && (file.length() > 0);
+    }
+
+    /**
+     * Remove incomplete last record. Appended records always end with a line separator.
+     */
+    public void truncateIncompleteRecord() throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            long pos = raf.length();
+
+            while (pos > 0)
+            {
+                raf.seek(pos - 1);
+                if (raf.read() == '\n')
+                {
+                    break;
+                }
+                pos--;
+            }
+
+            if (pos < raf.length())
+            {
+                logger.warnPrintf("Removing incomplete record from:%s\n", file);
+                raf.setLength(pos);
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Open journal for reading. The caller must close the returned Reader.
+     */
+    public Reader openReader() throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    public CSVReader createCSVReader(Reader reader)
+    {
+        return new CSVReader(reader, new String[] {
+                FIELD_SEPARATOR
+        });
+    }
+
+    /**
+     * Open journal for writing.
+     *
+     * @param append
+     *            - append to existing records, if false the journal is truncated.
+     */
+    public void openWriter(boolean append) throws IOException
+    {
+        outputStream = new FileOutputStream(file, append);
+        writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+        csvWriter = new CSVWriter(writer);
+        csvWriter.setFieldSeperator(FIELD_SEPARATOR);
+        csvWriter.setLineSeperator(LINE_SEPARATOR);
+    }
+
+    public boolean isOpen()
+    {
+        return (writer != null);
+    }
+
+    public void writeHeaders(String headers[]) throws IOException
+    {
+        checkOpen();
+        csvWriter.writeHeaders(headers);
+    }
+
+    /**
+     * Append record.
+     *
+     * @param flush
+     *            - flush record to the OS (and to disk if syncWrites is set). Otherwise the record is written when the
+     *            buffer is full or when the journal is closed.
+     */
+    public void writeRecord(String record[], boolean flush) throws IOException
+    {
+        checkOpen();
+        csvWriter.writeRow(record);
+
+        if (flush)
+        {
+            writer.flush();
+
+            if (syncWrites)
+            {
+                outputStream.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * If true, flushed records are synchronized to disk (fsync). Default is false: records are flushed to the OS, which
+     * survives a crash of the application but not of the OS.
+     */
+    public void setSyncWrites(boolean value)
+    {
+        this.syncWrites = value;
+    }
+
+    /**
+     * Replace this journal with (the closed) other journal, for example after writing a compacted journal to a
+     * temporary file. This journal must be closed.
+     */
+    public void replaceWith(CSVJournal other) throws IOException
+    {
+        if (isOpen() || other.isOpen())
+        {
+            throw new IOException("Journal still open:" + (isOpen() ? file : other.file));
+        }
+
+        if ((file.delete() == false) || (other.file.renameTo(file) == false))
+        {
+            throw new IOException("Failed to replace journal:" + file + " with:" + other.file);
+        }
+    }
+
+    public void close() throws IOException
+    {
+        if (writer == null)
+        {
+            return;
+        }
+
+        try
+        {
+            writer.close();
+        }
+        finally
+        {
+            writer = null;
+            csvWriter = null;
+            outputStream = null;
+        }
+    }
+
+    protected void checkOpen() throws IOException
+    {
+        if (writer == null)
+        {
+            throw new IOException("Journal is closed:" + file);
+        }
+    }
+
+}
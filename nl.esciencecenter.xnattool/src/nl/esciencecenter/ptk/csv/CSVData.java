@@ -21,12 +21,16 @@
 package nl.esciencecenter.ptk.csv;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.presentation.Presentation;
@@ -34,14 +38,11 @@ import nl.esciencecenter.ptk.util.ResourceLoader;
 import nl.esciencecenter.ptk.util.StringUtil;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
 
-import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.dataformat.csv.CsvMapper;
-import com.fasterxml.jackson.dataformat.csv.CsvParser;
-
 /**
- * CSVData Reader/Writer utility.
+ * CSVData Reader/Writer utility. Keeps the complete table in memory, use CSVReader and CSVWriter directly to stream
+ * large tables.
  */
-public class CSVData
+public class CSVData implements CSVRowHandler
 {
     private static ClassLogger logger = ClassLogger.getLogger(CSVData.class);
 
@@ -173,80 +174,57 @@ public class CSVData
 
     public void readFile(URI file) throws MalformedURLException, IOException
     {
-        ResourceLoader loader = ResourceLoader.getDefault();
-        String txt = loader.readText(file.toURL());
-        this.parseText(txt);
+        readURL(file.toURL());
     }
 
     public void readFile(String filename) throws IOException
     {
         ResourceLoader loader = ResourceLoader.getDefault();
-        String txt = loader.readText(loader.resolveUrl(filename));
-        this.parseText(txt);
+        readURL(loader.resolveUrl(filename));
     }
 
-    public void parseText(String csvText) throws IOException
+    protected void readURL(URL url) throws IOException
     {
-        // Extended CSV !
-        // Pass I: remove comments including the ending newline!
-        Pattern pat = Pattern.compile("^#.*\n", Pattern.MULTILINE);
-        csvText = pat.matcher(csvText).replaceAll("");
+        Reader reader = new InputStreamReader(url.openStream(), "UTF-8");
 
-        // todo: check how jackson can parse alternative field separators;
-        if (fieldSeparators != null)
+        try
         {
-            // csvText=csvText.replaceAll(",","_");
-
-            for (String sep : fieldSeparators)
-            {
-                // lazy replace
-                csvText = csvText.replaceAll(sep, ",");
-            }
+            read(reader);
+        }
+        finally
+        {
+            reader.close();
         }
+    }
 
-        // Not needed: Pass II: remove empty lines as a result of the
-        // pat=Pattern.compile("\n\n",Pattern.MULTILINE);
-        // newTxt=pat.matcher(newTxt).replaceAll("");
+    public void parseText(String csvText) throws IOException
+    {
+        read(new StringReader(csvText));
+    }
 
-        // ObjectMapper mapper=new ObjectMapper();
-        CsvMapper mapper = new CsvMapper();
-        mapper.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+    /**
+     * Read complete CSV text from Reader in a single pass. Reader is not closed.
+     */
+    public void read(Reader reader) throws IOException
+    {
+        CSVReader csvReader = new CSVReader(reader, fieldSeparators);
 
-        MappingIterator<Object[]> it = mapper.reader(Object[].class).readValues(csvText);
+        String headers[] = csvReader.readHeaders();
 
-        if (it.hasNext() == false)
+        if (headers == null)
         {
             throw new IOException("Empty text or csv text contains no headers!");
         }
 
-        // read header:
-        Object headers[] = it.next();
-
-        StringList list = new StringList();
-        for (int i = 0; i < headers.length; i++)
-        {
-            list.add(headers[i].toString());
-        }
-
+        StringList list = new StringList(headers);
         logger.debugPrintf("Headers=%s\n", list.toString("<>"));
         headerList = list;
 
         data = new ArrayList<String[]>();
 
-        // check header values.
-        while (it.hasNext())
+        String row[];
+        while ((row = csvReader.readRow()) != null)
         {
-            Object line[] = it.next();
-            String row[] = new String[line.length];
-
-            for (int j = 0; j < line.length; j++)
-            {
-                Object value = line[j];
-                if (value != null)
-                {
-                    row[j] = value.toString();
-                }
-            }
             data.add(row);
         }
 
@@ -352,8 +330,14 @@ public class CSVData
         if ((row < 0) || (row >= data.size()))
             return null;
 
-        String[] rowData = data.get(row);
+        return getRowAsString(data.get(row));
+    }
 
+    /**
+     * Return row data as single string, empty values are not quoted.
+     */
+    public static String getRowAsString(String rowData[])
+    {
         if ((rowData == null) || (rowData.length <= 0))
             return null;
 
@@ -392,14 +376,60 @@ public class CSVData
         writer.setFieldSeperator(fieldSeperator);
         writer.setLineSeperator(lineSeperator);
 
+        try
+        {
+            writeRows(writer);
+        }
+        catch (IOException e)
+        {
+            // StringBuilder doesn't throw IOExceptions.
+            throw new Error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write CSV text to Writer. Writer is flushed but not closed.
+     */
+    public void write(Writer output, String fieldSeperator, String lineSeperator) throws IOException
+    {
+        CSVWriter writer = new CSVWriter(output);
+        writer.setFieldSeperator(fieldSeperator);
+        writer.setLineSeperator(lineSeperator);
+        writeRows(writer);
+        writer.flush();
+    }
+
+    /**
+     * Push headers and rows to handler.
+     */
+    public void writeRows(CSVRowHandler handler) throws IOException
+    {
         String[] headers = this.headerList.toArray(new String[] {});
-        writer.writeHeaders(headers);
+        handler.handleHeaders(headers);
         for (int row = 0; row < this.getNrOfRows(); row++)
         {
-            writer.writeRow(this.getRow(row));
+            handler.handleRow(this.getRow(row));
         }
     }
 
+    /**
+     * Set headers, for CSVReader.readRows(). This data structure must be editable.
+     */
+    @Override
+    public void handleHeaders(String[] headers)
+    {
+        setHeaders(headers);
+    }
+
+    /**
+     * Add row, for CSVReader.readRows(). This data structure must be editable.
+     */
+    @Override
+    public void handleRow(String[] row)
+    {
+        addRow(row);
+    }
+
     protected void assertEditable()
     {
         if ((this.headerList == null) || (this.data == null))
@@ -415,7 +445,7 @@ public class CSVData
         }
     }
 
-    public String toCSVDateString(Date date)
+    public static String toCSVDateString(Date date)
     {
         String dateStr = "";
         if (date != null)
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.ptk.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streaming, single pass CSV reader. Reads one row at a time from a Reader, so files of any size can be processed in
+ * constant memory.
+ * <p>
+ * Extended CSV:
+ * <ul>
+ * <li>Multiple field separators, for example both ',' and ';'.
+ * <li>Lines starting with '#' are comments.
+ * <li>Empty lines are skipped.
+ * <li>Fields can be quoted, a quote in a quoted field is escaped as "". Quoted fields may contain separators and line
+ * breaks.
+ * </ul>
+ * The first row contains the headers. Use readRow() to pull rows, or readRows() to push all rows to a CSVRowHandler.
+ */
+public class CSVReader implements Closeable
+{
+    public static final char QUOTE = '"';
+
+    public static final char COMMENT = '#';
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private Reader reader;
+
+    /**
+     * Separators, longest first.
+     */
+    private String fieldSeparators[] = new String[] {
+            ","
+    };
+
+    private char buffer[] = new char[BUFFER_SIZE];
+
+    private int bufferPos = 0;
+
+    private int bufferLimit = 0;
+
+    private boolean eof = false;
+
+    private String headers[] = null;
+
+    private int numRows = 0;
+
+    public CSVReader(Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    public CSVReader(Reader reader, String fieldSeparators[])
+    {
+        this.reader = reader;
+        setFieldSeparators(fieldSeparators);
+    }
+
+    /**
+     * Set field separators. Any of the separators ends a field.
+     */
+    public void setFieldSeparators(String separators[])
+    {
+        if ((separators == null) || (separators.length <= 0))
+        {
+            return;
+        }
+
+        String seps[] = separators.clone();
+
+        // longest first, so ";;" matches before ";".
+        Arrays.sort(seps, new Comparator<String>()
+        {
+            @Override
+            public int compare(String s1, String s2)
+            {
+                return s2.length() - s1.length();
+            }
+        });
+
+        this.fieldSeparators = seps;
+    }
+
+    /**
+     * Reads headers (first row) if not read yet.
+     *
+     * @return headers or null if the text is empty.
+     */
+    public String[] readHeaders() throws IOException
+    {
+        if (headers == null)
+        {
+            headers = parseRow();
+        }
+
+        return headers;
+    }
+
+    public String[] getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * @return index of header or -1 if not found.
+     */
+    public int getFieldNr(String fieldName) throws IOException
+    {
+        String names[] = readHeaders();
+
+        if (names == null)
+        {
+            return -1;
+        }
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(fieldName))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Read next data row. The headers are read first if not read yet.
+     *
+     * @return next row or null at the end of the text.
+     */
+    public String[] readRow() throws IOException
+    {
+        if (readHeaders() == null)
+        {
+            return null;
+        }
+
+        String row[] = parseRow();
+
+        if (row != null)
+        {
+            numRows++;
+        }
+
+        return row;
+    }
+
+    /**
+     * Push headers and all (remaining) rows to the handler.
+     *
+     * @return number of rows.
+     * @throws IOException
+     *             if the text contains no headers, or the handler failed.
+     */
+    public int readRows(CSVRowHandler handler) throws IOException
+    {
+        if (readHeaders() == null)
+        {
+            throw new IOException("Empty text or csv text contains no headers!");
+        }
+
+        handler.handleHeaders(headers);
+
+        String row[];
+        int num = 0;
+
+        while ((row = readRow()) != null)
+        {
+            handler.handleRow(row);
+            num++;
+        }
+
+        return num;
+    }
+
+    /**
+     * @return number of data rows read so far.
+     */
+    public int getNrOfRowsRead()
+    {
+        return numRows;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    // ========================================================================
+    // Parser
+    // ========================================================================
+
+    /**
+     * Parse next non empty, non comment row.
+     */
+    protected String[] parseRow() throws IOException
+    {
+        while (true)
+        {
+            int c = peek(0);
+
+            if (c < 0)
+            {
+                return null;
+            }
+
+            if (c == COMMENT)
+            {
+                skipLine();
+                continue;
+            }
+
+            if ((c == '\n') || (c == '\r'))
+            {
+                // empty line
+                skipLineEnd();
+                continue;
+            }
+
+            return parseFields();
+        }
+    }
+
+    protected String[] parseFields() throws IOException
+    {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+
+        while (true)
+        {
+            boolean quoted = false;
+            field.setLength(0);
+
+            if (peek(0) == QUOTE)
+            {
+                quoted = true;
+                bufferPos++;
+                parseQuoted(field);
+            }
+
+            // (remainder of) unquoted field:
+            while (true)
+            {
+                int c = peek(0);
+
+                if ((c < 0) || (c == '\n') || (c == '\r'))
+                {
+                    fields.add(field.toString());
+                    skipLineEnd();
+                    return fields.toArray(new String[fields.size()]);
+                }
+
+                int sepLen = matchSeparator();
+
+                if (sepLen > 0)
+                {
+                    bufferPos += sepLen;
+                    fields.add(field.toString());
+                    break;
+                }
+
+                if ((quoted == false) || (c != QUOTE))
+                {
+                    field.append((char) c);
+                }
+
+                bufferPos++;
+            }
+        }
+    }
+
+    /**
+     * Parse quoted value until the closing quote, the opening quote has been consumed.
+     */
+    protected void parseQuoted(StringBuilder field) throws IOException
+    {
+        while (true)
+        {
+            int c = peek(0);
+
+            if (c < 0)
+            {
+                // unterminated quote: accept value.
+                return;
+            }
+
+            bufferPos++;
+
+            if (c == QUOTE)
+            {
+                if (peek(0) == QUOTE)
+                {
+                    // escaped quote
+                    field.append(QUOTE);
+                    bufferPos++;
+                    continue;
+                }
+
+                return;
+            }
+
+            field.append((char) c);
+        }
+    }
+
+    /**
+     * @return length of separator at current position or 0 if no separator.
+     */
+    protected int matchSeparator() throws IOException
+    {
+        for (String sep : fieldSeparators)
+        {
+            int len = sep.length();
+            boolean match = (len > 0);
+
+            for (int i = 0; (i < len) && match; i++)
+            {
+                match = (peek(i) == sep.charAt(i));
+            }
+
+            if (match)
+            {
+                return len;
+            }
+        }
+
+        return 0;
+    }
+
+    protected void skipLine() throws IOException
+    {
+        int c;
+
+        while (((c = peek(0)) >= 0) && (c != '\n') && (c != '\r'))
+        {
+            bufferPos++;
+        }
+
+        skipLineEnd();
+    }
+
+    /**
+     * Skip "\n", "\r\n" or "\r".
+     */
+    protected void skipLineEnd() throws IOException
+    {
+        int c = peek(0);
+
+        if (c == '\r')
+        {
+            bufferPos++;
+            c = peek(0);
+        }
+
+        if (c == '\n')
+        {
+            bufferPos++;
+        }
+    }
+
+    /**
+     * @return character at offset from current position, or -1 if beyond end of text.
+     */
+    protected int peek(int offset) throws IOException
+    {
+        if (bufferPos + offset >= bufferLimit)
+        {
+            fill(offset + 1);
+        }
+
+        if (bufferPos + offset >= bufferLimit)
+        {
+            return -1;
+        }
+
+        return buffer[bufferPos + offset];
+    }
+
+    /**
+     * Make sure at least numChars are available in the buffer if not at the end of the text.
+     */
+    private void fill(int numChars) throws IOException
+    {
+        if (eof)
+        {
+            return;
+        }
+
+        // compact
+        int remaining = bufferLimit - bufferPos;
+        System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+        bufferPos = 0;
+        bufferLimit = remaining;
+
+        if (numChars > buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, numChars);
+        }
+
+        while ((bufferLimit < numChars) && (eof == false))
+        {
+            int numRead = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+
+            if (numRead < 0)
+            {
+                eof = true;
+            }
+            else
+            {
+                bufferLimit += numRead;
+            }
+        }
+    }
+
+}
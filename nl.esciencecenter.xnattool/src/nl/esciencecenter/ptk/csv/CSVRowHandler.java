@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.ptk.csv;
+
+import java.io.IOException;
+
+/**
+ * Row callback for streaming CSV processing. Implemented by CSVWriter (write rows) and CSVData (collect rows), called
+ * by CSVReader.readRows().
+ */
+public interface CSVRowHandler
+{
+    /**
+     * Called once, before the first row.
+     */
+    public void handleHeaders(String headers[]) throws IOException;
+
+    public void handleRow(String row[]) throws IOException;
+}
@@ -20,16 +20,20 @@
 
 package nl.esciencecenter.ptk.csv;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Date;
 
 import nl.esciencecenter.ptk.presentation.Presentation;
 
 /**
- * CSV File create util. Todo: use Jackson API.
+ * Streaming CSV writer. Writes to a StringBuilder or directly to a Writer so large tables do not have to be kept in
+ * memory. Quotes inside quoted values are escaped as "" so the output can be read back by CSVReader.
  */
-class CSVWriter
+public class CSVWriter implements CSVRowHandler, Flushable
 {
-    protected StringBuilder stringBuilder = null;
+    protected Appendable output = null;
 
     protected String fieldSeperator = ";";
 
@@ -39,22 +43,27 @@ class CSVWriter
 
     public CSVWriter(StringBuilder sb)
     {
-        this.stringBuilder = sb;
+        this.output = sb;
     }
 
-    public CSVWriter writeHeaders(String[] fieldNames)
+    public CSVWriter(Writer writer)
+    {
+        this.output = writer;
+    }
+
+    public CSVWriter writeHeaders(String[] fieldNames) throws IOException
     {
         for (int i = 0; i < fieldNames.length; i++)
         {
-            stringBuilder.append(fieldNames[i]);
+            output.append(fieldNames[i]);
             if (i + 1 < fieldNames.length)
-                stringBuilder.append(fieldSeperator);
+                output.append(fieldSeperator);
         }
         endLine();
         return this;
     }
 
-    public CSVWriter writeDateField(Date date)
+    public CSVWriter writeDateField(Date date) throws IOException
     {
         String dateStr = "";
         if (date != null)
@@ -69,7 +78,7 @@ class CSVWriter
      * @param values
      *            String array of values.
      */
-    public CSVWriter writeRow(String values[])
+    public CSVWriter writeRow(String values[]) throws IOException
     {
         writeFields(values);
         endLine();
@@ -79,7 +88,7 @@ class CSVWriter
     /**
      * Write array of fields, does not write endline character.
      */
-    public CSVWriter writeFields(String values[])
+    public CSVWriter writeFields(String values[]) throws IOException
     {
         if (values == null)
             return this;
@@ -91,33 +100,73 @@ class CSVWriter
         return this;
     }
 
-    public CSVWriter writeField(String value)
+    public CSVWriter writeField(String value) throws IOException
     {
         if (value == null)
             value = "";
 
-        if (quoteAll)
+        if (quoteAll || needsQuotes(value))
         {
-            stringBuilder.append('"' + value + '"');
+            output.append('"');
+            output.append(value.replace("\"", "\"\""));
+            output.append('"');
         }
         else
         {
-            stringBuilder.append(value);
+            output.append(value);
         }
 
-        stringBuilder.append(fieldSeperator);
+        output.append(fieldSeperator);
 
         return this;
     }
 
-    public void endLine()
+    protected boolean needsQuotes(String value)
+    {
+        return (value.indexOf('"') >= 0) || (value.indexOf('\n') >= 0) || (value.indexOf('\r') >= 0)
+                || (value.contains(fieldSeperator));
+    }
+
+    public void endLine() throws IOException
+    {
+        output.append(lineSeperator);
+    }
+
+    @Override
+    public void handleHeaders(String[] headers) throws IOException
+    {
+        writeHeaders(headers);
+    }
+
+    @Override
+    public void handleRow(String[] row) throws IOException
     {
-        stringBuilder.append(lineSeperator);
+        writeRow(row);
     }
 
+    /**
+     * Flush Writer, if writing to a Writer.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (output instanceof Flushable)
+        {
+            ((Flushable) output).flush();
+        }
+    }
+
+    /**
+     * @return StringBuilder or null if writing to a Writer.
+     */
     public StringBuilder getStringBuilder()
     {
-        return stringBuilder;
+        if (output instanceof StringBuilder)
+        {
+            return (StringBuilder) output;
+        }
+
+        return null;
     }
 
     public void setFieldSeperator(String fsString)
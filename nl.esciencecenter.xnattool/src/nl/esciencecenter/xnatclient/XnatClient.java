@@ -20,8 +20,16 @@
 
 package nl.esciencecenter.xnatclient;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -31,8 +39,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
 import nl.esciencecenter.ptk.crypt.Secret;
 import nl.esciencecenter.ptk.csv.CSVData;
+import nl.esciencecenter.ptk.csv.CSVReader;
 import nl.esciencecenter.ptk.data.HashMapList;
 import nl.esciencecenter.ptk.data.Pair;
 import nl.esciencecenter.ptk.data.StringHolder;
@@ -63,6 +75,8 @@ import nl.esciencecenter.xnatclient.data.XnatFile;
 import nl.esciencecenter.xnatclient.data.XnatObject;
 import nl.esciencecenter.xnatclient.data.XnatObject.XnatObjectType;
 import nl.esciencecenter.xnatclient.data.XnatParser;
+import nl.esciencecenter.xnatclient.data.XnatParser.ListHandler;
+import nl.esciencecenter.xnatclient.data.XnatParser.XnatObjectHandler;
 import nl.esciencecenter.xnatclient.data.XnatProject;
 import nl.esciencecenter.xnatclient.data.XnatReconstruction;
 import nl.esciencecenter.xnatclient.data.XnatScan;
@@ -84,6 +98,11 @@ public class XnatClient
 {
     private static ClassLogger logger = ClassLogger.getLogger(XnatClient.class);
 
+    /**
+     * Default number of objects per page for paged listings.
+     */
+    public static final int DEFAULT_LIST_PAGE_SIZE = 500;
+
     static
     {
         // logger.setLevelToDebug();
@@ -134,6 +153,120 @@ public class XnatClient
         }
     }
 
+    /**
+     * Writes the body of a streamed PUT request. The content is created while it is being uploaded, so no (temporary)
+     * file is needed.
+     */
+    public static interface ContentWriter
+    {
+        public void writeContent(OutputStream outps) throws Exception;
+    }
+
+    /**
+     * ContentWriter which reports the upload progress itself, for example in bytes of the source file when the content
+     * is compressed while uploading. The PutMonitor of the upload is passed to the writer instead of being updated with
+     * the number of bytes of the request body.
+     */
+    public static abstract class MonitoredContentWriter implements ContentWriter
+    {
+        public abstract void writeContent(OutputStream outps, PutMonitor optPutMonitor) throws Exception;
+
+        @Override
+        public void writeContent(OutputStream outps) throws Exception
+        {
+            writeContent(outps, null);
+        }
+    }
+
+    /**
+     * Copies an InputStream, for example the ResponseInputStream of a download, into the request body using a fixed
+     * size buffer. The InputStream is closed when done.
+     */
+    public static class StreamContentWriter implements ContentWriter
+    {
+        public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+        protected InputStream inps;
+
+        protected int bufferSize;
+
+        public StreamContentWriter(InputStream inps)
+        {
+            this(inps, DEFAULT_BUFFER_SIZE);
+        }
+
+        public StreamContentWriter(InputStream inps, int bufferSize)
+        {
+            this.inps = inps;
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public void writeContent(OutputStream outps) throws IOException
+        {
+            byte buffer[] = new byte[bufferSize];
+
+            try
+            {
+                int numRead;
+
+                while ((numRead = inps.read(buffer)) >= 0)
+                {
+                    outps.write(buffer, 0, numRead);
+                }
+            }
+            finally
+            {
+                inps.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written and reports the total to an optional PutMonitor.
+     */
+    protected static class MonitoredOutputStream extends FilterOutputStream
+    {
+        protected PutMonitor putMonitor;
+
+        protected long numBytes = 0;
+
+        public MonitoredOutputStream(OutputStream outps, PutMonitor optPutMonitor)
+        {
+            super(outps);
+            this.putMonitor = optPutMonitor;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            update(1);
+        }
+
+        @Override
+        public void write(byte bytes[], int offset, int len) throws IOException
+        {
+            out.write(bytes, offset, len);
+            update(len);
+        }
+
+        protected void update(int len)
+        {
+            numBytes += len;
+
+            if (putMonitor != null)
+            {
+                putMonitor.bytesWritten(numBytes);
+            }
+        }
+
+        public long getNumBytes()
+        {
+            return numBytes;
+        }
+    }
+
     // ========================================================================
     //
     // ========================================================================
@@ -143,6 +276,23 @@ public class XnatClient
      */
     protected WebClient webClient;
 
+    /**
+     * CertificateStore of the WebClient, also used by streaming uploads.
+     */
+    protected CertificateStore certStore;
+
+    private SSLSocketFactory sslSocketFactory;
+
+    /**
+     * Cache of remote Subjects, Sessions and Scans.
+     */
+    protected XnatObjectCache objectCache = new XnatObjectCache();
+
+    /**
+     * Page size of lazy listings, see iterateSubjects() etc.
+     */
+    protected int listPageSize = DEFAULT_LIST_PAGE_SIZE;
+
     public XnatClient(java.net.URI serviceUri, String username, Secret password) throws WebException
     {
         logger.infoPrintf("New XnatClient for:%s\n", serviceUri);
@@ -202,6 +352,34 @@ public class XnatClient
         webClient.setUI(ui);
     }
 
+    public XnatObjectCache getObjectCache()
+    {
+        return objectCache;
+    }
+
+    /**
+     * Clear cached remote Subjects, Sessions and Scans. Use when the XNAT database has been modified by another
+     * client.
+     */
+    public void invalidateCache()
+    {
+        objectCache.clear();
+    }
+
+    /**
+     * @param pageSize
+     *            - Number of objects fetched per query by the listing iterators. A value &lt;= 0 disables paging.
+     */
+    public void setListPageSize(int pageSize)
+    {
+        this.listPageSize = pageSize;
+    }
+
+    public int getListPageSize()
+    {
+        return listPageSize;
+    }
+
     // ========================================================================
     // Put/Get methods
     // ========================================================================
@@ -249,6 +427,89 @@ public class XnatClient
         return resultH.value;
     }
 
+    /**
+     * Streaming Json query. The response is parsed directly from the response stream, each parsed XnatObject is
+     * passed to the handler. The response is never kept in memory as a whole.
+     * 
+     * @param restQuery
+     *            - if true, parse the response as Rest Query result ('items'), else as listing 'ResultSet'.
+     * @return number of parsed objects.
+     */
+    public <T extends XnatObject> int doJSonQuery(String queryStr, XnatObjectType type, boolean restQuery, XnatObjectHandler<T> handler)
+            throws WebException, XnatParseException
+    {
+        logger.debugPrintf("doJSonQuery(): '%s' (streaming)\n", queryStr);
+
+        ResponseInputStream responseStream = webClient.doGetInputStream(queryStr);
+
+        try
+        {
+            InputStream inps = new BufferedInputStream(responseStream, 32 * 1024);
+            checkJSonResponse(queryStr, inps);
+
+            int num;
+
+            if (restQuery)
+            {
+                num = XnatParser.parseJsonQueryResult(type, inps, handler);
+            }
+            else
+            {
+                num = XnatParser.parseJsonResult(type, inps, handler);
+            }
+
+            logger.debugPrintf("doJSonQuery(): Parsed %d objects\n", num);
+
+            return num;
+        }
+        catch (IOException e)
+        {
+            throw new XnatParseException("IOException:" + e.getMessage(), e);
+        }
+        finally
+        {
+            try
+            {
+                responseStream.close();
+            }
+            catch (IOException e)
+            {
+                logger.warnPrintf("Failed to close response stream of:%s\n", queryStr);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the (buffered) response starts as a Json structure. Error pages (HTML) are read and returned in
+     * the exception. The stream is reset to the start of the response.
+     */
+    protected void checkJSonResponse(String queryStr, InputStream inps) throws IOException, WebException
+    {
+        inps.mark(4096);
+
+        int c;
+        do
+        {
+            c = inps.read();
+        }
+        while ((c >= 0) && Character.isWhitespace(c));
+
+        inps.reset();
+
+        // empty response or json:
+        if ((c < 0) || (c == '{') || (c == '['))
+        {
+            return;
+        }
+
+        byte buffer[] = new byte[4096];
+        int numRead = inps.read(buffer);
+        String response = (numRead > 0) ? new String(buffer, 0, numRead, "UTF-8") : "";
+
+        throw new WebException(Reason.INVALID_RESPONSE, "Invalid response from query (expected JSON):" + queryStr + "\n"
+                + "--- response ---\n" + response, null);
+    }
+
     public String doPutQueryString(String queryStr) throws WebException
     {
         logger.debugPrintf("doPutQueryString: '%s'\n", queryStr);
@@ -281,11 +542,182 @@ public class XnatClient
         return resultH.value;
     }
 
+    /**
+     * Streaming HTTP PUT. The request body is written by the ContentWriter using chunked transfer encoding if the
+     * content length is not known (contentLength<0), so the content doesn't have to be stored in a file or in memory
+     * first.<br>
+     * The request uses the session (JSESSIONID) of the WebClient, which is (re)authenticated first if needed, and the
+     * same CertificateStore for SSL connections. Proxies are used as configured for the JVM.
+     * 
+     * @return HTTP status
+     */
+    protected int doPutStream(String queryStr, String contentType, long contentLength, ContentWriter writer, StringHolder resultH,
+            PutMonitor optPutMonitor) throws WebException, XnatClientException, IOException
+    {
+        logger.debugPrintf("doPutStream: '%s' (contentLength=%d)\n", queryStr, contentLength);
+
+        if ((webClient.isAuthenticated() == false) || StringUtil.isEmpty(getJSessionID()))
+        {
+            logger.infoPrintf("doPutStream(): (re)authenticating to:%s\n", getServiceURI());
+            webClient.connect();
+        }
+
+        String jsession = getJSessionID();
+
+        if (StringUtil.isEmpty(jsession))
+        {
+            throw new XnatClientException("Streaming upload needs an authenticated session. Not connected to:" + getServiceURI());
+        }
+
+        String baseUri = getServiceURI().toString();
+
+        if (baseUri.endsWith("/") == false)
+        {
+            baseUri += "/";
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new java.net.URL(baseUri + queryStr).openConnection();
+
+        try
+        {
+            if (connection instanceof HttpsURLConnection)
+            {
+                SSLSocketFactory socketFactory = getSSLSocketFactory();
+
+                if (socketFactory != null)
+                {
+                    ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+                }
+            }
+
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Cookie", "JSESSIONID=" + jsession);
+            connection.setRequestProperty("Content-Type", contentType);
+
+            if (contentLength >= 0)
+            {
+                connection.setFixedLengthStreamingMode(contentLength);
+            }
+            else
+            {
+                connection.setChunkedStreamingMode(64 * 1024);
+            }
+
+            boolean writerMonitors = (writer instanceof MonitoredContentWriter);
+            MonitoredOutputStream outps = new MonitoredOutputStream(connection.getOutputStream(), writerMonitors ? null
+                    : optPutMonitor);
+
+            try
+            {
+                if (writerMonitors)
+                {
+                    ((MonitoredContentWriter) writer).writeContent(outps, optPutMonitor);
+                }
+                else
+                {
+                    writer.writeContent(outps);
+                }
+            }
+            catch (Exception e)
+            {
+                throw new XnatClientException("Failed to create content for:" + queryStr + "\n" + e.getMessage(), e);
+            }
+
+            outps.close();
+
+            int httpStatus = connection.getResponseCode();
+            String responseType = connection.getContentType();
+            String response = readResponse((httpStatus < 300) ? connection.getInputStream() : connection.getErrorStream());
+
+            logger.debugPrintf("doPutStream(): httpStatus=%d, #bytes written=%d\n", httpStatus, outps.getNumBytes());
+
+            if (httpStatus == 401)
+            {
+                // session expired: authenticate again so a retry of the upload uses a valid session.
+                logger.warnPrintf("doPutStream(): session expired, re-authenticating to:%s\n", getServiceURI());
+                webClient.connect();
+
+                throw new WebException(Reason.INVALID_RESPONSE, httpStatus, "Not authorized to PUT:" + queryStr + "\n"
+                        + "--- response ---\n" + response, responseType, response);
+            }
+            else if (httpStatus == 404)
+            {
+                throw new WebException(Reason.RESOURCE_NOT_FOUND, httpStatus, "Resource not found:" + queryStr + "\n"
+                        + "--- response ---\n" + response, responseType, response);
+            }
+            else if (httpStatus >= 300)
+            {
+                throw new WebException(Reason.INVALID_RESPONSE, httpStatus, "PUT failed for:" + queryStr + "\n"
+                        + "--- response ---\n" + response, responseType, response);
+            }
+
+            if (optPutMonitor != null)
+            {
+                optPutMonitor.putDone();
+            }
+
+            resultH.value = response;
+
+            return httpStatus;
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return SSLSocketFactory which trusts the certificates of the CertificateStore, or null to use the JVM default.
+     */
+    protected synchronized SSLSocketFactory getSSLSocketFactory() throws XnatClientException
+    {
+        if ((sslSocketFactory == null) && (certStore != null))
+        {
+            try
+            {
+                sslSocketFactory = certStore.createSSLContext("TLS").getSocketFactory();
+            }
+            catch (CertificateStoreException e)
+            {
+                throw new XnatClientException("Failed to create SSL context from CertificateStore:" + e.getMessage(), e);
+            }
+        }
+
+        return sslSocketFactory;
+    }
+
+    private String readResponse(InputStream inps) throws IOException
+    {
+        if (inps == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte buffer[] = new byte[4096];
+            int numRead;
+
+            while ((numRead = inps.read(buffer)) > 0)
+            {
+                bos.write(buffer, 0, numRead);
+            }
+
+            return bos.toString("UTF-8");
+        }
+        finally
+        {
+            inps.close();
+        }
+    }
+
     public List<XnatProject> listProjects() throws WebException, XnatClientException
     {
-        String resultStr = doJSonQuery("data/projects?format=json");
         List<XnatProject> projects = new ArrayList<XnatProject>();
-        XnatParser.parseJsonResult(XnatObjectType.XNAT_PROJECT, resultStr, projects);
+        doJSonQuery("data/projects?format=json", XnatObjectType.XNAT_PROJECT, false, new ListHandler<XnatProject>(projects));
 
         return projects;
     }
@@ -334,12 +766,29 @@ public class XnatClient
         if (projectid == null)
             return null;
 
-        // String servicePath=webClient.getServicePath();
-        String resultstr = doJSonQuery("data/projects/" + projectid + "/subjects?format=json");
+        List<XnatSubject> subjects = objectCache.getSubjects(projectid);
 
-        List<XnatSubject> subjects = new ArrayList<XnatSubject>();
-        XnatParser.parseJsonResult(XnatObjectType.XNAT_SUBJECT, resultstr, subjects);
-        return subjects;
+        if (subjects != null)
+        {
+            return subjects;
+        }
+
+        subjects = new ArrayList<XnatSubject>();
+        listSubjects(projectid, new ListHandler<XnatSubject>(subjects));
+        objectCache.putSubjects(projectid, subjects);
+
+        return new ArrayList<XnatSubject>(subjects);
+    }
+
+    /**
+     * Streaming listing of subjects. Subjects are passed to the handler while the response is being parsed, the
+     * listing is not cached.
+     * 
+     * @return number of subjects.
+     */
+    public int listSubjects(String projectid, XnatObjectHandler<XnatSubject> handler) throws WebException, XnatParseException
+    {
+        return doJSonQuery("data/projects/" + projectid + "/subjects?format=json", XnatObjectType.XNAT_SUBJECT, false, handler);
     }
 
     public List<String> listSubjectLabels(String projectId) throws WebException, XnatClientException
@@ -366,17 +815,26 @@ public class XnatClient
 
     public List<XnatSession> listSessions(String projectId, String subjectLabel) throws WebException, XnatClientException
     {
-        String resultstr = doJSonQuery("data/projects/" + projectId + "/subjects/" + subjectLabel
-                + "/experiments/?format=json");
-        List<XnatSession> sessions = new ArrayList<XnatSession>();
-        XnatParser.parseJsonResult(XnatObjectType.XNAT_SESSION, resultstr, sessions);
+        List<XnatSession> sessions = objectCache.getSessions(projectId, subjectLabel);
+
+        if (sessions != null)
+        {
+            return sessions;
+        }
+
+        sessions = new ArrayList<XnatSession>();
+        doJSonQuery("data/projects/" + projectId + "/subjects/" + subjectLabel + "/experiments/?format=json",
+                XnatObjectType.XNAT_SESSION, false, new ListHandler<XnatSession>(sessions));
 
         for (XnatSession sess : sessions)
         {
             sess.setSubjectLabel(subjectLabel); // is not part of returned meta
                                                 // data.
         }
-        return sessions;
+
+        objectCache.putSessions(projectId, subjectLabel, sessions);
+
+        return new ArrayList<XnatSession>(sessions);
     }
 
     public List<String> listSessionLabels(String projectId, String subjectId) throws WebException, XnatClientException
@@ -398,20 +856,25 @@ public class XnatClient
         String subjectLabel = xnatSession.getSubjectLabel();
         String sessionLabel = xnatSession.getLabel();
 
-        String resultstr = doJSonQuery("data/projects/" + projectid + "/subjects/" + subjectLabel + "/experiments/"
-                + sessionLabel + "/scans?format=json");
-        List<XnatScan> scans = new ArrayList<XnatScan>();
+        List<XnatScan> scans = objectCache.getScans(projectid, subjectLabel, sessionLabel);
 
-        logger.debugPrintf("listScans(), resulstr=%s\n", resultstr);
+        if (scans != null)
+        {
+            return scans;
+        }
 
-        XnatParser.parseJsonResult(XnatObjectType.XNAT_SCAN, resultstr, (List) scans);
+        scans = new ArrayList<XnatScan>();
+        doJSonQuery("data/projects/" + projectid + "/subjects/" + subjectLabel + "/experiments/" + sessionLabel
+                + "/scans?format=json", XnatObjectType.XNAT_SCAN, false, new ListHandler<XnatScan>(scans));
 
         for (XnatScan scan : scans)
         {
             scan.setIDMapping(projectid, subjectLabel, sessionLabel);
         }
 
-        return scans;
+        objectCache.putScans(projectid, subjectLabel, sessionLabel, scans);
+
+        return new ArrayList<XnatScan>(scans);
     }
 
     public List<XnatReconstruction> listReconstructions(XnatSession xnatSession) throws WebException, XnatClientException
@@ -421,14 +884,10 @@ public class XnatClient
         String subjectLabel = xnatSession.getSubjectLabel();
         String sessionLabel = xnatSession.getLabel();
 
-        String resultstr = doJSonQuery("data/projects/" + projectid + "/subjects/" + subjectLabel + "/experiments/"
-                + sessionLabel + "/reconstructions?format=json");
-
         List<XnatReconstruction> recons = new ArrayList<XnatReconstruction>();
-
-        logger.debugPrintf("listScans(), resulstr=%s\n", resultstr);
-
-        XnatParser.parseJsonResult(XnatObjectType.XNAT_RECONSTRUCTION, resultstr, (List) recons);
+        doJSonQuery("data/projects/" + projectid + "/subjects/" + subjectLabel + "/experiments/" + sessionLabel
+                + "/reconstructions?format=json", XnatObjectType.XNAT_RECONSTRUCTION, false,
+                new ListHandler<XnatReconstruction>(recons));
 
         for (XnatReconstruction scan : recons)
         {
@@ -438,6 +897,95 @@ public class XnatClient
         return recons;
     }
 
+    // ========================================================================
+    // Lazy (paged) listings
+    // ========================================================================
+
+    /**
+     * Lazy listing of subjects, fetched one page at a time. Bypasses the object cache.
+     */
+    public XnatListIterator<XnatSubject> iterateSubjects(String projectId)
+    {
+        return new XnatListIterator<XnatSubject>(this, "data/projects/" + projectId + "/subjects?format=json",
+                XnatObjectType.XNAT_SUBJECT, listPageSize);
+    }
+
+    public XnatListIterator<XnatSession> iterateSessions(XnatSubject xnatSubject)
+    {
+        return iterateSessions(xnatSubject.getProjectID(), xnatSubject.getLabel());
+    }
+
+    /**
+     * Lazy listing of sessions, fetched one page at a time. Bypasses the object cache.
+     */
+    public XnatListIterator<XnatSession> iterateSessions(String projectId, final String subjectLabel)
+    {
+        return new XnatListIterator<XnatSession>(this, "data/projects/" + projectId + "/subjects/" + subjectLabel
+                + "/experiments/?format=json", XnatObjectType.XNAT_SESSION, listPageSize)
+        {
+            @Override
+            protected void initObject(XnatSession sess)
+            {
+                sess.setSubjectLabel(subjectLabel); // is not part of returned meta data.
+            }
+        };
+    }
+
+    /**
+     * Lazy listing of scans, fetched one page at a time. Bypasses the object cache.
+     */
+    public XnatListIterator<XnatScan> iterateScans(XnatSession xnatSession)
+    {
+        final String projectid = xnatSession.getProjectID();
+        final String subjectLabel = xnatSession.getSubjectLabel();
+        final String sessionLabel = xnatSession.getLabel();
+
+        return new XnatListIterator<XnatScan>(this, "data/projects/" + projectid + "/subjects/" + subjectLabel + "/experiments/"
+                + sessionLabel + "/scans?format=json", XnatObjectType.XNAT_SCAN, listPageSize)
+        {
+            @Override
+            protected void initObject(XnatScan scan)
+            {
+                scan.setIDMapping(projectid, subjectLabel, sessionLabel);
+            }
+        };
+    }
+
+    /**
+     * Lazy listing of reconstructions, fetched one page at a time.
+     */
+    public XnatListIterator<XnatReconstruction> iterateReconstructions(XnatSession xnatSession)
+    {
+        final String projectid = xnatSession.getProjectID();
+        final String subjectLabel = xnatSession.getSubjectLabel();
+        final String sessionLabel = xnatSession.getLabel();
+
+        return new XnatListIterator<XnatReconstruction>(this, "data/projects/" + projectid + "/subjects/" + subjectLabel
+                + "/experiments/" + sessionLabel + "/reconstructions?format=json", XnatObjectType.XNAT_RECONSTRUCTION,
+                listPageSize)
+        {
+            @Override
+            protected void initObject(XnatReconstruction recon)
+            {
+                recon.setIDMapping(projectid, subjectLabel, sessionLabel);
+            }
+        };
+    }
+
+    /**
+     * Lazy listing of the files of a scan or reconstruction, fetched one page at a time. Files are returned in the
+     * order of the server, not sorted into collections.
+     */
+    public XnatListIterator<XnatFile> iterateResourceFiles(XnatSession xnatSession, XnatResourceType resourceType, String resourceId)
+            throws XnatClientException
+    {
+        String resourceFilesPath = createResourceFilesPath(resourceType, resourceId, null);
+
+        return new XnatListIterator<XnatFile>(this, "data/projects/" + xnatSession.getProjectID() + "/subjects/"
+                + xnatSession.getSubjectLabel() + "/experiments/" + xnatSession.getLabel() + "/" + resourceFilesPath
+                + "?format=json", XnatObjectType.XNAT_FILE, listPageSize);
+    }
+
     // public Map<String, List<XnatFile>> listScanFiles(XnatScan scan) throws
     // WebException, XnatParseException
     // {
@@ -461,6 +1009,18 @@ public class XnatClient
         return listResourceFiles(projectId, subjectLabel, sessionLabel, "scans", scanLabel);
     }
 
+    /**
+     * Streaming listing of scan files. Files are passed to the handler while the response is being parsed.
+     * 
+     * @return number of files.
+     */
+    public int listScanFiles(XnatSession xnatSession, String scanLabel, XnatObjectHandler<XnatFile> handler)
+            throws WebException, XnatParseException
+    {
+        return listResourceFiles(xnatSession.getProjectID(), xnatSession.getSubjectLabel(), xnatSession.getLabel(), "scans",
+                scanLabel, handler);
+    }
+
     public FilesCollection listReconstructionFiles(XnatSession xnatSession, String reconId)
             throws WebException, XnatParseException
     {
@@ -475,11 +1035,26 @@ public class XnatClient
     protected FilesCollection listResourceFiles(String projectId, String subjectLabel, String sessionLabel,
             String resourceType, String resourceId) throws WebException, XnatParseException
     {
-        String resultstr = doJSonQuery("data/projects/" + projectId + "/subjects/" + subjectLabel + "/experiments/"
-                + sessionLabel + "/" + resourceType + "/" + resourceId + "/files?format=json");
+        // sort all files into collections:
+        final Map<String, List<XnatFile>> collections = new HashMapList<String, List<XnatFile>>();
 
-        Map<String, List<XnatFile>> result = parseScanFilesResults(resultstr);
-        return new FilesCollection(result);
+        listResourceFiles(projectId, subjectLabel, sessionLabel, resourceType, resourceId, new XnatObjectHandler<XnatFile>()
+        {
+            @Override
+            public void handleObject(XnatFile file)
+            {
+                addToCollection(collections, file);
+            }
+        });
+
+        return new FilesCollection(collections);
+    }
+
+    protected int listResourceFiles(String projectId, String subjectLabel, String sessionLabel, String resourceType,
+            String resourceId, XnatObjectHandler<XnatFile> handler) throws WebException, XnatParseException
+    {
+        return doJSonQuery("data/projects/" + projectId + "/subjects/" + subjectLabel + "/experiments/" + sessionLabel + "/"
+                + resourceType + "/" + resourceId + "/files?format=json", XnatObjectType.XNAT_FILE, false, handler);
     }
 
     protected Map<String, List<XnatFile>> parseScanFilesResults(String jsonStr) throws XnatParseException
@@ -494,23 +1069,28 @@ public class XnatClient
 
         for (XnatFile file : files)
         {
-            String collection = file.getCollection();
-            if (collection == null)
-            {
-                collection = "";
-            }
-            List<XnatFile> subList = collections.get(collection);
-            if (subList == null)
-            {
-                subList = new ArrayList<XnatFile>();
-            }
-            subList.add(file);
-            collections.put(collection, subList); // create/update
+            addToCollection(collections, file);
         }
 
         return collections;
     }
 
+    protected static void addToCollection(Map<String, List<XnatFile>> collections, XnatFile file)
+    {
+        String collection = file.getCollection();
+        if (collection == null)
+        {
+            collection = "";
+        }
+        List<XnatFile> subList = collections.get(collection);
+        if (subList == null)
+        {
+            subList = new ArrayList<XnatFile>();
+            collections.put(collection, subList); // create
+        }
+        subList.add(file);
+    }
+
     /**
      * Find subject using the unique Subject ID. No ProjectID is needed as the Subject ID is unique.
      * 
@@ -549,6 +1129,14 @@ public class XnatClient
     public XnatSubject getSubjectByLabel(String projectId, String subjectLabel) throws WebException, XnatParseException
     {
         logger.debugPrintf("getSubject:%s\n", subjectLabel);
+
+        XnatSubject subject = objectCache.getSubject(projectId, subjectLabel);
+
+        if (subject != null)
+        {
+            return subject;
+        }
+
         String resultStr = doJSonQuery("data/archive/projects/" + projectId + "/subjects/" + subjectLabel + "?format=json");
         List<XnatSubject> subjects = new ArrayList<XnatSubject>();
 
@@ -559,6 +1147,8 @@ public class XnatClient
             return null;
         }
 
+        objectCache.putSubject(subjects.get(0));
+
         return subjects.get(0);
     }
 
@@ -575,6 +1165,18 @@ public class XnatClient
     public XnatSession getSession(String projectId, String subjectLabel, String sessionLabel) throws WebException,
             XnatClientException
     {
+        if (sessionLabel == null)
+        {
+            return null;
+        }
+
+        Map<String, XnatSession> cached = objectCache.getSessionMap(projectId, subjectLabel);
+
+        if (cached != null)
+        {
+            return cached.get(sessionLabel);
+        }
+
         List<XnatSession> sessions = this.listSessions(projectId, subjectLabel);
 
         if ((sessions == null) || (sessions.size() <= 0))
@@ -626,6 +1228,18 @@ public class XnatClient
     public XnatScan getScanByLabel(XnatSession session, String scanLabel) throws WebException,
             XnatClientException
     {
+        if (scanLabel == null)
+        {
+            return null;
+        }
+
+        Map<String, XnatScan> cached = objectCache.getScanMap(session.getProjectID(), session.getSubjectLabel(), session.getLabel());
+
+        if (cached != null)
+        {
+            return cached.get(scanLabel);
+        }
+
         List<XnatScan> scans = this.listScans(session);
 
         for (int i = 0; i < scans.size(); i++)
@@ -677,6 +1291,7 @@ public class XnatClient
         //
         String delStr = "data/projects/" + projectId;
         String resultstr = doDeleteQueryString(delStr);
+        objectCache.invalidateProject(projectId);
 
         // empty -> null;
         if (StringUtil.isEmpty(resultstr))
@@ -780,6 +1395,7 @@ public class XnatClient
 
         String resultstr = doPutQueryString(putstr);
         subject.updateId(resultstr);
+        objectCache.putSubject(subject);
 
         return subject;
     }
@@ -900,6 +1516,7 @@ public class XnatClient
 
         String resultStr = doPutQueryString(putStr);
         session.updateId(resultStr);
+        objectCache.putSession(session);
 
         if (newSession)
         {
@@ -973,6 +1590,9 @@ public class XnatClient
             resultstr = info.getScanID();
         }
 
+        // Scan ID is part of the PUT path: add new scan to the cached listing.
+        objectCache.putScan(projectid, subjectLabel, sessionLabel, XnatScan.createXnatScan(info));
+
         return resultstr;
     }
 
@@ -1033,6 +1653,51 @@ public class XnatClient
         return putResourceFile(session, XnatResourceType.SCAN, scan.getID(), resourceLabel, fullFilepath, imageInfo, optPutMonitor);
     }
 
+    /**
+     * Upload DICOM file without a local file. The DICOM content is written by the ContentWriter while uploading.
+     * 
+     * @param contentLength
+     *            - size of the content if known in advance, or -1 to use chunked transfer encoding.
+     * @see #putResourceStream(XnatSession, XnatResourceType, String, String, ImageFileInfo, long, ContentWriter,
+     *      PutMonitor)
+     */
+    public String putDicomStream(XnatSession session,
+            XnatScan scan,
+            ImageFileInfo imageInfo,
+            long contentLength,
+            ContentWriter writer,
+            PutMonitor optPutMonitor) throws WebException, XnatClientException
+    {
+        if (StringUtil.equals(imageInfo.getImageFormatType(), ImageFormatType.DICOM) == false)
+        {
+            throw new XnatClientException("putDicomStream: Image type must be DICOM, is:" + imageInfo.getImageFormatType());
+        }
+
+        String resourceLabel = "" + imageInfo.getImageFormatType();
+        return putResourceStream(session, XnatResourceType.SCAN, scan.getID(), resourceLabel, imageInfo, contentLength, writer,
+                optPutMonitor);
+    }
+
+    /**
+     * Upload DICOM files of a scan as one ZIP archive which is extracted by XNAT into the DICOM resource of the scan.
+     * 
+     * @see #putResourceArchive(XnatSession, XnatResourceType, String, String, ImageFileInfo, ContentWriter, PutMonitor)
+     */
+    public String putDicomArchive(XnatSession session,
+            XnatScan scan,
+            ImageFileInfo archiveInfo,
+            ContentWriter writer,
+            PutMonitor optPutMonitor) throws WebException, XnatClientException
+    {
+        if (StringUtil.equals(archiveInfo.getImageFormatType(), ImageFormatType.DICOM) == false)
+        {
+            throw new XnatClientException("putDicomArchive: Image type must be DICOM, is:" + archiveInfo.getImageFormatType());
+        }
+
+        String resourceLabel = "" + archiveInfo.getImageFormatType();
+        return putResourceArchive(session, XnatResourceType.SCAN, scan.getID(), resourceLabel, archiveInfo, writer, optPutMonitor);
+    }
+
     public String putNiftiScanFile(XnatSession session,
             String scanLabel,
             String fullFilepath,
@@ -1048,6 +1713,31 @@ public class XnatClient
         return putResourceFile(session, XnatResourceType.SCAN, scanLabel, resourceLabel, fullFilepath, imageInfo, optPutMonitor);
     }
 
+    /**
+     * Upload Nifti scan file without a local file, for example while compressing it.
+     *
+     * @param contentLength
+     *            - size of the content if known in advance, or -1 to use chunked transfer encoding.
+     * @see #putResourceStream(XnatSession, XnatResourceType, String, String, ImageFileInfo, long, ContentWriter,
+     *      PutMonitor)
+     */
+    public String putNiftiScanStream(XnatSession session,
+            String scanLabel,
+            ImageFileInfo imageInfo,
+            long contentLength,
+            ContentWriter writer,
+            PutMonitor optPutMonitor) throws WebException, XnatClientException
+    {
+        if (StringUtil.equals(imageInfo.getImageFormatType(), ImageFormatType.NIFTI) == false)
+        {
+            throw new XnatClientException("putNiftiScanStream: Image type must be NIFTI, is:" + imageInfo.getImageFormatType());
+        }
+
+        String resourceLabel = "" + imageInfo.getImageFormatType();
+        return putResourceStream(session, XnatResourceType.SCAN, scanLabel, resourceLabel, imageInfo, contentLength, writer,
+                optPutMonitor);
+    }
+
     /**
      * Upload 3D (Nifti) Reconstruction or Atlas
      * 
@@ -1188,6 +1878,113 @@ public class XnatClient
         }
     }
 
+    /**
+     * Streaming upload of a resource file. The destination filename must be specified in the ImageFileInfo.
+     * 
+     * @param contentLength
+     *            - size of the content if known in advance, or -1 to use chunked transfer encoding.
+     * @param writer
+     *            - ContentWriter which writes the actual file content.
+     */
+    public String putResourceStream(XnatSession session,
+            XnatResourceType resourceType,
+            String resourceId,
+            String optResourceLabel,
+            ImageFileInfo imageInfo,
+            long contentLength,
+            ContentWriter writer,
+            PutMonitor optPutMonitor) throws XnatClientException, WebException
+    {
+        return putResourceStream(session, resourceType, resourceId, optResourceLabel, imageInfo, contentLength, writer,
+                optPutMonitor, false);
+    }
+
+    /**
+     * Streaming upload of a ZIP archive which is extracted into the resource by XNAT. The ContentWriter must write the
+     * complete archive. The destination filename of the ImageFileInfo is used as name of the archive, the files in the
+     * resource get the names of the archive entries.
+     */
+    public String putResourceArchive(XnatSession session,
+            XnatResourceType resourceType,
+            String resourceId,
+            String optResourceLabel,
+            ImageFileInfo archiveInfo,
+            ContentWriter writer,
+            PutMonitor optPutMonitor) throws XnatClientException, WebException
+    {
+        return putResourceStream(session, resourceType, resourceId, optResourceLabel, archiveInfo, -1, writer, optPutMonitor, true);
+    }
+
+    protected String putResourceStream(XnatSession session,
+            XnatResourceType resourceType,
+            String resourceId,
+            String optResourceLabel,
+            ImageFileInfo imageInfo,
+            long contentLength,
+            ContentWriter writer,
+            PutMonitor optPutMonitor,
+            boolean extract) throws XnatClientException, WebException
+    {
+        logger.debugPrintf(">putResourceStream(): <Project>/<Sesssion>/<%s>/<Resource>): %s/%s/%s/%s (#bytes=%d)\n",
+                "" + resourceType,
+                session.getProjectID(),
+                session.getLabel(),
+                resourceId,
+                optResourceLabel,
+                contentLength);
+
+        if (StringUtil.isEmpty(imageInfo.getDestinationFilename()))
+        {
+            throw new XnatClientException("putResourceStream: destination filename must be specified.");
+        }
+
+        if (optResourceLabel == null)
+        {
+            optResourceLabel = imageInfo.getImageFormatType();
+        }
+
+        String putStr = createResourceFilesURL(session, resourceType, resourceId, imageInfo, optResourceLabel, extract);
+        String contentType = (extract) ? "application/zip" : "application/octetstream";
+
+        try
+        {
+            logger.infoPrintf(" - putResourceStream():%s =>%s\n", imageInfo.getDestinationFilename(), putStr);
+
+            StringHolder resultH = new StringHolder();
+            int status = doPutStream(putStr, contentType, contentLength, writer, resultH, optPutMonitor);
+
+            return resultH.value;
+        }
+        catch (WebException e)
+        {
+            throw handlePutFileException(e, putStr, imageInfo);
+        }
+        catch (IOException e)
+        {
+            throw new XnatClientException("Streaming upload failed for:" + putStr + "\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Delete file from the resource, for example to replace an incomplete upload. XNAT doesn't overwrite existing files.
+     *
+     * @param filename
+     *            - name of the file in the resource as returned in the FilesCollection.
+     */
+    public String deleteResourceFile(XnatSession session,
+            XnatResourceType resourceType,
+            String resourceId,
+            String optResourceLabel,
+            String filename) throws XnatClientException, WebException
+    {
+        String delStr = "data/projects/" + session.getProjectID() + "/subjects/" + session.getSubjectLabel() + "/experiments/"
+                + session.getLabel() + "/" + createResourceFilesPath(resourceType, resourceId, optResourceLabel) + "/" + filename;
+
+        logger.infoPrintf(" - deleteResourceFile():%s\n", delStr);
+
+        return doDeleteQueryString(delStr);
+    }
+
     private WebException handlePutFileException(WebException e, String putStr, ImageFileInfo imageInfo)
     {
         String errorStr = "File already exists";
@@ -1207,6 +2004,16 @@ public class XnatClient
 
     protected String createResourceFilesURL(XnatSession session, XnatResourceType resourceType, String resourceId, ImageFileInfo fileInfo,
             String optResourceLabel) throws XnatClientException
+    {
+        return createResourceFilesURL(session, resourceType, resourceId, fileInfo, optResourceLabel, false);
+    }
+
+    /**
+     * @param extract
+     *            - if true, the uploaded file is an archive (ZIP) which is extracted into the resource by XNAT.
+     */
+    protected String createResourceFilesURL(XnatSession session, XnatResourceType resourceType, String resourceId, ImageFileInfo fileInfo,
+            String optResourceLabel, boolean extract) throws XnatClientException
     {
         String projectid = session.getProjectID();
         String subjectLabel = session.getSubjectLabel();
@@ -1225,6 +2032,12 @@ public class XnatClient
 
             pars.put("format", fileInfo.getImageFormatType());
             pars.put("content", fileInfo.getContentType());
+
+            if (extract)
+            {
+                pars.put("extract", "true");
+            }
+
             putStr += "?" + pars.toQueryString();
         }
         catch (UnsupportedEncodingException e)
@@ -1494,269 +2307,37 @@ public class XnatClient
     public void putMetaData(String projectId, String csvText, boolean createSubjects, boolean createSessions)
             throws WebException, XnatClientException
     {
+        putMetaData(projectId, new StringReader(csvText), createSubjects, createSessions, null);
+    }
 
-        try
+    /**
+     * Stream CSV meta-data from the Reader, rows are grouped while reading. Both ';' and ',' are accepted as field
+     * separator. Reader is not closed.
+     */
+    public void putMetaData(String projectId, Reader csvReader, boolean createSubjects, boolean createSessions, UploadMonitor monitor)
+            throws WebException, XnatClientException
+    {
+        CSVReader reader = new CSVReader(csvReader, new String[]
         {
-            CSVData reader = new CSVData();
-            reader.setFieldSeparators(new String[]
-            {
-                    ";", ","
-            });
-            reader.parseText(csvText);
+                ";", ","
+        });
 
-            putMetaData(projectId, reader, createSubjects, createSessions, null);
-        }
-        catch (IOException e)
-        {
-            throw new XnatClientException("Failed to parse text.\n" + e.getMessage(), e);
-        }
-        // catch (WebException | XnatException e)
+        XnatMetaDataUploader uploader = new XnatMetaDataUploader(this, projectId, createSubjects, createSessions, monitor);
+        uploader.upload(reader);
     }
 
+    /**
+     * Upload CSV meta-data. Rows are grouped by subject and uploaded in batches, see XnatMetaDataUploader. Each row is
+     * reported as done or failed to the (optional) monitor.
+     * 
+     * @throws XnatClientException
+     *             if one or more rows failed.
+     */
     public void putMetaData(String projectId, CSVData csvData, boolean createSubjects, boolean createSessions, UploadMonitor monitor)
             throws WebException, XnatClientException
     {
-        boolean prefixSessionWithSubject = false;
-
-        List<String> headers = csvData.getHeaders();
-
-        StringList sessionFields = new StringList();
-        for (String header : headers)
-        {
-            if (header.startsWith("session.") && ((header.equals("session.label") == false) || (header.equals("session.id") == false)))
-            {
-                sessionFields.add(header.substring("session.".length()));
-            }
-        }
-
-        StringList subjectFields = new StringList();
-        for (String header : headers)
-        {
-            if (header.startsWith("subject.") && ((header.equals("subject.label") == false) || (header.equals("subject.id") == false)))
-            {
-                subjectFields.add(header.substring("subject.".length()));
-            }
-        }
-
-        int numRows = csvData.getNrOfRows();
-
-        if (monitor != null)
-        {
-            monitor.notifyStartUpload("Uploading #" + numRows + " rows of CSV Meta-Data", new int[]
-            {
-                numRows
-            });
-        }
-
-        for (int row = 0; row < numRows; row++)
-        {
-            if ((csvData.getNrColumns(row) <= 0) || StringUtil.isEmpty(csvData.getRowAsString(row)))
-            {
-                logger.debugPrintf(" - skipping empty row:#%s\n", row);
-                continue;
-            }
-
-            if (monitor != null)
-            {
-                monitor.notifyFileStart(0, row, 1, null);
-            }
-
-            // Subject ID field from CVS is actually the Xnat Subject Label:
-            String subjectLbl = csvData.get(row, "subject.label");
-            String sessionLbl;
-            String sessionId;
-
-            // =====================
-            // Create/Update Subject
-            // =====================
-
-            if (StringUtil.isEmpty(subjectLbl))
-            {
-                throw new XnatClientException("No 'subject.label' field in (row,column):" + row + ","
-                        + csvData.getFieldNr("subject.label") + "\nRow=" + csvData.getRowAsString(row));
-            }
-
-            // label only subject:
-            XnatSubject subject = XnatSubject.createXnatSubject(projectId, subjectLbl);
-
-            // Check/update subject fields if specified
-            for (String field : subjectFields)
-            {
-                String fieldValue = csvData.getField(row, "subject." + field, true);
-                if ((fieldValue == null) || (fieldValue == ""))
-                {
-                    logger.debugPrintf(" - skipping field:%s\n", field);
-                    continue;
-                }
-
-                if (subject.isStandardField(field, false))
-                {
-                    subject.set(field, fieldValue);
-                    logger.debugPrintf(" - setting standard subject field: %s=%s\n", field, fieldValue);
-                }
-                else
-                {
-                    subject.setCustomField(field, fieldValue);
-                    logger.debugPrintf(" - setting *custom* subject field: %s=%s\n", field, fieldValue);
-                }
-            }
-
-            if (monitor != null)
-            {
-                monitor.logPrintf("Updating Subject:%s\n", subjectLbl);
-
-                for (String name : subject.getMetaDataFieldNames(true))
-                {
-                    String value = subject.get(name);
-                    if (value != null)
-                        monitor.logPrintf(" - %s:%s\n", name, value);
-                }
-            }
-
-            if (createSubjects == false)
-            {
-                XnatSubject remoteSubject = null;
-                try
-                {
-                    remoteSubject = this.getSubjectByLabel(projectId, subjectLbl);
-                }
-                catch (WebException e)
-                {
-                    if (e.getReason() != Reason.RESOURCE_NOT_FOUND)
-                    {
-                        throw new XnatClientException("Failed to query Subject:" + subjectLbl, e);
-                    }
-                }
-
-                if (remoteSubject == null)
-                {
-                    throw new XnatClientException("Subject doesn't exist: project/subject=" + projectId + "/" + subjectLbl);
-                }
-
-                this.updateSubject(projectId, subject);
-            }
-            else
-            {
-                // create or update:
-                this.createSubject(projectId, subject);
-            }
-
-            // =====================
-            // Create/Update Session
-            // =====================
-
-            sessionLbl = csvData.get(row, "session.label");
-
-            if (StringUtil.isEmpty(sessionLbl))
-            {
-                logger.infoPrintf(" - no session.label specified: skipping session data for row/subject:%s/%s\n", row,
-                        subjectLbl);
-                // throw new
-                // Exception("No 'session.id' field in (row,column):"+row+","+reader.getFieldNr("session.id"));
-
-                // Extra check: if a session.id is not specified, but there is
-                // session meta data
-                // throw exception to indicate inconsistency in the meta-data
-                for (String field : sessionFields)
-                {
-                    String fieldValue = csvData.getField(row, "session." + field, true);
-                    if ((fieldValue != null) && (StringUtil.isWhiteSpace(fieldValue) == false))
-                    {
-                        throw new XnatClientException(
-                                "No 'session.id' was specified, but there is session meta-data for field: session."
-                                        + field + "=" + fieldValue);
-                    }
-                }
-                // ok
-                continue;
-            }
-
-            // ***
-            // Important: within a project no similar session/experiment labels
-            // may be used for different subjects.
-            // Prefix session label with subject label.
-            //
-            if (prefixSessionWithSubject)
-            {
-                sessionLbl = subjectLbl + "_" + sessionLbl;
-            }
-            else
-            {
-                // sessionLbl = sessionLbl;
-            }
-
-            XnatSession session = XnatSession.createXnatSession(projectId, subjectLbl, sessionLbl);
-
-            // Assume one session per row. Previous values are overwritten
-            for (String field : sessionFields)
-            {
-                String fieldValue = csvData.getField(row, "session." + field, true);
-                if (session.isStandardField(field, false))
-                {
-                    session.set(field, fieldValue);
-                    logger.debugPrintf(" - setting standard session field: %s=%s\n", field, fieldValue);
-                }
-                else
-                {
-                    session.setCustomField(field, fieldValue);
-                    logger.debugPrintf(" - setting *custom* session field: %s=%s\n", field, fieldValue);
-                }
-            }
-
-            if (monitor != null)
-            {
-                monitor.logPrintf("Updating session:%s\n", sessionLbl);
-
-                String rowstr = "";
-
-                for (String name : session.getMetaDataFieldNames(true))
-                {
-                    String value = session.get(name);
-                    if (value != null)
-                        monitor.logPrintf(" - %s:%s\n", name, value);
-                }
-            }
-
-            if (createSessions == false)
-            {
-                XnatSession remoteSession = null;
-
-                try
-                {
-                    remoteSession = this.getSession(projectId, subjectLbl, sessionLbl);
-                }
-                catch (WebException e)
-                {
-                    if (e.getReason() != Reason.RESOURCE_NOT_FOUND)
-                    {
-                        throw new XnatClientException("Failed to query Subject:" + subjectLbl, e);
-                    }
-                }
-
-                if (remoteSession == null)
-                {
-                    throw new XnatClientException("Session doesn't exist: project/subject/session=" + projectId + "/"
-                            + subjectLbl + "/" + sessionLbl);
-                }
-
-                this.updateSession(session);
-            }
-            else
-            {
-                // create/update session
-                this.putSession(session, createSessions);
-            }
-
-            if (monitor != null)
-            {
-                monitor.notifyFileDone(0, row);
-            }
-        }
-
-        if (monitor != null)
-        {
-            monitor.logPrintf("Finished Updating Meta-Data\n");
-        }
+        XnatMetaDataUploader uploader = new XnatMetaDataUploader(this, projectId, createSubjects, createSessions, monitor);
+        uploader.upload(csvData);
     }
 
     // ========================================================================
@@ -1816,6 +2397,13 @@ public class XnatClient
     public void setCertificateStore(CertificateStore certStore) throws CertificateStoreException
     {
         this.webClient.setCertificateStore(certStore);
+
+        synchronized (this)
+        {
+            this.certStore = certStore;
+            // recreated for the new store when needed:
+            this.sslSocketFactory = null;
+        }
     }
 
     public FSUtil getFSUtil()
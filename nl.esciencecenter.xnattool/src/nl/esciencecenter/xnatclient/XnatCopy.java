@@ -21,12 +21,22 @@
 package nl.esciencecenter.xnatclient;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import nl.esciencecenter.ptk.data.StringList;
-import nl.esciencecenter.ptk.util.ResourceLoader;
 import nl.esciencecenter.ptk.util.StringUtil;
 import nl.esciencecenter.ptk.util.logging.ClassLogger;
 import nl.esciencecenter.ptk.web.PutMonitor;
@@ -48,17 +58,21 @@ import nl.esciencecenter.xnatclient.exceptions.XnatClientException;
 
 public class XnatCopy implements PutMonitor
 {
-    public static class FileStats
+    /**
+     * Statistics of a single file transfer. Each (concurrent) transfer has its own FileStats which is updated as
+     * PutMonitor.
+     */
+    public static class FileStats implements PutMonitor
     {
-        public String fileName = null;
+        public volatile String fileName = null;
 
-        public long fileSize = -1;
+        public volatile long fileSize = -1;
 
-        public long bytesTransferred = 0;
+        public volatile long bytesTransferred = 0;
 
-        public boolean done = false;
+        public volatile boolean done = false;
 
-        public boolean started = false;
+        public volatile boolean started = false;
 
         public void start(String filename, long filesize)
         {
@@ -77,6 +91,63 @@ public class XnatCopy implements PutMonitor
             this.started = true;
             this.done = true;
         }
+
+        @Override
+        public void bytesWritten(long numBytes)
+        {
+            this.bytesTransferred = numBytes;
+        }
+
+        @Override
+        public void putDone()
+        {
+            this.done = true;
+        }
+    }
+
+    /**
+     * Aggregated statistics of a (concurrent) copy.
+     */
+    public static class CopyStats
+    {
+        public int numFilesDone;
+
+        public int numFilesFailed;
+
+        public int numSubjectsFailed;
+
+        /**
+         * Bytes transferred of finished and active file transfers.
+         */
+        public long bytesTransferred;
+
+        /**
+         * Time in milliseconds since start of copy.
+         */
+        public long elapsedTime;
+
+        public List<FileStats> activeFiles;
+
+        /**
+         * @return average throughput in bytes per second.
+         */
+        public double getThroughput()
+        {
+            if (elapsedTime <= 0)
+            {
+                return 0;
+            }
+
+            return bytesTransferred * 1000.0 / elapsedTime;
+        }
+    }
+
+    /**
+     * Copy task of a single subject or session.
+     */
+    protected static interface CopyTask
+    {
+        public void doCopy() throws Exception;
     }
 
     public static class DummyMonitor implements XnatCopyMonitor
@@ -96,11 +167,47 @@ public class XnatCopy implements PutMonitor
 
     protected StringList sourceCollections;
 
-    private ResourceLoader resourceLoader;
+    public static final int DEFAULT_NUM_THREADS = 4;
+
+    public static final int DEFAULT_MAX_DEST_UPLOADS = 4;
+
+    private volatile ImageFileInfo currentFile;
+
+    private volatile FileStats currentFileStats = new FileStats();
+
+    /**
+     * Number of subjects and sessions copied concurrently.
+     */
+    private int numThreads = DEFAULT_NUM_THREADS;
+
+    /**
+     * Maximum number of concurrent file transfers to the destination server.
+     */
+    private int maxDestUploads = DEFAULT_MAX_DEST_UPLOADS;
+
+    private Semaphore destUploadPermits;
+
+    private final List<FileStats> activeFileStats = new ArrayList<FileStats>();
+
+    private final AtomicInteger numFilesDone = new AtomicInteger();
+
+    private final AtomicInteger numFilesFailed = new AtomicInteger();
 
-    private ImageFileInfo currentFile;
+    private final AtomicLong bytesDone = new AtomicLong();
 
-    private FileStats currentFileStats = new FileStats();
+    private long startTime = 0;
+
+    /**
+     * Failed subject labels and the (first) reason why.
+     */
+    private final Map<String, Throwable> failedSubjects = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+
+    /**
+     * Number of pending tasks per subject, guarded by taskMutex.
+     */
+    private final Map<String, Integer> pendingTasks = new HashMap<String, Integer>();
+
+    private final Object taskMutex = new Object();
 
     private boolean optAutoLabelEmptyResourceLabels = true;
 
@@ -126,7 +233,6 @@ public class XnatCopy implements PutMonitor
     {
         initSource(sourceConfig);
         initDest(destConfig);
-        resourceLoader = new ResourceLoader(); // private copy
     }
 
     public void setSubjects(Set<String> subjects, boolean useLabel)
@@ -140,11 +246,75 @@ public class XnatCopy implements PutMonitor
         this.monitor = monitor;
     }
 
+    /**
+     * @return stats of the last started file transfer. Use getCopyStats() when copying concurrently.
+     */
     public FileStats getCurrentFileStats()
     {
         return currentFileStats;
     }
 
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     * Set maximum number of concurrent file transfers to the destination server.
+     */
+    public void setMaxDestUploads(int maxUploads)
+    {
+        this.maxDestUploads = Math.max(1, maxUploads);
+    }
+
+    public int getMaxDestUploads()
+    {
+        return maxDestUploads;
+    }
+
+    /**
+     * @return snapshot of the aggregated statistics of the current copy.
+     */
+    public CopyStats getCopyStats()
+    {
+        CopyStats stats = new CopyStats();
+
+        synchronized (activeFileStats)
+        {
+            stats.activeFiles = new ArrayList<FileStats>(activeFileStats);
+        }
+
+        stats.numFilesDone = numFilesDone.get();
+        stats.numFilesFailed = numFilesFailed.get();
+        stats.numSubjectsFailed = failedSubjects.size();
+        stats.bytesTransferred = bytesDone.get();
+
+        for (FileStats fileStats : stats.activeFiles)
+        {
+            stats.bytesTransferred += fileStats.bytesTransferred;
+        }
+
+        stats.elapsedTime = (startTime > 0) ? System.currentTimeMillis() - startTime : 0;
+
+        return stats;
+    }
+
+    /**
+     * @return labels of subjects which couldn't be copied completely, and the reason.
+     */
+    public Map<String, Throwable> getFailedSubjects()
+    {
+        synchronized (failedSubjects)
+        {
+            return new LinkedHashMap<String, Throwable>(failedSubjects);
+        }
+    }
+
     private void initDest(WebConfig config) throws WebException
     {
         destClient = new XnatClient(config);
@@ -169,8 +339,13 @@ public class XnatCopy implements PutMonitor
 
     }
 
-    public void copyProjectResourceFiles(String sourceProject, String destProject, Set<XnatResourceType> resourceTypes)
-            throws WebException, XnatClientException
+    /**
+     * Copy the resource files of all (selected) subjects. Subjects and sessions are copied concurrently using
+     * numThreads workers and at most maxDestUploads concurrent file transfers to the destination server. When a
+     * subject fails, the other subjects are still copied. The failed subjects are reported at the end.
+     */
+    public void copyProjectResourceFiles(String sourceProject, final String destProject, final Set<XnatResourceType> resourceTypes)
+            throws WebException, XnatClientException, InterruptedException
     {
         XnatProject sourceP = sourceClient.getProject(sourceProject);
         XnatProject destP = destClient.getProject(destProject);
@@ -179,70 +354,252 @@ public class XnatCopy implements PutMonitor
         monitor.infoPrintf("XNAT Destination: %s/%s\n", destClient, destP.getID());
 
         notifyStartProjectCopy(sourceP.getID(), destP.getID(), false);
+        resetStats();
+
+        // subjects are listed lazily: copying starts after the first page.
+        XnatListIterator<XnatSubject> sourceSubs = sourceClient.iterateSubjects(sourceProject);
+
+        final ExecutorService executor = createExecutor();
+        destUploadPermits = new Semaphore(maxDestUploads, true);
+
+        try
+        {
+            while (sourceSubs.hasNext())
+            {
+                final XnatSubject sourceSub = sourceSubs.next();
+
+                if (copySubject(sourceSub) == false)
+                {
+                    logger.debugPrintf(" - skipping Subject:%s/%s\n", sourceSub.getID(), sourceSub.getLabel());
+                    continue;
+                }
+
+                notifySubjectCopy(sourceSub.getLabel(), false);
+
+                submitTask(executor, sourceSub.getLabel(), new CopyTask()
+                {
+                    @Override
+                    public void doCopy() throws Exception
+                    {
+                        copySubjectSessions(executor, sourceSub, destProject, resourceTypes);
+                    }
+                });
+            }
+
+            waitForTasks();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        Map<String, Throwable> failed = getFailedSubjects();
+
+        if (failed.size() > 0)
+        {
+            throw new XnatClientException("Failed to copy " + failed.size() + " subject(s):" + failed.keySet() + "\n"
+                    + "First error=" + failed.values().iterator().next().getMessage());
+        }
+
+        notifyStartProjectCopy(sourceP.getID(), destP.getID(), true);
+    }
+
+    /**
+     * Create destination subject and submit the sessions of the subject as separate tasks.
+     */
+    protected void copySubjectSessions(ExecutorService executor, XnatSubject sourceSub, String destProject,
+            final Set<XnatResourceType> resourceTypes) throws WebException, XnatClientException
+    {
+        final XnatSubject destSub = destClient.createSubject(destProject, sourceSub.getLabel());
 
-        List<XnatSubject> sourceSubs = sourceClient.listSubjects(sourceProject);
+        XnatListIterator<XnatSession> sourceSessions = sourceClient.iterateSessions(sourceSub);
 
-        for (int numSub = 0; numSub < sourceSubs.size(); numSub++)
+        while (sourceSessions.hasNext())
         {
-            XnatSubject sourceSub = sourceSubs.get(numSub);
+            final XnatSession sourceSess = sourceSessions.next();
+
+            submitTask(executor, sourceSub.getLabel(), new CopyTask()
+            {
+                @Override
+                public void doCopy() throws Exception
+                {
+                    copySession(sourceSess, destSub, resourceTypes);
+                }
+            });
+        }
+    }
+
+    protected void copySession(XnatSession sourceSess, XnatSubject destSub, Set<XnatResourceType> resourceTypes) throws WebException,
+            XnatClientException
+    {
+        notifyStartSessionCopy(sourceSess.getLabel(), false);
+
+        XnatSession destSess = destClient.createSession(destSub, sourceSess.getLabel());
+
+        if (resourceTypes.contains(XnatResourceType.SCAN))
+        {
+            List<XnatScan> sourceScans = sourceClient.listScans(sourceSess);
+            for (int numScan = 0; numScan < sourceScans.size(); numScan++)
+            {
+                XnatScan sourceScan = sourceScans.get(numScan);
+                notifyStartResourceCopy(XnatResourceType.SCAN, sourceScan.getScanType(), sourceScan.getID(), false);
+
+                NewScanInfo destInfo = XnatScan.createNewScanInfoFrom(sourceScan);
+                String destScanLbl = destClient.createMrScan(destSess, destInfo);
+                copyResourceFiles(sourceSess, XnatResourceType.SCAN, sourceScan.getID(), destSess, destScanLbl);
 
-            if (copySubject(sourceSub) == false)
+                notifyStartResourceCopy(XnatResourceType.SCAN, sourceScan.getScanType(), sourceScan.getID(), true);
+            }
+        }
+
+        if (resourceTypes.contains(XnatResourceType.RECONSTRUCTION))
+        {
+            List<XnatReconstruction> sourceRecons = sourceClient.listReconstructions(sourceSess);
+            for (int numScan = 0; numScan < sourceRecons.size(); numScan++)
             {
-                logger.debugPrintf(" - skipping Subject:%s/%s\n", sourceSub.getID(), sourceSub.getLabel());
-                continue;
+                XnatReconstruction sourceRecon = sourceRecons.get(numScan);
+                notifyStartResourceCopy(XnatResourceType.RECONSTRUCTION, sourceRecon.getReconstructionType(), sourceRecon.getID(),
+                        false);
+
+                String destScanLbl = destClient.createReconstruction(destSess, sourceRecon.getID(),
+                        sourceRecon.getReconstructionType());
+                copyResourceFiles(sourceSess, XnatResourceType.RECONSTRUCTION, sourceRecon.getID(), destSess, destScanLbl);
+
+                notifyStartResourceCopy(XnatResourceType.RECONSTRUCTION, sourceRecon.getReconstructionType(), sourceRecon.getID(),
+                        true);
             }
+        }
 
-            notifySubjectCopy(sourceSub.getLabel(), false);
-            XnatSubject destSub = destClient.createSubject(destProject, sourceSub.getLabel());
+        notifyStartSessionCopy(sourceSess.getLabel(), true);
+    }
 
-            List<XnatSession> sourceSessions = sourceClient.listSessions(sourceSub);
-            for (int numSess = 0; numSess < sourceSessions.size(); numSess++)
+    // ========================================================================
+    // Task management
+    // ========================================================================
+
+    protected ExecutorService createExecutor()
+    {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+        {
+            private final AtomicInteger threadNr = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
             {
-                XnatSession sourceSess = sourceSessions.get(numSess);
-                notifyStartSessionCopy(sourceSess.getLabel(), false);
+                Thread thread = new Thread(runnable, "XnatCopy-" + threadNr.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 
-                XnatSession destSess = destClient.createSession(destSub, sourceSess.getLabel());
+    /**
+     * Submit task of subject. Tasks of a subject which already failed are skipped.
+     */
+    protected void submitTask(ExecutorService executor, final String subjectLabel, final CopyTask task)
+    {
+        synchronized (taskMutex)
+        {
+            Integer num = pendingTasks.get(subjectLabel);
+            pendingTasks.put(subjectLabel, (num == null) ? 1 : num + 1);
+        }
 
-                if (resourceTypes.contains(XnatResourceType.SCAN))
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
                 {
-                    List<XnatScan> sourceScans = sourceClient.listScans(sourceSess);
-                    for (int numScan = 0; numScan < sourceScans.size(); numScan++)
+                    try
                     {
-                        XnatScan sourceScan = sourceScans.get(numScan);
-                        notifyStartResourceCopy(XnatResourceType.SCAN, sourceScan.getScanType(), sourceScan.getID(), false);
-
-                        NewScanInfo destInfo = XnatScan.createNewScanInfoFrom(sourceScan);
-                        String destScanLbl = destClient.createMrScan(destSess, destInfo);
-                        copyResourceFiles(sourceSess, XnatResourceType.SCAN, sourceScan.getID(), destSess, destScanLbl);
-
-                        notifyStartResourceCopy(XnatResourceType.SCAN, sourceScan.getScanType(), sourceScan.getID(), true);
+                        if (failedSubjects.containsKey(subjectLabel) == false)
+                        {
+                            task.doCopy();
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        subjectFailed(subjectLabel, t);
+                    }
+                    finally
+                    {
+                        taskDone(subjectLabel);
                     }
                 }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            subjectFailed(subjectLabel, e);
+            taskDone(subjectLabel);
+        }
+    }
 
-                if (resourceTypes.contains(XnatResourceType.RECONSTRUCTION))
-                {
-                    List<XnatReconstruction> sourceRecons = sourceClient.listReconstructions(sourceSess);
-                    for (int numScan = 0; numScan < sourceRecons.size(); numScan++)
-                    {
-                        XnatReconstruction sourceRecon = sourceRecons.get(numScan);
-                        notifyStartResourceCopy(XnatResourceType.RECONSTRUCTION, sourceRecon.getReconstructionType(), sourceRecon.getID(),
-                                false);
+    protected void subjectFailed(String subjectLabel, Throwable t)
+    {
+        logger.logException(ClassLogger.ERROR, t, "Failed to copy subject:%s\n", subjectLabel);
+        monitor.infoPrintf(">>Error: Failed to copy Subject:%s. Reason=%s\n", subjectLabel, t.getMessage());
+
+        synchronized (failedSubjects)
+        {
+            if (failedSubjects.containsKey(subjectLabel) == false)
+            {
+                failedSubjects.put(subjectLabel, t);
+            }
+        }
+    }
 
-                        String destScanLbl = destClient.createReconstruction(destSess, sourceRecon.getID(),
-                                sourceRecon.getReconstructionType());
-                        copyResourceFiles(sourceSess, XnatResourceType.RECONSTRUCTION, sourceRecon.getID(), destSess, destScanLbl);
+    protected void taskDone(String subjectLabel)
+    {
+        boolean subjectDone = false;
 
-                        notifyStartResourceCopy(XnatResourceType.RECONSTRUCTION, sourceRecon.getReconstructionType(), sourceRecon.getID(),
-                                true);
-                    }
-                }
+        synchronized (taskMutex)
+        {
+            int num = pendingTasks.get(subjectLabel) - 1;
 
-                notifyStartSessionCopy(sourceSess.getLabel(), true);
+            if (num <= 0)
+            {
+                pendingTasks.remove(subjectLabel);
+                subjectDone = true;
+            }
+            else
+            {
+                pendingTasks.put(subjectLabel, num);
             }
-            notifySubjectCopy(sourceSub.getLabel(), false);
+
+            taskMutex.notifyAll();
         }
 
-        notifyStartProjectCopy(sourceP.getID(), destP.getID(), true);
+        if ((subjectDone) && (failedSubjects.containsKey(subjectLabel) == false))
+        {
+            notifySubjectCopy(subjectLabel, true);
+        }
+    }
+
+    protected void waitForTasks() throws InterruptedException
+    {
+        synchronized (taskMutex)
+        {
+            while (pendingTasks.size() > 0)
+            {
+                taskMutex.wait();
+            }
+        }
+    }
+
+    protected void resetStats()
+    {
+        synchronized (activeFileStats)
+        {
+            activeFileStats.clear();
+        }
+
+        numFilesDone.set(0);
+        numFilesFailed.set(0);
+        bytesDone.set(0);
+        failedSubjects.clear();
+        startTime = System.currentTimeMillis();
     }
 
     private boolean copySubject(XnatSubject sourceSub)
@@ -269,6 +626,8 @@ public class XnatCopy implements PutMonitor
             XnatSession destSess,
             String destResourceID) throws WebException, XnatClientException
     {
+        int numFailed = 0;
+        Exception firstError = null;
 
         FilesCollection fileCollections;
 
@@ -295,44 +654,78 @@ public class XnatCopy implements PutMonitor
 
             for (XnatFile file : files)
             {
-                ImageFileInfo fileInfo;
-                byte fileBytes[];
-                fileInfo = file.getImageFileInfo();
+                ImageFileInfo fileInfo = file.getImageFileInfo();
+                FileStats stats = null;
 
                 try
                 {
-                    ResponseInputStream inps = sourceClient.getResourceFileInputStream(sourceSess, resourceType, sourceResourceID, colName,
-                            file.getBasename());
-                    fileBytes = resourceLoader.readBytes(inps);
-                    try
-                    {
-                        inps.close();
-                    }
-                    catch (IOException e)
-                    {
-                        ;
-                    }
-                    ;
-
                     String destCollectionLabel = renameResourceLabel(fileInfo, colName);
                     monitor.infoPrintf(">>>>>File [%s->%s]/%s num bytes=%d\n", colName, destCollectionLabel, file.getBasename(),
-                            fileBytes.length);
+                            fileInfo.getFileSize());
 
                     ImageFileInfo destInfo = fileInfo.duplicate();
                     renameFile(destInfo);
-                    this.startFile(destInfo);
-                    String resultStr = destClient.putResourceFile(destSess, resourceType, destResourceID, destCollectionLabel, fileBytes,
-                            destInfo, this);
 
-                    this.fileDone(fileInfo);
+                    destUploadPermits.acquire();
 
+                    try
+                    {
+                        // stream directly from source to destination:
+                        ResponseInputStream inps = sourceClient.getResourceFileInputStream(sourceSess, resourceType, sourceResourceID,
+                                colName, file.getBasename());
+
+                        try
+                        {
+                            stats = this.startFile(destInfo);
+                            String resultStr = destClient.putResourceStream(destSess, resourceType, destResourceID, destCollectionLabel,
+                                    destInfo, -1, new XnatClient.StreamContentWriter(inps), stats);
+                        }
+                        finally
+                        {
+                            try
+                            {
+                                inps.close();
+                            }
+                            catch (IOException e)
+                            {
+                                ;
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        destUploadPermits.release();
+                    }
+
+                    this.fileDone(fileInfo, stats);
                 }
                 catch (Exception e)
                 {
-                    e.printStackTrace();
+                    logger.logException(ClassLogger.ERROR, e, "Failed to copy file:%s/%s\n", colName, file.getBasename());
+                    monitor.infoPrintf(">>>>>Error: Failed to copy file:%s/%s. Reason=%s\n", colName, file.getBasename(), e.getMessage());
+
+                    this.fileFailed(stats);
+                    numFailed++;
+
+                    if (firstError == null)
+                    {
+                        firstError = e;
+                    }
+
+                    if (e instanceof InterruptedException)
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 }
             }
         }
+
+        if (numFailed > 0)
+        {
+            throw new XnatClientException("Failed to copy " + numFailed + " file(s) of " + resourceType + ":" + sourceResourceID + "\n"
+                    + "First error=" + firstError.getMessage(), firstError);
+        }
     }
 
     protected boolean renameFile(ImageFileInfo info)
@@ -379,16 +772,46 @@ public class XnatCopy implements PutMonitor
         return colName;
     }
 
-    private void startFile(ImageFileInfo fileInfo)
+    private FileStats startFile(ImageFileInfo fileInfo)
     {
+        FileStats stats = new FileStats();
+        stats.start(fileInfo.getDestinationFilename(), fileInfo.getFileSize());
+
+        synchronized (activeFileStats)
+        {
+            activeFileStats.add(stats);
+        }
+
         this.currentFile = fileInfo;
-        this.currentFileStats.start(fileInfo.getDestinationFilename(), fileInfo.getFileSize());
+        this.currentFileStats = stats;
+
+        return stats;
     }
 
-    private void fileDone(ImageFileInfo fileInfo)
+    private void fileDone(ImageFileInfo fileInfo, FileStats stats)
     {
+        synchronized (activeFileStats)
+        {
+            activeFileStats.remove(stats);
+        }
+
+        stats.done(fileInfo.getDestinationFilename(), fileInfo.getFileSize());
+        numFilesDone.incrementAndGet();
+        bytesDone.addAndGet(stats.bytesTransferred);
         this.currentFile = fileInfo;
-        this.currentFileStats.done(fileInfo.getDestinationFilename(), fileInfo.getFileSize());
+    }
+
+    private void fileFailed(FileStats optStats)
+    {
+        if (optStats != null)
+        {
+            synchronized (activeFileStats)
+            {
+                activeFileStats.remove(optStats);
+            }
+        }
+
+        numFilesFailed.incrementAndGet();
     }
 
     @Override
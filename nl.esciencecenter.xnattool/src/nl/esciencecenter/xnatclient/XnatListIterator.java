@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnatclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import nl.esciencecenter.ptk.web.WebException;
+import nl.esciencecenter.xnatclient.data.XnatConst;
+import nl.esciencecenter.xnatclient.data.XnatObject;
+import nl.esciencecenter.xnatclient.data.XnatObject.XnatObjectType;
+import nl.esciencecenter.xnatclient.data.XnatParser.ListHandler;
+import nl.esciencecenter.xnatclient.exceptions.XnatParseException;
+
+/**
+ * Lazy, paged iterator over an XNAT listing. The listing is fetched one page at a time using the server side 'offset'
+ * and 'limit' query parameters, the next page is only fetched when the current page has been consumed. At most one
+ * page is kept in memory.
+ * <p>
+ * Servers which ignore the paging parameters return the complete listing as first page. This is detected (more
+ * objects than the page size) and the listing then ends after the first page. Servers which only ignore the offset
+ * return the same page twice: the listing is then queried once without paging parameters and the objects which have
+ * already been returned are skipped.
+ * <p>
+ * Unlike java.util.Iterator, hasNext() can fail when fetching the next page:
+ *
+ * <pre>
+ * XnatListIterator&lt;XnatSubject&gt; subjects = client.iterateSubjects(projectId);
+ * while (subjects.hasNext())
+ * {
+ *     XnatSubject subject = subjects.next();
+ *     ...
+ * }
+ * </pre>
+ */
+public class XnatListIterator<T extends XnatObject>
+{
+    private XnatClient client;
+
+    private String queryStr;
+
+    private XnatObjectType type;
+
+    private int pageSize;
+
+    private List<T> page = new ArrayList<T>();
+
+    private int pageIndex = 0;
+
+    private int offset = 0;
+
+    private boolean lastPage = false;
+
+    private String firstKey = null;
+
+    private int numPages = 0;
+
+    /**
+     * @param queryStr
+     *            - listing query including '?format=json'.
+     * @param pageSize
+     *            - number of objects per page, a value &lt;= 0 fetches the listing in one query.
+     */
+    public XnatListIterator(XnatClient client, String queryStr, XnatObjectType type, int pageSize)
+    {
+        this.client = client;
+        this.queryStr = queryStr;
+        this.type = type;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Fetches the next page if the current page has been consumed.
+     */
+    public boolean hasNext() throws WebException, XnatParseException
+    {
+        while (pageIndex >= page.size())
+        {
+            if (lastPage)
+            {
+                return false;
+            }
+
+            fetchNextPage();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns next object, hasNext() must have been called first.
+     */
+    public T next()
+    {
+        if (pageIndex >= page.size())
+        {
+            throw new NoSuchElementException("No more objects in current page. Call hasNext() first.");
+        }
+
+        T obj = page.get(pageIndex);
+        // release reference:
+        page.set(pageIndex++, null);
+
+        return obj;
+    }
+
+    /**
+     * Iterate over the remaining objects and collect them into a List.
+     */
+    public List<T> toList() throws WebException, XnatParseException
+    {
+        List<T> list = new ArrayList<T>();
+
+        while (hasNext())
+        {
+            list.add(next());
+        }
+
+        return list;
+    }
+
+    public int getNumPages()
+    {
+        return numPages;
+    }
+
+    /**
+     * Called for each object when a page is fetched. Can be overridden to complete objects with information which is
+     * not part of the listing, for example the subject label of a session.
+     */
+    protected void initObject(T obj)
+    {
+    }
+
+    protected void fetchNextPage() throws WebException, XnatParseException
+    {
+        String pageQuery = queryStr;
+
+        if (pageSize > 0)
+        {
+            pageQuery += "&offset=" + offset + "&limit=" + pageSize;
+        }
+
+        List<T> newPage = new ArrayList<T>();
+        queryPage(pageQuery, newPage);
+        numPages++;
+
+        if ((pageSize <= 0) || (newPage.size() < pageSize))
+        {
+            lastPage = true;
+        }
+        else if (newPage.size() > pageSize)
+        {
+            // server ignored the limit: complete listing.
+            lastPage = true;
+        }
+        else if ((firstKey != null) && firstKey.equals(getKey(newPage.get(0))))
+        {
+            // server ignored the offset: same page again. Fetch complete listing and skip returned objects.
+            List<T> listing = new ArrayList<T>();
+            queryPage(queryStr, listing);
+            numPages++;
+
+            newPage = new ArrayList<T>(listing.subList(Math.min(offset, listing.size()), listing.size()));
+            lastPage = true;
+        }
+
+        if (newPage.size() > 0)
+        {
+            firstKey = getKey(newPage.get(0));
+        }
+
+        for (T obj : newPage)
+        {
+            initObject(obj);
+        }
+
+        offset += newPage.size();
+        page = newPage;
+        pageIndex = 0;
+    }
+
+    protected void queryPage(String pageQuery, List<T> newPage) throws WebException, XnatParseException
+    {
+        client.doJSonQuery(pageQuery, type, false, new ListHandler<T>(newPage));
+    }
+
+    protected String getKey(T obj)
+    {
+        String key = obj.get(XnatConst.FIELD_URI_PATH);
+
+        if (key == null)
+        {
+            key = obj.toString();
+        }
+
+        return key;
+    }
+
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnatclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.ptk.csv.CSVData;
+import nl.esciencecenter.ptk.csv.CSVReader;
+import nl.esciencecenter.ptk.csv.CSVRowHandler;
+import nl.esciencecenter.ptk.data.StringList;
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.ptk.web.WebException;
+import nl.esciencecenter.xnatclient.data.XnatObject;
+import nl.esciencecenter.xnatclient.data.XnatSession;
+import nl.esciencecenter.xnatclient.data.XnatSubject;
+import nl.esciencecenter.xnatclient.exceptions.XnatClientException;
+import nl.esciencecenter.xnattool.UploadMonitor;
+
+/**
+ * Batched upload of CSV meta-data. Rows are grouped by subject first: a subject which appears in multiple (session)
+ * rows is updated once with the merged subject fields, and a session which appears in multiple rows is updated once
+ * with the merged session fields. Subjects are then uploaded concurrently, the sessions of a subject are uploaded
+ * after the subject by the same task.
+ * <p>
+ * Rows can be read from a CSVReader, in which case they are grouped while reading and the CSV text is never kept in
+ * memory. Existence checks (when subjects or sessions may not be created) use one listing per project or subject
+ * instead of one query per row. Each row is reported as done or failed to the UploadMonitor; a failed row doesn't stop the other
+ * rows. Failed rows are reported with an XnatClientException at the end.
+ */
+public class XnatMetaDataUploader
+{
+    private static ClassLogger logger = ClassLogger.getLogger(XnatMetaDataUploader.class);
+
+    public static final int DEFAULT_NUM_THREADS = 4;
+
+    /**
+     * Merged update of one session and the CSV rows it has been merged from.
+     */
+    protected static class SessionUpdate
+    {
+        protected XnatSession session;
+
+        protected List<Integer> rows = new ArrayList<Integer>();
+
+        public SessionUpdate(XnatSession session)
+        {
+            this.session = session;
+        }
+    }
+
+    /**
+     * Merged update of one subject. Rows without session data are done when the subject is done, the other rows when
+     * their session is done.
+     */
+    protected static class SubjectUpdate
+    {
+        protected XnatSubject subject;
+
+        protected List<Integer> subjectRows = new ArrayList<Integer>();
+
+        protected Map<String, SessionUpdate> sessions = new LinkedHashMap<String, SessionUpdate>();
+
+        public SubjectUpdate(XnatSubject subject)
+        {
+            this.subject = subject;
+        }
+
+        public List<Integer> getAllRows()
+        {
+            List<Integer> rows = new ArrayList<Integer>(subjectRows);
+
+            for (SessionUpdate sessionUpdate : sessions.values())
+            {
+                rows.addAll(sessionUpdate.rows);
+            }
+
+            return rows;
+        }
+    }
+
+    // ========================================================================
+    //
+    // ========================================================================
+
+    protected XnatClient client;
+
+    protected String projectId;
+
+    protected boolean createSubjects;
+
+    protected boolean createSessions;
+
+    protected UploadMonitor monitor;
+
+    protected int numThreads = DEFAULT_NUM_THREADS;
+
+    protected boolean prefixSessionWithSubject = false;
+
+    /**
+     * Row errors, sorted by row number.
+     */
+    protected Map<Integer, String> failedRows = new TreeMap<Integer, String>();
+
+    protected AtomicInteger numRowsDone = new AtomicInteger();
+
+    public XnatMetaDataUploader(XnatClient client, String projectId, boolean createSubjects, boolean createSessions,
+            UploadMonitor optMonitor)
+    {
+        this.client = client;
+        this.projectId = projectId;
+        this.createSubjects = createSubjects;
+        this.createSessions = createSessions;
+        this.monitor = optMonitor;
+    }
+
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    public void upload(CSVData csvData) throws WebException, XnatClientException
+    {
+        RowGrouper grouper = new RowGrouper();
+
+        try
+        {
+            csvData.writeRows(grouper);
+        }
+        catch (IOException e)
+        {
+            throw new XnatClientException("Failed to read CSV data:" + e.getMessage(), e);
+        }
+
+        upload(grouper);
+    }
+
+    /**
+     * Stream rows from the reader, rows are grouped while reading. Reader is not closed.
+     */
+    public void upload(CSVReader csvReader) throws WebException, XnatClientException
+    {
+        RowGrouper grouper = new RowGrouper();
+
+        try
+        {
+            csvReader.readRows(grouper);
+        }
+        catch (IOException e)
+        {
+            throw new XnatClientException("Failed to read CSV data:" + e.getMessage(), e);
+        }
+
+        upload(grouper);
+    }
+
+    protected void upload(RowGrouper grouper) throws WebException, XnatClientException
+    {
+        int numRows = grouper.numRows;
+
+        if (monitor != null)
+        {
+            monitor.notifyStartUpload("Uploading #" + numRows + " rows of CSV Meta-Data", new int[]
+            {
+                numRows
+            });
+        }
+
+        // report invalid rows now the number of rows is known:
+        for (Map.Entry<Integer, String> entry : grouper.invalidRows.entrySet())
+        {
+            rowFailed(entry.getKey(), entry.getValue());
+        }
+
+        Collection<SubjectUpdate> subjectUpdates = grouper.subjects.values();
+
+        logger.infoPrintf("putMetaData(): #%d rows => #%d subject updates\n", numRows, subjectUpdates.size());
+
+        Set<String> remoteSubjects = null;
+
+        if (createSubjects == false)
+        {
+            // one listing instead of one query per row:
+            remoteSubjects = new HashSet<String>(client.listSubjectLabels(projectId));
+        }
+
+        ExecutorService executor = createExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try
+        {
+            for (final SubjectUpdate update : subjectUpdates)
+            {
+                if ((remoteSubjects != null) && (remoteSubjects.contains(update.subject.getLabel()) == false))
+                {
+                    rowsFailed(update.getAllRows(), "Subject doesn't exist: project/subject=" + projectId + "/"
+                            + update.subject.getLabel());
+                    continue;
+                }
+
+                futures.add(executor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        uploadSubject(update);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new XnatClientException("Interrupted while uploading meta data.", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new XnatClientException("Failed to upload meta data:" + e.getCause().getMessage(), e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+
+        if (monitor != null)
+        {
+            monitor.logPrintf("Finished Updating Meta-Data\n");
+        }
+
+        Map<Integer, String> failed = getFailedRows();
+
+        if (failed.size() > 0)
+        {
+            Map.Entry<Integer, String> first = failed.entrySet().iterator().next();
+
+            throw new XnatClientException("Failed to upload meta-data of " + failed.size() + " row(s) out of " + numRows
+                    + ".\nFirst error (row " + first.getKey() + "):" + first.getValue());
+        }
+    }
+
+    /**
+     * @return Failed rows and their errors, sorted by row number.
+     */
+    public Map<Integer, String> getFailedRows()
+    {
+        synchronized (failedRows)
+        {
+            return new TreeMap<Integer, String>(failedRows);
+        }
+    }
+
+    public int getNumRowsDone()
+    {
+        return numRowsDone.get();
+    }
+
+    // ========================================================================
+    // Grouping
+    // ========================================================================
+
+    /**
+     * Groups CSV rows by subject and session while the rows are read. Subject and session fields of multiple rows are
+     * merged, a later (non-empty) value overwrites an earlier one. Invalid rows are collected and are not part of the
+     * result.
+     */
+    protected class RowGrouper implements CSVRowHandler
+    {
+        protected List<String> headers;
+
+        protected StringList subjectFields = new StringList();
+
+        protected StringList sessionFields = new StringList();
+
+        protected Map<String, SubjectUpdate> subjects = new LinkedHashMap<String, SubjectUpdate>();
+
+        protected Map<Integer, String> invalidRows = new TreeMap<Integer, String>();
+
+        protected int numRows = 0;
+
+        @Override
+        public void handleHeaders(String[] headerArray)
+        {
+            this.headers = new StringList(headerArray);
+
+            for (String header : headers)
+            {
+                if (header.startsWith("session.") && ((header.equals("session.label") == false) || (header.equals("session.id") == false)))
+                {
+                    sessionFields.add(header.substring("session.".length()));
+                }
+            }
+
+            for (String header : headers)
+            {
+                if (header.startsWith("subject.") && ((header.equals("subject.label") == false) || (header.equals("subject.id") == false)))
+                {
+                    subjectFields.add(header.substring("subject.".length()));
+                }
+            }
+        }
+
+        @Override
+        public void handleRow(String[] rowData)
+        {
+            groupRow(numRows++, rowData);
+        }
+
+        protected String get(String rowData[], String fieldName)
+        {
+            int field = headers.indexOf(fieldName);
+            if ((field < 0) || (field >= rowData.length))
+                return null;
+
+            return rowData[field];
+        }
+
+        /**
+         * Returns stripped field value or null if the value is empty or contains only whitespace.
+         */
+        protected String getField(String rowData[], String fieldName)
+        {
+            String value = get(rowData, fieldName);
+            if ((value == null) || StringUtil.isWhiteSpace(value))
+                return null;
+
+            return StringUtil.stripWhiteSpace(value);
+        }
+
+        protected void groupRow(int row, String rowData[])
+        {
+            if ((rowData.length <= 0) || StringUtil.isEmpty(CSVData.getRowAsString(rowData)))
+            {
+                logger.debugPrintf(" - skipping empty row:#%s\n", row);
+                return;
+            }
+
+            // Subject ID field from CVS is actually the Xnat Subject Label:
+            String subjectLbl = get(rowData, "subject.label");
+
+            if (StringUtil.isEmpty(subjectLbl))
+            {
+                invalidRows.put(row, "No 'subject.label' field in (row,column):" + row + "," + headers.indexOf("subject.label")
+                        + "\nRow=" + CSVData.getRowAsString(rowData));
+                return;
+            }
+
+            // =====================
+            // Session (check first)
+            // =====================
+
+            String sessionLbl = get(rowData, "session.label");
+
+            if (StringUtil.isEmpty(sessionLbl))
+            {
+                // Extra check: if a session.label is not specified, but there is session meta data
+                // the row is inconsistent.
+                for (String field : sessionFields)
+                {
+                    String fieldValue = getField(rowData, "session." + field);
+                    if ((fieldValue != null) && (StringUtil.isWhiteSpace(fieldValue) == false))
+                    {
+                        invalidRows.put(row, "No 'session.label' was specified, but there is session meta-data for field: session."
+                                + field + "=" + fieldValue);
+                        return;
+                    }
+                }
+            }
+
+            // =====================
+            // Merge Subject
+            // =====================
+
+            SubjectUpdate subjectUpdate = subjects.get(subjectLbl);
+
+            if (subjectUpdate == null)
+            {
+                // label only subject:
+                subjectUpdate = new SubjectUpdate(XnatSubject.createXnatSubject(projectId, subjectLbl));
+                subjects.put(subjectLbl, subjectUpdate);
+            }
+
+            for (String field : subjectFields)
+            {
+                String fieldValue = getField(rowData, "subject." + field);
+                setField(subjectUpdate.subject, subjectUpdate.subject.isStandardField(field, false), field, fieldValue);
+            }
+
+            if (StringUtil.isEmpty(sessionLbl))
+            {
+                logger.debugPrintf(" - no session.label specified for row/subject:%s/%s\n", row, subjectLbl);
+                subjectUpdate.subjectRows.add(row);
+                return;
+            }
+
+            // =====================
+            // Merge Session
+            // =====================
+
+            // ***
+            // Important: within a project no similar session/experiment labels
+            // may be used for different subjects.
+            // Prefix session label with subject label.
+            //
+            if (prefixSessionWithSubject)
+            {
+                sessionLbl = subjectLbl + "_" + sessionLbl;
+            }
+
+            SessionUpdate sessionUpdate = subjectUpdate.sessions.get(sessionLbl);
+
+            if (sessionUpdate == null)
+            {
+                sessionUpdate = new SessionUpdate(XnatSession.createXnatSession(projectId, subjectLbl, sessionLbl));
+                subjectUpdate.sessions.put(sessionLbl, sessionUpdate);
+            }
+
+            for (String field : sessionFields)
+            {
+                String fieldValue = getField(rowData, "session." + field);
+                setField(sessionUpdate.session, sessionUpdate.session.isStandardField(field, false), field, fieldValue);
+            }
+
+            sessionUpdate.rows.add(row);
+        }
+    }
+
+    protected void setField(XnatObject obj, boolean isStandardField, String field, String fieldValue)
+    {
+        if ((fieldValue == null) || (fieldValue.equals("")))
+        {
+            logger.debugPrintf(" - skipping field:%s\n", field);
+            return;
+        }
+
+        if (isStandardField)
+        {
+            obj.set(field, fieldValue);
+            logger.debugPrintf(" - setting standard %s field: %s=%s\n", obj.getObjectType(), field, fieldValue);
+        }
+        else
+        {
+            obj.setCustomField(field, fieldValue);
+            logger.debugPrintf(" - setting *custom* %s field: %s=%s\n", obj.getObjectType(), field, fieldValue);
+        }
+    }
+
+    // ========================================================================
+    // Upload
+    // ========================================================================
+
+    /**
+     * Upload subject and its sessions. Errors are reported per row.
+     */
+    protected void uploadSubject(SubjectUpdate update)
+    {
+        if ((monitor != null) && monitor.isCancelled())
+        {
+            rowsFailed(update.getAllRows(), "Cancelled.");
+            return;
+        }
+
+        XnatSubject subject = update.subject;
+
+        if (monitor != null)
+        {
+            logUpdate("Subject", subject.getLabel(), subject);
+        }
+
+        try
+        {
+            if (createSubjects)
+            {
+                // create or update:
+                client.createSubject(projectId, subject);
+            }
+            else
+            {
+                client.updateSubject(projectId, subject);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.errorPrintf("Failed to update subject:%s:%s\n", subject.getLabel(), e.getMessage());
+            rowsFailed(update.getAllRows(), "Failed to update Subject:" + subject.getLabel() + ":" + e.getMessage());
+            return;
+        }
+
+        rowsDone(update.subjectRows);
+
+        if (update.sessions.size() <= 0)
+        {
+            return;
+        }
+
+        Set<String> remoteSessions = null;
+
+        if (createSessions == false)
+        {
+            try
+            {
+                // one listing per subject instead of one query per row:
+                remoteSessions = new HashSet<String>(client.listSessionLabels(projectId, subject.getLabel()));
+            }
+            catch (Exception e)
+            {
+                rowsFailed(update.getAllRows(), "Failed to query sessions of Subject:" + subject.getLabel() + ":" + e.getMessage());
+                return;
+            }
+        }
+
+        for (SessionUpdate sessionUpdate : update.sessions.values())
+        {
+            XnatSession session = sessionUpdate.session;
+
+            if ((remoteSessions != null) && (remoteSessions.contains(session.getLabel()) == false))
+            {
+                rowsFailed(sessionUpdate.rows, "Session doesn't exist: project/subject/session=" + projectId + "/"
+                        + subject.getLabel() + "/" + session.getLabel());
+                continue;
+            }
+
+            if (monitor != null)
+            {
+                logUpdate("session", session.getLabel(), session);
+            }
+
+            try
+            {
+                if (createSessions)
+                {
+                    // create/update session
+                    client.createSession(session);
+                }
+                else
+                {
+                    client.updateSession(session);
+                }
+
+                rowsDone(sessionUpdate.rows);
+            }
+            catch (Exception e)
+            {
+                logger.errorPrintf("Failed to update session:%s:%s\n", session.getLabel(), e.getMessage());
+                rowsFailed(sessionUpdate.rows, "Failed to update Session:" + session.getLabel() + ":" + e.getMessage());
+            }
+        }
+    }
+
+    protected void logUpdate(String typeName, String label, XnatObject obj)
+    {
+        // one log block per object, not interleaved by other threads.
+        synchronized (monitor)
+        {
+            monitor.logPrintf("Updating %s:%s\n", typeName, label);
+
+            for (String name : obj.getMetaDataFieldNames(true))
+            {
+                String value = obj.get(name);
+                if (value != null)
+                    monitor.logPrintf(" - %s:%s\n", name, value);
+            }
+        }
+    }
+
+    protected void rowsDone(List<Integer> rows)
+    {
+        for (int row : rows)
+        {
+            numRowsDone.incrementAndGet();
+
+            if (monitor != null)
+            {
+                monitor.notifyFileDone(0, row);
+            }
+        }
+    }
+
+    protected void rowsFailed(List<Integer> rows, String reason)
+    {
+        for (int row : rows)
+        {
+            rowFailed(row, reason);
+        }
+    }
+
+    protected void rowFailed(int row, String reason)
+    {
+        logger.warnPrintf("Row #%d failed:%s\n", row, reason);
+
+        synchronized (failedRows)
+        {
+            failedRows.put(row, reason);
+        }
+
+        if (monitor != null)
+        {
+            monitor.notifyFileFailed(0, row, reason);
+        }
+    }
+
+    protected ExecutorService createExecutor()
+    {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+        {
+            private final AtomicInteger threadNr = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "MetaDataUploader-" + threadNr.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void awaitTermination(ExecutorService executor)
+    {
+        try
+        {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
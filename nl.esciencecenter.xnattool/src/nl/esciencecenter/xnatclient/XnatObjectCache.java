@@ -0,0 +1,452 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnatclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.xnatclient.data.XnatObject;
+import nl.esciencecenter.xnatclient.data.XnatScan;
+import nl.esciencecenter.xnatclient.data.XnatSession;
+import nl.esciencecenter.xnatclient.data.XnatSubject;
+
+/**
+ * Client side cache of the XNAT hierarchy: Project/Subject/Session/Scan. Listings are stored per parent, so after the
+ * first listing a lookup by label doesn't need a remote query. Created objects are added to the cached listings.
+ * Entries expire after the time to live, and can be invalidated explicitly per project, subject or session.
+ * <p>
+ * Cached listings are never modified: an update replaces the listing with a new copy, so returned maps can be used
+ * without locking.
+ */
+public class XnatObjectCache
+{
+    /**
+     * Default time to live of cached entries: 5 minutes.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    private static class CacheEntry<T>
+    {
+        final T value;
+
+        final long timestamp;
+
+        CacheEntry(T value)
+        {
+            this(value, System.currentTimeMillis());
+        }
+
+        CacheEntry(T value, long timestamp)
+        {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // ========================================================================
+    //
+    // ========================================================================
+
+    /**
+     * Listings by parent path, child objects by label (or ID for scans).
+     */
+    private final Map<String, CacheEntry<Map<String, XnatObject>>> listings = new HashMap<String, CacheEntry<Map<String, XnatObject>>>();
+
+    /**
+     * Single (detailed) objects by path.
+     */
+    private final Map<String, CacheEntry<XnatObject>> objects = new HashMap<String, CacheEntry<XnatObject>>();
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private long numHits = 0;
+
+    private long numMisses = 0;
+
+    public XnatObjectCache()
+    {
+    }
+
+    /**
+     * @param timeToLive
+     *            - time to live in milliseconds. A value &lt;= 0 disables the cache.
+     */
+    public synchronized void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+
+        if (timeToLive <= 0)
+        {
+            clear();
+        }
+    }
+
+    public synchronized long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+    // ========================================================================
+    // Subjects
+    // ========================================================================
+
+    public synchronized void putSubjects(String projectId, List<XnatSubject> subjects)
+    {
+        Map<String, XnatObject> map = new LinkedHashMap<String, XnatObject>();
+
+        for (XnatSubject subject : subjects)
+        {
+            map.put(subject.getLabel(), subject);
+        }
+
+        putListing(projectPath(projectId), map);
+    }
+
+    /**
+     * @return cached subjects or null if not cached.
+     */
+    public synchronized List<XnatSubject> getSubjects(String projectId)
+    {
+        return this.<XnatSubject> toList(getListing(projectPath(projectId)));
+    }
+
+    /**
+     * Add (created or updated) subject. The subject is added to the subjects listing of the project if cached.
+     */
+    public synchronized void putSubject(XnatSubject subject)
+    {
+        String path = subjectPath(subject.getProjectID(), subject.getLabel());
+        putObject(path, subject);
+        updateListing(projectPath(subject.getProjectID()), subject.getLabel(), subject);
+    }
+
+    /**
+     * @return cached subject or null if not cached.
+     */
+    public synchronized XnatSubject getSubject(String projectId, String subjectLabel)
+    {
+        return (XnatSubject) getObject(subjectPath(projectId, subjectLabel));
+    }
+
+    // ========================================================================
+    // Sessions
+    // ========================================================================
+
+    public synchronized void putSessions(String projectId, String subjectLabel, List<XnatSession> sessions)
+    {
+        Map<String, XnatObject> map = new LinkedHashMap<String, XnatObject>();
+
+        for (XnatSession session : sessions)
+        {
+            map.put(session.getLabel(), session);
+        }
+
+        putListing(subjectPath(projectId, subjectLabel), map);
+    }
+
+    /**
+     * @return cached sessions of the subject or null if not cached.
+     */
+    public synchronized List<XnatSession> getSessions(String projectId, String subjectLabel)
+    {
+        return this.<XnatSession> toList(getListing(subjectPath(projectId, subjectLabel)));
+    }
+
+    /**
+     * @return (read only) map of cached sessions by label, or null if not cached.
+     */
+    public synchronized Map<String, XnatSession> getSessionMap(String projectId, String subjectLabel)
+    {
+        return this.<XnatSession> toMap(getListing(subjectPath(projectId, subjectLabel)));
+    }
+
+    /**
+     * Add (created or updated) session to the sessions listing of the subject if cached.
+     */
+    public synchronized void putSession(XnatSession session)
+    {
+        updateListing(subjectPath(session.getProjectID(), session.getSubjectLabel()), session.getLabel(), session);
+    }
+
+    // ========================================================================
+    // Scans
+    // ========================================================================
+
+    public synchronized void putScans(String projectId, String subjectLabel, String sessionLabel, List<XnatScan> scans)
+    {
+        Map<String, XnatObject> map = new LinkedHashMap<String, XnatObject>();
+
+        for (XnatScan scan : scans)
+        {
+            map.put(scan.getID(), scan);
+        }
+
+        putListing(sessionPath(projectId, subjectLabel, sessionLabel), map);
+    }
+
+    /**
+     * @return cached scans of the session or null if not cached.
+     */
+    public synchronized List<XnatScan> getScans(String projectId, String subjectLabel, String sessionLabel)
+    {
+        return this.<XnatScan> toList(getListing(sessionPath(projectId, subjectLabel, sessionLabel)));
+    }
+
+    /**
+     * @return (read only) map of cached scans by scan ID, or null if not cached.
+     */
+    public synchronized Map<String, XnatScan> getScanMap(String projectId, String subjectLabel, String sessionLabel)
+    {
+        return this.<XnatScan> toMap(getListing(sessionPath(projectId, subjectLabel, sessionLabel)));
+    }
+
+    /**
+     * Add (created or updated) scan to the scans listing of the session if cached.
+     */
+    public synchronized void putScan(String projectId, String subjectLabel, String sessionLabel, XnatScan scan)
+    {
+        updateListing(sessionPath(projectId, subjectLabel, sessionLabel), scan.getID(), scan);
+    }
+
+    // ========================================================================
+    // Invalidation
+    // ========================================================================
+
+    /**
+     * Remove project and all cached subjects, sessions and scans of the project.
+     */
+    public synchronized void invalidateProject(String projectId)
+    {
+        invalidatePath(projectPath(projectId));
+    }
+
+    /**
+     * Remove subject, the subject from the project listing and all cached sessions and scans of the subject.
+     */
+    public synchronized void invalidateSubject(String projectId, String subjectLabel)
+    {
+        listings.remove(projectPath(projectId));
+        invalidatePath(subjectPath(projectId, subjectLabel));
+    }
+
+    /**
+     * Remove the sessions listing of the subject and the cached scans of the session.
+     */
+    public synchronized void invalidateSession(String projectId, String subjectLabel, String sessionLabel)
+    {
+        listings.remove(subjectPath(projectId, subjectLabel));
+        invalidatePath(sessionPath(projectId, subjectLabel, sessionLabel));
+    }
+
+    /**
+     * Remove the scans listing of the session.
+     */
+    public synchronized void invalidateScans(String projectId, String subjectLabel, String sessionLabel)
+    {
+        listings.remove(sessionPath(projectId, subjectLabel, sessionLabel));
+    }
+
+    public synchronized void clear()
+    {
+        listings.clear();
+        objects.clear();
+    }
+
+    // ========================================================================
+    // Statistics
+    // ========================================================================
+
+    public synchronized long getNumHits()
+    {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses()
+    {
+        return numMisses;
+    }
+
+    public synchronized void resetStatistics()
+    {
+        numHits = 0;
+        numMisses = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "XnatObjectCache:[#listings=" + listings.size() + ",#objects=" + objects.size() + ",hits=" + numHits + ",misses="
+                + numMisses + ",timeToLive=" + timeToLive + "]";
+    }
+
+    // ========================================================================
+    // Implementation
+    // ========================================================================
+
+    protected static String projectPath(String projectId)
+    {
+        return "projects/" + projectId;
+    }
+
+    protected static String subjectPath(String projectId, String subjectLabel)
+    {
+        return projectPath(projectId) + "/subjects/" + subjectLabel;
+    }
+
+    protected static String sessionPath(String projectId, String subjectLabel, String sessionLabel)
+    {
+        return subjectPath(projectId, subjectLabel) + "/experiments/" + sessionLabel;
+    }
+
+    private boolean isExpired(CacheEntry<?> entry)
+    {
+        return (System.currentTimeMillis() - entry.timestamp) > timeToLive;
+    }
+
+    private void putListing(String path, Map<String, XnatObject> map)
+    {
+        if (timeToLive > 0)
+        {
+            listings.put(path, new CacheEntry<Map<String, XnatObject>>(map));
+        }
+    }
+
+    private Map<String, XnatObject> getListing(String path)
+    {
+        CacheEntry<Map<String, XnatObject>> entry = listings.get(path);
+
+        if ((entry != null) && isExpired(entry))
+        {
+            listings.remove(path);
+            entry = null;
+        }
+
+        if (entry == null)
+        {
+            numMisses++;
+            return null;
+        }
+
+        numHits++;
+        return entry.value;
+    }
+
+    /**
+     * Replace the cached listing with a copy which contains the new or updated object. The listing keeps its
+     * timestamp. Nothing is done if the listing isn't cached.
+     */
+    private void updateListing(String path, String key, XnatObject object)
+    {
+        CacheEntry<Map<String, XnatObject>> entry = listings.get(path);
+
+        if ((entry == null) || isExpired(entry))
+        {
+            return;
+        }
+
+        Map<String, XnatObject> map = new LinkedHashMap<String, XnatObject>(entry.value);
+        map.put(key, object);
+
+        listings.put(path, new CacheEntry<Map<String, XnatObject>>(map, entry.timestamp));
+    }
+
+    private void putObject(String path, XnatObject object)
+    {
+        if (timeToLive > 0)
+        {
+            objects.put(path, new CacheEntry<XnatObject>(object));
+        }
+    }
+
+    private XnatObject getObject(String path)
+    {
+        CacheEntry<XnatObject> entry = objects.get(path);
+
+        if ((entry != null) && isExpired(entry))
+        {
+            objects.remove(path);
+            entry = null;
+        }
+
+        if (entry == null)
+        {
+            numMisses++;
+            return null;
+        }
+
+        numHits++;
+        return entry.value;
+    }
+
+    private void invalidatePath(String path)
+    {
+        String prefix = path + "/";
+
+        for (Iterator<String> iterator = listings.keySet().iterator(); iterator.hasNext();)
+        {
+            String key = iterator.next();
+
+            if (key.equals(path) || key.startsWith(prefix))
+            {
+                iterator.remove();
+            }
+        }
+
+        for (Iterator<String> iterator = objects.keySet().iterator(); iterator.hasNext();)
+        {
+            String key = iterator.next();
+
+            if (key.equals(path) || key.startsWith(prefix))
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends XnatObject> List<T> toList(Map<String, XnatObject> map)
+    {
+        if (map == null)
+        {
+            return null;
+        }
+
+        return new ArrayList<T>((Collection<T>) (Collection<?>) map.values());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends XnatObject> Map<String, T> toMap(Map<String, XnatObject> map)
+    {
+        if (map == null)
+        {
+            return null;
+        }
+
+        return Collections.unmodifiableMap((Map<String, T>) (Map<String, ?>) map);
+    }
+
+}
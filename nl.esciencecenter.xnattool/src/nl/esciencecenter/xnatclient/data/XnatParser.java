@@ -21,8 +21,12 @@
 package nl.esciencecenter.xnatclient.data;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.util.StringUtil;
@@ -32,6 +36,8 @@ import nl.esciencecenter.xnatclient.exceptions.XnatParseException;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -83,59 +89,158 @@ public class XnatParser
         }
     }
 
+    /**
+     * Callback for streaming parsing. Called for each parsed XnatObject.
+     */
+    public static interface XnatObjectHandler<T extends XnatObject>
+    {
+        public void handleObject(T object) throws XnatParseException;
+    }
+
+    /**
+     * Collects parsed objects into a List.
+     */
+    public static class ListHandler<T extends XnatObject> implements XnatObjectHandler<T>
+    {
+        protected List<T> list;
+
+        public ListHandler(List<T> list)
+        {
+            this.list = list;
+        }
+
+        @Override
+        public void handleObject(T object)
+        {
+            list.add(object);
+        }
+    }
+
+    // ========================================================================
+    // Shared Jackson instances, both are thread safe once configured.
+    // ========================================================================
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+
+    public static JsonFactory getJsonFactory()
+    {
+        return jsonFactory;
+    }
+
+    public static ObjectMapper getObjectMapper()
+    {
+        return objectMapper;
+    }
+
+    // ========================================================================
+    // Parse methods
+    // ========================================================================
+
     public static int parseJsonResult(XnatObjectType type, String jsonStr, List list) throws XnatParseException
     {
         if (StringUtil.isEmpty(jsonStr))
             return 0;
+
         try
         {
-            JsonFactory jsonFac = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
-
-            // use dom like parsing:
-            JsonNode tree = mapper.readTree(jsonStr);
-            JsonNode rootNode = null;
+            JsonParser parser = jsonFactory.createParser(jsonStr);
 
-            JsonNode resultSet = tree.get("ResultSet");
-            if (resultSet == null)
+            try
             {
-                logger.warnPrintf("Couldn't find 'ResultSet' in jsonTree\n");
-                // return 0;
+                parseJsonResult(type, parser, new ListHandler(list));
             }
-
-            JsonNode result = resultSet.get("Result");
-            if (result == null)
+            finally
             {
-                logger.warnPrintf("Couldn't find 'Result' in jsonTree\n");
-                return 0;
+                parser.close();
             }
+        }
+        // wrap exception:
+        catch (JsonParseException e)
+        {
+            throw new XnatParseException("Couldn't parse result:\n" + jsonStr + "\n---\n" + e.getMessage(), e);
+        }
+        catch (IOException e)
+        {
+            throw new XnatParseException("IOException:" + e.getMessage(), e);
+        }
+
+        return list.size();
+    }
 
-            if (result.isArray() == false)
+    /**
+     * Streaming parse of a Json 'ResultSet' as returned by a listing query. The response is parsed token by token,
+     * each XnatObject is handed to the handler as soon as it has been parsed. The InputStream is not closed.
+     * 
+     * @return number of parsed objects.
+     */
+    public static <T extends XnatObject> int parseJsonResult(XnatObjectType type, InputStream inps, XnatObjectHandler<T> handler)
+            throws XnatParseException
+    {
+        try
+        {
+            JsonParser parser = jsonFactory.createParser(inps);
+
+            try
             {
-                // logger.warnPrintf("Couldn't find 'Result' in jsonTree\n");
-                return 0;
+                return parseJsonResult(type, parser, handler);
             }
-            rootNode = result;
-
-            // parse objects:
-            Iterator<JsonNode> els = rootNode.elements();
-            while (els.hasNext())
+            finally
             {
-                JsonNode el = els.next();
-                list.add(parseXnatObject(type, el));
+                parser.close();
             }
         }
         // wrap exception:
         catch (JsonParseException e)
         {
-            throw new XnatParseException("Couldn't parse result:\n" + jsonStr + "\n---\n" + e.getMessage(), e);
+            throw new XnatParseException("Couldn't parse result:" + e.getMessage(), e);
         }
         catch (IOException e)
         {
             throw new XnatParseException("IOException:" + e.getMessage(), e);
         }
+    }
 
-        return list.size();
+    /**
+     * Parse structure: { "ResultSet" : { "Result" : [ {...}, {...}, ... ] } }
+     */
+    protected static <T extends XnatObject> int parseJsonResult(XnatObjectType type, JsonParser parser, XnatObjectHandler<T> handler)
+            throws IOException, XnatParseException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+        {
+            return 0;
+        }
+
+        if (moveToField(parser, "ResultSet") == false)
+        {
+            logger.warnPrintf("Couldn't find 'ResultSet' in json result\n");
+            return 0;
+        }
+
+        if ((parser.getCurrentToken() != JsonToken.START_OBJECT) || (moveToField(parser, "Result") == false))
+        {
+            logger.warnPrintf("Couldn't find 'Result' in json result\n");
+            return 0;
+        }
+
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY)
+        {
+            return 0;
+        }
+
+        Set<String> fieldNames = getFieldNameSet(type);
+        int num = 0;
+
+        // parse objects:
+        while (parser.nextToken() == JsonToken.START_OBJECT)
+        {
+            handler.handleObject(XnatParser.<T> parseXnatObject(type, parser, fieldNames));
+            num++;
+        }
+
+        return num;
     }
 
     /**
@@ -167,6 +272,46 @@ public class XnatParser
         return obj;
     }
 
+    /**
+     * Parse single XnatObject, the parser must be at the START_OBJECT token of the object. Only fields from the
+     * XnatObject definition are used (not all json fields), nested structures are skipped. After parsing, the parser
+     * is at the END_OBJECT token.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T extends XnatObject> T parseXnatObject(XnatObjectType type, JsonParser parser, Set<String> fieldNames)
+            throws IOException
+    {
+        // create new object
+        XnatObject obj = XnatObject.create(type);
+        logger.debugPrintf(" - New XnatObject:<%s>\n", obj.getObjectType());
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            String text;
+
+            if ((token == JsonToken.START_OBJECT) || (token == JsonToken.START_ARRAY))
+            {
+                // same as JsonNode.asText() for containers
+                parser.skipChildren();
+                text = "";
+            }
+            else
+            {
+                text = parser.getText();
+            }
+
+            if (fieldNames.contains(name))
+            {
+                logger.debugPrintf(" - - set %s='%s'\n", name, text);
+                obj.set(name, text);
+            }
+        }
+
+        return (T) obj;
+    }
+
     /**
      * Xnat Rest Query has a diferrent Json Tree. Parse structure
      * 
@@ -179,33 +324,49 @@ public class XnatParser
 
         try
         {
-            JsonFactory jsonFac = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper();
+            JsonParser parser = jsonFactory.createParser(jsonStr);
 
-            // use dom like parsing:
-            JsonNode tree = mapper.readTree(jsonStr);
+            try
+            {
+                parseJsonQueryResult(type, parser, new ListHandler(list));
+            }
+            finally
+            {
+                parser.close();
+            }
+        }
+        // wrap exception:
+        catch (JsonParseException e)
+        {
+            throw new XnatParseException("JsonParseException:" + e.getMessage(), e);
+        }
+        catch (IOException e)
+        {
+            throw new XnatParseException("IOException:" + e.getMessage(), e);
+        }
+
+        return list.size();
+    }
 
-            JsonNode items = tree.get("items");
+    /**
+     * Streaming parse of a Rest Query result. The InputStream is not closed.
+     * 
+     * @return number of parsed objects.
+     */
+    public static <T extends XnatObject> int parseJsonQueryResult(XnatObjectType type, InputStream inps,
+            XnatObjectHandler<T> handler) throws XnatParseException
+    {
+        try
+        {
+            JsonParser parser = jsonFactory.createParser(inps);
 
-            if (items == null)
+            try
             {
-                logger.warnPrintf("Couldn't find 'items' in jsonTree\n");
-                return 0;
+                return parseJsonQueryResult(type, parser, handler);
             }
-
-            // parse objects:
-            JsonNode node = null;
-            Iterator<JsonNode> els = items.elements();
-            int index = 0;
-            while (els.hasNext())
+            finally
             {
-                logger.debugPrintf(" - item[%d]\n", index++);
-                JsonNode el = els.next();
-                node = el.get("data_fields");
-                if (node != null)
-                    list.add(parseXnatObject(type, node));
-                else
-                    logger.warnPrintf("jsonNode doesn't have 'data_fields' element:%s", el);
+                parser.close();
             }
         }
         // wrap exception:
@@ -217,8 +378,88 @@ public class XnatParser
         {
             throw new XnatParseException("IOException:" + e.getMessage(), e);
         }
+    }
 
-        return list.size();
+    /**
+     * Parse structure: { "items" : [ { "data_fields" : {...}, "children" : [...], ... }, ... ] }
+     */
+    protected static <T extends XnatObject> int parseJsonQueryResult(XnatObjectType type, JsonParser parser,
+            XnatObjectHandler<T> handler) throws IOException, XnatParseException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+        {
+            return 0;
+        }
+
+        if ((moveToField(parser, "items") == false) || (parser.getCurrentToken() != JsonToken.START_ARRAY))
+        {
+            logger.warnPrintf("Couldn't find 'items' in json result\n");
+            return 0;
+        }
+
+        Set<String> fieldNames = getFieldNameSet(type);
+        int index = 0;
+        int num = 0;
+
+        // parse objects:
+        while (parser.nextToken() == JsonToken.START_OBJECT)
+        {
+            logger.debugPrintf(" - item[%d]\n", index++);
+            boolean hasDataFields = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("data_fields".equals(name) && (token == JsonToken.START_OBJECT))
+                {
+                    handler.handleObject(XnatParser.<T> parseXnatObject(type, parser, fieldNames));
+                    hasDataFields = true;
+                    num++;
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+
+            if (hasDataFields == false)
+            {
+                logger.warnPrintf("json item[%d] doesn't have 'data_fields' element\n", index - 1);
+            }
+        }
+
+        return num;
+    }
+
+    /**
+     * Skip fields of the current object until the field with the specified name. If found, the parser is positioned
+     * at the value of the field.
+     * 
+     * @return true if the field was found, false if the end of the object was reached.
+     */
+    protected static boolean moveToField(JsonParser parser, String fieldName) throws IOException
+    {
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+
+            if (fieldName.equals(name))
+            {
+                return true;
+            }
+
+            parser.skipChildren();
+        }
+
+        return false;
+    }
+
+    protected static Set<String> getFieldNameSet(XnatObjectType type)
+    {
+        return new HashSet<String>(Arrays.asList(XnatObject.create(type).getFieldNames()));
     }
 
     // public static String[] parseCSVHeaders(String headerLine)
@@ -104,6 +104,32 @@ public class XnatScan extends XnatObject
         return null;
     }
 
+    /**
+     * Create new (MR) XnatScan object from the info used to create the scan. Only the fields of the NewScanInfo are
+     * set.
+     */
+    public static XnatScan createXnatScan(NewScanInfo info)
+    {
+        XnatScan scan = new XnatScan();
+        scan.set(XnatConst.FIELD_ID, info.getScanID());
+        scan.set(XnatConst.FIELD_XSITYPE, "xnat:mrScanData");
+
+        if (info.note != null)
+        {
+            scan.set(XnatConst.FIELD_NOTE, info.note);
+        }
+        if (info.quality != null)
+        {
+            scan.set(XnatConst.FIELD_SCAN_QUALITY, info.quality);
+        }
+        if (info.series_description != null)
+        {
+            scan.setDescription(info.series_description);
+        }
+
+        return scan;
+    }
+
     public static NewScanInfo createNewScanInfoFrom(XnatScan scan)
     {
         NewScanInfo info = new NewScanInfo(scan.getID());
@@ -20,18 +20,37 @@
 
 package nl.esciencecenter.xnattool;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Set;
 
 import nl.esciencecenter.ptk.crypt.StringCrypter;
 import nl.esciencecenter.ptk.crypt.StringCrypter.EncryptionException;
 import nl.esciencecenter.ptk.crypt.StringHasher;
-import nl.esciencecenter.ptk.csv.CSVData;
+import nl.esciencecenter.ptk.csv.CSVRowHandler;
+import nl.esciencecenter.ptk.csv.CSVWriter;
 import nl.esciencecenter.ptk.data.HashMapList;
 import nl.esciencecenter.ptk.data.StringList;
 import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
 
 /**
  * Mappings between ScanSets and remote Xnat DB.
@@ -41,6 +60,8 @@ import nl.esciencecenter.ptk.util.StringUtil;
  */
 public class DBMapping
 {
+    private static ClassLogger logger = ClassLogger.getLogger(DBMapping.class);
+
     public static final String CSV_OWNERID = "dataset.ownerid";
 
     public static final String CSV_DATASETNAME = "dataset.name";
@@ -63,6 +84,57 @@ public class DBMapping
 
     public static final String CSV_SCANLABEL = "scan.label";
 
+    /**
+     * Keys of one ScanSet, see createMappings().
+     */
+    public static class ScanSetKeys
+    {
+        protected String subjectKey;
+
+        protected String sessionKey;
+
+        protected String scanSetKey;
+
+        public ScanSetKeys(String subjectKey, String sessionKey, String scanSetKey)
+        {
+            this.subjectKey = subjectKey;
+            this.sessionKey = sessionKey;
+            this.scanSetKey = scanSetKey;
+        }
+    }
+
+    /**
+     * Label to be created by createLabels().
+     */
+    protected static class LabelTask
+    {
+        protected String labelPrefix;
+
+        protected String id;
+
+        protected boolean doCryptHash;
+
+        protected IDMapping mapping;
+
+        protected LabelTask(String labelPrefix, String id, boolean doCryptHash)
+        {
+            this.labelPrefix = labelPrefix;
+            this.id = id;
+            this.doCryptHash = doCryptHash;
+        }
+    }
+
+    /**
+     * Thread confined Crypter and Hasher, created from the same settings. StringCrypter and StringHasher are not thread
+     * safe.
+     */
+    private static class CryptAndHash
+    {
+        private StringCrypter crypter;
+
+        private StringHasher hasher;
+    }
+
     /**
      * ID Mapping Element.
      */
@@ -140,7 +212,13 @@ public class DBMapping
 
                 if (doCryptHash)
                 {
-                    newid = cryptHash(labelPrefix, id);
+                    newid = getStoredMapping(labelPrefix, id);
+
+                    if (newid == null)
+                    {
+                        newid = cryptHash(labelPrefix, id);
+                        storeMapping(labelPrefix, id, newid);
+                    }
                 }
                 else
                 {
@@ -155,23 +233,9 @@ public class DBMapping
             return newid;
         }
 
-        protected synchronized IDMapping cryptHash(String labelPrefix, String id) throws EncryptionException
-        {
-            // first encrypt
-            byte cryptBytes[] = encryptID(id);
-            // hash result
-            byte hashBytes[] = hashBytes(cryptBytes, getHashSaltBytes(), cryptHashSettings.maxHashLength);
-            String hashStr = labelPrefix + StringUtil.toHexString(hashBytes, true);
-
-            IDMapping mapping = new IDMapping(cryptBytes, hashBytes, hashStr);
-            return mapping;
-        }
-
-        protected byte[] getHashSaltBytes()
+        protected IDMapping cryptHash(String labelPrefix, String id) throws EncryptionException
         {
-            String id = DBMapping.this.cryptHashSettings.getSourceID();
-            // use char encofing of hasher:
-            return id.getBytes(DBMapping.this.hasher.getEncoding());
+            return DBMapping.this.cryptHash(labelPrefix, id);
         }
 
         public String[] getKeyArray()
@@ -208,13 +272,25 @@ public class DBMapping
     }
 
     /**
-     * Groups a set of IDMappers.
-     * 
+     * Groups a set of IDMappers. Maintains a reverse index from sub key to group key and a cached list of all sub keys,
+     * which are updated by getCreate(), delete() and clear(). Mappings must not be added or removed directly.
      */
     public class GroupMapper extends HashMapList<String, IDMapper>
     {
         private static final long serialVersionUID = -1313650726916939179L;
 
+        /**
+         * Reverse index: sub key -> (first) group key.
+         */
+        private Map<String, String> groupKeyIndex = new HashMap<String, String>();
+
+        /**
+         * Cached flattened list of all sub keys, null if it must be recreated.
+         */
+        private List<String> allSubGroupKeys = null;
+
+        private int numSubGroupKeys = 0;
+
         public GroupMapper()
         {
         }
@@ -230,8 +306,13 @@ public class DBMapping
          * 
          * @return
          */
-        public List<String> getAllSubGroupKeys()
+        public synchronized List<String> getAllSubGroupKeys()
         {
+            if (allSubGroupKeys != null)
+            {
+                return allSubGroupKeys;
+            }
+
             String groupKeys[] = this.getKeyArray();
 
             StringList allKeys = new StringList();
@@ -242,7 +323,26 @@ public class DBMapping
                 allKeys.add(subKeys);
             }
 
-            return allKeys;
+            allSubGroupKeys = Collections.unmodifiableList(allKeys);
+            return allSubGroupKeys;
+        }
+
+        /**
+         * @return total number of sub keys in all groups.
+         */
+        public synchronized int getNumSubGroupKeys()
+        {
+            return numSubGroupKeys;
+        }
+
+        /**
+         * Reverse lookup of group key. If the sub key occurs in multiple groups the first group is returned.
+         * 
+         * @return group key or null.
+         */
+        public synchronized String getGroupKey(String subKey)
+        {
+            return groupKeyIndex.get(subKey);
         }
 
         public String[] getKeyArray(String subGroupKey)
@@ -279,7 +379,7 @@ public class DBMapping
             return mapper.getHashedLabelString(subKey);
         }
 
-        public String getCreate(String groupKey, String subKey, boolean doCryptHash, String labelPrefix, boolean autoCreate)
+        public synchronized String getCreate(String groupKey, String subKey, boolean doCryptHash, String labelPrefix, boolean autoCreate)
                 throws EncryptionException
         {
             IDMapper mapper = this.get(groupKey);
@@ -293,19 +393,96 @@ public class DBMapping
                 this.put(groupKey, mapper);
             }
 
+            int size = mapper.size();
             IDMapping mapping = mapper.getCreateLabel(subKey, doCryptHash, autoCreate, labelPrefix);
 
+            if (mapping == null)
+                return null;
+
+            if (mapper.size() > size)
+            {
+                subKeyAdded(groupKey, subKey);
+            }
+
             return mapping.labelString;
         }
 
-        public boolean delete(String groupKey, String subKey)
+        /**
+         * Add (precomputed) mapping if the sub key doesn't exist yet in the group.
+         */
+        public synchronized void putMapping(String groupKey, String subKey, IDMapping mapping)
+        {
+            IDMapper mapper = this.get(groupKey);
+
+            if (mapper == null)
+            {
+                mapper = new IDMapper();
+                this.put(groupKey, mapper);
+            }
+
+            if (mapper.get(subKey) == null)
+            {
+                mapper.put(subKey, mapping);
+                subKeyAdded(groupKey, subKey);
+            }
+        }
+
+        public synchronized boolean delete(String groupKey, String subKey)
         {
             IDMapper mapper = this.get(groupKey);
 
             if (mapper == null)
                 return false;
 
-            return (mapper.remove(subKey) != null);
+            if (mapper.remove(subKey) == null)
+                return false;
+
+            subKeyRemoved(groupKey, subKey);
+            return true;
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            super.clear();
+            groupKeyIndex.clear();
+            allSubGroupKeys = null;
+            numSubGroupKeys = 0;
+        }
+
+        private void subKeyAdded(String groupKey, String subKey)
+        {
+            numSubGroupKeys++;
+            allSubGroupKeys = null;
+
+            if (groupKeyIndex.containsKey(subKey) == false)
+            {
+                groupKeyIndex.put(subKey, groupKey);
+            }
+        }
+
+        private void subKeyRemoved(String groupKey, String subKey)
+        {
+            numSubGroupKeys--;
+            allSubGroupKeys = null;
+
+            if (groupKey.equals(groupKeyIndex.get(subKey)) == false)
+            {
+                return;
+            }
+
+            groupKeyIndex.remove(subKey);
+
+            // sub key might still exist in another group:
+            for (String key : this.getKeyArray())
+            {
+                IDMapper mapper = this.get(key);
+                if ((mapper != null) && (mapper.get(subKey) != null))
+                {
+                    groupKeyIndex.put(subKey, key);
+                    return;
+                }
+            }
         }
 
         public String toString()
@@ -349,9 +526,10 @@ public class DBMapping
 
     protected GroupMapper scanMappings = null;
 
-    private StringHasher hasher = null;
-
-    private StringCrypter crypter;
+    /**
+     * Crypter and hasher per thread, so labels can be created concurrently.
+     */
+    private ThreadLocal<CryptAndHash> threadCryptAndHash = new ThreadLocal<CryptAndHash>();
 
     private String subjectPrefix = "sub_";
 
@@ -359,6 +537,8 @@ public class DBMapping
 
     private String scanPrefix = "scn_";
 
+    private DBMappingStore store = null;
+
     public DBMapping(CryptHashSettings cryptHashSettings)
             throws NoSuchAlgorithmException, UnsupportedEncodingException, EncryptionException
     {
@@ -369,18 +549,52 @@ public class DBMapping
             throws NoSuchAlgorithmException, UnsupportedEncodingException, EncryptionException
     {
         this.cryptHashSettings = cryptHashSettings;
-        this.hasher = new StringHasher(cryptHashSettings.hashAlgorithm, StringCrypter.CHARSET_UTF8);
 
-        // reuse hasher. Is safe in single threaded invocations!
+        // check settings and keep crypter of this thread:
+        threadCryptAndHash.set(createCryptAndHash());
+
         subjectMappings = new IDMapper();
+        sessionMappings = new GroupMapper();
+        scanMappings = new GroupMapper();
+    }
+
+    private CryptAndHash createCryptAndHash()
+            throws NoSuchAlgorithmException, UnsupportedEncodingException, EncryptionException
+    {
+        CryptAndHash cryptAndHash = new CryptAndHash();
 
-        this.crypter = new StringCrypter(cryptHashSettings.encryptionKey,
+        cryptAndHash.hasher = new StringHasher(cryptHashSettings.hashAlgorithm, StringCrypter.CHARSET_UTF8);
+        cryptAndHash.crypter = new StringCrypter(cryptHashSettings.encryptionKey,
                 cryptHashSettings.cryptScheme,
                 cryptHashSettings.hashAlgorithm,
                 StringCrypter.CHARSET_UTF8);
 
-        sessionMappings = new GroupMapper();
-        scanMappings = new GroupMapper();
+        return cryptAndHash;
+    }
+
+    /**
+     * Returns crypter and hasher of the current thread.
+     */
+    private CryptAndHash getCryptAndHash()
+    {
+        CryptAndHash cryptAndHash = threadCryptAndHash.get();
+
+        if (cryptAndHash == null)
+        {
+            try
+            {
+                cryptAndHash = createCryptAndHash();
+            }
+            catch (Exception e)
+            {
+                // settings have been checked in init().
+                throw new Error("Failed to create crypter:" + e.getMessage(), e);
+            }
+
+            threadCryptAndHash.set(cryptAndHash);
+        }
+
+        return cryptAndHash;
     }
 
     /**
@@ -388,7 +602,7 @@ public class DBMapping
      */
     public byte[] encryptID(String id) throws EncryptionException
     {
-        return crypter.encrypt(id);
+        return getCryptAndHash().crypter.encrypt(id);
     }
 
     /**
@@ -396,26 +610,120 @@ public class DBMapping
      */
     public String decryptID(byte[] encryptedID) throws EncryptionException
     {
+        StringCrypter crypter = getCryptAndHash().crypter;
         return new String(crypter.decrypt(encryptedID), crypter.getCharacterEncoding());
     }
 
     public String decryptBase64EncodedID(String base64EncodedID) throws EncryptionException
     {
-        return crypter.decryptString(base64EncodedID);
+        return getCryptAndHash().crypter.decryptString(base64EncodedID);
     }
 
     public String decryptHexencodedID(String hexencodedID) throws EncryptionException
     {
-        return crypter.decryptHexEncodedString(hexencodedID);
+        return getCryptAndHash().crypter.decryptHexEncodedString(hexencodedID);
     }
 
     public byte[] hashBytes(byte[] sourceBytes, byte[] saltBytes, int maxHashLen)
     {
-        byte digest[] = hasher.hash(sourceBytes, true, saltBytes, cryptHashSettings.prefixSalt);
+        byte digest[] = getCryptAndHash().hasher.hash(sourceBytes, true, saltBytes, cryptHashSettings.prefixSalt);
         digest = StringHasher.truncate(digest, maxHashLen);
         return digest;
     }
 
+    /**
+     * Encrypt ID and hash the encrypted ID. Uses the crypter of the current thread.
+     */
+    protected IDMapping cryptHash(String labelPrefix, String id) throws EncryptionException
+    {
+        // first encrypt
+        byte cryptBytes[] = encryptID(id);
+        // hash result
+        byte hashBytes[] = hashBytes(cryptBytes, getHashSaltBytes(), cryptHashSettings.maxHashLength);
+        String hashStr = labelPrefix + StringUtil.toHexString(hashBytes, true);
+
+        IDMapping mapping = new IDMapping(cryptBytes, hashBytes, hashStr);
+        return mapping;
+    }
+
+    protected byte[] getHashSaltBytes()
+    {
+        String id = cryptHashSettings.getSourceID();
+        // use char encofing of hasher:
+        return id.getBytes(getCryptAndHash().hasher.getEncoding());
+    }
+
+    // ========================================================================
+    // Persistent Store
+    // ========================================================================
+
+    /**
+     * Open persistent store of crypt-hashed mappings. Mappings already in the store are not crypt-hashed again, new
+     * mappings are added to the store.
+     */
+    public void openStore(File storeFile) throws IOException, EncryptionException
+    {
+        closeStore();
+        this.store = new DBMappingStore(storeFile, getSettingsFingerprint());
+    }
+
+    public DBMappingStore getStore()
+    {
+        return store;
+    }
+
+    public void closeStore()
+    {
+        if (store != null)
+        {
+            store.close();
+            store = null;
+        }
+    }
+
+    /**
+     * Returns fingerprint of the current crypt-hash settings: the crypt-hash of the source ID. Doesn't reveal the
+     * encryption key but changes when the key, source ID or hash settings change.
+     */
+    public String getSettingsFingerprint() throws EncryptionException
+    {
+        String sourceId = cryptHashSettings.getSourceID();
+        byte cryptBytes[] = encryptID("" + sourceId);
+        byte hashBytes[] = hashBytes(cryptBytes, ("" + sourceId).getBytes(getCryptAndHash().hasher.getEncoding()),
+                cryptHashSettings.maxHashLength);
+
+        return StringUtil.toHexString(hashBytes, true) + "-" + cryptHashSettings.prefixSalt;
+    }
+
+    protected IDMapping getStoredMapping(String labelPrefix, String id)
+    {
+        if (store == null)
+        {
+            return null;
+        }
+
+        return store.get(labelPrefix, id);
+    }
+
+    protected void storeMapping(String labelPrefix, String id, IDMapping mapping)
+    {
+        if (store == null)
+        {
+            return;
+        }
+
+        try
+        {
+            store.put(labelPrefix, id, mapping);
+        }
+        catch (IOException e)
+        {
+            // store is a cache: continue without it.
+            logger.logException(ClassLogger.ERROR, e, "Failed to update DBMappingStore. Closing store:%s\n", store.getFile());
+            closeStore();
+        }
+    }
+
     public String getXnatSubjectLabel(String subjectKey)
     {
         return this.subjectMappings.getHashedLabelString(subjectKey);
@@ -494,6 +802,194 @@ public class DBMapping
         return scanMappings.delete(sessionKey, scanSetKey);
     }
 
+    // ========================================================================
+    // Concurrent creation
+    // ========================================================================
+
+    /**
+     * Create the subject, session and scan mappings of all ScanSets. The unique keys which are not mapped yet are
+     * crypt-hashed concurrently, each thread with its own crypter. The new mappings are added after all labels have
+     * been created, a failure leaves the mappings unchanged. The labels are the same as the labels created by
+     * getCreateXnatSubjectLabel(), getCreateXnatSessionLabel() and getCreateXnatScanLabel().
+     */
+    public void createMappings(List<ScanSetKeys> scanSets, boolean doCryptHashSubject, boolean doCryptHashSession,
+            boolean doCryptHashScan, String scanLabelPrefix, int numThreads) throws EncryptionException, InterruptedException
+    {
+        // I: unique new keys, in ScanSet order:
+        Map<String, LabelTask> subjectTasks = new LinkedHashMap<String, LabelTask>();
+        Map<List<String>, LabelTask> sessionTasks = new LinkedHashMap<List<String>, LabelTask>();
+        Map<List<String>, LabelTask> scanTasks = new LinkedHashMap<List<String>, LabelTask>();
+
+        for (ScanSetKeys keys : scanSets)
+        {
+            if ((subjectMappings.get(keys.subjectKey) == null) && (subjectTasks.containsKey(keys.subjectKey) == false))
+            {
+                subjectTasks.put(keys.subjectKey, new LabelTask(subjectPrefix, keys.subjectKey, doCryptHashSubject));
+            }
+
+            List<String> sessionKey = Arrays.asList(keys.subjectKey, keys.sessionKey);
+
+            if ((sessionMappings.getHashedLabelString(keys.subjectKey, keys.sessionKey) == null)
+                    && (sessionTasks.containsKey(sessionKey) == false))
+            {
+                // label prefix depends on subject label, see II.
+                sessionTasks.put(sessionKey, new LabelTask(null, keys.sessionKey, doCryptHashSession));
+            }
+
+            List<String> scanKey = Arrays.asList(keys.sessionKey, keys.scanSetKey);
+
+            if ((scanMappings.getHashedLabelString(keys.sessionKey, keys.scanSetKey) == null)
+                    && (scanTasks.containsKey(scanKey) == false))
+            {
+                scanTasks.put(scanKey, new LabelTask(scanLabelPrefix, keys.scanSetKey, doCryptHashScan));
+            }
+        }
+
+        // II: subjects and scans, then sessions which are prefixed with the subject label:
+        List<LabelTask> tasks = new ArrayList<LabelTask>(subjectTasks.values());
+        tasks.addAll(scanTasks.values());
+        createLabels(tasks, numThreads);
+
+        for (Map.Entry<List<String>, LabelTask> entry : sessionTasks.entrySet())
+        {
+            String subjectKey = entry.getKey().get(0);
+            LabelTask subjectTask = subjectTasks.get(subjectKey);
+            String subjectLabel = (subjectTask != null) ? subjectTask.mapping.labelString : getXnatSubjectLabel(subjectKey);
+            entry.getValue().labelPrefix = subjectLabel + sessionInfix;
+        }
+
+        createLabels(new ArrayList<LabelTask>(sessionTasks.values()), numThreads);
+
+        // III: publish.
+        for (LabelTask task : subjectTasks.values())
+        {
+            if (subjectMappings.get(task.id) == null)
+            {
+                subjectMappings.put(task.id, task.mapping);
+            }
+        }
+
+        for (Map.Entry<List<String>, LabelTask> entry : sessionTasks.entrySet())
+        {
+            sessionMappings.putMapping(entry.getKey().get(0), entry.getKey().get(1), entry.getValue().mapping);
+        }
+
+        for (Map.Entry<List<String>, LabelTask> entry : scanTasks.entrySet())
+        {
+            scanMappings.putMapping(entry.getKey().get(0), entry.getKey().get(1), entry.getValue().mapping);
+        }
+
+        storeMappings(subjectTasks.values());
+        storeMappings(sessionTasks.values());
+        storeMappings(scanTasks.values());
+
+        logger.infoPrintf("createMappings(): #%d ScanSets => #%d new subjects, #%d new sessions, #%d new scans\n", scanSets.size(),
+                subjectTasks.size(), sessionTasks.size(), scanTasks.size());
+    }
+
+    protected void storeMappings(Collection<LabelTask> tasks)
+    {
+        for (LabelTask task : tasks)
+        {
+            if (task.doCryptHash)
+            {
+                storeMapping(task.labelPrefix, task.id, task.mapping);
+            }
+        }
+    }
+
+    /**
+     * Create labels, tasks are divided over numThreads threads.
+     */
+    protected void createLabels(final List<LabelTask> tasks, int numThreads) throws EncryptionException, InterruptedException
+    {
+        numThreads = Math.min(numThreads, tasks.size());
+
+        if (numThreads <= 1)
+        {
+            createLabels(tasks, 0, tasks.size());
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+        {
+            private final AtomicInteger threadNr = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "DBMapping-" + threadNr.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            int chunkSize = (tasks.size() + numThreads - 1) / numThreads;
+
+            for (int start = 0; start < tasks.size(); start += chunkSize)
+            {
+                final int from = start;
+                final int to = Math.min(start + chunkSize, tasks.size());
+
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws EncryptionException
+                    {
+                        createLabels(tasks, from, to);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof EncryptionException)
+                throw (EncryptionException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+
+            throw new Error("Failed to create labels:" + cause.getMessage(), cause);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    protected void createLabels(List<LabelTask> tasks, int from, int to) throws EncryptionException
+    {
+        for (int i = from; i < to; i++)
+        {
+            LabelTask task = tasks.get(i);
+
+            if (task.doCryptHash)
+            {
+                task.mapping = getStoredMapping(task.labelPrefix, task.id);
+
+                if (task.mapping == null)
+                {
+                    task.mapping = cryptHash(task.labelPrefix, task.id);
+                }
+            }
+            else
+            {
+                // use plain id.
+                task.mapping = new IDMapping(null, null, task.labelPrefix + task.id);
+            }
+        }
+    }
+
     /**
      * If PatientIDs are used as SubjectKey, this method return the list of subjects/patients.
      */
@@ -535,9 +1031,12 @@ public class DBMapping
 
     public int getNumScanSets()
     {
-        return this.getAllScanSetKeys().size();
+        return this.scanMappings.getNumSubGroupKeys();
     }
 
+    /**
+     * @return cached, unmodifiable list of all ScanSet keys.
+     */
     public List<String> getAllScanSetKeys()
     {
         return this.scanMappings.getAllSubGroupKeys();
@@ -552,14 +1051,7 @@ public class DBMapping
      */
     public String getSessionKeyOfScanSetKey(String scanSetKey)
     {
-        // linear search:
-        for (String sessionKey : this.scanMappings.getKeyArray())
-        {
-            IDMapping mapping = scanMappings.get(sessionKey).get(scanSetKey);
-            if (mapping != null)
-                return sessionKey;
-        }
-        return null;
+        return this.scanMappings.getGroupKey(scanSetKey);
     }
 
     /**
@@ -570,14 +1062,7 @@ public class DBMapping
      */
     public String getSubjectKeyOfSessionKey(String sessionKey)
     {
-        // linear search:
-        for (String subjectKey : this.sessionMappings.getKeyArray())
-        {
-            IDMapping mapping = sessionMappings.get(subjectKey).get(sessionKey);
-            if (mapping != null)
-                return subjectKey;
-        }
-        return null;
+        return this.sessionMappings.getGroupKey(sessionKey);
     }
 
     /**
@@ -585,10 +1070,39 @@ public class DBMapping
      */
     public void toCSV(String dataSetName, StringBuilder sb)
     {
-        CSVData csvData = new CSVData(true);
+        try
+        {
+            toCSV(dataSetName, createCSVWriter(new CSVWriter(sb)));
+        }
+        catch (IOException e)
+        {
+            // StringBuilder doesn't throw IOExceptions.
+            throw new Error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stream mappings as CSV text to the Writer. Writer is flushed but not closed.
+     */
+    public void toCSV(String dataSetName, Writer writer) throws IOException
+    {
+        CSVWriter csvWriter = createCSVWriter(new CSVWriter(writer));
+        toCSV(dataSetName, csvWriter);
+        csvWriter.flush();
+    }
 
-        csvData.setFieldSeparator(";");
+    protected CSVWriter createCSVWriter(CSVWriter writer)
+    {
+        writer.setFieldSeperator(";");
+        writer.setLineSeperator("\n");
+        return writer;
+    }
 
+    /**
+     * Push mapping rows to the output handler one row per scan, without creating an intermediate table.
+     */
+    public void toCSV(String dataSetName, CSVRowHandler output) throws IOException
+    {
         String headers[] = new String[] {
                 CSV_OWNERID, CSV_DATASETNAME,
                 CSV_SUBJECTID, CSV_SUBJECTLABEL,
@@ -596,14 +1110,14 @@ public class DBMapping
                 CSV_SCANID, CSV_SCANLABEL
         };
 
-        csvData.setHeaders(headers);
-
         String sourceId = this.cryptHashSettings.getSourceID();
 
         String subjectKeys[] = this.getSubjectKeys();
         if (subjectKeys == null)
             return;
 
+        output.handleHeaders(headers);
+
         for (String subjKey : subjectKeys)
         {
             IDMapping subjMapping = subjectMappings.get(subjKey);
@@ -621,12 +1135,11 @@ public class DBMapping
                 if (scanKeys == null)
                     continue;
 
-                String row[] = new String[8];
-
                 for (String scanKey : scanKeys)
                 {
                     String scanLabel = this.getXnatScanLabel(sessKey, scanKey);
 
+                    String row[] = new String[8];
                     row[0] = sourceId;
                     row[1] = dataSetName;
                     row[2] = subjKey;
@@ -636,12 +1149,10 @@ public class DBMapping
                     row[6] = scanKey;
                     row[7] = scanLabel;
 
-                    csvData.addRow(row);
+                    output.handleRow(row);
                 }
             }
         }
-
-        csvData.toString(sb, ";", "\n");
     }
 
     // =====================
@@ -664,6 +1175,7 @@ public class DBMapping
     public void dispose()
     {
         clear();
+        closeStore();
     }
 
 }
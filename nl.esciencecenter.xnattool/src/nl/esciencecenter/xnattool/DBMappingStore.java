@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnattool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.esciencecenter.medim.util.CSVJournal;
+import nl.esciencecenter.ptk.csv.CSVReader;
+import nl.esciencecenter.ptk.util.StringUtil;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+import nl.esciencecenter.xnattool.DBMapping.IDMapping;
+
+/**
+ * Persistent store of crypt-hashed ID mappings. The store is an append-only journal: each new mapping is appended and
+ * flushed when it is created, and the complete journal is loaded into a hash index when the store is opened. A
+ * re-scan of a data set therefore doesn't have to recompute the crypt-hash of already known IDs.
+ * <p>
+ * Mappings are stored by label prefix and (plain) ID, which together with the crypt-hash settings determine the label.
+ * The first record contains a fingerprint of the crypt-hash settings. If the settings have changed the journal is
+ * discarded. An incomplete last record, for example after a crash, is removed when the store is opened.
+ * <p>
+ * Records are stored as CSV rows: <code>type;prefix;id;crypted-id;hashed-id;label</code>.
+ */
+public class DBMappingStore
+{
+    private static ClassLogger logger = ClassLogger.getLogger(DBMappingStore.class);
+
+    public static final String RECORD_SETTINGS = "S";
+
+    public static final String RECORD_MAPPING = "M";
+
+    public static final String HEADERS[] = new String[] {
+            "type", "prefix", "id", "crypted", "hashed", "label"
+    };
+
+    protected File file;
+
+    protected String fingerprint;
+
+    protected Map<String, IDMapping> index = new HashMap<String, IDMapping>();
+
+    protected CSVJournal journal;
+
+    protected int numRecords = 0;
+
+    /**
+     * Open or create store.
+     *
+     * @param file
+     *            - journal file.
+     * @param fingerprint
+     *            - fingerprint of the current crypt-hash settings, see DBMapping.getSettingsFingerprint().
+     */
+    public DBMappingStore(File file, String fingerprint) throws IOException
+    {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.journal = new CSVJournal(file);
+        open();
+    }
+
+    protected void open() throws IOException
+    {
+        boolean valid = false;
+
+        if (journal.exists())
+        {
+            valid = load();
+        }
+
+        if (valid)
+        {
+            journal.truncateIncompleteRecord();
+            journal.openWriter(true);
+        }
+        else
+        {
+            index.clear();
+            journal.openWriter(false);
+            writeHeaders();
+        }
+
+        logger.infoPrintf("Opened DBMappingStore:%s: #%d mappings\n", file, index.size());
+    }
+
+    /**
+     * Load journal into index.
+     *
+     * @return false if the journal was created with different crypt-hash settings.
+     */
+    protected boolean load() throws IOException
+    {
+        Reader reader = journal.openReader();
+
+        try
+        {
+            CSVReader csvReader = journal.createCSVReader(reader);
+
+            String row[] = csvReader.readRow();
+
+            if ((row == null) || (row.length < HEADERS.length) || (RECORD_SETTINGS.equals(row[0]) == false))
+            {
+                logger.warnPrintf("Invalid DBMappingStore, discarding:%s\n", file);
+                return false;
+            }
+
+            if (StringUtil.equals(fingerprint, row[5]) == false)
+            {
+                logger.infoPrintf("Crypt-hash settings changed, discarding DBMappingStore:%s\n", file);
+                return false;
+            }
+
+            numRecords = 1;
+
+            while ((row = csvReader.readRow()) != null)
+            {
+                IDMapping mapping = parseRecord(row);
+
+                if (mapping == null)
+                {
+                    // incomplete last record or corrupt record.
+                    logger.warnPrintf("Skipping invalid record #%d in:%s\n", numRecords, file);
+                    continue;
+                }
+
+                index.put(createKey(row[1], row[2]), mapping);
+                numRecords++;
+            }
+
+            return true;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    protected void writeHeaders() throws IOException
+    {
+        journal.writeHeaders(HEADERS);
+        writeRecord(new String[] {
+                RECORD_SETTINGS, "", "", "", "", fingerprint
+        });
+        numRecords = 1;
+    }
+
+    protected IDMapping parseRecord(String row[])
+    {
+        if ((row.length < HEADERS.length) || (RECORD_MAPPING.equals(row[0]) == false))
+        {
+            return null;
+        }
+
+        String prefix = row[1];
+        String label = row[5];
+        byte crypted[] = CSVJournal.parseHex(row[3]);
+        byte hashed[] = CSVJournal.parseHex(row[4]);
+
+        // label must match hashed ID, this also detects incomplete records.
+        if ((crypted == null) || (crypted.length == 0) || (hashed == null) || (hashed.length == 0)
+                || (label.equalsIgnoreCase(prefix + row[4]) == false))
+        {
+            return null;
+        }
+
+        return new IDMapping(crypted, hashed, label);
+    }
+
+    protected void writeRecord(String record[]) throws IOException
+    {
+        journal.writeRecord(record, true);
+    }
+
+    protected String createKey(String prefix, String id)
+    {
+        return prefix + "\n" + id;
+    }
+
+    /**
+     * @return stored mapping or null.
+     */
+    public synchronized IDMapping get(String prefix, String id)
+    {
+        return index.get(createKey(prefix, id));
+    }
+
+    /**
+     * Add mapping and append it to the journal. Mappings without crypted or hashed ID are not stored.
+     */
+    public synchronized void put(String prefix, String id, IDMapping mapping) throws IOException
+    {
+        if ((mapping.cryptedID == null) || (mapping.hashedID == null))
+        {
+            return;
+        }
+
+        String key = createKey(prefix, id);
+
+        if (index.containsKey(key))
+        {
+            return;
+        }
+
+        if (journal.isOpen() == false)
+        {
+            throw new IOException("DBMappingStore is closed:" + file);
+        }
+
+        writeRecord(new String[] {
+                RECORD_MAPPING,
+                prefix,
+                id,
+                StringUtil.toHexString(mapping.cryptedID, true),
+                StringUtil.toHexString(mapping.hashedID, true),
+                mapping.labelString
+        });
+
+        index.put(key, mapping);
+        numRecords++;
+    }
+
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * If true, each record is synchronized to disk (fsync). Default is false: records are flushed to the OS, which
+     * survives a crash of the application but not of the OS.
+     */
+    public void setSyncWrites(boolean value)
+    {
+        journal.setSyncWrites(value);
+    }
+
+    public synchronized void close()
+    {
+        try
+        {
+            journal.close();
+        }
+        catch (IOException e)
+        {
+            logger.logException(ClassLogger.ERROR, e, "Failed to close DBMappingStore:%s\n", file);
+        }
+    }
+
+}
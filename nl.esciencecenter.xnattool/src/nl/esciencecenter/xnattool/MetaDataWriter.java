@@ -20,15 +20,18 @@
 
 package nl.esciencecenter.xnattool;
 
-import java.util.ArrayList;
+import java.io.Writer;
 import java.util.List;
 
 import nl.esciencecenter.medim.ImageDirScanner;
 import nl.esciencecenter.medim.ScanSetInfo;
 import nl.esciencecenter.medim.ScanSetInfo.FileDescriptor;
+import nl.esciencecenter.medim.ScanSetInfo.VolumeParameters;
 import nl.esciencecenter.medim.StudyInfo;
 import nl.esciencecenter.medim.SubjectInfo;
 import nl.esciencecenter.ptk.csv.CSVData;
+import nl.esciencecenter.ptk.csv.CSVRowHandler;
+import nl.esciencecenter.ptk.csv.CSVWriter;
 
 public class MetaDataWriter
 {
@@ -36,8 +39,6 @@ public class MetaDataWriter
 
     private DBMapping dbMapping;
 
-    private CSVData csvData;
-
     public MetaDataWriter(ImageDirScanner imageSource, DBMapping mappings)
     {
         this.imageSource = imageSource;
@@ -46,22 +47,33 @@ public class MetaDataWriter
 
     public CSVData toCSV() throws Exception
     {
-        this.csvData = new CSVData(true);
+        CSVData csvData = new CSVData(true);
+        writeCSV(csvData);
+        return csvData;
+    }
 
+    /**
+     * Generate meta-data rows and push them to the output handler one at a time.
+     */
+    public void writeCSV(CSVRowHandler output) throws Exception
+    {
         switch (imageSource.getDataSetType())
         {
             case DICOM_SCANSET:
-                return createDicomCSV(csvData);
+                createDicomCSV(output);
+                return;
             case NIFTI_SCANSET:
-                return createNiftiCSV(csvData);
+                createNiftiCSV(output);
+                return;
             case NIFTI_ATLASSET:
-                return createNiftiAtlasCSV(csvData);
+                createNiftiAtlasCSV(output);
+                return;
         }
 
         throw new Exception("Couldn't determine DataSetType:" + imageSource.getDataSetType());
     }
 
-    protected CSVData createDicomCSV(CSVData csvData) throws Exception
+    protected void createDicomCSV(CSVRowHandler output) throws Exception
     {
 
         List<String> scanSetKeys = dbMapping.getAllScanSetKeys();
@@ -82,7 +94,7 @@ public class MetaDataWriter
                 // "dicom.scan.description"
         };
 
-        csvData.setHeaders(headers);
+        output.handleHeaders(headers);
 
         for (String scanSetKey : scanSetKeys)
         {
@@ -116,20 +128,18 @@ public class MetaDataWriter
             row[index++] = subjInfo.getPatientName();
             row[index++] = subjInfo.getPatientGender();
             row[index++] = subjInfo.getPatientAgeString();
-            row[index++] = csvData.toCSVDateString(subjInfo.getPatientBirthDate());
+            row[index++] = CSVData.toCSVDateString(subjInfo.getPatientBirthDate());
             row[index++] = studyInfo.getStudyId();
             row[index++] = studyInfo.getStudyInstanceUID();
-            row[index++] = csvData.toCSVDateString(studyInfo.getStudyDate());
+            row[index++] = CSVData.toCSVDateString(studyInfo.getStudyDate());
             // Srow[10]=scanSet.getScanUID();
             row[index++] = scanSet.getSeriesDescription();
 
-            csvData.addRow(row);
+            output.handleRow(row);
         }
-
-        return csvData;
     }
 
-    protected CSVData createNiftiCSV(CSVData csvData) throws Exception
+    protected void createNiftiCSV(CSVRowHandler output) throws Exception
     {
 
         List<String> scanSetKeys = dbMapping.getAllScanSetKeys();
@@ -141,10 +151,13 @@ public class MetaDataWriter
                 "nifti.subject.id",
                 "nifti.session.id",
                 // "nifti.scan.uid",
-                "nifti.scan.id"
+                "nifti.scan.id",
+                "nifti.dimensions",
+                "nifti.voxel.sizes",
+                "nifti.datatype"
         };
 
-        csvData.setHeaders(headers);
+        output.handleHeaders(headers);
 
         for (String scanSetKey : scanSetKeys)
         {
@@ -178,13 +191,53 @@ public class MetaDataWriter
             // row[index++]=scanSet.getScanUID();
             row[index++] = scanSet.getScanLabel();
 
-            csvData.addRow(row);
+            // optional, from NIfTI header:
+            VolumeParameters volume = scanSet.getVolumeParameters();
+            if (volume != null)
+            {
+                row[index++] = toDimensionString(volume.dimensions);
+                row[index++] = toDimensionString(volume.voxelSizes);
+                row[index++] = volume.datatype;
+            }
+
+            output.handleRow(row);
         }
+    }
 
-        return csvData;
+    /**
+     * @return dimensions as "X x Y x Z" string, for example "256x256x128".
+     */
+    protected String toDimensionString(long values[])
+    {
+        if (values == null)
+            return null;
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            sb.append((i > 0) ? "x" : "").append(values[i]);
+        }
+
+        return sb.toString();
     }
 
-    protected CSVData createNiftiAtlasCSV(CSVData csvData) throws Exception
+    protected String toDimensionString(double values[])
+    {
+        if (values == null)
+            return null;
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            sb.append((i > 0) ? "x" : "").append(values[i]);
+        }
+
+        return sb.toString();
+    }
+
+    protected void createNiftiAtlasCSV(CSVRowHandler output) throws Exception
     {
 
         List<String> scanSetKeys = dbMapping.getAllScanSetKeys();
@@ -199,7 +252,7 @@ public class MetaDataWriter
                 "atlas.label"
         };
 
-        csvData.setHeaders(headers);
+        output.handleHeaders(headers);
 
         for (String scanSetKey : scanSetKeys)
         {
@@ -223,10 +276,16 @@ public class MetaDataWriter
 
             SubjectInfo subjInfo = scanSet.getSubjectInfo();
 
-            ArrayList<FileDescriptor> files = scanSet.getFileDescriptors();
+            List<FileDescriptor> files = scanSet.getFileDescriptors();
 
             for (int i = 0; i < files.size(); i++)
             {
+                // skip empty slots (missing slice numbers).
+                if ((files.get(i) == null) || (files.get(i).fsNode == null))
+                {
+                    continue;
+                }
+
                 // [ CSV Entry ]
                 String row[] = new String[headers.length];
                 int index = 0;
@@ -238,21 +297,35 @@ public class MetaDataWriter
                 row[index++] = scanSet.getScanLabel();
                 row[index++] = files.get(i).fileLabel;
 
-                csvData.addRow(row);
+                output.handleRow(row);
             }
 
         }
-
-        return csvData;
     }
 
     public StringBuilder toCSV(StringBuilder sb) throws Exception
     {
-        CSVData data = toCSV();
-        data.toString(sb, ";", "\n");
+        writeCSV(createCSVWriter(new CSVWriter(sb)));
         return sb;
     }
 
+    /**
+     * Stream meta-data as CSV text to the Writer. Writer is flushed but not closed.
+     */
+    public void toCSV(Writer writer) throws Exception
+    {
+        CSVWriter csvWriter = createCSVWriter(new CSVWriter(writer));
+        writeCSV(csvWriter);
+        csvWriter.flush();
+    }
+
+    protected CSVWriter createCSVWriter(CSVWriter writer)
+    {
+        writer.setFieldSeperator(";");
+        writer.setLineSeperator("\n");
+        return writer;
+    }
+
     private void assertNotNull(Object value, String message) throws Exception
     {
         if (value == null)
@@ -22,19 +22,37 @@ package nl.esciencecenter.xnattool;
 
 import nl.esciencecenter.ptk.web.PutMonitor;
 
+/**
+ * Bridge between PutMonitor and UploadMonitorListener. When uploading concurrently use one adaptor per file so the
+ * progress is reported for the correct collection and file number.
+ */
 public class PutMonitorAdaptor implements PutMonitor
 {
     protected UploadMonitorListener monitor;
 
+    protected int collectionId = -1;
+
+    protected int fileNr = -1;
+
     public PutMonitorAdaptor(UploadMonitorListener monitor)
     {
         this.monitor = monitor;
     }
 
+    public PutMonitorAdaptor(UploadMonitorListener monitor, int collectionId, int fileNr)
+    {
+        this.monitor = monitor;
+        this.collectionId = collectionId;
+        this.fileNr = fileNr;
+    }
+
     @Override
     public void bytesWritten(long numBytes)
     {
-        monitor.updateFileBytesUploaded(-1, -1, numBytes);
+        if (monitor != null)
+        {
+            monitor.updateFileBytesUploaded(collectionId, fileNr, numBytes);
+        }
     }
 
     @Override
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnattool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+/**
+ * Multi-connection upload engine. File uploads are submitted per collection (ScanSet) and executed by a fixed pool of
+ * worker threads. The number of bytes in flight is bounded: submitting a new file blocks until enough of the previously
+ * submitted files have been uploaded.
+ * <p>
+ * Ordering between files of the same collection is not guaranteed. Remote objects which must exist before files can be
+ * uploaded (subject, session and scan) must be created by the submitting thread before submitting the files.
+ *
+ * @author Piter T. de Boer
+ */
+public class UploadEngine
+{
+    private static ClassLogger logger = ClassLogger.getLogger(UploadEngine.class);
+
+    /**
+     * Single file upload job.
+     */
+    public static interface UploadJob
+    {
+        void doUpload() throws Exception;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private int threadNr = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "UploadEngine-worker-" + (threadNr++));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // ========================================================================
+    //
+    // ========================================================================
+
+    private ExecutorService executor;
+
+    private int numWorkers;
+
+    private long maxBytesInFlight;
+
+    private long bytesInFlight = 0;
+
+    /**
+     * Number of submitted but not yet finished jobs per collection.
+     */
+    private Map<Integer, Integer> pendingJobs = new HashMap<Integer, Integer>();
+
+    private Throwable firstException = null;
+
+    private boolean cancelled = false;
+
+    /**
+     * Create new UploadEngine.
+     *
+     * @param numWorkers
+     *            - number of concurrent uploads (connections). Must be at least 1.
+     * @param maxBytesInFlight
+     *            - maximum number of bytes of submitted but not yet uploaded files. A single file which is larger than
+     *            this maximum is allowed when no other files are in flight.
+     */
+    public UploadEngine(int numWorkers, long maxBytesInFlight)
+    {
+        if (numWorkers < 1)
+        {
+            numWorkers = 1;
+        }
+
+        this.numWorkers = numWorkers;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.executor = Executors.newFixedThreadPool(numWorkers, new WorkerThreadFactory());
+    }
+
+    public int getNumWorkers()
+    {
+        return numWorkers;
+    }
+
+    public long getMaxBytesInFlight()
+    {
+        return maxBytesInFlight;
+    }
+
+    public synchronized long getBytesInFlight()
+    {
+        return bytesInFlight;
+    }
+
+    /**
+     * Submit upload job for the specified collection. Blocks while the maximum number of bytes in flight has been
+     * reached.
+     *
+     * @param collectionId
+     *            - collection (ScanSet) number of this file.
+     * @param numBytes
+     *            - (estimated) number of bytes to upload.
+     * @param job
+     *            - the actual upload.
+     * @throws Exception
+     *             if a previous submitted job failed or the engine has been cancelled.
+     */
+    public void submit(final int collectionId, long numBytes, final UploadJob job) throws Exception
+    {
+        if (numBytes < 0)
+        {
+            numBytes = 0;
+        }
+
+        final long jobBytes = numBytes;
+
+        synchronized (this)
+        {
+            while ((bytesInFlight > 0) && (bytesInFlight + jobBytes > maxBytesInFlight))
+            {
+                checkState();
+                this.wait();
+            }
+
+            checkState();
+
+            bytesInFlight += jobBytes;
+            Integer num = pendingJobs.get(collectionId);
+            pendingJobs.put(collectionId, (num == null) ? 1 : num + 1);
+        }
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if (isCancelled() == false)
+                    {
+                        job.doUpload();
+                    }
+                }
+                catch (Throwable t)
+                {
+                    jobFailed(collectionId, t);
+                }
+                finally
+                {
+                    jobDone(collectionId, jobBytes);
+                }
+            }
+        });
+    }
+
+    private synchronized void jobFailed(int collectionId, Throwable t)
+    {
+        logger.logException(ClassLogger.ERROR, t, "Upload failed for collection #%d\n", collectionId);
+
+        if (firstException == null)
+        {
+            firstException = t;
+        }
+        // stop other jobs:
+        cancelled = true;
+    }
+
+    private synchronized void jobDone(int collectionId, long jobBytes)
+    {
+        bytesInFlight -= jobBytes;
+
+        Integer num = pendingJobs.get(collectionId);
+        if ((num == null) || (num <= 1))
+        {
+            pendingJobs.remove(collectionId);
+        }
+        else
+        {
+            pendingJobs.put(collectionId, num - 1);
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * @return true if all submitted jobs of the collection have finished.
+     */
+    public synchronized boolean isCollectionDone(int collectionId)
+    {
+        return (pendingJobs.containsKey(collectionId) == false);
+    }
+
+    /**
+     * Wait until all submitted jobs of the collection have finished.
+     */
+    public synchronized void waitForCollection(int collectionId) throws Exception
+    {
+        while (pendingJobs.containsKey(collectionId))
+        {
+            this.wait();
+        }
+
+        checkException();
+    }
+
+    /**
+     * Wait until all submitted jobs have finished.
+     */
+    public synchronized void waitForAll() throws Exception
+    {
+        while (pendingJobs.size() > 0)
+        {
+            this.wait();
+        }
+
+        checkException();
+    }
+
+    /**
+     * Cancel all pending jobs. Currently running uploads will finish.
+     */
+    public synchronized void cancel()
+    {
+        cancelled = true;
+        this.notifyAll();
+    }
+
+    public synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Throws the first exception thrown by one of the jobs, if any.
+     */
+    public synchronized void checkException() throws Exception
+    {
+        if (firstException == null)
+        {
+            return;
+        }
+
+        if (firstException instanceof Exception)
+        {
+            throw (Exception) firstException;
+        }
+
+        throw new XnatToolException("Upload failed:" + firstException.getMessage(), firstException);
+    }
+
+    private void checkState() throws Exception
+    {
+        checkException();
+
+        if (cancelled)
+        {
+            throw new XnatToolException("Upload cancelled.");
+        }
+    }
+
+    /**
+     * Stop worker threads. Waits for running uploads to finish.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+
+        try
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
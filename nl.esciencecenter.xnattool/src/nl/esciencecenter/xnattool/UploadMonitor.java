@@ -20,12 +20,15 @@
 
 package nl.esciencecenter.xnattool;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import nl.esciencecenter.ptk.task.ITaskMonitor;
 import nl.esciencecenter.ptk.task.TaskMonitorAdaptor;
 import nl.esciencecenter.xnattool.ui.XnatToolPanelController;
 
 /**
- * Monitor Adaptor
+ * Monitor Adaptor. Methods are synchronized as files of different collections can be uploaded concurrently.
  */
 public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorListener
 {
@@ -44,8 +47,12 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
 
     int totalFilesDone = 0;
 
+    int totalFilesFailed = 0;
+
     int currentCollectionId = -1;
 
+    Map<Integer, String> collectionNames = new HashMap<Integer, String>();
+
     ITaskMonitor monitor;
 
     public UploadMonitor(XnatToolPanelController uploaderController)
@@ -55,13 +62,13 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
     }
 
     @Override
-    public void logPrintf(String format, Object... args)
+    public synchronized void logPrintf(String format, Object... args)
     {
         super.logPrintf(format, args);
     }
 
     @Override
-    public void notifyStartUpload(String taskName, int filesSizes[])
+    public synchronized void notifyStartUpload(String taskName, int filesSizes[])
     {
         this.currentTask = taskName;
         this.collectionSizesTodo = filesSizes;
@@ -76,10 +83,11 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
     }
 
     @Override
-    public void notifyCollectionStart(int collectionId, String collectionName)
+    public synchronized void notifyCollectionStart(int collectionId, String collectionName)
     {
         this.currentCollectionName = collectionName;
         this.currentCollectionId = collectionId;
+        this.collectionNames.put(collectionId, collectionName);
 
         this.logPrintf("Starting Collection #%d:%s\n", collectionId, collectionName);
 
@@ -87,11 +95,11 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
     }
 
     @Override
-    public void notifyCollectionDone(int collectionId)
+    public synchronized void notifyCollectionDone(int collectionId)
     {
         // totalFilesDone+=this.collectionSizesTodo[collectionId];
         monitor.updateTaskDone(totalFilesDone);
-        monitor.endSubTask(this.currentCollectionName);
+        monitor.endSubTask(getCollectionName(collectionId));
 
         if (collectionId == this.collectionSizesTodo.length - 1)
         {
@@ -100,7 +108,7 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
     }
 
     @Override
-    public void notifyFileStart(int collectionId, int fileNumber, long numBytesTodo, String filename)
+    public synchronized void notifyFileStart(int collectionId, int fileNumber, long numBytesTodo, String filename)
     {
         this.currentFile = filename;
         logPrintf("Uploading Collection/File:%d/%d:\n", (collectionId + 1), (fileNumber + 1));
@@ -108,7 +116,7 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
     }
 
     @Override
-    public void notifyFileDone(int collectionId, int fileNr)
+    public synchronized void notifyFileDone(int collectionId, int fileNr)
     {
         logPrintf(" - File Done.\n");
 
@@ -118,33 +126,50 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
         }
         this.totalFilesDone++;
 
-        monitor.updateSubTaskDone(this.currentCollectionName, collectionId);
+        monitor.updateSubTaskDone(getCollectionName(collectionId), collectionId);
         // running total:
         monitor.updateTaskDone(totalFilesDone);
     }
 
+    @Override
+    public synchronized void notifyFileFailed(int collectionId, int fileNr, String reason)
+    {
+        logPrintf(" - File #%d failed:%s\n", (fileNr + 1), reason);
+
+        this.totalFilesFailed++;
+        // failed files are done as well:
+        this.totalFilesDone++;
+
+        monitor.updateTaskDone(totalFilesDone);
+    }
+
     @Override
     public void updateFileBytesUploaded(int scanNr, int fileNr, long numBytes)
     {
         // file upload is sub sub task;
     }
 
-    public int getCurrentCollectionId()
+    public synchronized int getCurrentCollectionId()
     {
         return this.currentCollectionId;
     }
 
-    public int getTotalFilesTodo()
+    public synchronized int getTotalFilesTodo()
     {
         return this.totalFilesTodo;
     }
 
-    public int getTotalFilesDone()
+    public synchronized int getTotalFilesDone()
     {
         return this.totalFilesDone;
     }
 
-    public int getCurrentFilesDone()
+    public synchronized int getTotalFilesFailed()
+    {
+        return this.totalFilesFailed;
+    }
+
+    public synchronized int getCurrentFilesDone()
     {
         if ((currentCollectionId < 0) || (collectionSizesDone == null))
         {
@@ -159,7 +184,7 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
         return collectionSizesDone[currentCollectionId];
     }
 
-    public int getNumCollectionsTodo()
+    public synchronized int getNumCollectionsTodo()
     {
         if ((collectionSizesTodo == null) || (collectionSizesTodo.length <= 0))
         {
@@ -168,4 +193,16 @@ public class UploadMonitor extends TaskMonitorAdaptor implements UploadMonitorLi
         return this.collectionSizesTodo.length;
     }
 
+    protected String getCollectionName(int collectionId)
+    {
+        String name = collectionNames.get(collectionId);
+
+        if (name == null)
+        {
+            return currentCollectionName;
+        }
+
+        return name;
+    }
+
 }
@@ -34,6 +34,11 @@ public interface UploadMonitorListener
 
     void notifyFileDone(int collectionId, int fileNr);
 
+    /**
+     * File (or CSV row) failed, the upload continues with the next one.
+     */
+    void notifyFileFailed(int collectionId, int fileNr, String reason);
+
     void updateFileBytesUploaded(int collectionId, int fileNr, long numBytes);
 
     boolean isCancelled();
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnattool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.esciencecenter.medim.util.CSVJournal;
+import nl.esciencecenter.ptk.csv.CSVReader;
+import nl.esciencecenter.ptk.util.logging.ClassLogger;
+
+/**
+ * Persistent store of the sizes of uploaded files which size can't be derived from the source file, for example files
+ * which are gzipped while uploading. When resuming an upload the size of an existing remote file is compared against
+ * the stored size, so an incomplete upload isn't mistaken for a complete one.
+ * <p>
+ * Uploads are stored by remote target together with the size and modification time of the source file. A record is
+ * only appended after the upload has completed, a later record of the same target replaces an earlier one. An
+ * incomplete last record, for example after a crash, is removed when the store is opened.
+ * <p>
+ * Records are stored as CSV rows: <code>type;target;source-size;source-modified;upload-size</code>.
+ */
+public class UploadStateStore
+{
+    private static ClassLogger logger = ClassLogger.getLogger(UploadStateStore.class);
+
+    public static final String RECORD_UPLOAD = "U";
+
+    public static final String HEADERS[] = new String[] {
+            "type", "target", "sourcesize", "sourcemodified", "uploadsize"
+    };
+
+    public static class UploadState
+    {
+        public final long sourceSize;
+
+        public final long sourceModified;
+
+        public final long uploadSize;
+
+        public UploadState(long sourceSize, long sourceModified, long uploadSize)
+        {
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.uploadSize = uploadSize;
+        }
+    }
+
+    protected File file;
+
+    protected Map<String, UploadState> index = new HashMap<String, UploadState>();
+
+    protected CSVJournal journal;
+
+    /**
+     * Open or create store.
+     */
+    public UploadStateStore(File file) throws IOException
+    {
+        this.file = file;
+        this.journal = new CSVJournal(file);
+        open();
+    }
+
+    protected void open() throws IOException
+    {
+        if (journal.exists())
+        {
+            load();
+            journal.truncateIncompleteRecord();
+            journal.openWriter(true);
+        }
+        else
+        {
+            journal.openWriter(false);
+            journal.writeHeaders(HEADERS);
+        }
+
+        logger.infoPrintf("Opened UploadStateStore:%s: #%d uploads\n", file, index.size());
+    }
+
+    protected void load() throws IOException
+    {
+        Reader reader = journal.openReader();
+
+        try
+        {
+            CSVReader csvReader = journal.createCSVReader(reader);
+            String row[];
+            int recordNr = 0;
+
+            while ((row = csvReader.readRow()) != null)
+            {
+                UploadState state = parseRecord(row);
+
+                if (state == null)
+                {
+                    // incomplete last record or corrupt record.
+                    logger.warnPrintf("Skipping invalid record #%d in:%s\n", recordNr, file);
+                    continue;
+                }
+
+                index.put(row[1], state);
+                recordNr++;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    protected UploadState parseRecord(String row[])
+    {
+        if ((row.length < HEADERS.length) || (RECORD_UPLOAD.equals(row[0]) == false))
+        {
+            return null;
+        }
+
+        try
+        {
+            return new UploadState(Long.parseLong(row[2]), Long.parseLong(row[3]), Long.parseLong(row[4]));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return stored upload size of the target or -1 if the target hasn't been uploaded or the source file has changed
+     *         since.
+     */
+    public synchronized long getUploadSize(String target, File sourceFile)
+    {
+        UploadState state = index.get(target);
+
+        if ((state == null) || (state.sourceSize != sourceFile.length()) || (state.sourceModified != sourceFile.lastModified()))
+        {
+            return -1;
+        }
+
+        return state.uploadSize;
+    }
+
+    /**
+     * Store size of completed upload and append it to the journal.
+     */
+    public synchronized void putUploadSize(String target, File sourceFile, long uploadSize) throws IOException
+    {
+        if (journal.isOpen() == false)
+        {
+            throw new IOException("UploadStateStore is closed:" + file);
+        }
+
+        UploadState state = new UploadState(sourceFile.length(), sourceFile.lastModified(), uploadSize);
+
+        journal.writeRecord(new String[] {
+                RECORD_UPLOAD,
+                target,
+                Long.toString(state.sourceSize),
+                Long.toString(state.sourceModified),
+                Long.toString(state.uploadSize)
+        }, true);
+
+        index.put(target, state);
+    }
+
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public synchronized void close()
+    {
+        try
+        {
+            journal.close();
+        }
+        catch (IOException e)
+        {
+            logger.logException(ClassLogger.ERROR, e, "Failed to close UploadStateStore:%s\n", file);
+        }
+    }
+
+}
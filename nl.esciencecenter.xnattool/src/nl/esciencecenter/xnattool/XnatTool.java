@@ -20,12 +20,25 @@
 
 package nl.esciencecenter.xnattool;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -33,6 +46,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import nl.esciencecenter.medim.ImageDirEvent;
 import nl.esciencecenter.medim.ImageDirScanner;
@@ -53,6 +69,7 @@ import nl.esciencecenter.medim.dicom.DicomTagFilters.DicomTagFilter;
 import nl.esciencecenter.medim.dicom.DicomUtil;
 import nl.esciencecenter.medim.dicom.DicomWrapper;
 import nl.esciencecenter.medim.dicom.types.DicomTags;
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
 import nl.esciencecenter.medim.nifti.NiftiDirScanner;
 import nl.esciencecenter.ptk.GlobalProperties;
 import nl.esciencecenter.ptk.crypt.Secret;
@@ -86,9 +103,11 @@ import nl.esciencecenter.xnatclient.data.XnatSession;
 import nl.esciencecenter.xnatclient.data.XnatSubject;
 import nl.esciencecenter.xnatclient.data.XnatTypes.ImageContentType;
 import nl.esciencecenter.xnatclient.data.XnatTypes.ImageFormatType;
+import nl.esciencecenter.xnatclient.data.XnatTypes.XnatResourceType;
 import nl.esciencecenter.xnatclient.exceptions.XnatAuthenticationException;
 import nl.esciencecenter.xnatclient.exceptions.ParameterException;
 import nl.esciencecenter.xnatclient.exceptions.XnatClientException;
+import nl.esciencecenter.xnattool.util.ParallelGzipOutputStream;
 
 import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.Tag;
@@ -159,6 +178,9 @@ public class XnatTool implements ImageDirScannerListener
     // Data Mapping
     private DBMapping dbMapping = null;
 
+    // Sizes of uploaded files which can't be derived from the source file.
+    private UploadStateStore uploadStateStore = null;
+
     private ImageDirScanner imageDirScanner;
 
     private Set<String> scanSetUids;
@@ -305,7 +327,8 @@ public class XnatTool implements ImageDirScannerListener
         // block/reset:
         this.currentDataSetConfigName = null;
         this.dataSetConfigs = null;
-        this.dbMapping = null;
+        closeDBMapping();
+        closeUploadStateStore();
 
         boolean exists = FSUtil.getDefault().existsDir(loc.getPath());
 
@@ -641,7 +664,9 @@ public class XnatTool implements ImageDirScannerListener
         // Update ID and Keys for XNAT CryptHashing ...
         cryptSettings.setCredentials(sourceId, decryptedKey);
 
+        closeDBMapping();
         dbMapping = new DBMapping(cryptSettings);
+        openMappingStore(dbMapping, setConfig.getDataSetName());
 
         logger.infoPrintf(" - sourceId          =%s\n", sourceId);
         logger.infoPrintf(" - encryptedKey      =%s\n", StringUtil.toHexString(encryptedKey));
@@ -710,49 +735,198 @@ public class XnatTool implements ImageDirScannerListener
         }
 
         // clear DB mapping here ?
-        this.dbMapping = null;
+        closeDBMapping();
     }
 
-    protected void saveMappings(String name, DBMapping mapping)
+    /**
+     * Open persistent store of crypt-hashed mappings of the data set, so a re-scan doesn't recompute known mappings.
+     */
+    protected void openMappingStore(DBMapping mapping, String dataSetName)
     {
         URI loc = getToolConfig().getDataSetsConfigDir();
+
+        if ((loc == null) || (dataSetName == null))
+        {
+            return;
+        }
+
         try
         {
-            loc = URIUtil.appendPath(loc, name + "_mappings.csv");
+            loc = URIUtil.appendPath(loc, dataSetName + "_mappings.db");
+            mapping.openStore(new File(loc.getPath()));
+        }
+        catch (Exception e)
+        {
+            // continue without store.
+            logger.logException(ClassLogger.ERROR, e, "Failed to open ID Mappings store:%s\n", loc);
+        }
+    }
+
+    /**
+     * Returns file of the persistent scan index of the data set, so a re-scan only reads new or changed files.
+     * 
+     * @return index file or null if there is no data sets config dir.
+     */
+    protected File getScanIndexFile(String dataSetName)
+    {
+        URI loc = getToolConfig().getDataSetsConfigDir();
+
+        if ((loc == null) || (dataSetName == null))
+        {
+            return null;
+        }
+
+        try
+        {
+            loc = URIUtil.appendPath(loc, dataSetName + "_scanindex.db");
+            return new File(loc.getPath());
+        }
+        catch (Exception e)
+        {
+            // scan without index.
+            logger.logException(ClassLogger.ERROR, e, "Invalid scan index location:%s\n", loc);
+            return null;
+        }
+    }
+
+    protected void closeDBMapping()
+    {
+        if (this.dbMapping != null)
+        {
+            this.dbMapping.closeStore();
+            this.dbMapping = null;
+        }
+    }
 
-            StringBuilder sb = new StringBuilder();
-            mapping.toCSV(name, sb);
-            String csvText = sb.toString();
+    /**
+     * Returns persistent store of upload sizes of the current data set, the store is opened when first used.
+     * 
+     * @return store or null if there is no data sets config dir or the store couldn't be opened.
+     */
+    protected synchronized UploadStateStore getUploadStateStore()
+    {
+        if (uploadStateStore != null)
+        {
+            return uploadStateStore;
+        }
 
-            logger.debugPrintf("Saving new ID Mapping File: %s\n>>>-----------\n%s>>>-----------\n",
-                    loc, csvText);
+        URI loc = getToolConfig().getDataSetsConfigDir();
 
-            FSUtil.getDefault().writeText(loc.getPath(), csvText);
+        if ((loc == null) || (currentDataSetConfigName == null))
+        {
+            return null;
+        }
 
+        try
+        {
+            loc = URIUtil.appendPath(loc, currentDataSetConfigName + "_uploads.db");
+            uploadStateStore = new UploadStateStore(new File(loc.getPath()));
         }
         catch (Exception e)
         {
-            logger.logException(ClassLogger.ERROR, e, "Failed to write ID Mappings to CSV File:%sn", loc);
+            // continue without store: existing files which size is unknown are uploaded again.
+            logger.logException(ClassLogger.ERROR, e, "Failed to open upload state store:%s\n", loc);
         }
+
+        return uploadStateStore;
     }
 
-    protected void saveMetaData(String name, ImageDirScanner dicomSource, DBMapping mappings)
+    protected synchronized void closeUploadStateStore()
+    {
+        if (this.uploadStateStore != null)
+        {
+            this.uploadStateStore.close();
+            this.uploadStateStore = null;
+        }
+    }
+
+    /**
+     * @return key of the remote file in the UploadStateStore.
+     */
+    protected String createUploadStateTarget(XnatSession session, XnatScan scan, String destFilename)
+    {
+        return session.getProjectID() + "/" + session.getSubjectLabel() + "/" + session.getLabel() + "/" + scan.getID() + "/"
+                + destFilename;
+    }
+
+    /**
+     * @return size of the completed upload of the source file or -1 if unknown.
+     */
+    protected long getUploadedSize(XnatSession session, XnatScan scan, String destFilename, File sourceFile)
+    {
+        UploadStateStore store = getUploadStateStore();
+
+        if (store == null)
+        {
+            return -1;
+        }
+
+        return store.getUploadSize(createUploadStateTarget(session, scan, destFilename), sourceFile);
+    }
+
+    protected void putUploadedSize(XnatSession session, XnatScan scan, String destFilename, File sourceFile, long uploadSize)
+    {
+        UploadStateStore store = getUploadStateStore();
+
+        if (store == null)
+        {
+            return;
+        }
+
+        try
+        {
+            store.putUploadSize(createUploadStateTarget(session, scan, destFilename), sourceFile, uploadSize);
+        }
+        catch (IOException e)
+        {
+            // file will be uploaded again when resuming.
+            logger.logException(ClassLogger.WARN, e, "Failed to store upload size of:%s\n", destFilename);
+        }
+    }
+
+    protected void saveMappings(String name, DBMapping mapping)
     {
         URI loc = getToolConfig().getDataSetsConfigDir();
         try
         {
-            loc = URIUtil.appendPath(loc, name + "_metadata.csv");
-            StringBuilder sb = new StringBuilder();
+            loc = URIUtil.appendPath(loc, name + "_mappings.csv");
 
-            new MetaDataWriter(dicomSource, mappings).toCSV(sb);
+            logger.debugPrintf("Saving new ID Mapping File: %s\n", loc);
 
-            String csvText = sb.toString();
+            Writer writer = createCSVFileWriter(loc);
+            try
+            {
+                mapping.toCSV(name, writer);
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (Exception e)
+        {
+            logger.logException(ClassLogger.ERROR, e, "Failed to write ID Mappings to CSV File:%sn", loc);
+        }
+    }
 
-            logger.debugPrintf("Saving new ID Mapping File: %s\n>>>-----------\n%s>>>-----------\n",
-                    loc, csvText);
+    protected void saveMetaData(String name, ImageDirScanner dicomSource, DBMapping mappings)
+    {
+        URI loc = getToolConfig().getDataSetsConfigDir();
+        try
+        {
+            loc = URIUtil.appendPath(loc, name + "_metadata.csv");
 
-            FSUtil.getDefault().writeText(loc.getPath(), csvText);
+            logger.debugPrintf("Saving new Meta Data File: %s\n", loc);
 
+            Writer writer = createCSVFileWriter(loc);
+            try
+            {
+                new MetaDataWriter(dicomSource, mappings).toCSV(writer);
+            }
+            finally
+            {
+                writer.close();
+            }
         }
         catch (Exception e)
         {
@@ -760,6 +934,14 @@ public class XnatTool implements ImageDirScannerListener
         }
     }
 
+    /**
+     * CSV files are streamed directly to disk, the CSV text is never kept in memory as a whole.
+     */
+    protected Writer createCSVFileWriter(URI loc) throws IOException
+    {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(loc.getPath()), "UTF-8"));
+    }
+
     public CSVData getMetaData() throws Exception
     {
         if (dbMapping == null)
@@ -1159,7 +1341,9 @@ public class XnatTool implements ImageDirScannerListener
         }
         else if (dataType == ImageTypes.DataSetType.DICOM_SCANSET)
         {
-            imageDirScanner = new DicomDirScanner();
+            DicomDirScanner dicomScanner = new DicomDirScanner();
+            dicomScanner.setScanIndexFile(getScanIndexFile(conf.getDataSetName()));
+            imageDirScanner = dicomScanner;
         }
         else
         {
@@ -1260,6 +1444,9 @@ public class XnatTool implements ImageDirScannerListener
 
         scanSetUids = imageDirScanner.getScanSetUIDs();
 
+        // crypt-hash all new labels concurrently first, addScanMapping() then only checks the mappings.
+        createDBMappings(scanSetUids);
+
         Iterator<String> it = scanSetUids.iterator();
         int index = 0;
 
@@ -1280,7 +1467,7 @@ public class XnatTool implements ImageDirScannerListener
                 // keep scanset for now.
             }
 
-            logger.infoPrintf("> SetId[%d]='%s'\n", index++, uid);
+            logger.debugPrintf("> SetId[%d]='%s'\n", index++, uid);
 
             SubjectInfo subj = scanSet.getSubjectInfo();
             ScanTypeParameters scanType = scanSet.getScanTypeParameters();
@@ -1290,41 +1477,41 @@ public class XnatTool implements ImageDirScannerListener
             // do not let null pointer here cause havoc.
             try
             {
-                logger.infoPrintf(" - StudyInstanceUID  = %s\n", scanSet.getStudyInstanceUID());
-                logger.infoPrintf(" - StudyID           = %s\n", studyInf.getStudyId());
-                logger.infoPrintf(" - xnatSessionLabel  = %s\n",
+                logger.debugPrintf(" - StudyInstanceUID  = %s\n", scanSet.getStudyInstanceUID());
+                logger.debugPrintf(" - StudyID           = %s\n", studyInf.getStudyId());
+                logger.debugPrintf(" - xnatSessionLabel  = %s\n",
                         dbMapping.getXnatSessionLabel(getSubjectKey(subj), getSessionKey(studyInf)));
 
-                logger.infoPrintf(" - SeriesInstanceUID = %s\n", scanSet.getSeriesInstanceUID());
-                logger.infoPrintf(" - SeriesNr          = %d\n", seriesInf.getSeriesNr());
-                logger.infoPrintf(" - SeriesDescription = %s\n", seriesInf.getSeriesDescription());
-                logger.infoPrintf(" - xnatScanLabel     = %s\n",
+                logger.debugPrintf(" - SeriesInstanceUID = %s\n", scanSet.getSeriesInstanceUID());
+                logger.debugPrintf(" - SeriesNr          = %d\n", seriesInf.getSeriesNr());
+                logger.debugPrintf(" - SeriesDescription = %s\n", seriesInf.getSeriesDescription());
+                logger.debugPrintf(" - xnatScanLabel     = %s\n",
                         dbMapping.getXnatScanLabel(scanSet.getStudyInstanceUID(), scanSet.getSeriesInstanceUID()));
 
-                logger.infoPrintf(" - SeriesDate        = %s\n", seriesInf.getSeriesDate());
-                logger.infoPrintf(" - StudyDate         = %s\n", studyInf.getStudyDate());
-                logger.infoPrintf("   [ScanType]        \n");
-                logger.infoPrintf(" - Modality          = %s\n", scanType.modality);
-                logger.infoPrintf(" - ScanningSequence  = %s\n", scanType.scanningSequence);
-                logger.infoPrintf(" - TR/TE (TI)        = %f/%f (%f)\n", scanType.repeatTime, scanType.echoTime, scanType.inverseTime);
-                logger.infoPrintf(" - Flip Angle        = %f\n", scanType.flipAngle);
-
-                logger.infoPrintf("   [Subject]\n");
-                logger.infoPrintf(" - PatientName       = %s\n", subj.getPatientName());
-                logger.infoPrintf(" - PatientId         = %s\n", subj.getPatientID());
-                logger.infoPrintf(" - xnatSubjectLabel  = %s\n",
+                logger.debugPrintf(" - SeriesDate        = %s\n", seriesInf.getSeriesDate());
+                logger.debugPrintf(" - StudyDate         = %s\n", studyInf.getStudyDate());
+                logger.debugPrintf("   [ScanType]        \n");
+                logger.debugPrintf(" - Modality          = %s\n", scanType.modality);
+                logger.debugPrintf(" - ScanningSequence  = %s\n", scanType.scanningSequence);
+                logger.debugPrintf(" - TR/TE (TI)        = %f/%f (%f)\n", scanType.repeatTime, scanType.echoTime, scanType.inverseTime);
+                logger.debugPrintf(" - Flip Angle        = %f\n", scanType.flipAngle);
+
+                logger.debugPrintf("   [Subject]\n");
+                logger.debugPrintf(" - PatientName       = %s\n", subj.getPatientName());
+                logger.debugPrintf(" - PatientId         = %s\n", subj.getPatientID());
+                logger.debugPrintf(" - xnatSubjectLabel  = %s\n",
                         dbMapping.getCreateXnatSubjectLabel(getSubjectKey(subj), getDoCryptHashSubjectKey(), false));
 
-                logger.infoPrintf(" - PatientAge        = %s\n", subj.getPatientAgeString());
-                logger.infoPrintf(" - PatientGender     = %s\n", subj.getPatientGender());
-                logger.infoPrintf(" - PatientBirthDate  = %s\n", subj.getPatientBirthDate());
+                logger.debugPrintf(" - PatientAge        = %s\n", subj.getPatientAgeString());
+                logger.debugPrintf(" - PatientGender     = %s\n", subj.getPatientGender());
+                logger.debugPrintf(" - PatientBirthDate  = %s\n", subj.getPatientBirthDate());
 
-                logger.infoPrintf("   [FileSet] \n");
-                // logger.infoPrintf(" - fileSetID         = %s\n",scanSet.fileSetId);
-                logger.infoPrintf(" - Number of files   = %d\n", scanSet.getNumFSNodes());
-                logger.infoPrintf(" - first file        = %s\n", scanSet.getFirstFile());
+                logger.debugPrintf("   [FileSet] \n");
+                // logger.debugPrintf(" - fileSetID         = %s\n",scanSet.fileSetId);
+                logger.debugPrintf(" - Number of files   = %d\n", scanSet.getNumFSNodes());
+                logger.debugPrintf(" - first file        = %s\n", scanSet.getFirstFile());
 
-                logger.infoPrintf(" ---------------------\n");
+                logger.debugPrintf(" ---------------------\n");
             }
             catch (Throwable e)
             {
@@ -1379,12 +1566,47 @@ public class XnatTool implements ImageDirScannerListener
         String seriesUID = scanSet.getSeriesInstanceUID();
         String scanLabel = dbMapping.getCreateXnatScanLabel(sessionKey, seriesUID, getDoCryptHashScanKey(), getScanSetLabelPrefix(), true);
 
-        logger.infoPrintf("Added mapping PatientID/PatientName:%s/%s\n", subjectInfo.getPatientID(), subjectInfo.getPatientName());
-        logger.infoPrintf(" - patient -> subject: '%s' (keyType=%s) -> '%s'\n", subjectKey, subjectLabel,
+        logger.debugPrintf("Added mapping PatientID/PatientName:%s/%s\n", subjectInfo.getPatientID(), subjectInfo.getPatientName());
+        logger.debugPrintf(" - patient -> subject: '%s' (keyType=%s) -> '%s'\n", subjectKey, subjectLabel,
                 this.getCurrentDataSetConfig().subjectKeyType);
-        logger.infoPrintf(" - study   -> session: '%s' (keyType=%s) -> '%s'\n", sessionKey, sessionLabel,
+        logger.debugPrintf(" - study   -> session: '%s' (keyType=%s) -> '%s'\n", sessionKey, sessionLabel,
                 this.getCurrentDataSetConfig().sessionKeyType);
-        logger.infoPrintf(" - series  -> scanSet: '%s' -> '%s'\n", seriesUID, scanLabel);
+        logger.debugPrintf(" - series  -> scanSet: '%s' -> '%s'\n", seriesUID, scanLabel);
+    }
+
+    /**
+     * Create mappings of all ScanSets concurrently. ScanSets with invalid keys are skipped here and reported by
+     * addScanMapping().
+     */
+    protected void createDBMappings(Collection<String> scanSetUids) throws Exception
+    {
+        List<DBMapping.ScanSetKeys> keys = new ArrayList<DBMapping.ScanSetKeys>(scanSetUids.size());
+
+        for (String uid : scanSetUids)
+        {
+            ScanSetInfo scanSet = imageDirScanner.getScanSet(uid);
+
+            try
+            {
+                String subjectKey = getSubjectKey(scanSet.getSubjectInfo());
+                String sessionKey = getSessionKey(scanSet.getStudyInfo());
+                String seriesUID = scanSet.getSeriesInstanceUID();
+
+                if (StringUtil.isEmpty(subjectKey) || StringUtil.isEmpty(sessionKey))
+                {
+                    continue;
+                }
+
+                keys.add(new DBMapping.ScanSetKeys(subjectKey, sessionKey, seriesUID));
+            }
+            catch (Exception e)
+            {
+                logger.debugPrintf("Skipping ScanSet with invalid keys:%s:%s\n", uid, e.getMessage());
+            }
+        }
+
+        dbMapping.createMappings(keys, getDoCryptHashSubjectKey(), getDoCryptHashSessionKey(), getDoCryptHashScanKey(),
+                getScanSetLabelPrefix(), Runtime.getRuntime().availableProcessors());
     }
 
     // ========================================================================
@@ -1440,120 +1662,191 @@ public class XnatTool implements ImageDirScannerListener
         // nifti sub type:
         ImageTypes.ScanSubType scanSubType = dataSetConf.getScanSubType();
 
-        for (int scanNr = 0; scanNr < numScans; scanNr++)
+        UploadEngine uploadEngine = createUploadEngine();
+        // next collection to report as done, collections are reported in order:
+        int nextCollectionDone = 0;
+
+        try
         {
-            String scanId = scanIds.get(scanNr);
-            ScanSetInfo scanSet = imageDirScanner.getScanSet(scanIds.get(scanNr));
+            for (int scanNr = 0; scanNr < numScans; scanNr++)
+            {
+                String scanId = scanIds.get(scanNr);
+                ScanSetInfo scanSet = imageDirScanner.getScanSet(scanIds.get(scanNr));
 
-            // one scan per subject/session
-            logger.infoPrintf(">>> Uploading ScanSet[#%d]:%s\n", scanNr, scanId);
+                // one scan per subject/session
+                logger.infoPrintf(">>> Uploading ScanSet[#%d]:%s\n", scanNr, scanId);
 
-            // Map patientID,patientName => SubjectID
-            String subjectKey = getSubjectKey(scanSet.getSubjectInfo());
-            String subjectLabel;
-            subjectLabel = dbMapping.getCreateXnatSubjectLabel(subjectKey, getDoCryptHashSubjectKey(), false);
+                // Map patientID,patientName => SubjectID
+                String subjectKey = getSubjectKey(scanSet.getSubjectInfo());
+                String subjectLabel;
+                subjectLabel = dbMapping.getCreateXnatSubjectLabel(subjectKey, getDoCryptHashSubjectKey(), false);
 
-            if (subjectLabel == null)
-            {
-                // initialization error: DBMapping not correct.
-                throw new XnatToolException("DBMapping Error: Subject Label does not exists for SubjectKey:" + subjectKey);
-            }
+                if (subjectLabel == null)
+                {
+                    // initialization error: DBMapping not correct.
+                    throw new XnatToolException("DBMapping Error: Subject Label does not exists for SubjectKey:" + subjectKey);
+                }
 
-            // Map subjectLabel (patientID?)+StudyInstanceUID => sessionLabel
-            String sessionKey = getSessionKey(scanSet.getStudyInfo());
-            String sessionLabel = dbMapping.getCreateXnatSessionLabel(subjectKey, getDoCryptHashSubjectKey(), sessionKey,
-                    getDoCryptHashSessionKey(), false);
-            if (sessionLabel == null)
-            {
-                // initialization error: DBMapping not correct.
-                throw new XnatToolException("DBMapping Error: Session Label does not exists for SessionKey:" + sessionKey);
-            }
+                // Map subjectLabel (patientID?)+StudyInstanceUID => sessionLabel
+                String sessionKey = getSessionKey(scanSet.getStudyInfo());
+                String sessionLabel = dbMapping.getCreateXnatSessionLabel(subjectKey, getDoCryptHashSubjectKey(), sessionKey,
+                        getDoCryptHashSessionKey(), false);
+                if (sessionLabel == null)
+                {
+                    // initialization error: DBMapping not correct.
+                    throw new XnatToolException("DBMapping Error: Session Label does not exists for SessionKey:" + sessionKey);
+                }
 
-            // Map studyUID+SeriesInstanceUID => scanLabel
-            String scanUID = scanSet.getScanUID();
-            String scanLabel;
+                // Map studyUID+SeriesInstanceUID => scanLabel
+                String scanUID = scanSet.getScanUID();
+                String scanLabel;
 
-            switch (dataSetType)
-            {
-                case DICOM_SCANSET:
+                switch (dataSetType)
+                {
+                    case DICOM_SCANSET:
+                    {
+                        scanLabel = dbMapping.getCreateXnatScanLabel(sessionKey, scanUID, getDoCryptHashScanKey(), getScanSetLabelPrefix(),
+                                autoCreate);
+                        break;
+                    }
+                    case NIFTI_SCANSET:
+                    {
+                        scanLabel = dbMapping.getCreateXnatScanLabel(sessionKey, scanUID, getDoCryptHashScanKey(), getScanSetLabelPrefix(),
+                                autoCreate);
+                        break;
+                    }
+                    case NIFTI_ATLASSET:
+                    {
+                        scanLabel = ImageTypes.getScanSubTypeFileLabel(scanSubType);
+                        break;
+                    }
+                    default:
+                        throw new Error("getScanSetLabelPrefix():Invalid DataSetType:" + getCurrentDataSetConfig().dataSetType);
+                }
+
+                if (scanLabel == null)
                 {
-                    scanLabel = dbMapping.getCreateXnatScanLabel(sessionKey, scanUID, getDoCryptHashScanKey(), getScanSetLabelPrefix(),
-                            autoCreate);
-                    break;
+                    // initialization error: DBMapping not correct.
+                    throw new XnatToolException("DBMapping Error: ScanSet Label does not exists for ScanUID(SeriesUID):" + scanUID);
                 }
-                case NIFTI_SCANSET:
+
+                XnatSubject subject = null;
+                XnatSession session = null;
+                XnatScan scan = null;
+
+                scanSet.setSeriesDescription("Scan Set Type:" + dataSetType + ", scanSubType=" + scanSubType + ",ownerId=" + sourceId);
+
+                if (XnatToolMain.demoUpload == false)
                 {
-                    scanLabel = dbMapping.getCreateXnatScanLabel(sessionKey, scanUID, getDoCryptHashScanKey(), getScanSetLabelPrefix(),
-                            autoCreate);
-                    break;
+                    subject = getCreateSubject(projectId, subjectLabel, autoCreate);
+                    assertNotNull("No such subject or creation failed for project/subject:" + projectId + "/" + subjectLabel, subject);
+                    assertEqual("Subject Label in Subject Object must match actual subjectLabel", subjectLabel, subject.getLabel());
+
+                    session = getCreateSession(subject, sessionLabel, autoCreate);
+                    assertNotNull("No such session or creation failed for subject/session:" + subjectLabel + "/" + sessionLabel, session);
+                    assertEqual("Session Label in Session Object must match actual sessionLabel", sessionLabel, session.getLabel());
+                    // ================
+                    // Create Scan:
+                    // ================
+
+                    scan = getCreateMrScan(subject, session, scanLabel, scanSet, true);
+
+                    logger.infoPrintf(">>> Got Scan:%s\n", scan);
                 }
-                case NIFTI_ATLASSET:
+
+                if (monitor != null)
                 {
-                    scanLabel = ImageTypes.getScanSubTypeFileLabel(scanSubType);
-                    break;
+                    monitor.notifyCollectionStart(scanNr, "ScanSet:#" + scanNr + ".");
                 }
-                default:
-                    throw new Error("getScanSetLabelPrefix():Invalid DataSetType:" + getCurrentDataSetConfig().dataSetType);
-            }
 
-            if (scanLabel == null)
-            {
-                // initialization error: DBMapping not correct.
-                throw new XnatToolException("DBMapping Error: ScanSet Label does not exists for ScanUID(SeriesUID):" + scanUID);
-            }
+                uploadScanSetFiles(dataSetType, subject, session, scan, scanSet, scanNr, monitor, uploadEngine);
 
-            XnatSubject subject = null;
-            XnatSession session = null;
-            XnatScan scan = null;
+                // report finished collections without waiting:
+                nextCollectionDone = notifyCollectionsDone(uploadEngine, scanIds, nextCollectionDone, scanNr, false, monitor);
+            }
 
-            scanSet.setSeriesDescription("Scan Set Type:" + dataSetType + ", scanSubType=" + scanSubType + ",ownerId=" + sourceId);
+            // wait for remaining uploads:
+            notifyCollectionsDone(uploadEngine, scanIds, nextCollectionDone, numScans - 1, true, monitor);
 
-            if (XnatToolMain.demoUpload == false)
+            if (dicomProcessor != null)
             {
-                subject = getCreateSubject(projectId, subjectLabel, autoCreate);
-                assertNotNull("No such subject or creation failed for project/subject:" + projectId + "/" + subjectLabel, subject);
-                assertEqual("Subject Label in Subject Object must match actual subjectLabel", subjectLabel, subject.getLabel());
+                logger.infoPrintf("DicomProcessor value cache:%s\n", dicomProcessor.getValueCache());
+            }
 
-                session = getCreateSession(subject, sessionLabel, autoCreate);
-                assertNotNull("No such session or creation failed for subject/session:" + subjectLabel + "/" + sessionLabel, session);
-                assertEqual("Session Label in Session Object must match actual sessionLabel", sessionLabel, session.getLabel());
-                // ================
-                // Create Scan:
-                // ================
+            logger.infoPrintf("XnatClient object cache:%s\n", xnatClient.getObjectCache());
+        }
+        catch (Exception e)
+        {
+            uploadEngine.cancel();
+            throw e;
+        }
+        finally
+        {
+            uploadEngine.shutdown();
+        }
+    }
 
-                scan = getCreateMrScan(subject, session, scanLabel, scanSet, true);
+    /**
+     * Create new UploadEngine using the upload settings from the tool configuration.
+     */
+    protected UploadEngine createUploadEngine()
+    {
+        return new UploadEngine(getToolConfig().getNumUploadThreads(), getToolConfig().getMaxUploadBytesInFlight());
+    }
 
-                logger.infoPrintf(">>> Got Scan:%s\n", scan);
-            }
+    /**
+     * Notify finished collections in order, starting from collection nr firstCollection up to and including
+     * lastCollection. Returns the number of the first collection which hasn't been reported as done yet.
+     * 
+     * @param waitForUploads
+     *            - if true, wait until the uploads of all the collections have finished. If false, stop at the first
+     *            collection which has pending uploads.
+     */
+    protected int notifyCollectionsDone(UploadEngine uploadEngine, List<String> scanIds, int firstCollection, int lastCollection,
+            boolean waitForUploads, UploadMonitorListener monitor) throws Exception
+    {
+        int scanNr = firstCollection;
 
-            if (monitor != null)
+        while (scanNr <= lastCollection)
+        {
+            if (waitForUploads)
             {
-                monitor.notifyCollectionStart(scanNr, "ScanSet:#" + scanNr + ".");
+                uploadEngine.waitForCollection(scanNr);
+            }
+            else if (uploadEngine.isCollectionDone(scanNr) == false)
+            {
+                break;
             }
 
-            uploadScanSetFiles(dataSetType, subject, session, scan, scanSet, scanNr, monitor);
+            // collection is done, but one of the (other) uploads might have failed:
+            uploadEngine.checkException();
+
+            ScanSetInfo scanSet = imageDirScanner.getScanSet(scanIds.get(scanNr));
             scanSet.setUploadFinishedDate(Presentation.now());
 
             if (monitor != null)
             {
                 monitor.notifyCollectionDone(scanNr);
             }
+
+            scanNr++;
         }
+
+        return scanNr;
     }
 
-    protected void uploadScanSetFiles(ImageTypes.DataSetType dataSetType, XnatSubject subject, XnatSession session, XnatScan xnatScan,
-            ScanSetInfo scanSet, int scanNr, UploadMonitorListener monitor) throws Exception
+    /**
+     * Submit the files of the ScanSet to the UploadEngine. The subject, session and scan must already exist. Files are
+     * uploaded concurrently and might not have been uploaded yet when this method returns.
+     */
+    protected void uploadScanSetFiles(final ImageTypes.DataSetType dataSetType, final XnatSubject subject, final XnatSession session,
+            final XnatScan xnatScan, final ScanSetInfo scanSet, final int scanNr, final UploadMonitorListener monitor,
+            UploadEngine uploadEngine) throws Exception
     {
-
-        String subjectLabel = session.getSubjectLabel();
-        String sessionLabel = session.getLabel();
         String scanLabel = xnatScan.getID();
 
-        // bridge between PutMonitor and UploadMonitorListener:
-        PutMonitorAdaptor putMonitor = new PutMonitorAdaptor(monitor);
-
         // query existing files.
-        FilesCollection fileCollections = this.xnatClient.listScanFiles(session, scanLabel);
+        final FilesCollection fileCollections = this.xnatClient.listScanFiles(session, scanLabel);
 
         List<FileDescriptor> files = scanSet.getFileDescriptors();
 
@@ -1574,7 +1867,11 @@ public class XnatTool implements ImageDirScannerListener
         // XnatToolException("When uploading Nifti Atlases, each ScanSet must contain two files! Number of files="+files.size());
         // }
 
-        boolean isAtlas = (dataSetType == ImageTypes.DataSetType.NIFTI_ATLASSET);
+        if ((dataSetType == ImageTypes.DataSetType.DICOM_SCANSET) && getUseBatchUpload())
+        {
+            uploadScanSetArchive(subject, session, xnatScan, scanSet, scanNr, files, fileCollections, monitor, uploadEngine);
+            return;
+        }
 
         for (int fileNr = 0; fileNr < files.size(); fileNr++)
         {
@@ -1583,7 +1880,7 @@ public class XnatTool implements ImageDirScannerListener
                 throw new XnatToolException("Upload cancelled!");
             }
 
-            FileDescriptor fileDescr = files.get(fileNr);
+            final FileDescriptor fileDescr = files.get(fileNr);
             if ((fileDescr == null) || (fileDescr.fsNode == null))
             {
                 // possible since files are ordered using scan nr. and some may
@@ -1591,135 +1888,478 @@ public class XnatTool implements ImageDirScannerListener
                 continue;
             }
 
-            FSPath uploadFile = fileDescr.fsNode;
-            String fileLabel = fileDescr.fileLabel;
+            final int jobFileNr = fileNr;
+            // Create atlas scans here: concurrent workers would race on the check-then-create of the remote scan.
+            final XnatScan atlasScan = getCreateAtlasAnnotationScan(dataSetType, subject, session, scanSet, fileNr, fileDescr);
 
-            FSPath orgFile = uploadFile;
-            FSPath sourceFile = orgFile;
-            FSPath processedFile = null;
-
-            if (dataSetType == ImageTypes.DataSetType.DICOM_SCANSET)
+            uploadEngine.submit(scanNr, fileDescr.fsNode.getFileSize(), new UploadEngine.UploadJob()
             {
-                String destFilename = createXnatDicomTargetFileName(subjectLabel, sessionLabel, scanLabel, fileNr);
-
-                boolean doProcessDicom = this.getProcessingOptions().getDoProcessDicom();
-                if (doProcessDicom)
+                @Override
+                public void doUpload() throws Exception
                 {
-                    if (monitor != null)
+                    if (monitor.isCancelled())
                     {
-                        monitor.logPrintf("Processing DICOM File:\n - %s\n", sourceFile);
+                        throw new XnatToolException("Upload cancelled!");
                     }
 
-                    processedFile = processFile(this.getCacheDir(), sourceFile, destFilename);
-                    uploadFile = processedFile; // upload new file.
+                    uploadScanSetFile(dataSetType, subject, session, xnatScan, atlasScan, scanSet, scanNr, jobFileNr, fileDescr,
+                            fileCollections, monitor);
                 }
+            });
+        }
+    }
 
-                long fileSize = uploadFile.getFileSize();
+    /**
+     * Returns the remote scan of an atlas annotation file, creating it if it doesn't exist.
+     * 
+     * @return atlas scan or null if the file isn't uploaded into a separate atlas scan.
+     */
+    protected XnatScan getCreateAtlasAnnotationScan(ImageTypes.DataSetType dataSetType, XnatSubject subject, XnatSession session,
+            ScanSetInfo scanSet, int fileNr, FileDescriptor fileDescr) throws WebException, XnatClientException
+    {
+        if ((dataSetType != ImageTypes.DataSetType.NIFTI_ATLASSET) || (fileNr == 0) || XnatToolMain.demoUpload
+                || option_putAtlasUnderReconstructions)
+        {
+            return null;
+        }
 
-                if (monitor != null)
-                {
-                    monitor.notifyFileStart(scanNr, fileNr, fileSize, "File:" + uploadFile.getPathname());
-                }
+        return getCreateMrScan(subject, session, createAtlasScanLabel(fileDescr.fileLabel), scanSet, true);
+    }
 
-                // =======================================
-                // Check and Verify existing Remote File !
-                // =========================================
+    protected static String createAtlasScanLabel(String fileLabel)
+    {
+        return "atlas_" + fileLabel;
+    }
 
-                boolean exists = checkAndVerifyExisting(fileCollections, ImageFormatType.DICOM, orgFile, uploadFile, destFilename,
-                        getToolConfig().getAutoResumeAndVerifyUpload());
+    /**
+     * Whether DICOM ScanSets are uploaded as one ZIP archive per scan. Processed files must be streamable into the
+     * archive, otherwise the files are uploaded one by one.
+     */
+    protected boolean getUseBatchUpload()
+    {
+        if (XnatToolMain.demoUpload || (getToolConfig().getBatchUploadScanSets() == false))
+        {
+            return false;
+        }
 
-                if (exists)
-                {
-                    logger.infoPrintf("Remote DICOM file already exists: skip existing:%s\n", orgFile);
+        if (this.getProcessingOptions().getDoProcessDicom() == false)
+        {
+            return true;
+        }
 
-                    if (monitor != null)
-                    {
-                        monitor.logPrintf("Verified: Remote DICOM file already exists and file sizes match for:\n - %s\n", orgFile);
-                    }
-                }
-                else
-                {
-                    if (XnatToolMain.demoUpload)
-                    {
-                        logger.infoPrintf("DEMO:putDicomFile:%s -> %s\n\n", uploadFile, destFilename);
-                    }
-                    else
+        if (getToolConfig().getKeepProcessedDicomFile())
+        {
+            return false;
+        }
+
+        TagProcessingOption pixelDataOption = dicomProcessor.getTagOption(Tag.PixelData);
+
+        return ((pixelDataOption == TagProcessingOption.KEEP) || (pixelDataOption == TagProcessingOption.DELETE));
+    }
+
+    /**
+     * Submit the DICOM files of the ScanSet as a single upload job. Files which already exist remotely are verified
+     * and skipped, the other files are (processed and) written into one ZIP archive while uploading, which XNAT
+     * extracts into the DICOM resource of the scan. If the archive upload fails, the remaining files are uploaded one
+     * by one.
+     */
+    protected void uploadScanSetArchive(final XnatSubject subject, final XnatSession session, final XnatScan xnatScan,
+            final ScanSetInfo scanSet, final int scanNr, final List<FileDescriptor> files, final FilesCollection fileCollections,
+            final UploadMonitorListener monitor, UploadEngine uploadEngine) throws Exception
+    {
+        long numBytes = 0;
+
+        for (FileDescriptor fileDescr : files)
+        {
+            if ((fileDescr != null) && (fileDescr.fsNode != null))
+            {
+                numBytes += fileDescr.fsNode.getFileSize();
+            }
+        }
+
+        uploadEngine.submit(scanNr, numBytes, new UploadEngine.UploadJob()
+        {
+            @Override
+            public void doUpload() throws Exception
+            {
+                if (monitor.isCancelled())
+                {
+                    throw new XnatToolException("Upload cancelled!");
+                }
+
+                doUploadScanSetArchive(subject, session, xnatScan, scanSet, scanNr, files, fileCollections, monitor);
+            }
+        });
+    }
+
+    protected void doUploadScanSetArchive(XnatSubject subject, XnatSession session, XnatScan xnatScan, ScanSetInfo scanSet,
+            final int scanNr, final List<FileDescriptor> files, FilesCollection fileCollections, final UploadMonitorListener monitor)
+            throws Exception
+    {
+        final String subjectLabel = session.getSubjectLabel();
+        final String sessionLabel = session.getLabel();
+        final String scanLabel = xnatScan.getID();
+        final boolean doProcessDicom = this.getProcessingOptions().getDoProcessDicom();
+        final boolean keepPixelData = (dicomProcessor.getTagOption(Tag.PixelData) == TagProcessingOption.KEEP);
+
+        // Resume: verify existing remote files and upload the others.
+        final List<Integer> todo = new ArrayList<Integer>();
+
+        for (int fileNr = 0; fileNr < files.size(); fileNr++)
+        {
+            FileDescriptor fileDescr = files.get(fileNr);
+
+            if ((fileDescr == null) || (fileDescr.fsNode == null))
+            {
+                continue;
+            }
+
+            FSPath sourceFile = fileDescr.fsNode;
+            String destFilename = createXnatDicomTargetFileName(subjectLabel, sessionLabel, scanLabel, fileNr);
+
+            if (fileCollections.getFile(ImageFormatType.DICOM.toString(), destFilename) == null)
+            {
+                todo.add(fileNr);
+                continue;
+            }
+
+            long size = getDicomUploadSize(sourceFile, doProcessDicom, keepPixelData);
+
+            checkAndVerifyExisting(fileCollections, ImageFormatType.DICOM, sourceFile, size, destFilename, destFilename,
+                    getToolConfig().getAutoResumeAndVerifyUpload());
+
+            logger.infoPrintf("Remote DICOM file already exists: skip existing:%s\n", sourceFile);
+
+            if (monitor != null)
+            {
+                monitor.logPrintf("Verified: Remote DICOM file already exists and file sizes match for:\n - %s\n", sourceFile);
+                monitor.notifyFileDone(scanNr, fileNr);
+            }
+        }
+
+        if (todo.size() <= 0)
+        {
+            return;
+        }
+
+        ImageFileInfo info = new ImageFileInfo(ImageFormatType.DICOM, ImageContentType.T1_RAW);
+        info.setDestinationFilename(createXnatDicomTargetArchiveName(subjectLabel, sessionLabel, scanLabel));
+
+        logger.infoPrintf(">>> Uploading set['%s'] as archive:%s (#files=%d)\n", scanLabel, info.getDestinationFilename(), todo.size());
+
+        if (monitor != null)
+        {
+            monitor.logPrintf("Uploading %d files as archive:\n - %s\n", todo.size(), info.getDestinationFilename());
+        }
+
+        try
+        {
+            // The ContentWriter might be called again when the request is retried: files are only reported as done
+            // after the upload has succeeded.
+            String resultId = xnatClient.putDicomArchive(session, xnatScan, info, new XnatClient.ContentWriter()
+            {
+                @Override
+                public void writeContent(OutputStream outps) throws Exception
+                {
+                    writeScanSetArchive(outps, files, todo, subjectLabel, sessionLabel, scanLabel, doProcessDicom, keepPixelData,
+                            monitor);
+                }
+            }, new PutMonitorAdaptor(monitor, scanNr, -1));
+
+            logger.debugPrintf(">>> result=%s\n", resultId);
+        }
+        catch (Exception e)
+        {
+            if ((monitor != null) && monitor.isCancelled())
+            {
+                throw e;
+            }
+
+            logger.logException(ClassLogger.WARN, e, "Archive upload failed for scan:%s, uploading files one by one.\n", scanLabel);
+
+            if (monitor != null)
+            {
+                monitor.logPrintf("Archive upload failed, uploading files one by one:\n - %s\n", e.getMessage());
+            }
+
+            uploadScanSetFilesAfterFailedArchive(subject, session, xnatScan, scanSet, scanNr, files, todo, fileCollections, monitor);
+            return;
+        }
+
+        if (monitor != null)
+        {
+            for (int fileNr : todo)
+            {
+                monitor.notifyFileDone(scanNr, fileNr);
+            }
+        }
+    }
+
+    /**
+     * Upload the files of a failed archive upload one by one. The archive might have been (partially) extracted:
+     * extracted files with the expected size are skipped, incomplete files are deleted and uploaded again.
+     * 
+     * @param fileCollections
+     *            - remote files before the archive upload.
+     */
+    protected void uploadScanSetFilesAfterFailedArchive(XnatSubject subject, XnatSession session, XnatScan xnatScan,
+            ScanSetInfo scanSet, int scanNr, List<FileDescriptor> files, List<Integer> todo, FilesCollection fileCollections,
+            UploadMonitorListener monitor) throws Exception
+    {
+        String subjectLabel = session.getSubjectLabel();
+        String sessionLabel = session.getLabel();
+        String scanLabel = xnatScan.getID();
+        boolean doProcessDicom = this.getProcessingOptions().getDoProcessDicom();
+        boolean keepPixelData = (dicomProcessor.getTagOption(Tag.PixelData) == TagProcessingOption.KEEP);
+
+        FilesCollection currentFiles = this.xnatClient.listScanFiles(session, scanLabel);
+
+        for (int fileNr : todo)
+        {
+            if ((monitor != null) && monitor.isCancelled())
+            {
+                throw new XnatToolException("Upload cancelled!");
+            }
+
+            FSPath sourceFile = files.get(fileNr).fsNode;
+            String destFilename = createXnatDicomTargetFileName(subjectLabel, sessionLabel, scanLabel, fileNr);
+            XnatFile remoteFile = currentFiles.getFile(ImageFormatType.DICOM.toString(), destFilename);
+
+            if (remoteFile != null)
+            {
+                if (remoteFile.getFileSize() == getDicomUploadSize(sourceFile, doProcessDicom, keepPixelData))
+                {
+                    logger.infoPrintf("File extracted from failed archive upload: skip existing:%s\n", sourceFile);
+
+                    if (monitor != null)
                     {
-                        logger.infoPrintf("putDicomFile:%s -> %s\n\n", uploadFile, destFilename);
-                        putDicomFile(session, xnatScan, uploadFile, fileNr, destFilename, putMonitor);
+                        monitor.logPrintf("Verified: Remote DICOM file already exists and file sizes match for:\n - %s\n", sourceFile);
+                        monitor.notifyFileDone(scanNr, fileNr);
                     }
+
+                    continue;
                 }
+
+                logger.warnPrintf("Deleting incomplete file of failed archive upload:%s\n", remoteFile);
+                this.xnatClient.deleteResourceFile(session, XnatResourceType.SCAN, scanLabel, ImageFormatType.DICOM.toString(),
+                        destFilename);
             }
-            else if (dataSetType == ImageTypes.DataSetType.NIFTI_SCANSET)
+
+            // file didn't exist before the archive upload.
+            uploadScanSetFile(ImageTypes.DataSetType.DICOM_SCANSET, subject, session, xnatScan, null, scanSet, scanNr, fileNr,
+                    files.get(fileNr), fileCollections, monitor);
+        }
+    }
+
+    /**
+     * @return size of the (processed) DICOM file as it is uploaded. If the file is processed it is rewritten without
+     *         storing the result.
+     */
+    protected long getDicomUploadSize(FSPath sourceFile, boolean doProcessDicom, boolean keepPixelData) throws Exception
+    {
+        if (doProcessDicom)
+        {
+            return DicomUtil.getRewrittenSize(sourceFile.toJavaFile(), keepPixelData, createDicomRewriteHandler(sourceFile));
+        }
+        else
+        {
+            return sourceFile.getFileSize();
+        }
+    }
+
+    /**
+     * Write the (processed) DICOM files as ZIP archive. The entries have the same names as the files uploaded one by
+     * one. Doesn't report progress to the monitor, the archive might be written more than once.
+     */
+    protected void writeScanSetArchive(OutputStream outps, List<FileDescriptor> files, List<Integer> fileNrs, String subjectLabel,
+            String sessionLabel, String scanLabel, boolean doProcessDicom, boolean keepPixelData, UploadMonitorListener monitor)
+            throws Exception
+    {
+        ZipOutputStream zipOut = new ZipOutputStream(outps);
+        // favour throughput over compression ratio:
+        zipOut.setLevel(Deflater.BEST_SPEED);
+
+        for (int fileNr : fileNrs)
+        {
+            if ((monitor != null) && monitor.isCancelled())
             {
-                StringHolder basenameH = new StringHolder();
-                StringHolder extensionH = new StringHolder();
-                imageDirScanner.splitBasenameAndExtension(uploadFile, basenameH, extensionH);
+                throw new XnatToolException("Upload cancelled!");
+            }
 
-                String ext = extensionH.value.toLowerCase();
+            FSPath sourceFile = files.get(fileNr).fsNode;
+            String destFilename = createXnatDicomTargetFileName(subjectLabel, sessionLabel, scanLabel, fileNr);
 
-                String destFilename = createXnatNiftiTargetFileName(subjectLabel, sessionLabel, scanLabel, ext);
+            zipOut.putNextEntry(new ZipEntry(destFilename));
 
-                boolean exists = checkAndVerifyExisting(fileCollections, ImageFormatType.NIFTI, orgFile, uploadFile, destFilename,
-                        getToolConfig().getAutoResumeAndVerifyUpload());
+            if (doProcessDicom)
+            {
+                DicomUtil.rewriteDicom(sourceFile.toJavaFile(), zipOut, keepPixelData, createDicomRewriteHandler(sourceFile));
+            }
+            else
+            {
+                java.nio.file.Files.copy(sourceFile.toJavaFile().toPath(), zipOut);
+            }
 
-                if (exists)
+            zipOut.closeEntry();
+        }
+
+        // Don't close: the request stream is closed by the XnatClient.
+        zipOut.finish();
+    }
+
+    /**
+     * Process and upload single file from a ScanSet. Called by the UploadEngine workers.
+     * 
+     * @param optAtlasScan
+     *            - remote scan of an atlas annotation file, created before submitting the upload job. See
+     *            getCreateAtlasAnnotationScan().
+     */
+    protected void uploadScanSetFile(ImageTypes.DataSetType dataSetType, XnatSubject subject, XnatSession session, XnatScan xnatScan,
+            XnatScan optAtlasScan, ScanSetInfo scanSet, int scanNr, int fileNr, FileDescriptor fileDescr, FilesCollection fileCollections,
+            UploadMonitorListener monitor) throws Exception
+    {
+        String subjectLabel = session.getSubjectLabel();
+        String sessionLabel = session.getLabel();
+        String scanLabel = xnatScan.getID();
+
+        // bridge between PutMonitor and UploadMonitorListener, one per file:
+        PutMonitorAdaptor putMonitor = new PutMonitorAdaptor(monitor, scanNr, fileNr);
+
+        boolean isAtlas = (dataSetType == ImageTypes.DataSetType.NIFTI_ATLASSET);
+
+        FSPath uploadFile = fileDescr.fsNode;
+        String fileLabel = fileDescr.fileLabel;
+
+        FSPath orgFile = uploadFile;
+        FSPath sourceFile = orgFile;
+        FSPath processedFile = null;
+
+        if (dataSetType == ImageTypes.DataSetType.DICOM_SCANSET)
+        {
+            String destFilename = createXnatDicomTargetFileName(subjectLabel, sessionLabel, scanLabel, fileNr);
+
+            boolean doProcessDicom = this.getProcessingOptions().getDoProcessDicom();
+            boolean streamed = false;
+            // notify once, also when streaming falls back to a processed file.
+            boolean fileStarted = false;
+
+            if (doProcessDicom)
+            {
+                if (monitor != null)
                 {
-                    logger.infoPrintf("Remote NIFTI file already exists: skip existing:%s\n", orgFile);
+                    monitor.logPrintf("Processing DICOM File:\n - %s\n", sourceFile);
+                }
 
+                if (getUseStreamingDicomUpload())
+                {
                     if (monitor != null)
                     {
-                        monitor.logPrintf("Verified: Remote NIFTI file already exists and file sizes match for:\n - %s\n", orgFile);
+                        monitor.notifyFileStart(scanNr, fileNr, sourceFile.getFileSize(), "File:" + sourceFile.getPathname());
                     }
+
+                    fileStarted = true;
+                    streamed = streamDicomFile(session, xnatScan, sourceFile, scanNr, fileNr, destFilename, fileCollections, putMonitor,
+                            monitor);
                 }
-                else
+
+                if (streamed == false)
+                {
+                    processedFile = processFile(this.getCacheDir(), sourceFile, destFilename);
+                    uploadFile = processedFile; // upload new file.
+                }
+            }
+
+            if (streamed == false)
+            {
+                long fileSize = uploadFile.getFileSize();
+
+                if ((monitor != null) && (fileStarted == false))
+                {
+                    monitor.notifyFileStart(scanNr, fileNr, fileSize, "File:" + uploadFile.getPathname());
+                }
+
+                // =======================================
+                // Check and Verify existing Remote File !
+                // =========================================
+
+                boolean exists = checkAndVerifyExisting(fileCollections, ImageFormatType.DICOM, orgFile, uploadFile, destFilename,
+                        getToolConfig().getAutoResumeAndVerifyUpload());
+
+                if (exists)
                 {
-                    long fileSize = uploadFile.getFileSize();
+                    logger.infoPrintf("Remote DICOM file already exists: skip existing:%s\n", orgFile);
 
                     if (monitor != null)
                     {
-                        monitor.notifyFileStart(scanNr, fileNr, fileSize, uploadFile.toString());
+                        monitor.logPrintf("Verified: Remote DICOM file already exists and file sizes match for:\n - %s\n", orgFile);
                     }
-
+                }
+                else
+                {
                     if (XnatToolMain.demoUpload)
                     {
-                        logger.infoPrintf("DEMO: putNiftiFile (atlas=%s): %s -> %s\n\n", isAtlas, uploadFile, destFilename);
+                        logger.infoPrintf("DEMO:putDicomFile:%s -> %s\n\n", uploadFile, destFilename);
                     }
                     else
                     {
-                        logger.infoPrintf("putNiftiFile (atlas=%s): %s -> %s\n\n", isAtlas, uploadFile, destFilename);
-                        putNiftiScanSetFile(session, xnatScan, uploadFile, destFilename, putMonitor);
+                        logger.infoPrintf("putDicomFile:%s -> %s\n\n", uploadFile, destFilename);
+                        putDicomFile(session, xnatScan, uploadFile, fileNr, destFilename, putMonitor);
                     }
                 }
             }
-            else if (dataSetType == ImageTypes.DataSetType.NIFTI_ATLASSET)
+        }
+        else if (dataSetType == ImageTypes.DataSetType.NIFTI_SCANSET)
+        {
+            StringHolder basenameH = new StringHolder();
+            StringHolder extensionH = new StringHolder();
+            imageDirScanner.splitBasenameAndExtension(uploadFile, basenameH, extensionH);
+
+            String ext = extensionH.value.toLowerCase();
+            boolean compress = getUseCompressedNiftiUpload(ext);
+
+            if (compress)
             {
-                StringHolder basenameH = new StringHolder();
-                StringHolder extensionH = new StringHolder();
-                imageDirScanner.splitBasenameAndExtension(uploadFile, basenameH, extensionH);
-                String ext = extensionH.value.toLowerCase();
+                ext = ext + ".gz";
+            }
+
+            String destFilename = createXnatNiftiTargetFileName(subjectLabel, sessionLabel, scanLabel, ext);
 
-                String destFilename;
-                boolean isAnnotation;
-                String reconId = "";
-                String atlasScanLabel = null;
+            boolean exists;
+
+            if (compress)
+            {
+                // compressed size isn't known without compressing the whole file again: use size of completed upload.
+                long gzipSize = getUploadedSize(session, xnatScan, destFilename, uploadFile.toJavaFile());
 
-                if (fileNr == 0)
+                if (gzipSize < 0)
                 {
-                    destFilename = createXnatNiftiAtlasFileName(subjectLabel, sessionLabel, scanLabel, ext);
-                    isAnnotation = false;
+                    // existing remote file might be an incomplete upload.
+                    deleteUnverifiableRemoteFile(session, xnatScan, fileCollections, ImageFormatType.NIFTI, destFilename);
+                    exists = false;
                 }
                 else
                 {
-                    reconId = session.getLabel() + "_" + fileLabel;
-                    String atlasLabel = "atlas." + fileLabel; // Actual Atlas,
-                                                              // put in
-                                                              // reconstructions.
-                    atlasScanLabel = "atlas_" + fileLabel;
-                    destFilename = createXnatNiftiAtlasFileName(subjectLabel, sessionLabel, atlasLabel, ext);
-                    isAnnotation = true;
+                    exists = checkAndVerifyExisting(fileCollections, ImageFormatType.NIFTI, orgFile, gzipSize, uploadFile
+                            + " (gzipped)", destFilename, getToolConfig().getAutoResumeAndVerifyUpload());
                 }
+            }
+            else
+            {
+                exists = checkAndVerifyExisting(fileCollections, ImageFormatType.NIFTI, orgFile, uploadFile, destFilename,
+                        getToolConfig().getAutoResumeAndVerifyUpload());
+            }
+
+            if (exists)
+            {
+                logger.infoPrintf("Remote NIFTI file already exists: skip existing:%s\n", orgFile);
 
+                if (monitor != null)
+                {
+                    monitor.logPrintf("Verified: Remote NIFTI file already exists and file sizes match for:\n - %s\n", orgFile);
+                }
+            }
+            else
+            {
                 long fileSize = uploadFile.getFileSize();
 
                 if (monitor != null)
@@ -1727,63 +2367,129 @@ public class XnatTool implements ImageDirScannerListener
                     monitor.notifyFileStart(scanNr, fileNr, fileSize, uploadFile.toString());
                 }
 
-                if (isAnnotation)
+                if (XnatToolMain.demoUpload)
                 {
-                    // put annotations under reconstructions of this session:
-                    if (XnatToolMain.demoUpload == false)
-                    {
-                        if (option_putAtlasUnderReconstructions)
-                        {
-                            // create reconstruction;
-                            this.putNiftiReconstructionFile(session, reconId, uploadFile, destFilename, putMonitor);
-                        }
-                        else
-                        {
-                            // create scan with atlas label.
-                            XnatScan atlasScan = getCreateMrScan(subject, session, atlasScanLabel, scanSet, true);
-                            putNiftiScanSetFile(session, atlasScan, uploadFile, destFilename, putMonitor);
-                        }
-                    }
-                    else
-                    {
-                        logger.infoPrintf("putNiftiReconstructionFile reconId= %s (isAnnotation=%s): %s -> %s\n\n", reconId, ""
-                                + isAnnotation, uploadFile, destFilename);
-                    }
+                    logger.infoPrintf("DEMO: putNiftiFile (atlas=%s): %s -> %s\n\n", isAtlas, uploadFile, destFilename);
                 }
                 else
                 {
-                    if (XnatToolMain.demoUpload == false)
-                    {
-                        putNiftiScanSetFile(session, xnatScan, uploadFile, destFilename, putMonitor);
-                    }
-                    else
-                    {
-                        logger.infoPrintf("putNiftiFile (isAnnotation=%s): %s -> %s\n\n", "" + isAnnotation, uploadFile, destFilename);
-                    }
+                    logger.infoPrintf("putNiftiFile (atlas=%s): %s -> %s\n\n", isAtlas, uploadFile, destFilename);
+                    putNiftiScanSetFile(session, xnatScan, uploadFile, destFilename, compress, putMonitor);
                 }
             }
+        }
+        else if (dataSetType == ImageTypes.DataSetType.NIFTI_ATLASSET)
+        {
+            StringHolder basenameH = new StringHolder();
+            StringHolder extensionH = new StringHolder();
+            imageDirScanner.splitBasenameAndExtension(uploadFile, basenameH, extensionH);
+            String ext = extensionH.value.toLowerCase();
+
+            String destFilename;
+            boolean isAnnotation;
+            String reconId = "";
+            String atlasScanLabel = null;
+
+            if (fileNr == 0)
+            {
+                destFilename = createXnatNiftiAtlasFileName(subjectLabel, sessionLabel, scanLabel, ext);
+                isAnnotation = false;
+            }
+            else
+            {
+                reconId = session.getLabel() + "_" + fileLabel;
+                String atlasLabel = "atlas." + fileLabel; // Actual Atlas,
+                                                          // put in
+                                                          // reconstructions.
+                atlasScanLabel = createAtlasScanLabel(fileLabel);
+                destFilename = createXnatNiftiAtlasFileName(subjectLabel, sessionLabel, atlasLabel, ext);
+                isAnnotation = true;
+            }
+
+            long fileSize = uploadFile.getFileSize();
 
             if (monitor != null)
             {
-                monitor.notifyFileDone(scanNr, fileNr);
+                monitor.notifyFileStart(scanNr, fileNr, fileSize, uploadFile.toString());
             }
 
-            if ((processedFile != null) && (config.getKeepProcessedDicomFile() == false))
+            if (isAnnotation)
             {
-                try
+                // put annotations under reconstructions of this session:
+                if (XnatToolMain.demoUpload == false)
                 {
-                    processedFile.delete();
+                    if (option_putAtlasUnderReconstructions)
+                    {
+                        // create reconstruction;
+                        this.putNiftiReconstructionFile(session, reconId, uploadFile, destFilename, putMonitor);
+                    }
+                    else
+                    {
+                        // scan with atlas label, normally created before the upload job was submitted.
+                        XnatScan atlasScan = optAtlasScan;
+
+                        if (atlasScan == null)
+                        {
+                            atlasScan = getCreateMrScan(subject, session, atlasScanLabel, scanSet, true);
+                        }
+
+                        putNiftiScanSetFile(session, atlasScan, uploadFile, destFilename, putMonitor);
+                    }
                 }
-                catch (Exception e)
+                else
                 {
-                    logger.logException(ClassLogger.ERROR, e, "Failed to delete image file:" + processedFile);
+                    logger.infoPrintf("putNiftiReconstructionFile reconId= %s (isAnnotation=%s): %s -> %s\n\n", reconId, ""
+                            + isAnnotation, uploadFile, destFilename);
                 }
             }
-        } // for files
+            else
+            {
+                if (XnatToolMain.demoUpload == false)
+                {
+                    putNiftiScanSetFile(session, xnatScan, uploadFile, destFilename, putMonitor);
+                }
+                else
+                {
+                    logger.infoPrintf("putNiftiFile (isAnnotation=%s): %s -> %s\n\n", "" + isAnnotation, uploadFile, destFilename);
+                }
+            }
+        }
+
+        if (monitor != null)
+        {
+            monitor.notifyFileDone(scanNr, fileNr);
+        }
+
+        if ((processedFile != null) && (config.getKeepProcessedDicomFile() == false))
+        {
+            try
+            {
+                processedFile.delete();
+            }
+            catch (Exception e)
+            {
+                logger.logException(ClassLogger.ERROR, e, "Failed to delete image file:" + processedFile);
+            }
+        }
     }
 
     private boolean checkAndVerifyExisting(FilesCollection filesCollection, ImageFormatType formatType, FSPath orgFile, FSPath uploadFile,
             String destFilename, boolean autoResumeAndVerifyUpload) throws XnatToolException, IOException
+    {
+        return checkAndVerifyExisting(filesCollection, formatType, orgFile, uploadFile.getFileSize(), "" + uploadFile, destFilename,
+                autoResumeAndVerifyUpload);
+    }
+
+    /**
+     * Check whether the remote file already exists and has the expected size.
+     * 
+     * @param uploadSize
+     *            - size of the (processed) file to upload.
+     * @param uploadName
+     *            - name of the (processed) file for error messages.
+     */
+    private boolean checkAndVerifyExisting(FilesCollection filesCollection, ImageFormatType formatType, FSPath orgFile, long uploadSize,
+            String uploadName, String destFilename, boolean autoResumeAndVerifyUpload) throws XnatToolException, IOException
     {
         String resourceLabel = "";
 
@@ -1805,17 +2511,122 @@ public class XnatTool implements ImageDirScannerListener
         }
 
         // check size
-        if (remoteFile.getFileSize() != uploadFile.getFileSize())
+        if (remoteFile.getFileSize() != uploadSize)
         {
             throw new XnatToolException("Verify Failed: Remote file exists already but has different file size!\n"
                     + "Size=" + orgFile.getFileSize() + "; for Source File:" + orgFile + "\n"
-                    + "Size=" + uploadFile.getFileSize() + "; for Processed File:" + uploadFile + "\n"
+                    + "Size=" + uploadSize + "; for Processed File:" + uploadName + "\n"
                     + "Size=" + remoteFile.getFileSize() + "; for Remote File=" + remoteFile.getFileName() + "\n");
         }
 
         return true;
     }
 
+    /**
+     * Delete existing remote file which size can't be verified, so it can be uploaded again. XNAT doesn't overwrite
+     * existing files.
+     */
+    private void deleteUnverifiableRemoteFile(XnatSession session, XnatScan scan, FilesCollection filesCollection,
+            ImageFormatType formatType, String destFilename) throws XnatToolException, WebException, XnatClientException
+    {
+        XnatFile remoteFile = filesCollection.getFile(formatType.toString(), destFilename);
+
+        if (remoteFile == null)
+        {
+            return;
+        }
+
+        if (this.getToolConfig().getAutoResumeAndVerifyUpload() == false)
+        {
+            throw new XnatToolException("Remote file already exists:" + remoteFile);
+        }
+
+        logger.warnPrintf("Remote file already exists but size of upload is unknown, uploading again:%s\n", remoteFile);
+
+        if (XnatToolMain.demoUpload == false)
+        {
+            this.xnatClient.deleteResourceFile(session, XnatResourceType.SCAN, scan.getID(), formatType.toString(), destFilename);
+        }
+    }
+
+    /**
+     * Whether processed DICOM files are uploaded directly from the DicomProcessor instead of via a file in the cache
+     * directory. Only possible if the processed file doesn't have to be kept and the PixelData is kept or deleted.
+     */
+    protected boolean getUseStreamingDicomUpload()
+    {
+        if (XnatToolMain.demoUpload || getToolConfig().getKeepProcessedDicomFile()
+                || (getToolConfig().getStreamingDicomUpload() == false))
+        {
+            return false;
+        }
+
+        TagProcessingOption pixelDataOption = dicomProcessor.getTagOption(Tag.PixelData);
+
+        return ((pixelDataOption == TagProcessingOption.KEEP) || (pixelDataOption == TagProcessingOption.DELETE));
+    }
+
+    /**
+     * Process and upload DICOM file in one pass: the output of the DicomProcessor is written directly into the PUT
+     * request. If the remote file already exists, the processed size is calculated (without storing the file) to
+     * verify the remote file. The caller must notify the start of the file.
+     * 
+     * @return true if the file has been uploaded or verified, false if streaming failed and the file must be processed
+     *         and uploaded the normal way.
+     */
+    protected boolean streamDicomFile(XnatSession session, XnatScan scan, final FSPath sourceFile, int scanNr, int fileNr,
+            String destFilename, FilesCollection fileCollections, PutMonitor putMonitor, UploadMonitorListener monitor)
+            throws Exception
+    {
+        final boolean keepPixelData = (dicomProcessor.getTagOption(Tag.PixelData) == TagProcessingOption.KEEP);
+        final DicomUtil.DicomRewriteHandler handler = createDicomRewriteHandler(sourceFile);
+
+        if (fileCollections.getFile(ImageFormatType.DICOM.toString(), destFilename) != null)
+        {
+            long size = DicomUtil.getRewrittenSize(sourceFile.toJavaFile(), keepPixelData, handler);
+
+            checkAndVerifyExisting(fileCollections, ImageFormatType.DICOM, sourceFile, size, destFilename, destFilename,
+                    getToolConfig().getAutoResumeAndVerifyUpload());
+
+            logger.infoPrintf("Remote DICOM file already exists: skip existing:%s\n", sourceFile);
+
+            if (monitor != null)
+            {
+                monitor.logPrintf("Verified: Remote DICOM file already exists and file sizes match for:\n - %s\n", sourceFile);
+            }
+
+            return true;
+        }
+
+        ImageFileInfo info = new ImageFileInfo(ImageFormatType.DICOM, ImageContentType.T1_RAW);
+        info.setDestinationFilename(destFilename);
+
+        logger.infoPrintf(">>> Streaming upload set['%s']#%d=%s\n", scan.getID(), fileNr, sourceFile);
+        logger.infoPrintf(" - > target filename=%s\n", destFilename);
+
+        try
+        {
+            String resultId = this.xnatClient.putDicomStream(session, scan, info, -1, new XnatClient.ContentWriter()
+            {
+                @Override
+                public void writeContent(OutputStream outps) throws Exception
+                {
+                    DicomUtil.rewriteDicom(sourceFile.toJavaFile(), outps, keepPixelData, handler);
+                }
+            }, putMonitor);
+
+            logger.debugPrintf(">>> result=%s\n", resultId);
+        }
+        catch (XnatClientException e)
+        {
+            // Processing or connection failed (HTTP errors are WebExceptions).
+            logger.logException(ClassLogger.WARN, e, "Streaming upload failed, using processed file instead:%s\n", sourceFile);
+            return false;
+        }
+
+        return true;
+    }
+
     protected void putDicomFile(XnatSession session, XnatScan scan, FSPath file, int fileNum, String targetFilename, PutMonitor putMonitor)
             throws Exception
     {
@@ -1845,8 +2656,26 @@ public class XnatTool implements ImageDirScannerListener
         }
     }
 
+    /**
+     * Whether to gzip a NIfTI file with the specified extension while uploading it.
+     */
+    protected boolean getUseCompressedNiftiUpload(String ext)
+    {
+        return getToolConfig().getCompressNiftiUpload() && ext.equalsIgnoreCase("nii");
+    }
+
     protected void putNiftiScanSetFile(XnatSession session, XnatScan scan, FSPath file, String targetFilename, PutMonitor putMonitor)
             throws Exception
+    {
+        putNiftiScanSetFile(session, scan, file, targetFilename, false, putMonitor);
+    }
+
+    /**
+     * @param compress
+     *            - gzip file while uploading, the target filename must have the ".gz" extension.
+     */
+    protected void putNiftiScanSetFile(XnatSession session, XnatScan scan, FSPath file, String targetFilename, boolean compress,
+            final PutMonitor putMonitor) throws Exception
     {
         ImageFileInfo info = new ImageFileInfo(ImageFormatType.NIFTI, ImageContentType.T1_RECON);
         info.setDestinationFilename(targetFilename);
@@ -1870,12 +2699,75 @@ public class XnatTool implements ImageDirScannerListener
             logger.infoPrintf(">>> Uploading Nifti ScanSet: %s\n", scan.getID(), file);
             logger.infoPrintf(" - > target filename=%s\n", info.getDestinationFilename());
 
-            String resultId = this.xnatClient.putNiftiScanFile(session, scanId, file.getPathname(), info, putMonitor);
+            String resultId;
+
+            if (compress)
+            {
+                final File sourceFile = file.toJavaFile();
+                final long gzipSize[] = new long[] {
+                        -1
+                };
+
+                // Compressed size is unknown: chunked upload. Progress is reported in uncompressed bytes.
+                resultId = this.xnatClient.putNiftiScanStream(session, scanId, info, -1, new XnatClient.MonitoredContentWriter()
+                {
+                    @Override
+                    public void writeContent(OutputStream outps, PutMonitor optPutMonitor) throws Exception
+                    {
+                        gzipSize[0] = writeGzippedContent(sourceFile, outps, optPutMonitor);
+                    }
+                }, putMonitor);
+
+                // upload completed: keep size to verify the remote file when resuming.
+                putUploadedSize(session, scan, targetFilename, sourceFile, gzipSize[0]);
+            }
+            else
+            {
+                resultId = this.xnatClient.putNiftiScanFile(session, scanId, file.getPathname(), info, putMonitor);
+            }
 
             logger.debugPrintf(">>> result=%s\n", resultId);
         }
     }
 
+    /**
+     * Gzip file into the (request) OutputStream using parallel compression. Does not close the OutputStream.
+     * 
+     * @return size of the gzipped content.
+     */
+    protected long writeGzippedContent(File sourceFile, OutputStream outps, PutMonitor optPutMonitor) throws IOException
+    {
+        InputStream inps = new FileInputStream(sourceFile);
+        ParallelGzipOutputStream gzipStream = new ParallelGzipOutputStream(outps);
+
+        try
+        {
+            byte buffer[] = new byte[ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE];
+            long numBytes = 0;
+            int numRead;
+
+            while ((numRead = inps.read(buffer)) >= 0)
+            {
+                gzipStream.write(buffer, 0, numRead);
+                numBytes += numRead;
+
+                if (optPutMonitor != null)
+                {
+                    optPutMonitor.bytesWritten(numBytes);
+                }
+            }
+
+            gzipStream.finish();
+
+            return gzipStream.getNumBytesWritten();
+        }
+        finally
+        {
+            gzipStream.dispose();
+            inps.close();
+        }
+    }
+
     protected void putNiftiReconstructionFile(XnatSession session, String reconId, FSPath file, String targetFilename, PutMonitor putMonitor)
             throws Exception
     {
@@ -1919,6 +2811,11 @@ public class XnatTool implements ImageDirScannerListener
         return fileName;
     }
 
+    protected static String createXnatDicomTargetArchiveName(String subjectLabel, String sessionLabel, String scanLabel)
+    {
+        return subjectLabel + "." + sessionLabel + "." + scanLabel + ".zip";
+    }
+
     protected static String createXnatNiftiTargetFileName(String subjectLabel, String sessionLabel, String scanLabel, String ext)
     {
         String fileName = subjectLabel + "." + sessionLabel + "." + scanLabel + "." + ext;
@@ -1943,6 +2840,22 @@ public class XnatTool implements ImageDirScannerListener
     {
         logger.debugPrintf("Processing dicom file:%s to:%s\n", sourceFile, destFilename);
 
+        // PixelData can only be streamed if it is kept or deleted.
+        TagProcessingOption pixelDataOption = dicomProcessor.getTagOption(Tag.PixelData);
+
+        if (getToolConfig().getStreamingDicomProcessing()
+                && ((pixelDataOption == TagProcessingOption.KEEP) || (pixelDataOption == TagProcessingOption.DELETE)))
+        {
+            try
+            {
+                return processFileStreaming(tmpDir, sourceFile, destFilename, (pixelDataOption == TagProcessingOption.KEEP));
+            }
+            catch (Exception e)
+            {
+                logger.logException(ClassLogger.WARN, e, "Streaming processing failed, reading complete file:%s\n", sourceFile);
+            }
+        }
+
         DicomWrapper wrap = DicomWrapper.readFrom(sourceFile.getURI());
 
         wrap.setIsModifyable(true);
@@ -1957,6 +2870,43 @@ public class XnatTool implements ImageDirScannerListener
         return destFile;
     }
 
+    /**
+     * Process dicom file without reading the PixelData into memory. Only the elements before and after the PixelData
+     * are processed, the PixelData is copied from the source to the destination file.
+     */
+    protected FSPath processFileStreaming(FSPath tmpDir, final FSPath sourceFile, String destFilename, boolean keepPixelData)
+            throws Exception
+    {
+        FSPath destFile = tmpDir.resolvePath(destFilename);
+
+        DicomUtil.rewriteDicom(sourceFile.toJavaFile(), destFile.toJavaFile(), keepPixelData, createDicomRewriteHandler(sourceFile));
+
+        return destFile;
+    }
+
+    /**
+     * Applies the DicomProcessor to the elements of a streamed Dicom file.
+     */
+    protected DicomUtil.DicomRewriteHandler createDicomRewriteHandler(final FSPath sourceFile)
+    {
+        return new DicomUtil.DicomRewriteHandler()
+        {
+            @Override
+            public void processElements(DicomObject dicom, boolean isHeader) throws Exception
+            {
+                DicomWrapper wrap = new DicomWrapper(dicom, sourceFile.getURI());
+                wrap.setIsModifyable(true);
+                dicomProcessor.process(wrap);
+
+                // File Meta Information is part of the header:
+                if (isHeader)
+                {
+                    wrap.performChecks(true);
+                }
+            }
+        };
+    }
+
     // ========================================================================
     // Utils
     // ========================================================================
@@ -2065,7 +3015,8 @@ public class XnatTool implements ImageDirScannerListener
         initDicomProcessor(dataSetConfig.dicomProcessingProfile);
 
         // clear DB Mapping!
-        this.dbMapping = null;
+        closeDBMapping();
+        closeUploadStateStore();
     }
 
     public List<String> getDataSetNames()
@@ -2220,6 +3171,8 @@ public class XnatTool implements ImageDirScannerListener
             this.dbMapping = null;
         }
 
+        closeUploadStateStore();
+
         if (this.dicomProcessor != null)
         {
             this.dicomProcessor.dispose();
@@ -2234,6 +3187,24 @@ public class XnatTool implements ImageDirScannerListener
         xnatClient.putMetaData(projectId, csvData, autoCreateSubjects, autoCreateSessions, uploadMonitor);
     }
 
+    /**
+     * Stream CSV file to the meta-data upload, the file is not loaded into memory first.
+     */
+    public void doUploadCSV(String projectId, URI csvFile, boolean autoCreateSubjects, boolean autoCreateSessions,
+            UploadMonitor uploadMonitor) throws IOException, WebException, XnatClientException
+    {
+        Reader reader = new BufferedReader(new InputStreamReader(csvFile.toURL().openStream(), "UTF-8"));
+
+        try
+        {
+            xnatClient.putMetaData(projectId, reader, autoCreateSubjects, autoCreateSessions, uploadMonitor);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
     // ==================
     // XnatCMD Interface
     // ==================
@@ -119,6 +119,40 @@ public class XnatToolConfig
 
     protected boolean getAutoResumeAndVerifyUpload = true;
 
+    /**
+     * Number of concurrent file uploads.
+     */
+    protected int numUploadThreads = 1;
+
+    /**
+     * Maximum number of bytes submitted to the upload workers but not yet uploaded.
+     */
+    protected long maxUploadBytesInFlight = 64 * 1024 * 1024;
+
+    /**
+     * Whether to process DICOM files by streaming the PixelData from source to destination file instead of reading
+     * the complete DICOM object into memory.
+     */
+    protected boolean streamingDicomProcessing = true;
+
+    /**
+     * Whether to upload processed DICOM files directly from the DicomProcessor into the HTTP PUT request without
+     * writing them to the cache directory. Only applies if keepProcessedDicomFile is false.
+     */
+    protected boolean streamingDicomUpload = true;
+
+    /**
+     * Whether to upload the DICOM files of a scan set as one ZIP archive, which is extracted by XNAT, instead of one
+     * request per file.
+     */
+    protected boolean batchUploadScanSets = false;
+
+    /**
+     * Whether to gzip uncompressed NIfTI (.nii) scan set files while uploading them. The remote file gets the
+     * ".nii.gz" extension.
+     */
+    protected boolean compressNiftiUpload = false;
+
     protected Secret xnatPassword = null;
 
     public XnatToolConfig()
@@ -344,6 +378,78 @@ public class XnatToolConfig
         getAutoResumeAndVerifyUpload = value;
     }
 
+    @JacksonXmlProperty(localName = "numUploadThreads")
+    public int getNumUploadThreads()
+    {
+        return numUploadThreads;
+    }
+
+    @JacksonXmlProperty(localName = "numUploadThreads")
+    public void setNumUploadThreads(int value)
+    {
+        numUploadThreads = value;
+    }
+
+    @JacksonXmlProperty(localName = "maxUploadBytesInFlight")
+    public long getMaxUploadBytesInFlight()
+    {
+        return maxUploadBytesInFlight;
+    }
+
+    @JacksonXmlProperty(localName = "maxUploadBytesInFlight")
+    public void setMaxUploadBytesInFlight(long value)
+    {
+        maxUploadBytesInFlight = value;
+    }
+
+    @JacksonXmlProperty(localName = "streamingDicomProcessing")
+    public boolean getStreamingDicomProcessing()
+    {
+        return streamingDicomProcessing;
+    }
+
+    @JacksonXmlProperty(localName = "streamingDicomProcessing")
+    public void setStreamingDicomProcessing(boolean value)
+    {
+        streamingDicomProcessing = value;
+    }
+
+    @JacksonXmlProperty(localName = "streamingDicomUpload")
+    public boolean getStreamingDicomUpload()
+    {
+        return streamingDicomUpload;
+    }
+
+    @JacksonXmlProperty(localName = "streamingDicomUpload")
+    public void setStreamingDicomUpload(boolean value)
+    {
+        streamingDicomUpload = value;
+    }
+
+    @JacksonXmlProperty(localName = "batchUploadScanSets")
+    public boolean getBatchUploadScanSets()
+    {
+        return batchUploadScanSets;
+    }
+
+    @JacksonXmlProperty(localName = "batchUploadScanSets")
+    public void setBatchUploadScanSets(boolean value)
+    {
+        batchUploadScanSets = value;
+    }
+
+    @JacksonXmlProperty(localName = "compressNiftiUpload")
+    public boolean getCompressNiftiUpload()
+    {
+        return compressNiftiUpload;
+    }
+
+    @JacksonXmlProperty(localName = "compressNiftiUpload")
+    public void setCompressNiftiUpload(boolean value)
+    {
+        compressNiftiUpload = value;
+    }
+
     @JsonIgnore
     public WebConfig getWebConfig()
     {
@@ -573,12 +573,8 @@ public class XnatToolPanelController implements ActionListener, ImageDirScannerL
 
         try
         {
-            final CSVData reader = new CSVData();
-            reader.setFieldSeparators(new String[]
-            {
-                    ",", ";"
-            });
-            reader.readFile(file);
+            // CSV file is streamed during the upload:
+            final URI csvFile = file;
 
             final UploadMonitor uploadMonitor = new UploadMonitor(this);
 
@@ -590,7 +586,7 @@ public class XnatToolPanelController implements ActionListener, ImageDirScannerL
                 {
                     try
                     {
-                        xnatTool.doUploadCSV(projectId, reader, true, true, uploadMonitor);
+                        xnatTool.doUploadCSV(projectId, csvFile, true, true, uploadMonitor);
                     }
                     catch (Throwable t)
                     {
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+
+package nl.esciencecenter.xnattool.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip OutputStream which compresses blocks of the input in parallel (like pigz). Each block is deflated separately,
+ * using the last 32k of the previous block as dictionary, and ends with a sync flush so the compressed blocks can be
+ * concatenated into one deflate stream. The result is a normal single member gzip file.<br>
+ * The output only depends on the input, the block size and the compression level, not on the number of threads. The
+ * number of blocks being compressed is limited, so memory usage is bounded.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Maximum deflate window size.
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * Gzip header: magic, CM=deflate, no flags, no mtime, no extra flags, OS=unknown.
+     */
+    private static final byte GZIP_HEADER[] = {
+            0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private static final AtomicInteger threadNr = new AtomicInteger();
+
+    /**
+     * Deflate a single block, returns the compressed bytes.
+     */
+    protected static class BlockDeflater implements Callable<byte[]>
+    {
+        private byte block[];
+
+        private int len;
+
+        private byte dictionary[];
+
+        private boolean last;
+
+        private int level;
+
+        protected BlockDeflater(byte block[], int len, byte dictionary[], boolean last, int level)
+        {
+            this.block = block;
+            this.len = len;
+            this.dictionary = dictionary;
+            this.last = last;
+            this.level = level;
+        }
+
+        @Override
+        public byte[] call()
+        {
+            // raw deflate, the gzip header and trailer are written by the stream.
+            Deflater deflater = new Deflater(level, true);
+
+            try
+            {
+                if (dictionary != null)
+                {
+                    deflater.setDictionary(dictionary);
+                }
+
+                deflater.setInput(block, 0, len);
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 2 + 64);
+                byte buf[] = new byte[64 * 1024];
+
+                if (last)
+                {
+                    deflater.finish();
+
+                    while (deflater.finished() == false)
+                    {
+                        int numBytes = deflater.deflate(buf);
+                        bos.write(buf, 0, numBytes);
+                    }
+                }
+                else
+                {
+                    int numBytes;
+
+                    // sync flush: ends on a byte boundary and doesn't set the final block bit.
+                    do
+                    {
+                        numBytes = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                        bos.write(buf, 0, numBytes);
+                    }
+                    while (numBytes == buf.length);
+                }
+
+                return bos.toByteArray();
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+    }
+
+    // ========================================================================
+    // Instance
+    // ========================================================================
+
+    private ExecutorService executor;
+
+    private int level;
+
+    private int blockSize;
+
+    private byte block[];
+
+    private int blockLen = 0;
+
+    /**
+     * Last (uncompressed) bytes of the previous block.
+     */
+    private byte dictionary[];
+
+    /**
+     * Blocks being compressed, in output order.
+     */
+    private ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    private int maxPending;
+
+    private CRC32 crc = new CRC32();
+
+    private long numBytesIn = 0;
+
+    private long numBytesOut = 0;
+
+    private boolean finished = false;
+
+    private boolean closed = false;
+
+    /**
+     * Create stream with the default compression level and block size, using one thread per processor.
+     */
+    public ParallelGzipOutputStream(OutputStream out) throws IOException
+    {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param level
+     *            - Deflater compression level.
+     * @param blockSize
+     *            - size of the uncompressed blocks, at least 32k.
+     * @param numThreads
+     *            - number of compression threads. Use 1 to compress in the writing thread.
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int numThreads) throws IOException
+    {
+        super(out);
+
+        if (blockSize < DICTIONARY_SIZE)
+        {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE + ":" + blockSize);
+        }
+
+        this.level = level;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        // keep all threads busy while the oldest block is written.
+        this.maxPending = 2 * Math.max(1, numThreads);
+
+        if (numThreads > 1)
+        {
+            this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "ParallelGzip-" + threadNr.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        writeOut(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] {
+                (byte) b
+        }, 0, 1);
+    }
+
+    @Override
+    public void write(byte bytes[], int offset, int len) throws IOException
+    {
+        if (finished)
+        {
+            throw new IOException("Stream already finished");
+        }
+
+        while (len > 0)
+        {
+            int numBytes = Math.min(len, blockSize - blockLen);
+            System.arraycopy(bytes, offset, block, blockLen, numBytes);
+            blockLen += numBytes;
+            offset += numBytes;
+            len -= numBytes;
+
+            if (blockLen == blockSize)
+            {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks which have been compressed. Blocks are only compressed when they are full or when the stream
+     * is closed, so this doesn't flush buffered input.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        while ((pending.isEmpty() == false) && pending.peekFirst().isDone())
+        {
+            writeNextBlock();
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining input and writes the gzip trailer without closing the underlying stream.
+     */
+    public void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+
+        finished = true;
+
+        try
+        {
+            submitBlock(true);
+
+            while (pending.isEmpty() == false)
+            {
+                writeNextBlock();
+            }
+
+            writeIntLE((int) crc.getValue());
+            // ISIZE: size modulo 2^32.
+            writeIntLE((int) numBytesIn);
+            out.flush();
+        }
+        finally
+        {
+            dispose();
+        }
+    }
+
+    /**
+     * @return number of compressed bytes written to the underlying stream so far, after finish() this is the size of
+     *         the gzip file.
+     */
+    public long getNumBytesWritten()
+    {
+        return numBytesOut;
+    }
+
+    /**
+     * Stops the compression threads without finishing the stream, for example after a write error. The stream can't be
+     * used anymore.
+     */
+    public void dispose()
+    {
+        finished = true;
+
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+
+        pending.clear();
+    }
+
+    /**
+     * Finishes the gzip stream and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException
+    {
+        crc.update(block, 0, blockLen);
+        numBytesIn += blockLen;
+
+        BlockDeflater task = new BlockDeflater(block, blockLen, dictionary, last, level);
+
+        if (last == false)
+        {
+            // blocks are full, so the dictionary is the end of this block.
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(block, blockLen - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+            block = new byte[blockSize];
+        }
+
+        blockLen = 0;
+
+        if (executor != null)
+        {
+            pending.add(executor.submit(task));
+        }
+        else
+        {
+            writeOut(task.call());
+        }
+
+        while (pending.size() > maxPending)
+        {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException
+    {
+        Future<byte[]> future = pending.removeFirst();
+
+        try
+        {
+            writeOut(future.get());
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Compression failed:" + e.getCause().getMessage(), e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        }
+    }
+
+    private void writeIntLE(int value) throws IOException
+    {
+        writeOut(new byte[] {
+                (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)
+        });
+    }
+
+    private void writeOut(byte bytes[]) throws IOException
+    {
+        out.write(bytes);
+        numBytesOut += bytes.length;
+    }
+
+}
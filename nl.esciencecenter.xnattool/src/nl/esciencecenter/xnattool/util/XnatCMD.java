@@ -40,13 +40,14 @@ import nl.esciencecenter.ptk.util.logging.ClassLogger;
 import nl.esciencecenter.ptk.web.ResponseInputStream;
 import nl.esciencecenter.ptk.xml.XmlUtil;
 import nl.esciencecenter.xnatclient.XnatClient;
-import nl.esciencecenter.xnatclient.XnatClient.FilesCollection;
+import nl.esciencecenter.xnatclient.XnatListIterator;
 import nl.esciencecenter.xnatclient.data.XnatFile;
 import nl.esciencecenter.xnatclient.data.XnatProject;
 import nl.esciencecenter.xnatclient.data.XnatReconstruction;
 import nl.esciencecenter.xnatclient.data.XnatScan;
 import nl.esciencecenter.xnatclient.data.XnatSession;
 import nl.esciencecenter.xnatclient.data.XnatSubject;
+import nl.esciencecenter.xnatclient.data.XnatTypes.XnatResourceType;
 import nl.esciencecenter.xnattool.XnatTool;
 import nl.esciencecenter.xnattool.XnatToolConfig;
 
@@ -100,6 +101,10 @@ public class XnatCMD
 
     static StringList scanIds;
 
+    static int copyThreads = -1;
+
+    static int maxDestUploads = -1;
+
     public static void printUsage()
     {
         System.out.println("usage: [global options] <command> [command options] <xnatUri> [extra options]\n"
@@ -152,6 +157,8 @@ public class XnatCMD
                 + "    -dprj  | -destProject <project>        ; destination project \n"
                 + "    -djsid | -destJSessionID <jsession id> ; destination JSESSIONID.\n"
                 + "    -subs  | -subjectLabels  <subjects>    ; list of subject labels to copy.\n"
+                + "    -nt    | -numThreads <num>             ; number of subjects/sessions to copy concurrently.\n"
+                + "    -mu    | -maxUploads <num>             ; maximum number of concurrent file uploads to destination.\n"
                 //
 
                 );
@@ -345,6 +352,18 @@ public class XnatCMD
                     index++;
                     continue;
                 }
+                else if (StringUtil.equals(arg1, "-nt", "-numThreads"))
+                {
+                    copyThreads = Integer.parseInt(arg2);
+                    index++;
+                    continue;
+                }
+                else if (StringUtil.equals(arg1, "-mu", "-maxUploads"))
+                {
+                    maxDestUploads = Integer.parseInt(arg2);
+                    index++;
+                    continue;
+                }
                 else if (arg1.equals("-dest") || arg1.equals("-destFile"))
                 {
                     destFile = arg2;
@@ -677,11 +696,12 @@ public class XnatCMD
                     continue;
                 }
 
-                // continue with subjects:
-                List<XnatSubject> subs = client.listSubjects(projId);
+                // continue with subjects, listed lazily so output starts with the first subject:
+                XnatListIterator<XnatSubject> subs = client.iterateSubjects(projId);
 
-                for (XnatSubject sub : subs)
+                while (subs.hasNext())
                 {
+                    XnatSubject sub = subs.next();
                     String subLabel = sub.getLabel();
                     // check subjects:
                     if ((subjectLabels != null) && (subjectLabels.size() > 0))
@@ -693,62 +713,44 @@ public class XnatCMD
                     }
 
                     outPrintf("%s/subject/%s/\n", projId, subLabel);
-                    List<XnatSession> sess = client.listSessions(sub);
 
                     if (recurse == true)
                     {
+                        XnatListIterator<XnatSession> sess = client.iterateSessions(sub);
+
                         // continue with rest:
-                        for (XnatSession ses : sess)
+                        while (sess.hasNext())
                         {
+                            XnatSession ses = sess.next();
                             String sesLabel = ses.getLabel();
                             outPrintf("%s/subject/%s/session/%s\n", projId, subLabel, sesLabel);
-                            List<XnatScan> scans = client.listScans(ses);
+                            XnatListIterator<XnatScan> scans = client.iterateScans(ses);
 
-                            for (XnatScan scan : scans)
+                            while (scans.hasNext())
                             {
-                                String scanId = scan.getID();
-                                outPrintf("%s/subject/%s/session/%s/scans/%s\n", projId, subLabel, sesLabel, scanId);
+                                String scanId = scans.next().getID();
+                                String scanPath = projId + "/subject/" + subLabel + "/session/" + sesLabel + "/scans/" + scanId;
+                                outPrintf("%s\n", scanPath);
 
                                 if (listFiles)
                                 {
-                                    FilesCollection collection = client.listScanFiles(ses, scanId);
-                                    for (String label : collection.keySet())
-                                    {
-                                        outPrintf("%s/subject/%s/session/%s/scans/%s/files/%s\n", projId, subLabel, sesLabel, scanId, label);
-
-                                        for (XnatFile file : collection.getFileList(label))
-                                        {
-                                            printFile("   ", file);
-                                        }
-                                    }
+                                    printFiles(scanPath, client.iterateResourceFiles(ses, XnatResourceType.SCAN, scanId));
                                 }
-
                             }
 
-                            List<XnatReconstruction> recons = client.listReconstructions(ses);
+                            XnatListIterator<XnatReconstruction> recons = client.iterateReconstructions(ses);
 
-                            for (XnatReconstruction recon : recons)
+                            while (recons.hasNext())
                             {
-                                String reconId = recon.getID();
-                                recon.getID();
-                                outPrintf("%s/subject/%s/session/%s/reconstructions/%s\n", projId, subLabel, sesLabel, reconId);
+                                String reconId = recons.next().getID();
+                                String reconPath = projId + "/subject/" + subLabel + "/session/" + sesLabel + "/reconstructions/"
+                                        + reconId;
+                                outPrintf("%s\n", reconPath);
 
                                 if (listFiles)
                                 {
-                                    FilesCollection collection = client.listReconstructionFiles(ses, reconId);
-
-                                    for (String label : collection.keySet())
-                                    {
-                                        outPrintf("%s/subject/%s/session/%s/reconstructions/%s/files/%s\n", projId, subLabel, sesLabel,
-                                                reconId, label);
-
-                                        for (XnatFile file : collection.getFileList(label))
-                                        {
-                                            printFile("   ", file);
-                                        }
-                                    }
+                                    printFiles(reconPath, client.iterateResourceFiles(ses, XnatResourceType.RECONSTRUCTION, reconId));
                                 }
-
                             }
 
                         }
@@ -760,6 +762,28 @@ public class XnatCMD
         return 0;
     }
 
+    /**
+     * Print files while they are being listed. A collection label is printed when the collection changes.
+     */
+    public static void printFiles(String resourcePath, XnatListIterator<XnatFile> files) throws Exception
+    {
+        String label = null;
+
+        while (files.hasNext())
+        {
+            XnatFile file = files.next();
+            String collection = (file.getCollection() != null) ? file.getCollection() : "";
+
+            if (collection.equals(label) == false)
+            {
+                label = collection;
+                outPrintf("%s/files/%s\n", resourcePath, label);
+            }
+
+            printFile("   ", file);
+        }
+    }
+
     public static void printFile(String prefix, XnatFile file)
     {
         String sizeStr = Presentation.createSizeString(file.getFileSize(), true, 2, 2);
@@ -783,6 +807,16 @@ public class XnatCMD
             xnatCopy.setDestCredentials(optDestConf.getXnatUser(), destXnatPasswd);
             xnatCopy.setSubjectLabels(subjects);
 
+            if (copyThreads > 0)
+            {
+                xnatCopy.setNumThreads(copyThreads);
+            }
+
+            if (maxDestUploads > 0)
+            {
+                xnatCopy.setMaxDestUploads(maxDestUploads);
+            }
+
             if (useUI)
             {
                 xnatCopy.setUI(new SimpelUI());
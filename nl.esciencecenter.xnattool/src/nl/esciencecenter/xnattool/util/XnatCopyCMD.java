@@ -29,6 +29,7 @@ import nl.esciencecenter.ptk.util.logging.ClassLogger;
 import nl.esciencecenter.ptk.web.WebConfig;
 import nl.esciencecenter.ptk.web.WebException;
 import nl.esciencecenter.xnatclient.XnatCopy;
+import nl.esciencecenter.xnatclient.XnatCopy.CopyStats;
 import nl.esciencecenter.xnatclient.XnatCopy.FileStats;
 import nl.esciencecenter.xnatclient.XnatCopyMonitor;
 import nl.esciencecenter.xnatclient.data.XnatTypes.ImageFormatType;
@@ -46,7 +47,9 @@ public class XnatCopyCMD
     {
         protected XnatCopy xnatCopy;
 
-        protected boolean stop = false;
+        protected volatile boolean stop = false;
+
+        protected long lastBytesTransferred = 0;
 
         public XnatCopyMonitorAdaptor(XnatCopy xnatCopy)
         {
@@ -99,11 +102,25 @@ public class XnatCopyCMD
 
         protected void updateStats()
         {
-            FileStats stats = xnatCopy.getCurrentFileStats();
-            if (stats.started == true)
+            CopyStats stats = xnatCopy.getCopyStats();
+
+            for (FileStats fileStats : stats.activeFiles)
+            {
+                if ((fileStats.started == true) && (fileStats.done == false))
+                {
+                    infoPrintf(" - %s: Copied %s out of %s\n", fileStats.fileName, fileStats.bytesTransferred, fileStats.fileSize);
+                }
+            }
+
+            // only report totals when something changed:
+            if ((stats.activeFiles.size() > 0) || (stats.bytesTransferred != lastBytesTransferred))
             {
-                infoPrintf(" - %s: Copied %s out of %s\n", stats.fileName, stats.bytesTransferred, stats.fileSize);
+                infoPrintf(" = Files done:%d, failed:%d, active:%d. Copied %d bytes in %.1fs (%.1f KB/s)\n", stats.numFilesDone,
+                        stats.numFilesFailed, stats.activeFiles.size(), stats.bytesTransferred, stats.elapsedTime / 1000.0,
+                        stats.getThroughput() / 1024.0);
             }
+
+            lastBytesTransferred = stats.bytesTransferred;
         }
     }
 
@@ -221,6 +238,12 @@ public class XnatCopyCMD
         {
             throw e;
         }
+        finally
+        {
+            stoptMonitor();
+            // final totals:
+            monitor.updateStats();
+        }
 
     }
 
@@ -235,6 +258,22 @@ public class XnatCopyCMD
         this.monitor.stop();
     }
 
+    /**
+     * Set number of subjects and sessions which are copied concurrently.
+     */
+    public void setNumThreads(int numThreads)
+    {
+        xnatCopy.setNumThreads(numThreads);
+    }
+
+    /**
+     * Set maximum number of concurrent file transfers to the destination.
+     */
+    public void setMaxDestUploads(int maxUploads)
+    {
+        xnatCopy.setMaxDestUploads(maxUploads);
+    }
+
     public void setVerbose(boolean verbose)
     {
         this.verbose = verbose;
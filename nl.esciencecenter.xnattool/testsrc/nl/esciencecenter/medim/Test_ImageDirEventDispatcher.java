@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+package nl.esciencecenter.medim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_ImageDirEventDispatcher
+{
+    /**
+     * Listener which collects the events. Optionally waits for a latch before handling the first event.
+     */
+    public static class CollectingListener implements ImageDirScannerListener
+    {
+        protected List<ImageDirEvent> events = Collections.synchronizedList(new ArrayList<ImageDirEvent>());
+
+        protected CountDownLatch latch;
+
+        public CollectingListener(CountDownLatch optLatch)
+        {
+            this.latch = optLatch;
+        }
+
+        @Override
+        public void notifyImageDirScannerEvent(ImageDirEvent e)
+        {
+            try
+            {
+                if (latch != null)
+                {
+                    latch.await();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            events.add(e);
+        }
+
+        public int count(ImageDirEventType type)
+        {
+            int num = 0;
+
+            synchronized (events)
+            {
+                for (ImageDirEvent e : events)
+                {
+                    if (e.eventType == type)
+                    {
+                        num++;
+                    }
+                }
+            }
+
+            return num;
+        }
+    }
+
+    protected ImageDirEventDispatcher createDispatcher(ImageDirScannerListener listener)
+    {
+        List<ImageDirScannerListener> listeners = new ArrayList<ImageDirScannerListener>();
+        listeners.add(listener);
+        return new ImageDirEventDispatcher(null, listeners);
+    }
+
+    @Test
+    public void testOrderAndFlush() throws Exception
+    {
+        CollectingListener listener = new CollectingListener(null);
+        ImageDirEventDispatcher dispatcher = createDispatcher(listener);
+
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.STARTING, "start"));
+
+        for (int i = 0; i < 100; i++)
+        {
+            dispatcher.post(new ImageDirEvent(null, ImageDirEventType.NEW_SCANSET, "scanset" + i));
+        }
+
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.IS_DONE, "done"));
+        dispatcher.flush();
+
+        Assert.assertEquals(102, listener.events.size());
+        Assert.assertEquals(ImageDirEventType.STARTING, listener.events.get(0).eventType);
+
+        for (int i = 0; i < 100; i++)
+        {
+            Assert.assertEquals("scanset" + i, listener.events.get(i + 1).identifierOrMessage);
+        }
+
+        Assert.assertEquals(ImageDirEventType.IS_DONE, listener.events.get(101).eventType);
+    }
+
+    @Test
+    public void testPostDoesNotBlock() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(1);
+        CollectingListener listener = new CollectingListener(latch);
+        ImageDirEventDispatcher dispatcher = createDispatcher(listener);
+        dispatcher.setCapacity(10);
+
+        // listener is blocked:
+        for (int i = 0; i < 1000; i++)
+        {
+            dispatcher.post(new ImageDirEvent(null, ImageDirEventType.UPDATE_STATS, "file" + i));
+            dispatcher.post(new ImageDirEvent(null, ImageDirEventType.ENTER_DIRECTORY, "dir" + i));
+            dispatcher.post(new ImageDirEvent(null, ImageDirEventType.MESSAGE, "message" + i));
+        }
+
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.NEW_SCANSET, "scanset"));
+
+        latch.countDown();
+        dispatcher.flush();
+
+        Assert.assertEquals("Other events may not be dropped", 1, listener.count(ImageDirEventType.NEW_SCANSET));
+        Assert.assertTrue("Stats events must be coalesced", listener.count(ImageDirEventType.UPDATE_STATS) <= 2);
+        Assert.assertTrue("Directory events must be coalesced", listener.count(ImageDirEventType.ENTER_DIRECTORY) <= 2);
+        // at most capacity + 1 being delivered + 1 skipped message.
+        Assert.assertTrue("Messages must be dropped", listener.count(ImageDirEventType.MESSAGE) <= 12);
+
+        // last stats event is always delivered:
+        boolean lastStats = false;
+
+        for (ImageDirEvent e : listener.events)
+        {
+            lastStats |= "file999".equals(e.identifierOrMessage);
+        }
+
+        Assert.assertTrue("Last stats event must be delivered", lastStats);
+    }
+
+    @Test
+    public void testPendingEventsBeforeDone() throws Exception
+    {
+        CollectingListener listener = new CollectingListener(null);
+        ImageDirEventDispatcher dispatcher = createDispatcher(listener);
+        // coalesced events are not delivered before IS_DONE unless flushed:
+        dispatcher.setUpdateInterval(60000);
+
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.UPDATE_STATS, "stats1"));
+        dispatcher.flush();
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.EXIT_DIRECTORY, "dir"));
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.UPDATE_STATS, "stats2"));
+        dispatcher.post(new ImageDirEvent(null, ImageDirEventType.IS_DONE, "done"));
+        dispatcher.flush();
+
+        int size = listener.events.size();
+        Assert.assertEquals(ImageDirEventType.IS_DONE, listener.events.get(size - 1).eventType);
+        Assert.assertEquals("stats2", listener.events.get(size - 2).identifierOrMessage);
+        Assert.assertEquals("dir", listener.events.get(size - 3).identifierOrMessage);
+    }
+
+    @Test
+    public void testOrderedEventsBounded() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        CollectingListener listener = new CollectingListener(latch);
+        final ImageDirEventDispatcher dispatcher = createDispatcher(listener);
+        dispatcher.setCapacity(10);
+
+        Thread poster = new Thread()
+        {
+            public void run()
+            {
+                for (int i = 0; i < 100; i++)
+                {
+                    dispatcher.post(new ImageDirEvent(null, ImageDirEventType.NEW_SCANSET, "scanset" + i));
+                }
+            }
+        };
+
+        poster.start();
+        // listener is blocked, so the poster must wait:
+        poster.join(500);
+        Assert.assertTrue("Post must wait when the queue is full", poster.isAlive());
+
+        latch.countDown();
+        poster.join(10000);
+        Assert.assertFalse(poster.isAlive());
+        dispatcher.flush();
+
+        Assert.assertEquals("Other events may not be dropped", 100, listener.count(ImageDirEventType.NEW_SCANSET));
+    }
+
+    @Test
+    public void testUpdateInterval() throws Exception
+    {
+        CollectingListener listener = new CollectingListener(null);
+        ImageDirEventDispatcher dispatcher = createDispatcher(listener);
+        dispatcher.setUpdateInterval(1000);
+
+        long start = System.currentTimeMillis();
+
+        while (System.currentTimeMillis() - start < 300)
+        {
+            dispatcher.post(new ImageDirEvent(null, ImageDirEventType.UPDATE_STATS, "stats"));
+            Thread.sleep(1);
+        }
+
+        Assert.assertTrue("Stats events must be rate limited", listener.count(ImageDirEventType.UPDATE_STATS) <= 1);
+        dispatcher.flush();
+        Assert.assertTrue(listener.count(ImageDirEventType.UPDATE_STATS) <= 2);
+    }
+
+}
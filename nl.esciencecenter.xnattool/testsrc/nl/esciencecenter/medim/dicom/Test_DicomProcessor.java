@@ -20,6 +20,12 @@
 package nl.esciencecenter.medim.dicom;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import nl.esciencecenter.medim.dicom.DicomProcessor;
 import nl.esciencecenter.medim.dicom.DicomUtil;
@@ -367,4 +373,126 @@ public class Test_DicomProcessor
 
     }
 
+    @Test
+    public void testConcurrentProcessing() throws Exception
+    {
+        String dicomConfig = "Group,Element,VR,Name,Keep,Option\n"
+                + "0x0010,0x0020,LO,\"Patient ID\",1,ENCRYPT_HASH\n"
+                + "0x0020,0x000D,UI,\"Study Instance UID\",1,ENCRYPT_HASH_UID\n";
+
+        DicomTags tags = DicomTags.createFromText(dicomConfig);
+        final DicomProcessor defProc = new DicomProcessor(tags, DicomTestUtil.createDefaultProcOpts("testid", "12345"));
+
+        int numThreads = 4;
+        final int numFiles = 100;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread threads[] = new Thread[numThreads];
+
+        for (int i = 0; i < numThreads; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < numFiles; j++)
+                        {
+                            DicomWrapper dummy = DicomTestUtil.createDummyDicom();
+                            dummy.setTag(Tag.PatientID, "patientId");
+                            dummy.setTag(Tag.StudyInstanceUID, "1.2.3.4.5");
+                            defProc.process(dummy);
+
+                            Assert.assertEquals("srW4c6dtlalKhcQjM3UOFTa9ZwklOqn6CBLe7angDTQ=", dummy.getStringValue(Tag.PatientID));
+                            Assert.assertEquals("99.4172487386883469284013742100485763316631486852937852953349",
+                                    dummy.getStringValue(Tag.StudyInstanceUID));
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        Assert.assertEquals("Concurrent processing failed:" + errors, 0, errors.size());
+        Assert.assertFalse("DicomProcessor must not be active after processing.", defProc.hasStarted());
+    }
+
+    @Test
+    public void testUpdateKeyInPlace() throws Exception
+    {
+        String dicomConfig = "Group,Element,VR,Name,Keep,Option\n"
+                + "0x0010,0x0020,LO,\"Patient ID\",1,ENCRYPT\n";
+
+        DicomTags tags = DicomTags.createFromText(dicomConfig);
+        DicomProcessingProfile procOpts = DicomTestUtil.createDefaultProcOpts("testid", "12345");
+        final DicomProcessor defProc = new DicomProcessor(tags, procOpts);
+
+        // other thread with its own crypter:
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Callable<String> task = new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                DicomWrapper dummy = DicomTestUtil.createDummyDicom();
+                dummy.setTag(Tag.PatientID, "patientIdValue");
+                defProc.process(dummy);
+                return dummy.getStringValue(Tag.PatientID);
+            }
+        };
+
+        try
+        {
+            Assert.assertEquals("XP6jSIrgIQJfCdRLTgelpw==", executor.submit(task).get());
+
+            // update key of the same profile object:
+            procOpts.setEncryptionKey(DicomTestUtil.createDefaultProcOpts("testid", "54321").getEncryptionKey());
+            defProc.updateProcessingOptions(procOpts);
+
+            DicomProcessor newProc = new DicomProcessor(tags, DicomTestUtil.createDefaultProcOpts("testid", "54321"));
+            DicomWrapper expected = DicomTestUtil.createDummyDicom();
+            expected.setTag(Tag.PatientID, "patientIdValue");
+            newProc.process(expected);
+
+            Assert.assertEquals("Other threads must use the updated key.", expected.getStringValue(Tag.PatientID), executor.submit(task)
+                    .get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testValueCache() throws Exception
+    {
+        String dicomConfig = "Group,Element,VR,Name,Keep,Option\n"
+                + "0x0020,0x000D,UI,\"Study Instance UID\",1,ENCRYPT_HASH_UID\n";
+
+        DicomTags tags = DicomTags.createFromText(dicomConfig);
+        DicomProcessor defProc = new DicomProcessor(tags, DicomTestUtil.createDefaultProcOpts("testid", "12345"));
+
+        for (int i = 0; i < 10; i++)
+        {
+            testProcessStringTag(defProc, "1.2.3.4.5", Tag.StudyInstanceUID,
+                    "99.4172487386883469284013742100485763316631486852937852953349", 61);
+        }
+
+        Assert.assertEquals("Only first value may be a cache miss.", 1, defProc.getValueCache().getNumMisses());
+        Assert.assertEquals("Repeated values must be cache hits.", 9, defProc.getValueCache().getNumHits());
+
+        // new options must wipe the cache:
+        defProc.updateProcessingOptions(DicomTestUtil.createDefaultProcOpts("testid", "54321"));
+        Assert.assertEquals("Cache must be cleared after updating the processing options.", 0, defProc.getValueCache().size());
+    }
+
 }
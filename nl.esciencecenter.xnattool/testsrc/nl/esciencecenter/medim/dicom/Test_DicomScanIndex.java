@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2014 Netherlands eScience Center.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at the following location:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For the full license, see: LICENSE.txt (located in the root folder of this distribution).
+ * ---
+ */
+// source:
+package nl.esciencecenter.medim.dicom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_DicomScanIndex
+{
+    protected static int tags[] = {
+            Tag.SeriesInstanceUID, Tag.PatientName, Tag.InstanceNumber, Tag.RepetitionTime, Tag.ImagePositionPatient
+    };
+
+    protected File createIndexFile() throws IOException
+    {
+        File file = File.createTempFile("scanindex", ".db");
+        file.deleteOnExit();
+        file.delete();
+        return file;
+    }
+
+    protected DicomObject createHeader(int instanceNr)
+    {
+        DicomObject dicom = new BasicDicomObject();
+        dicom.putString(Tag.SeriesInstanceUID, VR.UI, "1.2.3.4");
+        dicom.putString(Tag.PatientName, VR.PN, "Doe^John");
+        dicom.putInt(Tag.InstanceNumber, VR.IS, instanceNr);
+        dicom.putDoubles(Tag.ImagePositionPatient, VR.DS, new double[] {
+                1.5, -2.25, 3
+        });
+        // RepetitionTime not present.
+        return dicom;
+    }
+
+    @Test
+    public void testReloadIndex() throws Exception
+    {
+        File file = createIndexFile();
+
+        DicomScanIndex index = new DicomScanIndex(file, tags);
+        index.putHeader("/data/slice1.dcm", 1000, 2000, createHeader(1));
+        index.putHeader("/data/slice2.dcm", 1000, 2000, createHeader(2));
+        index.putInvalid("/data/readme.dcm", 10, 2000, DicomScanIndex.RECORD_NO_MAGIC);
+        index.close();
+
+        DicomScanIndex reloaded = new DicomScanIndex(file, tags);
+        Assert.assertEquals(3, reloaded.size());
+
+        DicomScanIndex.Entry entry = reloaded.get("/data/slice2.dcm", 1000, 2000);
+        Assert.assertNotNull(entry);
+        Assert.assertTrue(entry.isDicom());
+
+        DicomObject header = reloaded.createDicomObject(entry);
+        DicomObject expected = createHeader(2);
+
+        for (int tag : tags)
+        {
+            Assert.assertEquals("Tag must have same value:" + tag, expected.getString(tag), header.getString(tag));
+        }
+        Assert.assertNull(header.get(Tag.RepetitionTime));
+        Assert.assertTrue(Arrays.equals(expected.getDoubles(Tag.ImagePositionPatient), header.getDoubles(Tag.ImagePositionPatient)));
+
+        Assert.assertEquals(DicomScanIndex.RECORD_NO_MAGIC, reloaded.get("/data/readme.dcm", 10, 2000).getType());
+        reloaded.close();
+    }
+
+    @Test
+    public void testChangedFile() throws Exception
+    {
+        File file = createIndexFile();
+
+        DicomScanIndex index = new DicomScanIndex(file, tags);
+        index.putHeader("/data/slice1.dcm", 1000, 2000, createHeader(1));
+        Assert.assertNull("Changed size must not match", index.get("/data/slice1.dcm", 1001, 2000));
+        Assert.assertNull("Changed modification time must not match", index.get("/data/slice1.dcm", 1000, 2001));
+
+        // update
+        index.putHeader("/data/slice1.dcm", 1001, 2001, createHeader(3));
+        index.close();
+
+        index = new DicomScanIndex(file, tags);
+        Assert.assertEquals(1, index.size());
+        DicomObject header = index.createDicomObject(index.get("/data/slice1.dcm", 1001, 2001));
+        Assert.assertEquals(3, header.getInt(Tag.InstanceNumber));
+        index.close();
+    }
+
+    @Test
+    public void testChangedTags() throws Exception
+    {
+        File file = createIndexFile();
+
+        DicomScanIndex index = new DicomScanIndex(file, tags);
+        index.putHeader("/data/slice1.dcm", 1000, 2000, createHeader(1));
+        index.close();
+
+        int otherTags[] = Arrays.copyOf(tags, tags.length + 1);
+        otherTags[tags.length] = Tag.Modality;
+
+        index = new DicomScanIndex(file, otherTags);
+        Assert.assertEquals("Index with other tags must be discarded", 0, index.size());
+        index.close();
+    }
+
+    @Test
+    public void testIncompleteRecordAndRetain() throws Exception
+    {
+        File file = createIndexFile();
+
+        DicomScanIndex index = new DicomScanIndex(file, tags);
+        index.putHeader("/data/slice1.dcm", 1000, 2000, createHeader(1));
+        index.putHeader("/data/slice2.dcm", 1000, 2000, createHeader(2));
+        index.close();
+
+        // simulate crash while appending:
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("\"D\";\"/data/slice3.dcm\";\"1000\";\"20".getBytes("UTF-8"));
+        out.close();
+
+        index = new DicomScanIndex(file, tags);
+        Assert.assertEquals(2, index.size());
+        index.retain(Arrays.asList("/data/slice2.dcm"));
+        Assert.assertEquals(1, index.size());
+        Assert.assertNull(index.get("/data/slice1.dcm", 1000, 2000));
+        index.close();
+    }
+
+}
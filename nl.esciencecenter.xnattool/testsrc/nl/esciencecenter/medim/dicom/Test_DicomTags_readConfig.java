@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import nl.esciencecenter.medim.dicom.types.DicomTags;
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
+import nl.esciencecenter.medim.dicom.types.TagDirectiveTable;
 
 public class Test_DicomTags_readConfig
 {
@@ -15,4 +17,29 @@ public class Test_DicomTags_readConfig
         Assert.assertNotNull("DicomTags is null", tagdb);
     }
 
+    @Test
+    public void testTagTable() throws Exception
+    {
+        String dicomConfig = "Group,Element,VR,Name,Keep,Option\n"
+                + "0x0008,0x0020,DA,\"Study Date\",1,SET_DATE_TO_01JAN\n"
+                + "0x0010,0x0010,PN,\"Patient Name\",1,ENCRYPT_HASH\n"
+                + "0x0010,0x0020,LO,\"Patient ID\",0,\n"
+                + "0x0020,0x000D,UI,\"Study Instance UID\",1,\n";
+
+        DicomTags tagdb = DicomTags.createFromText(dicomConfig);
+        TagDirectiveTable table = tagdb.getTagTable();
+
+        Assert.assertEquals(4, table.size());
+        Assert.assertEquals(TagProcessingOption.SET_DATE_TO_01JAN, table.getOption(0x00080020, null));
+        Assert.assertEquals(TagProcessingOption.ENCRYPT_HASH, table.getOption(0x00100010, null));
+        Assert.assertEquals(TagProcessingOption.DELETE, table.getOption(0x00100020, null));
+        Assert.assertEquals(TagProcessingOption.KEEP, table.getOption(0x0020000D, null));
+        Assert.assertEquals("Study Date", tagdb.getTagDescription(0x00080020));
+
+        // unknown tags:
+        Assert.assertNull(table.get(0x00100030));
+        Assert.assertEquals(TagProcessingOption.DELETE, tagdb.getOption(0x00100030, TagProcessingOption.DELETE));
+        Assert.assertNull(tagdb.getOption(0x00000000));
+    }
+
 }
@@ -0,0 +1,83 @@
+package nl.esciencecenter.medim.dicom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Single open probe must read the same Dicom object as readDicom(File) and reject files without Dicom magic.
+ */
+public class Test_DicomUtil_ProbeDicom
+{
+    @Test
+    public void testProbeDicomFile() throws Exception
+    {
+        File file = getTestFile();
+
+        for (boolean checkMagic : new boolean[] {
+                true, false
+        })
+        {
+            DicomObject expected = DicomUtil.readDicom(file, -1);
+            DicomObject probed = DicomUtil.probeDicom(file, checkMagic, -1);
+
+            Assert.assertNotNull("Probe must return Dicom object (checkMagic=" + checkMagic + ")", probed);
+            Assert.assertArrayEquals("Probed Dicom doesn't match (checkMagic=" + checkMagic + ")",
+                    DicomUtil.getBytes(expected), DicomUtil.getBytes(probed));
+        }
+    }
+
+    @Test
+    public void testProbeHeaderOnly() throws Exception
+    {
+        File file = getTestFile();
+        int stopTag = Tag.SeriesInstanceUID;
+
+        DicomObject expected = DicomUtil.readDicom(file, stopTag);
+        DicomObject probed = DicomUtil.probeDicom(file, true, stopTag);
+
+        Assert.assertNotNull("Probe must return Dicom object", probed);
+        Assert.assertEquals("SeriesInstanceUID doesn't match", expected.getString(Tag.SeriesInstanceUID),
+                probed.getString(Tag.SeriesInstanceUID));
+        Assert.assertFalse("Header only probe must not contain PixelData", probed.contains(Tag.PixelData));
+    }
+
+    @Test
+    public void testProbeNoMagic() throws Exception
+    {
+        File file = File.createTempFile("probetest", ".dcm");
+
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(new byte[1000]);
+            fos.close();
+
+            Assert.assertNull("File without magic must be rejected", DicomUtil.probeDicom(file, true, -1));
+
+            // file smaller than the preamble:
+            fos = new FileOutputStream(file);
+            fos.write(new byte[] {
+                    'D', 'I', 'C', 'M'
+            });
+            fos.close();
+
+            Assert.assertNull("Small file must be rejected", DicomUtil.probeDicom(file, true, -1));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    protected File getTestFile()
+    {
+        java.net.URL dcmUrl = this.getClass().getClassLoader().getResource("tests/data/test_dicom1.dcm");
+        return new File(dcmUrl.getPath());
+    }
+
+}
@@ -0,0 +1,116 @@
+package nl.esciencecenter.medim.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.dcm4che2.data.DicomElement;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Streaming rewrite must produce the same bytes as reading, processing and writing the complete Dicom object.
+ */
+public class Test_DicomUtil_RewriteDicom
+{
+    /**
+     * Same processing for streaming and in memory rewrite.
+     */
+    public static class TestHandler implements DicomUtil.DicomRewriteHandler
+    {
+        @Override
+        public void processElements(DicomObject dicom, boolean isHeader)
+        {
+            process(dicom);
+        }
+
+        public void process(DicomObject dicom)
+        {
+            dicom.putString(Tag.PatientName, VR.PN, "Anonymous");
+            dicom.remove(Tag.StudyDate);
+            dicom.remove(Tag.DataSetTrailingPadding);
+        }
+    }
+
+    @Test
+    public void testRewriteDicomFile() throws Exception
+    {
+        byte bytes[] = readTestFile();
+
+        testRewrite(bytes, true);
+        testRewrite(bytes, false);
+    }
+
+    @Test
+    public void testRewriteEncapsulatedPixelData() throws Exception
+    {
+        DicomObject dicom = DicomUtil.readDicom(readTestFile());
+
+        // JPEG Baseline, with encapsulated fragments and trailing elements.
+        dicom.putString(Tag.TransferSyntaxUID, VR.UI, "1.2.840.10008.1.2.4.50");
+        dicom.remove(Tag.PixelData);
+        DicomElement fragments = dicom.putFragments(Tag.PixelData, VR.OB, false, 3);
+        fragments.addFragment(new byte[0]);
+        fragments.addFragment(new byte[1000]);
+        fragments.addFragment(new byte[] {
+                1, 2, 3, 4
+        });
+        dicom.putBytes(Tag.DataSetTrailingPadding, VR.OB, new byte[8]);
+
+        byte bytes[] = DicomUtil.getBytes(dicom);
+
+        testRewrite(bytes, true);
+        testRewrite(bytes, false);
+    }
+
+    @Test
+    public void testRewrittenSize() throws Exception
+    {
+        java.net.URL dcmUrl = this.getClass().getClassLoader().getResource("tests/data/test_dicom1.dcm");
+        File source = new File(dcmUrl.getPath());
+
+        for (boolean keepPixelData : new boolean[] {
+                true, false
+        })
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DicomUtil.rewriteDicom(source, bos, keepPixelData, new TestHandler());
+
+            long size = DicomUtil.getRewrittenSize(source, keepPixelData, new TestHandler());
+            Assert.assertEquals("Rewritten size doesn't match (keepPixelData=" + keepPixelData + ")", bos.size(), size);
+        }
+    }
+
+    protected void testRewrite(byte source[], boolean keepPixelData) throws Exception
+    {
+        TestHandler handler = new TestHandler();
+
+        // in memory:
+        DicomObject dicom = DicomUtil.readDicom(source);
+        handler.process(dicom);
+        if (keepPixelData == false)
+        {
+            dicom.remove(Tag.PixelData);
+        }
+        byte expected[] = DicomUtil.getBytes(dicom);
+
+        // streaming:
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DicomUtil.rewriteDicom(new ByteArrayInputStream(source), bos, keepPixelData, handler);
+        byte result[] = bos.toByteArray();
+
+        Assert.assertEquals("Size of streamed Dicom doesn't match (keepPixelData=" + keepPixelData + ")", expected.length,
+                result.length);
+        Assert.assertArrayEquals("Streamed Dicom doesn't match (keepPixelData=" + keepPixelData + ")", expected, result);
+    }
+
+    protected byte[] readTestFile() throws Exception
+    {
+        java.net.URL dcmUrl = this.getClass().getClassLoader().getResource("tests/data/test_dicom1.dcm");
+        return java.nio.file.Files.readAllBytes(new File(dcmUrl.getPath()).toPath());
+    }
+
+}
@@ -0,0 +1,320 @@
+package nl.esciencecenter.medim.nifti;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Read synthetic NIfTI-1 and NIfTI-2 files and check truncation detection.
+ */
+public class Test_NiftiHeader
+{
+    @Test
+    public void testNifti1() throws Exception
+    {
+        for (ByteOrder order : new ByteOrder[] {
+                ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN
+        })
+        {
+            byte bytes[] = createNifti1(order, new int[] {
+                    4, 3, 2
+            }, 4, 16, 352);
+
+            for (boolean gzip : new boolean[] {
+                    false, true
+            })
+            {
+                File file = writeFile(bytes, bytes.length, gzip);
+
+                try
+                {
+                    NiftiHeader header = NiftiHeader.readAndValidate(file);
+                    Assert.assertEquals(1, header.getVersion());
+                    Assert.assertEquals(order, header.getByteOrder());
+                    Assert.assertTrue(header.isSingleFile());
+                    Assert.assertArrayEquals(new long[] {
+                            4, 3, 2
+                    }, header.getDimensions());
+                    Assert.assertEquals(1.5, header.getVoxelSizes()[0], 0.0);
+                    Assert.assertEquals("INT16", header.getDatatypeName());
+                    Assert.assertEquals(352, header.getVoxOffset());
+                    Assert.assertEquals(4 * 3 * 2 * 2, header.getDataSize());
+                }
+                finally
+                {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNifti2() throws Exception
+    {
+        byte bytes[] = createNifti2(ByteOrder.LITTLE_ENDIAN, new long[] {
+                5, 4, 3, 2
+        }, 16, 32, 544);
+
+        for (boolean gzip : new boolean[] {
+                false, true
+        })
+        {
+            File file = writeFile(bytes, bytes.length, gzip);
+
+            try
+            {
+                NiftiHeader header = NiftiHeader.readAndValidate(file);
+                Assert.assertEquals(2, header.getVersion());
+                Assert.assertEquals(4, header.getNumDimensions());
+                Assert.assertArrayEquals(new long[] {
+                        5, 4, 3, 2
+                }, header.getDimensions());
+                Assert.assertEquals(1.5, header.getVoxelSizes()[3], 0.0);
+                Assert.assertEquals("FLOAT32", header.getDatatypeName());
+                Assert.assertEquals(544 + 5 * 4 * 3 * 2 * 4, header.getExpectedFileLength());
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception
+    {
+        byte bytes[] = createNifti1(ByteOrder.LITTLE_ENDIAN, new int[] {
+                64, 64, 32
+        }, 4, 16, 352);
+
+        for (boolean gzip : new boolean[] {
+                false, true
+        })
+        {
+            File file = writeFile(bytes, bytes.length - 100, gzip);
+
+            try
+            {
+                // header is valid:
+                NiftiHeader.readHeader(file);
+                NiftiHeader.readAndValidate(file);
+                Assert.fail("Truncated file must be rejected (gzip=" + gzip + ")");
+            }
+            catch (IOException e)
+            {
+                Assert.assertTrue("Wrong error:" + e.getMessage(), e.getMessage().contains("Truncated"));
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testMultiMemberGzip() throws Exception
+    {
+        byte bytes[] = createNifti1(ByteOrder.LITTLE_ENDIAN, new int[] {
+                64, 64, 32
+        }, 4, 16, 352);
+
+        // header and data in separate members, with an empty last member like bgzip:
+        File file = writeMultiMemberFile(bytes, bytes.length, new int[] {
+                352, 100000, bytes.length, bytes.length
+        });
+
+        try
+        {
+            NiftiHeader header = NiftiHeader.readAndValidate(file);
+            Assert.assertEquals(64 * 64 * 32 * 2, header.getDataSize());
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        // truncated last member:
+        file = writeMultiMemberFile(bytes, bytes.length - 100, new int[] {
+                352, bytes.length
+        });
+
+        try
+        {
+            NiftiHeader.readAndValidate(file);
+            Assert.fail("Truncated multi-member file must be rejected");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue("Wrong error:" + e.getMessage(), e.getMessage().contains("Truncated"));
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        // incomplete gzip stream:
+        file = writeMultiMemberFile(bytes, bytes.length, new int[] {
+                352, bytes.length
+        });
+        RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+        raFile.setLength(raFile.length() - 20);
+        raFile.close();
+
+        try
+        {
+            NiftiHeader.readAndValidate(file);
+            Assert.fail("Incomplete gzip stream must be rejected");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue("Wrong error:" + e.getMessage(), e.getMessage().contains("Truncated"));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInvalidHeader() throws Exception
+    {
+        byte bytes[] = createNifti1(ByteOrder.LITTLE_ENDIAN, new int[] {
+                4, 3, 2
+        }, 4, 16, 352);
+        // wrong magic:
+        bytes[344] = 'x';
+        File file = writeFile(bytes, bytes.length, false);
+
+        try
+        {
+            NiftiHeader.readHeader(file);
+            Assert.fail("Invalid magic must be rejected");
+        }
+        catch (IOException e)
+        {
+            ; // ok
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        // too short for a header:
+        file = writeFile(bytes, 100, false);
+
+        try
+        {
+            NiftiHeader.readHeader(file);
+            Assert.fail("Truncated header must be rejected");
+        }
+        catch (IOException e)
+        {
+            ; // ok
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    protected byte[] createNifti1(ByteOrder order, int dims[], int datatype, int bitpix, int voxOffset)
+    {
+        long dataSize = bitpix / 8;
+        for (int dim : dims)
+        {
+            dataSize *= dim;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) (voxOffset + dataSize)).order(order);
+        buf.putInt(0, NiftiHeader.NIFTI1_HEADER_SIZE);
+        buf.putShort(40, (short) dims.length);
+        for (int i = 0; i < dims.length; i++)
+        {
+            buf.putShort(42 + 2 * i, (short) dims[i]);
+            buf.putFloat(80 + 4 * i, 1.5f);
+        }
+        buf.putShort(70, (short) datatype);
+        buf.putShort(72, (short) bitpix);
+        buf.putFloat(108, voxOffset);
+        buf.put(344, (byte) 'n');
+        buf.put(345, (byte) '+');
+        buf.put(346, (byte) '1');
+        return buf.array();
+    }
+
+    protected byte[] createNifti2(ByteOrder order, long dims[], int datatype, int bitpix, int voxOffset)
+    {
+        long dataSize = bitpix / 8;
+        for (long dim : dims)
+        {
+            dataSize *= dim;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) (voxOffset + dataSize)).order(order);
+        buf.putInt(0, NiftiHeader.NIFTI2_HEADER_SIZE);
+        buf.put(4, (byte) 'n');
+        buf.put(5, (byte) '+');
+        buf.put(6, (byte) '2');
+        buf.putShort(12, (short) datatype);
+        buf.putShort(14, (short) bitpix);
+        buf.putLong(16, dims.length);
+        for (int i = 0; i < dims.length; i++)
+        {
+            buf.putLong(24 + 8 * i, dims[i]);
+            buf.putDouble(112 + 8 * i, 1.5);
+        }
+        buf.putLong(168, voxOffset);
+        return buf.array();
+    }
+
+    protected File writeFile(byte bytes[], int len, boolean gzip) throws IOException
+    {
+        File file = File.createTempFile("niftitest", gzip ? ".nii.gz" : ".nii");
+        OutputStream outps = new FileOutputStream(file);
+
+        if (gzip)
+        {
+            outps = new GZIPOutputStream(outps);
+        }
+
+        outps.write(bytes, 0, len);
+        outps.close();
+
+        return file;
+    }
+
+    /**
+     * Write bytes as concatenated gzip members.
+     *
+     * @param ends
+     *            - end offset of each member, limited to len.
+     */
+    protected File writeMultiMemberFile(byte bytes[], int len, int ends[]) throws IOException
+    {
+        File file = File.createTempFile("niftitest", ".nii.gz");
+        OutputStream outps = new FileOutputStream(file);
+        int offset = 0;
+
+        for (int end : ends)
+        {
+            end = Math.min(end, len);
+            GZIPOutputStream gzipStream = new GZIPOutputStream(outps);
+            gzipStream.write(bytes, offset, end - offset);
+            gzipStream.finish();
+            offset = end;
+        }
+
+        outps.close();
+
+        return file;
+    }
+
+}
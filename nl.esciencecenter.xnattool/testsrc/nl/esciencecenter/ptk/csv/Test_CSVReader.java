@@ -0,0 +1,137 @@
+package nl.esciencecenter.ptk.csv;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_CSVReader
+{
+    @Test
+    public void testMultipleSeparators() throws Exception
+    {
+        CSVReader reader = new CSVReader(new StringReader("a;b,c\n1,2;3\n"), new String[] {
+                ";", ","
+        });
+
+        Assert.assertArrayEquals(new String[] {
+                "a", "b", "c"
+        }, reader.readHeaders());
+        Assert.assertArrayEquals(new String[] {
+                "1", "2", "3"
+        }, reader.readRow());
+        Assert.assertNull(reader.readRow());
+        Assert.assertEquals(1, reader.getNrOfRowsRead());
+    }
+
+    @Test
+    public void testCommentsAndEmptyLines() throws Exception
+    {
+        String text = "# comment\r\nname,value\r\n\r\n#another, comment\n\"x\",\"1\"\nlast,2";
+        CSVReader reader = new CSVReader(new StringReader(text));
+
+        Assert.assertEquals(1, reader.getFieldNr("value"));
+        Assert.assertArrayEquals(new String[] {
+                "x", "1"
+        }, reader.readRow());
+        Assert.assertArrayEquals(new String[] {
+                "last", "2"
+        }, reader.readRow());
+        Assert.assertNull(reader.readRow());
+    }
+
+    @Test
+    public void testQuotedFields() throws Exception
+    {
+        String text = "a;b\n\"1;2\";\"say \"\"hi\"\"\nnext line\"\n";
+        CSVReader reader = new CSVReader(new StringReader(text), new String[] {
+                ";"
+        });
+
+        String row[] = reader.readRow();
+        Assert.assertEquals("1;2", row[0]);
+        Assert.assertEquals("say \"hi\"\nnext line", row[1]);
+    }
+
+    @Test
+    public void testEmptyFields() throws Exception
+    {
+        CSVReader reader = new CSVReader(new StringReader("a,b,c\n,,\n"));
+
+        Assert.assertArrayEquals(new String[] {
+                "", "", ""
+        }, reader.readRow());
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws Exception
+    {
+        StringWriter output = new StringWriter();
+        CSVWriter writer = new CSVWriter(output);
+        writer.setFieldSeperator(";");
+        writer.writeHeaders(new String[] {
+                "a", "b"
+        });
+        writer.writeRow(new String[] {
+                "x\"y", "1;2"
+        });
+        writer.flush();
+
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        CSVReader reader = new CSVReader(new StringReader(output.toString()), new String[] {
+                ";"
+        });
+
+        int num = reader.readRows(new CSVRowHandler()
+        {
+            @Override
+            public void handleHeaders(String[] headers)
+            {
+            }
+
+            @Override
+            public void handleRow(String[] row)
+            {
+                rows.add(row);
+            }
+        });
+
+        Assert.assertEquals(1, num);
+        Assert.assertEquals("x\"y", rows.get(0)[0]);
+        Assert.assertEquals("1;2", rows.get(0)[1]);
+    }
+
+    @Test
+    public void testLargeText() throws Exception
+    {
+        StringBuilder sb = new StringBuilder("id;value\n");
+        int numRows = 10000;
+
+        for (int i = 0; i < numRows; i++)
+        {
+            sb.append(i).append(";;").append("value").append(i).append('\n');
+        }
+
+        // multi character separator crossing buffer boundaries:
+        CSVReader reader = new CSVReader(new StringReader(sb.toString().replace("id;", "id;;")), new String[] {
+                ";;", ";"
+        });
+
+        String row[];
+        int num = 0;
+
+        while ((row = reader.readRow()) != null)
+        {
+            Assert.assertEquals("" + num, row[0]);
+            Assert.assertEquals("value" + num, row[1]);
+            num++;
+        }
+
+        Assert.assertEquals(numRows, num);
+    }
+
+}
@@ -0,0 +1,62 @@
+package nl.esciencecenter.xnatclient;
+
+import nl.esciencecenter.ptk.web.WebException;
+import nl.esciencecenter.xnatclient.data.NewScanInfo;
+import nl.esciencecenter.xnatclient.data.XnatObject;
+import nl.esciencecenter.xnatclient.data.XnatObject.XnatObjectType;
+import nl.esciencecenter.xnatclient.data.XnatParser.XnatObjectHandler;
+import nl.esciencecenter.xnatclient.data.XnatScan;
+import nl.esciencecenter.xnatclient.data.XnatSession;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_XnatClient_CreateScan
+{
+    /**
+     * Client without server: listings are empty and PUTs succeed.
+     */
+    public static class TestClient extends XnatClient
+    {
+        int numQueries = 0;
+
+        public TestClient() throws Exception
+        {
+            super(new java.net.URI("http://localhost/xnat"), "user", null);
+        }
+
+        @Override
+        public <T extends XnatObject> int doJSonQuery(String queryStr, XnatObjectType type, boolean restQuery,
+                XnatObjectHandler<T> handler)
+        {
+            numQueries++;
+            return 200;
+        }
+
+        @Override
+        public String doPutQueryString(String queryStr) throws WebException
+        {
+            return "";
+        }
+    }
+
+    @Test
+    public void testCreateThenLookup() throws Exception
+    {
+        TestClient client = new TestClient();
+        XnatSession session = XnatSession.createXnatSession("project", "subject1", "session1");
+
+        Assert.assertNull(client.getScanByLabel(session, "scan1"));
+        Assert.assertEquals(1, client.numQueries);
+
+        NewScanInfo info = new NewScanInfo("scan1");
+        info.series_description = "T1";
+        client.createMrScan(session, info);
+
+        XnatScan scan = client.getScanByLabel(session, "scan1");
+        Assert.assertNotNull("Created scan must be in cached listing", scan);
+        Assert.assertEquals("T1", scan.getDescription());
+        Assert.assertEquals("Lookup after create may not list the scans again", 1, client.numQueries);
+    }
+
+}
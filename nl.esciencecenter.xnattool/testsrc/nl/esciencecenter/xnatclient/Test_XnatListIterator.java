@@ -0,0 +1,118 @@
+package nl.esciencecenter.xnatclient;
+
+import java.util.List;
+
+import nl.esciencecenter.xnatclient.data.XnatConst;
+import nl.esciencecenter.xnatclient.data.XnatObject.XnatObjectType;
+import nl.esciencecenter.xnatclient.data.XnatSubject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_XnatListIterator
+{
+    /**
+     * Simulated server listing, optionally ignoring the paging parameters or only the offset.
+     */
+    public static class TestIterator extends XnatListIterator<XnatSubject>
+    {
+        int numSubjects;
+
+        boolean supportsPaging;
+
+        boolean supportsOffset;
+
+        public TestIterator(int numSubjects, int pageSize, boolean supportsPaging)
+        {
+            this(numSubjects, pageSize, supportsPaging, supportsPaging);
+        }
+
+        public TestIterator(int numSubjects, int pageSize, boolean supportsPaging, boolean supportsOffset)
+        {
+            super(null, "data/projects/project/subjects?format=json", XnatObjectType.XNAT_SUBJECT, pageSize);
+            this.numSubjects = numSubjects;
+            this.supportsPaging = supportsPaging;
+            this.supportsOffset = supportsOffset;
+        }
+
+        @Override
+        protected void queryPage(String pageQuery, List<XnatSubject> newPage)
+        {
+            int offset = 0;
+            int limit = numSubjects;
+
+            if (supportsPaging && pageQuery.contains("&offset="))
+            {
+                if (supportsOffset)
+                {
+                    offset = Integer.parseInt(pageQuery.replaceAll(".*&offset=([0-9]+).*", "$1"));
+                }
+
+                limit = Integer.parseInt(pageQuery.replaceAll(".*&limit=([0-9]+).*", "$1"));
+            }
+
+            for (int i = offset; (i < offset + limit) && (i < numSubjects); i++)
+            {
+                XnatSubject subject = XnatSubject.createXnatSubject("project", "subject" + i);
+                subject.set(XnatConst.FIELD_URI_PATH, "/data/subjects/subject" + i);
+                newPage.add(subject);
+            }
+        }
+    }
+
+    @Test
+    public void testPaging() throws Exception
+    {
+        TestIterator iterator = new TestIterator(25, 10, true);
+        List<XnatSubject> subjects = iterator.toList();
+
+        Assert.assertEquals(25, subjects.size());
+        Assert.assertEquals("subject24", subjects.get(24).getLabel());
+        Assert.assertEquals(3, iterator.getNumPages());
+
+        // exact multiple of page size needs one extra (empty) page.
+        iterator = new TestIterator(20, 10, true);
+        Assert.assertEquals(20, iterator.toList().size());
+        Assert.assertEquals(3, iterator.getNumPages());
+    }
+
+    @Test
+    public void testServerWithoutPaging() throws Exception
+    {
+        TestIterator iterator = new TestIterator(25, 10, false);
+        Assert.assertEquals(25, iterator.toList().size());
+        Assert.assertEquals(1, iterator.getNumPages());
+
+        // same page returned twice must be detected.
+        iterator = new TestIterator(10, 10, false);
+        Assert.assertEquals(10, iterator.toList().size());
+        Assert.assertEquals(3, iterator.getNumPages());
+    }
+
+    @Test
+    public void testServerIgnoringOffset() throws Exception
+    {
+        // server honours limit but not offset: remaining objects must be fetched without paging.
+        TestIterator iterator = new TestIterator(25, 10, true, false);
+        List<XnatSubject> subjects = iterator.toList();
+
+        Assert.assertEquals(25, subjects.size());
+
+        for (int i = 0; i < 25; i++)
+        {
+            Assert.assertEquals("subject" + i, subjects.get(i).getLabel());
+        }
+
+        // first page, same page again and complete listing.
+        Assert.assertEquals(3, iterator.getNumPages());
+    }
+
+    @Test
+    public void testNoPageSize() throws Exception
+    {
+        TestIterator iterator = new TestIterator(25, 0, true);
+        Assert.assertEquals(25, iterator.toList().size());
+        Assert.assertEquals(1, iterator.getNumPages());
+    }
+
+}
@@ -0,0 +1,90 @@
+package nl.esciencecenter.xnatclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.xnatclient.data.XnatSession;
+import nl.esciencecenter.xnatclient.data.XnatSubject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_XnatObjectCache
+{
+    @Test
+    public void testSessionListing()
+    {
+        XnatObjectCache cache = new XnatObjectCache();
+
+        Assert.assertNull("Nothing cached yet", cache.getSessions("project", "subject1"));
+
+        List<XnatSession> sessions = new ArrayList<XnatSession>();
+        sessions.add(XnatSession.createXnatSession("project", "subject1", "session1"));
+        sessions.add(XnatSession.createXnatSession("project", "subject1", "session2"));
+        cache.putSessions("project", "subject1", sessions);
+
+        Assert.assertEquals(2, cache.getSessions("project", "subject1").size());
+        Assert.assertEquals("session2", cache.getSessionMap("project", "subject1").get("session2").getLabel());
+        Assert.assertNull("Session not in (complete) listing", cache.getSessionMap("project", "subject1").get("session3"));
+        Assert.assertNull("Other subject not cached", cache.getSessions("project", "subject2"));
+
+        // created session is added to listing:
+        cache.putSession(XnatSession.createXnatSession("project", "subject1", "session3"));
+        Assert.assertEquals(3, cache.getSessions("project", "subject1").size());
+        Assert.assertNotNull(cache.getSessionMap("project", "subject1").get("session3"));
+
+        Assert.assertEquals(5, cache.getNumHits());
+        Assert.assertEquals(2, cache.getNumMisses());
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        XnatObjectCache cache = new XnatObjectCache();
+
+        XnatSubject subject = XnatSubject.createXnatSubject("project", "subject1");
+        List<XnatSubject> subjects = new ArrayList<XnatSubject>();
+        subjects.add(subject);
+        cache.putSubjects("project", subjects);
+        cache.putSubject(subject);
+
+        List<XnatSession> sessions = new ArrayList<XnatSession>();
+        sessions.add(XnatSession.createXnatSession("project", "subject1", "session1"));
+        cache.putSessions("project", "subject1", sessions);
+
+        Assert.assertNotNull(cache.getSubject("project", "subject1"));
+
+        // project with same prefix must not be invalidated.
+        cache.putSubjects("project2", subjects);
+
+        cache.invalidateSubject("project", "subject1");
+        Assert.assertNull(cache.getSubject("project", "subject1"));
+        Assert.assertNull(cache.getSessions("project", "subject1"));
+        Assert.assertNull(cache.getSubjects("project"));
+        Assert.assertNotNull(cache.getSubjects("project2"));
+
+        cache.invalidateProject("project2");
+        Assert.assertNull(cache.getSubjects("project2"));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception
+    {
+        XnatObjectCache cache = new XnatObjectCache();
+        cache.setTimeToLive(10);
+
+        List<XnatSubject> subjects = new ArrayList<XnatSubject>();
+        subjects.add(XnatSubject.createXnatSubject("project", "subject1"));
+        cache.putSubjects("project", subjects);
+        Assert.assertNotNull(cache.getSubjects("project"));
+
+        Thread.sleep(50);
+        Assert.assertNull("Listing must be expired", cache.getSubjects("project"));
+
+        // disabled:
+        cache.setTimeToLive(0);
+        cache.putSubjects("project", subjects);
+        Assert.assertNull("Cache is disabled", cache.getSubjects("project"));
+    }
+
+}
@@ -0,0 +1,86 @@
+package nl.esciencecenter.xnatclient;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.xnatclient.data.XnatFile;
+import nl.esciencecenter.xnatclient.data.XnatObject;
+import nl.esciencecenter.xnatclient.data.XnatObject.XnatObjectType;
+import nl.esciencecenter.xnatclient.data.XnatParser;
+import nl.esciencecenter.xnatclient.data.XnatParser.XnatObjectHandler;
+import nl.esciencecenter.xnatclient.data.XnatSubject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_XnatParser
+{
+    public static final String filesResult = "{\"ResultSet\":{\"Result\":["
+            + "{\"Name\":\"file1.dcm\",\"Size\":\"1024\",\"URI\":\"/data/files/file1.dcm\",\"collection\":\"DICOM\","
+            + "\"file_tags\":\"\",\"extra\":{\"nested\":[1,2,3]}},"
+            + "{\"Name\":\"file2.dcm\",\"Size\":2048,\"URI\":\"/data/files/file2.dcm\",\"collection\":\"DICOM\"}"
+            + "],\"title\":\"Files\",\"totalRecords\":\"2\"}}";
+
+    public static final String subjectQueryResult = "{\"items\":[{\"children\":[{\"field\":\"x\",\"items\":[]}],"
+            + "\"meta\":{\"xsi:type\":\"xnat:subjectData\"},"
+            + "\"data_fields\":{\"ID\":\"XNAT_S00001\",\"label\":\"subject1\",\"project\":\"project\",\"gender\":\"male\"}"
+            + "}]}";
+
+    @Test
+    public void testParseResultSet() throws Exception
+    {
+        List<XnatFile> files = new ArrayList<XnatFile>();
+        int num = XnatParser.parseJsonResult(XnatObjectType.XNAT_FILE, filesResult, files);
+
+        Assert.assertEquals(2, num);
+        Assert.assertEquals("file1.dcm", files.get(0).getName());
+        Assert.assertEquals("DICOM", files.get(0).getCollection());
+        Assert.assertNull("Unknown fields must be ignored", files.get(0).get("extra"));
+        Assert.assertEquals("Numbers must be parsed as text", "2048", files.get(1).get("Size"));
+    }
+
+    @Test
+    public void testStreamingResultSet() throws Exception
+    {
+        final List<String> names = new ArrayList<String>();
+
+        int num = XnatParser.parseJsonResult(XnatObjectType.XNAT_FILE, new ByteArrayInputStream(filesResult.getBytes("UTF-8")),
+                new XnatObjectHandler<XnatFile>()
+                {
+                    @Override
+                    public void handleObject(XnatFile file)
+                    {
+                        names.add(file.getName());
+                    }
+                });
+
+        Assert.assertEquals(2, num);
+        Assert.assertEquals("file1.dcm", names.get(0));
+        Assert.assertEquals("file2.dcm", names.get(1));
+    }
+
+    @Test
+    public void testParseQueryResult() throws Exception
+    {
+        List<XnatObject> subjects = new ArrayList<XnatObject>();
+        int num = XnatParser.parseJsonQueryResult(XnatObjectType.XNAT_SUBJECT, subjectQueryResult, subjects);
+
+        Assert.assertEquals(1, num);
+        XnatSubject subject = (XnatSubject) subjects.get(0);
+        Assert.assertEquals("subject1", subject.getLabel());
+        Assert.assertEquals("male", subject.get("gender"));
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception
+    {
+        List<XnatFile> files = new ArrayList<XnatFile>();
+
+        Assert.assertEquals(0, XnatParser.parseJsonResult(XnatObjectType.XNAT_FILE, "", files));
+        Assert.assertEquals(0, XnatParser.parseJsonResult(XnatObjectType.XNAT_FILE, "{\"ResultSet\":{\"Result\":[]}}", files));
+        Assert.assertEquals(0, XnatParser.parseJsonResult(XnatObjectType.XNAT_FILE, new ByteArrayInputStream(new byte[0]),
+                new XnatParser.ListHandler<XnatFile>(files)));
+    }
+
+}
@@ -1,6 +1,8 @@
 package nl.esciencecenter.xnattool;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 
 import nl.esciencecenter.ptk.crypt.CryptScheme;
 import nl.esciencecenter.ptk.crypt.StringCrypter.EncryptionException;
@@ -135,6 +137,98 @@ public class Test_DBMapping
         Assert.assertEquals("Subject Label Mismatch!", expectedLabel, subjLabel);
     }
 
+    @Test
+    public void testReverseIndex() throws Exception
+    {
+        StringHasher hasher = new StringHasher(StringHasher.SHA_256);
+        DBMapping dbMapping = new DBMapping(createDBSettings("", hasher.hash("12345", true, "", true)));
+
+        for (int subj = 0; subj < 3; subj++)
+        {
+            dbMapping.getCreateXnatSubjectLabel("subject" + subj, false, true);
+
+            for (int sess = 0; sess < 2; sess++)
+            {
+                String sessionKey = "session" + subj + "." + sess;
+                dbMapping.getCreateXnatSessionLabel("subject" + subj, false, sessionKey, false, true);
+
+                for (int scan = 0; scan < 4; scan++)
+                {
+                    dbMapping.getCreateXnatScanLabel(sessionKey, "scan" + subj + "." + sess + "." + scan, false, "scn_", true);
+                }
+            }
+        }
+
+        Assert.assertEquals(24, dbMapping.getNumScanSets());
+        Assert.assertEquals(24, dbMapping.getAllScanSetKeys().size());
+        Assert.assertEquals("session2.1", dbMapping.getSessionKeyOfScanSetKey("scan2.1.3"));
+        Assert.assertEquals("subject2", dbMapping.getSubjectKeyOfSessionKey("session2.1"));
+        Assert.assertNull(dbMapping.getSessionKeyOfScanSetKey("unknown"));
+
+        // existing mapping: no change.
+        dbMapping.getCreateXnatScanLabel("session2.1", "scan2.1.3", false, "scn_", true);
+        Assert.assertEquals(24, dbMapping.getNumScanSets());
+
+        Assert.assertTrue(dbMapping.deleteScanLabel("session2.1", "scan2.1.3"));
+        Assert.assertFalse(dbMapping.deleteScanLabel("session2.1", "scan2.1.3"));
+        Assert.assertEquals(23, dbMapping.getNumScanSets());
+        Assert.assertEquals(23, dbMapping.getAllScanSetKeys().size());
+        Assert.assertNull(dbMapping.getSessionKeyOfScanSetKey("scan2.1.3"));
+
+        Assert.assertTrue(dbMapping.deleteSessionLabel("subject2", "session2.1"));
+        Assert.assertNull(dbMapping.getSubjectKeyOfSessionKey("session2.1"));
+
+        dbMapping.clear();
+        Assert.assertEquals(0, dbMapping.getNumScanSets());
+        Assert.assertEquals(0, dbMapping.getAllScanSetKeys().size());
+        Assert.assertNull(dbMapping.getSessionKeyOfScanSetKey("scan0.0.0"));
+    }
+
+    @Test
+    public void testConcurrentMappingsMatchSerial() throws Exception
+    {
+        StringHasher hasher = new StringHasher(StringHasher.SHA_256);
+        byte key[] = hasher.hash("12345", true, "", true);
+
+        DBMapping serial = new DBMapping(createDBSettings("owner", key));
+        DBMapping concurrent = new DBMapping(createDBSettings("owner", key));
+
+        List<DBMapping.ScanSetKeys> keys = new ArrayList<DBMapping.ScanSetKeys>();
+
+        for (int i = 0; i < 500; i++)
+        {
+            String subjectKey = "subject" + (i / 20);
+            String sessionKey = "session" + (i / 5);
+            String scanKey = "1.2.3." + i;
+
+            serial.getCreateXnatSubjectLabel(subjectKey, true, true);
+            serial.getCreateXnatSessionLabel(subjectKey, true, sessionKey, true, true);
+            serial.getCreateXnatScanLabel(sessionKey, scanKey, true, "scn_", true);
+
+            keys.add(new DBMapping.ScanSetKeys(subjectKey, sessionKey, scanKey));
+        }
+
+        concurrent.createMappings(keys, true, true, true, "scn_", 4);
+
+        Assert.assertArrayEquals(serial.getSubjectKeys(), concurrent.getSubjectKeys());
+        Assert.assertEquals(serial.getAllScanSetKeys(), concurrent.getAllScanSetKeys());
+
+        for (DBMapping.ScanSetKeys scanSet : keys)
+        {
+            String subjectKey = concurrent.getSubjectKeyOfSessionKey(concurrent.getSessionKeyOfScanSetKey(scanSet.scanSetKey));
+            String sessionKey = concurrent.getSessionKeyOfScanSetKey(scanSet.scanSetKey);
+
+            Assert.assertEquals(serial.getXnatSubjectLabel(subjectKey), concurrent.getXnatSubjectLabel(subjectKey));
+            Assert.assertEquals(serial.getXnatSessionLabel(subjectKey, sessionKey), concurrent.getXnatSessionLabel(subjectKey, sessionKey));
+            Assert.assertEquals(serial.getXnatScanLabel(sessionKey, scanSet.scanSetKey),
+                    concurrent.getXnatScanLabel(sessionKey, scanSet.scanSetKey));
+        }
+
+        // existing mappings are not created again:
+        concurrent.createMappings(keys, true, true, true, "scn_", 4);
+        Assert.assertEquals(500, concurrent.getNumScanSets());
+    }
+
     byte[] testCrypt(DBMapping dbMapping, String value, String expectedCryptBase64) throws Exception
     {
         byte crypt[] = dbMapping.encryptID(value);
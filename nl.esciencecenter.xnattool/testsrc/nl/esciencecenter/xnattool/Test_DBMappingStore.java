@@ -0,0 +1,97 @@
+package nl.esciencecenter.xnattool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import nl.esciencecenter.ptk.crypt.StringHasher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_DBMappingStore
+{
+    protected DBMapping createDBMapping(String sourceId, String keySource) throws Exception
+    {
+        StringHasher hasher = new StringHasher(StringHasher.SHA_256);
+        byte dataSetKey[] = hasher.hash(keySource, true, "", true);
+        return new DBMapping(Test_DBMapping.createDBSettings(sourceId, dataSetKey));
+    }
+
+    protected File createStoreFile() throws IOException
+    {
+        File file = File.createTempFile("dbmapping", ".db");
+        file.deleteOnExit();
+        file.delete();
+        return file;
+    }
+
+    @Test
+    public void testReloadStore() throws Exception
+    {
+        File file = createStoreFile();
+
+        DBMapping mapping = createDBMapping("owner", "12345");
+        mapping.openStore(file);
+        String subjectLabel = mapping.getCreateXnatSubjectLabel("subject;1", true, true);
+        String sessionLabel = mapping.getCreateXnatSessionLabel("subject;1", true, "session\"1", true, true);
+        // plain labels are not stored:
+        mapping.getCreateXnatScanLabel("session\"1", "scan1", false, "scn_", true);
+        Assert.assertEquals(2, mapping.getStore().size());
+        mapping.dispose();
+
+        DBMapping reloaded = createDBMapping("owner", "12345");
+        reloaded.openStore(file);
+        Assert.assertEquals(2, reloaded.getStore().size());
+        Assert.assertEquals(subjectLabel, reloaded.getStore().get("sub_", "subject;1").labelString);
+        Assert.assertEquals(subjectLabel, reloaded.getCreateXnatSubjectLabel("subject;1", true, true));
+        Assert.assertEquals(sessionLabel, reloaded.getCreateXnatSessionLabel("subject;1", true, "session\"1", true, true));
+        reloaded.dispose();
+    }
+
+    @Test
+    public void testChangedSettings() throws Exception
+    {
+        File file = createStoreFile();
+
+        DBMapping mapping = createDBMapping("owner", "12345");
+        mapping.openStore(file);
+        String label = mapping.getCreateXnatSubjectLabel("subject1", true, true);
+        mapping.dispose();
+
+        DBMapping other = createDBMapping("owner", "other key");
+        other.openStore(file);
+        Assert.assertEquals("Store with other settings must be discarded", 0, other.getStore().size());
+        Assert.assertFalse(label.equals(other.getCreateXnatSubjectLabel("subject1", true, true)));
+        other.dispose();
+    }
+
+    @Test
+    public void testIncompleteRecord() throws Exception
+    {
+        File file = createStoreFile();
+
+        DBMapping mapping = createDBMapping("owner", "12345");
+        mapping.openStore(file);
+        mapping.getCreateXnatSubjectLabel("subject1", true, true);
+        mapping.dispose();
+
+        // simulate crash while appending:
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("\"M\";\"sub_\";\"subject2\";\"0A".getBytes("UTF-8"));
+        out.close();
+
+        mapping = createDBMapping("owner", "12345");
+        mapping.openStore(file);
+        Assert.assertEquals(1, mapping.getStore().size());
+        mapping.getCreateXnatSubjectLabel("subject3", true, true);
+        mapping.dispose();
+
+        mapping = createDBMapping("owner", "12345");
+        mapping.openStore(file);
+        Assert.assertEquals(2, mapping.getStore().size());
+        Assert.assertNotNull(mapping.getStore().get("sub_", "subject3"));
+        mapping.dispose();
+    }
+
+}
@@ -0,0 +1,120 @@
+package nl.esciencecenter.xnattool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_UploadEngine
+{
+    @Test
+    public void testUploadAllCollections() throws Exception
+    {
+        UploadEngine engine = new UploadEngine(4, 1000);
+        final AtomicInteger numDone = new AtomicInteger(0);
+
+        try
+        {
+            for (int col = 0; col < 10; col++)
+            {
+                for (int file = 0; file < 20; file++)
+                {
+                    engine.submit(col, 100, new UploadEngine.UploadJob()
+                    {
+                        @Override
+                        public void doUpload() throws Exception
+                        {
+                            Thread.sleep(1);
+                            numDone.incrementAndGet();
+                        }
+                    });
+                }
+            }
+
+            engine.waitForAll();
+
+            for (int col = 0; col < 10; col++)
+            {
+                Assert.assertTrue("Collection must be done:" + col, engine.isCollectionDone(col));
+            }
+
+            Assert.assertEquals("All jobs must have been executed.", 200, numDone.get());
+            Assert.assertEquals("No bytes may be in flight after all jobs are done.", 0, engine.getBytesInFlight());
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testBytesInFlightBounded() throws Exception
+    {
+        final long maxBytes = 1000;
+        final UploadEngine engine = new UploadEngine(8, maxBytes);
+        final AtomicLong maxSeen = new AtomicLong(0);
+
+        try
+        {
+            for (int file = 0; file < 100; file++)
+            {
+                engine.submit(0, 300, new UploadEngine.UploadJob()
+                {
+                    @Override
+                    public void doUpload() throws Exception
+                    {
+                        long current = engine.getBytesInFlight();
+                        if (current > maxSeen.get())
+                        {
+                            maxSeen.set(current);
+                        }
+                        Thread.sleep(1);
+                    }
+                });
+            }
+
+            engine.waitForCollection(0);
+            Assert.assertTrue("Bytes in flight exceeded maximum:" + maxSeen.get(), maxSeen.get() <= maxBytes);
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedUploadIsRethrown() throws Exception
+    {
+        UploadEngine engine = new UploadEngine(2, 1000);
+
+        try
+        {
+            engine.submit(0, 10, new UploadEngine.UploadJob()
+            {
+                @Override
+                public void doUpload() throws Exception
+                {
+                    throw new XnatToolException("Upload failed");
+                }
+            });
+
+            try
+            {
+                engine.waitForCollection(0);
+                Assert.fail("waitForCollection() must rethrow exception of failed upload.");
+            }
+            catch (XnatToolException e)
+            {
+                Assert.assertEquals("Upload failed", e.getMessage());
+            }
+
+            Assert.assertTrue("Engine must be cancelled after a failed upload.", engine.isCancelled());
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package nl.esciencecenter.xnattool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Test_UploadStateStore
+{
+    protected File createTempFile(String prefix) throws IOException
+    {
+        File file = File.createTempFile(prefix, ".db");
+        file.deleteOnExit();
+        return file;
+    }
+
+    protected File createSourceFile(String content) throws IOException
+    {
+        File file = createTempFile("source");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testReloadStore() throws Exception
+    {
+        File file = createTempFile("uploads");
+        file.delete();
+        File source = createSourceFile("source file");
+
+        UploadStateStore store = new UploadStateStore(file);
+        Assert.assertEquals(-1, store.getUploadSize("project/subject;1/scan/file.nii.gz", source));
+        store.putUploadSize("project/subject;1/scan/file.nii.gz", source, 5);
+        store.putUploadSize("project/subject;1/scan/file.nii.gz", source, 7);
+        store.close();
+
+        UploadStateStore reloaded = new UploadStateStore(file);
+        Assert.assertEquals(1, reloaded.size());
+        Assert.assertEquals("Last record must win", 7, reloaded.getUploadSize("project/subject;1/scan/file.nii.gz", source));
+        reloaded.close();
+    }
+
+    @Test
+    public void testChangedSource() throws Exception
+    {
+        File file = createTempFile("uploads");
+        file.delete();
+        File source = createSourceFile("source file");
+
+        UploadStateStore store = new UploadStateStore(file);
+        store.putUploadSize("file.nii.gz", source, 5);
+        Assert.assertEquals(5, store.getUploadSize("file.nii.gz", source));
+
+        FileOutputStream out = new FileOutputStream(source, true);
+        out.write("changed".getBytes("UTF-8"));
+        out.close();
+
+        Assert.assertEquals("Changed source file must not match", -1, store.getUploadSize("file.nii.gz", source));
+        store.close();
+    }
+
+    @Test
+    public void testIncompleteRecord() throws Exception
+    {
+        File file = createTempFile("uploads");
+        file.delete();
+        File source = createSourceFile("source file");
+
+        UploadStateStore store = new UploadStateStore(file);
+        store.putUploadSize("file1.nii.gz", source, 5);
+        store.close();
+
+        // simulate crash while appending:
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("\"U\";\"file2.nii.gz\";\"1".getBytes("UTF-8"));
+        out.close();
+
+        store = new UploadStateStore(file);
+        Assert.assertEquals(1, store.size());
+        store.putUploadSize("file3.nii.gz", source, 9);
+        store.close();
+
+        store = new UploadStateStore(file);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(9, store.getUploadSize("file3.nii.gz", source));
+        store.close();
+    }
+
+}
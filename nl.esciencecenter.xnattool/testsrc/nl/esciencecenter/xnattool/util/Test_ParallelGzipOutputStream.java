@@ -0,0 +1,106 @@
+package nl.esciencecenter.xnattool.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Parallel gzip output must be readable by GZIPInputStream and must not depend on the number of threads.
+ */
+public class Test_ParallelGzipOutputStream
+{
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        for (int size : new int[] {
+                0, 1, 1000, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, 5 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 123
+        })
+        {
+            byte data[] = createData(size);
+
+            for (int numThreads : new int[] {
+                    1, 4
+            })
+            {
+                byte gzipped[] = compress(data, numThreads);
+                Assert.assertArrayEquals("Uncompressed data doesn't match (size=" + size + ",numThreads=" + numThreads + ")",
+                        data, uncompress(gzipped));
+            }
+        }
+    }
+
+    @Test
+    public void testSameOutputForAllThreads() throws Exception
+    {
+        byte data[] = createData(3 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 1000);
+        byte expected[] = compress(data, 1);
+
+        for (int numThreads : new int[] {
+                2, 3, 8
+        })
+        {
+            Assert.assertArrayEquals("Output differs for numThreads=" + numThreads, expected, compress(data, numThreads));
+        }
+    }
+
+    /**
+     * Semi compressible data: random bytes with repeated runs.
+     */
+    protected byte[] createData(int size)
+    {
+        Random random = new Random(size);
+        byte data[] = new byte[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            data[i] = ((i / 64) % 2 == 0) ? (byte) random.nextInt(16) : data[i - 64];
+        }
+
+        return data;
+    }
+
+    protected byte[] compress(byte data[], int numThreads) throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzipStream = new ParallelGzipOutputStream(bos, Deflater.DEFAULT_COMPRESSION,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, numThreads);
+
+        // write in odd sized parts:
+        int offset = 0;
+        while (offset < data.length)
+        {
+            int len = Math.min(10007, data.length - offset);
+            gzipStream.write(data, offset, len);
+            offset += len;
+        }
+
+        gzipStream.close();
+        Assert.assertEquals("Number of compressed bytes", bos.size(), gzipStream.getNumBytesWritten());
+
+        return bos.toByteArray();
+    }
+
+    protected byte[] uncompress(byte gzipped[]) throws Exception
+    {
+        InputStream inps = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte buffer[] = new byte[8192];
+        int numRead;
+
+        while ((numRead = inps.read(buffer)) >= 0)
+        {
+            bos.write(buffer, 0, numRead);
+        }
+
+        inps.close();
+
+        return bos.toByteArray();
+    }
+
+}
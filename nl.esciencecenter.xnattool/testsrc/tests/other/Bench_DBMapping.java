@@ -0,0 +1,99 @@
+package tests.other;
+
+import java.util.List;
+
+import nl.esciencecenter.ptk.crypt.CryptScheme;
+import nl.esciencecenter.ptk.crypt.StringHasher;
+import nl.esciencecenter.xnattool.CryptHashSettings;
+import nl.esciencecenter.xnattool.DBMapping;
+
+/**
+ * Measures DBMapping reverse lookups as used by the MetaDataWriter: for each ScanSet the session and subject key are
+ * looked up.
+ * <p>
+ * Usage: Bench_DBMapping [numScanSets]
+ */
+public class Bench_DBMapping
+{
+    public static void main(String args[])
+    {
+        int numScanSets = 100000;
+
+        if (args.length > 0)
+        {
+            numScanSets = Integer.parseInt(args[0]);
+        }
+
+        try
+        {
+            new Bench_DBMapping().benchmark(numScanSets);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public void benchmark(int numScanSets) throws Exception
+    {
+        StringHasher hasher = new StringHasher(StringHasher.SHA_256);
+        CryptHashSettings settings = new CryptHashSettings(CryptScheme.DESEDE_ECB_PKCS5);
+        settings.setHashing(StringHasher.SHA_256, 8);
+        settings.setCredentials("bench", hasher.hash("12345", true, "", true));
+
+        DBMapping dbMapping = new DBMapping(settings);
+
+        // 10 scans per session, 2 sessions per subject:
+        int scansPerSession = 10;
+        int sessionsPerSubject = 2;
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < numScanSets; i++)
+        {
+            int sessionNr = i / scansPerSession;
+            int subjectNr = sessionNr / sessionsPerSubject;
+
+            String subjectKey = "subject" + subjectNr;
+            String sessionKey = "session" + sessionNr;
+
+            dbMapping.getCreateXnatSubjectLabel(subjectKey, true, true);
+            dbMapping.getCreateXnatSessionLabel(subjectKey, true, sessionKey, true, true);
+            dbMapping.getCreateXnatScanLabel(sessionKey, "scan" + i, true, "scn_", true);
+        }
+
+        outPrintf("Created %d ScanSets in %.1f ms\n", dbMapping.getNumScanSets(), millis(start));
+
+        for (int run = 0; run < 3; run++)
+        {
+            start = System.nanoTime();
+
+            List<String> scanSetKeys = dbMapping.getAllScanSetKeys();
+            int found = 0;
+
+            for (String scanSetKey : scanSetKeys)
+            {
+                String sessionKey = dbMapping.getSessionKeyOfScanSetKey(scanSetKey);
+                String subjectKey = dbMapping.getSubjectKeyOfSessionKey(sessionKey);
+
+                if ((subjectKey != null) && (dbMapping.getNumScanSets() > 0))
+                {
+                    found++;
+                }
+            }
+
+            outPrintf(" - run %d: %d reverse lookups in %.1f ms\n", run, found, millis(start));
+        }
+    }
+
+    protected double millis(long start)
+    {
+        return (System.nanoTime() - start) / 1000000.0;
+    }
+
+    private static void outPrintf(String format, Object... args)
+    {
+        System.out.printf(format, args);
+    }
+
+}
@@ -0,0 +1,132 @@
+package tests.other;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.esciencecenter.medim.dicom.DicomProcessor;
+import nl.esciencecenter.medim.dicom.DicomTestUtil;
+import nl.esciencecenter.medim.dicom.DicomWrapper;
+import nl.esciencecenter.medim.dicom.types.DicomTags;
+
+import org.dcm4che2.data.Tag;
+
+/**
+ * Measures DicomProcessor throughput when processing with 1 up to the number of available cores.
+ * <p>
+ * Usage: Bench_DicomProcessor [numFiles]
+ */
+public class Bench_DicomProcessor
+{
+    public static void main(String args[])
+    {
+        int numFiles = 20000;
+
+        if (args.length > 0)
+        {
+            numFiles = Integer.parseInt(args[0]);
+        }
+
+        try
+        {
+            new Bench_DicomProcessor().benchmark(numFiles);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public void benchmark(int numFiles) throws Exception
+    {
+        String dicomConfig = "Group,Element,VR,Name,Keep,Option\n"
+                + "0x0008,0x0020,DA,\"Study Date\",1,SET_DATE_TO_01JAN\n"
+                + "0x0010,0x0010,PN,\"Patient Name\",1,ENCRYPT_HASH\n"
+                + "0x0010,0x0020,LO,\"Patient ID\",1,ENCRYPT_HASH\n"
+                + "0x0020,0x000D,UI,\"Study Instance UID\",1,ENCRYPT_HASH_UID\n"
+                + "0x0020,0x000E,UI,\"Series Instance UID\",1,ENCRYPT_HASH_UID\n"
+                + "0x0008,0x0018,UI,\"SOP Instance UID\",1,HASH_UID\n";
+
+        DicomTags tags = DicomTags.createFromText(dicomConfig);
+        DicomProcessor proc = new DicomProcessor(tags, DicomTestUtil.createDefaultProcOpts("testid", "12345"));
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        // warm up
+        run(proc, 1, numFiles / 10);
+
+        double singleRate = 0;
+
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+        {
+            double rate = run(proc, numThreads, numFiles);
+
+            if (numThreads == 1)
+            {
+                singleRate = rate;
+            }
+
+            outPrintf(" - threads=%2d: %10.1f files/s (speedup=%.2f)\n", numThreads, rate, rate / singleRate);
+        }
+    }
+
+    protected double run(final DicomProcessor proc, int numThreads, int numFiles) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>(numFiles);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < numFiles; i++)
+        {
+            final int fileNr = i;
+
+            futures.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        proc.process(createDicom(fileNr));
+                    }
+                    catch (Exception e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+
+        long time = System.nanoTime() - start;
+        executor.shutdown();
+
+        return numFiles / (time / 1.0e9);
+    }
+
+    protected DicomWrapper createDicom(int fileNr) throws Exception
+    {
+        DicomWrapper dicom = DicomTestUtil.createDummyDicom();
+
+        dicom.setTag(Tag.StudyDate, "20130101");
+        dicom.setTag(Tag.PatientName, "Patient^Name");
+        dicom.setTag(Tag.PatientID, "patientId");
+        dicom.setTag(Tag.StudyInstanceUID, "1.2.3.4.5");
+        dicom.setTag(Tag.SeriesInstanceUID, "1.2.3.4.5.6");
+        dicom.setTag(Tag.SOPInstanceUID, "1.2.3.4.5.6." + fileNr);
+
+        return dicom;
+    }
+
+    static void outPrintf(String format, Object... args)
+    {
+        System.out.printf(format, args);
+    }
+
+}
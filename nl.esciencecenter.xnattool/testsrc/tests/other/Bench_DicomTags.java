@@ -0,0 +1,168 @@
+package tests.other;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+
+import nl.esciencecenter.medim.dicom.DicomUtil;
+import nl.esciencecenter.medim.dicom.types.DicomTags;
+import nl.esciencecenter.medim.dicom.types.DicomTags.TagProcessingOption;
+import nl.esciencecenter.medim.dicom.types.TagDirectiveTable;
+
+/**
+ * Measures the per element cost of looking up the processing option of a tag, as done by DicomProcessor.visit() for
+ * every element of every file:
+ * <ul>
+ * <li>hashtable: synchronized Hashtable with boxed tag numbers, the lookup before the TagDirectiveTable.
+ * <li>hashtable+debug: idem, including the debug arguments which were computed for every element.
+ * <li>table: compiled TagDirectiveTable.
+ * </ul>
+ * Usage: Bench_DicomTags [numElements]
+ */
+public class Bench_DicomTags
+{
+    public static void main(String args[])
+    {
+        int numElements = 10000000;
+
+        if (args.length > 0)
+        {
+            numElements = Integer.parseInt(args[0]);
+        }
+
+        try
+        {
+            new Bench_DicomTags().benchmark(numElements);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    protected int sink = 0;
+
+    public void benchmark(int numElements) throws Exception
+    {
+        // 300 configured tags in 3 groups:
+        int numTags = 300;
+        int configTags[] = new int[numTags];
+        StringBuilder config = new StringBuilder("Group,Element,VR,Name,Keep,Option\n");
+
+        for (int i = 0; i < numTags; i++)
+        {
+            int group = 0x0008 + 2 * (i % 3);
+            int element = 0x0010 + i;
+            configTags[i] = (group << 16) + element;
+            String option = (i % 2 == 0) ? "" : "HASH";
+            config.append(String.format("0x%04X,0x%04X,LO,\"Tag %d\",%d,%s\n", group, element, i, (i % 4 == 0) ? 0 : 1, option));
+        }
+
+        DicomTags tags = DicomTags.createFromText(config.toString());
+        TagDirectiveTable table = tags.getTagTable();
+
+        Map<Integer, TagProcessingOption> hashtable = new Hashtable<Integer, TagProcessingOption>();
+
+        for (int tagNr : configTags)
+        {
+            hashtable.put(tagNr, tags.getOption(tagNr));
+        }
+
+        // element stream: 80% configured tags, 20% unknown (private) tags.
+        Random random = new Random(13);
+        int elements[] = new int[4096];
+
+        for (int i = 0; i < elements.length; i++)
+        {
+            if (random.nextInt(5) > 0)
+            {
+                elements[i] = configTags[random.nextInt(numTags)];
+            }
+            else
+            {
+                elements[i] = (0x0029 << 16) + random.nextInt(0x1000);
+            }
+        }
+
+        // warm up
+        for (int i = 0; i < 3; i++)
+        {
+            runHashtable(hashtable, elements, numElements / 10);
+            runHashtableDebug(hashtable, tags, elements, numElements / 100);
+            runTable(table, elements, numElements / 10);
+        }
+
+        outPrintf(" - hashtable      : %6.2f ns/element\n", runHashtable(hashtable, elements, numElements));
+        outPrintf(" - hashtable+debug: %6.2f ns/element\n", runHashtableDebug(hashtable, tags, elements, numElements / 10));
+        outPrintf(" - table          : %6.2f ns/element\n", runTable(table, elements, numElements));
+        outPrintf("(%d)\n", sink);
+    }
+
+    protected double runHashtable(Map<Integer, TagProcessingOption> hashtable, int elements[], int numElements)
+    {
+        long start = System.nanoTime();
+        int sum = 0;
+
+        for (int i = 0; i < numElements; i++)
+        {
+            TagProcessingOption opt = hashtable.get(elements[i & (elements.length - 1)]);
+
+            if (opt == null)
+            {
+                opt = TagProcessingOption.DELETE;
+            }
+
+            sum += opt.ordinal();
+        }
+
+        sink += sum;
+        return (System.nanoTime() - start) / (double) numElements;
+    }
+
+    protected double runHashtableDebug(Map<Integer, TagProcessingOption> hashtable, DicomTags tags, int elements[],
+            int numElements)
+    {
+        long start = System.nanoTime();
+        int sum = 0;
+
+        for (int i = 0; i < numElements; i++)
+        {
+            int tagNr = elements[i & (elements.length - 1)];
+            TagProcessingOption opt = hashtable.get(tagNr);
+
+            if (opt == null)
+            {
+                opt = TagProcessingOption.DELETE;
+            }
+
+            // debug arguments, computed even when debug logging is off:
+            String name = DicomUtil.getTagName(tagNr);
+            String description = tags.getTagDescription(tagNr);
+
+            sum += opt.ordinal() + ((name != null) ? 1 : 0) + ((description != null) ? 1 : 0);
+        }
+
+        sink += sum;
+        return (System.nanoTime() - start) / (double) numElements;
+    }
+
+    protected double runTable(TagDirectiveTable table, int elements[], int numElements)
+    {
+        long start = System.nanoTime();
+        int sum = 0;
+
+        for (int i = 0; i < numElements; i++)
+        {
+            sum += table.getOption(elements[i & (elements.length - 1)], TagProcessingOption.DELETE).ordinal();
+        }
+
+        sink += sum;
+        return (System.nanoTime() - start) / (double) numElements;
+    }
+
+    static void outPrintf(String format, Object... args)
+    {
+        System.out.printf(format, args);
+    }
+
+}